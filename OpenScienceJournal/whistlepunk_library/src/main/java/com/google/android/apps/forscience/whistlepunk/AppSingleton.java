@@ -22,6 +22,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
+import android.view.Choreographer;
 
 import com.google.android.apps.forscience.ble.BleClient;
 import com.google.android.apps.forscience.ble.BleClientImpl;
@@ -29,9 +30,16 @@ import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableS
 import com.google.android.apps.forscience.whistlepunk.devicemanager.SensorDiscoverer;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.metadata.SimpleMetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ChunkedSensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensors.AudioCaptureHub;
+import com.google.android.apps.forscience.whistlepunk.sensors.HardwareSensorHub;
+import com.google.android.apps.forscience.whistlepunk.sensors.SystemScheduler;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -44,12 +52,25 @@ import io.reactivex.subjects.PublishSubject;
 
 public class AppSingleton {
     private static final String SENSOR_DATABASE_NAME = "sensors.db";
+    private static final String SENSOR_CHUNKS_DIRECTORY = "sensor_chunks";
+
+    // Sensor data reads share a small pool, so that a long background read such as recalculating
+    // crop stats does not hold up loading a chart.
+    private static final int SENSOR_READ_THREADS = 2;
+    private static final int INTERACTIVE_READ_PRIORITY = 1;
+    private static final int BACKGROUND_READ_PRIORITY = 0;
+
+    // Chart lines that take too long to build on the UI thread are built on a small pool, shared
+    // by every chart on screen.
+    private static final int CHART_PATH_THREADS = 2;
     private static final String TAG = "AppSingleton";
     private static AppSingleton sInstance;
     private final Context mApplicationContext;
     private DataControllerImpl mDataController;
 
     private static Executor sUiThreadExecutor = null;
+    private static Executor sUiFrameExecutor = null;
+    private static Executor sChartPathExecutor = null;
     private SensorAppearanceProviderImpl mSensorAppearanceProvider;
     private final Clock mCurrentTimeClock = new CurrentTimeClock();
     private BleClientImpl mBleClient;
@@ -58,6 +79,8 @@ public class AppSingleton {
     private PrefsSensorHistoryStorage mPrefsSensorHistoryStorage;
     private Map<String, SensorProvider> mExternalSensorProviders;
     private ConnectableSensor.Connector mSensorConnector;
+    private HardwareSensorHub mHardwareSensorHub;
+    private AudioCaptureHub mAudioCaptureHub;
     private PublishSubject<Label> mLabelsAdded = PublishSubject.create();
 
     private SensorEnvironment mSensorEnvironment = new SensorEnvironment() {
@@ -104,6 +127,32 @@ public class AppSingleton {
         return sUiThreadExecutor;
     }
 
+    /**
+     * @return an executor that runs each command on the UI thread just before the next frame is
+     * drawn.  Updates to the display can't be seen any sooner, and the UI thread is left free
+     * until then.
+     */
+    public static Executor getUiFrameExecutor() {
+        if (sUiFrameExecutor == null) {
+            final Executor uiThreadExecutor = getUiThreadExecutor();
+            sUiFrameExecutor = command -> uiThreadExecutor.execute(
+                    () -> Choreographer.getInstance().postFrameCallback(
+                            frameTimeNanos -> command.run()));
+        }
+        return sUiFrameExecutor;
+    }
+
+    /**
+     * @return an executor, shared by every chart, for building chart lines off the UI thread
+     */
+    public static Executor getChartPathExecutor() {
+        if (sChartPathExecutor == null) {
+            sChartPathExecutor =
+                    new PriorityThreadPool(CHART_PATH_THREADS, "chart-paths").getLane(0);
+        }
+        return sChartPathExecutor;
+    }
+
     public static AppSingleton getInstance(Context context) {
         if (sInstance == null) {
             sInstance = new AppSingleton(context);
@@ -122,16 +171,30 @@ public class AppSingleton {
     @NonNull
     private DataControllerImpl internalGetDataController() {
         if (mDataController == null) {
-            mDataController = new DataControllerImpl(
-                    new SensorDatabaseImpl(mApplicationContext, SENSOR_DATABASE_NAME),
+            PriorityThreadPool sensorReads = new PriorityThreadPool(SENSOR_READ_THREADS,
+                    "sensor-reads");
+            mDataController = new DataControllerImpl(createSensorDatabase(),
                     getUiThreadExecutor(), Executors.newSingleThreadExecutor(),
                     Executors.newSingleThreadExecutor(),
+                    sensorReads.getLane(INTERACTIVE_READ_PRIORITY),
+                    sensorReads.getLane(BACKGROUND_READ_PRIORITY),
                     new SimpleMetaDataManager(mApplicationContext), getDefaultClock(),
-                    getExternalSensorProviders(), getSensorConnector());
+                    getExternalSensorProviders(), getSensorConnector(), new SystemScheduler(),
+                    DataControllerImpl.DEFAULT_MAX_BATCHED_READINGS,
+                    DataControllerImpl.DEFAULT_MAX_BATCH_DELAY_MILLIS);
+            mDataController.migrateSensorDatabaseInBackground();
         }
         return mDataController;
     }
 
+    private SensorDatabase createSensorDatabase() {
+        if (DevOptionsFragment.isChunkedSensorStorageEnabled(mApplicationContext)) {
+            return new ChunkedSensorDatabase(
+                    new File(mApplicationContext.getFilesDir(), SENSOR_CHUNKS_DIRECTORY));
+        }
+        return new SensorDatabaseImpl(mApplicationContext, SENSOR_DATABASE_NAME);
+    }
+
     public SensorAppearanceProvider getSensorAppearanceProvider() {
         if (mSensorAppearanceProvider == null) {
             mSensorAppearanceProvider = new SensorAppearanceProviderImpl(getDataController());
@@ -210,6 +273,21 @@ public class AppSingleton {
         return mSensorConnector;
     }
 
+    public HardwareSensorHub getHardwareSensorHub() {
+        if (mHardwareSensorHub == null) {
+            mHardwareSensorHub =
+                    new HardwareSensorHub(ScalarSensor.getSensorManager(mApplicationContext));
+        }
+        return mHardwareSensorHub;
+    }
+
+    public AudioCaptureHub getAudioCaptureHub() {
+        if (mAudioCaptureHub == null) {
+            mAudioCaptureHub = new AudioCaptureHub();
+        }
+        return mAudioCaptureHub;
+    }
+
     public Observable<AddedLabelEvent> whenLabelsAdded() {
         return mLabelsAdded.withLatestFrom(getRecorderController().watchRecordingStatus(),
                 AddedLabelEvent::new);
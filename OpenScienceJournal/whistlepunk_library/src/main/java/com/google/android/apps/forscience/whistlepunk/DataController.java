@@ -26,13 +26,17 @@ import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregates;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import java.util.List;
 import java.util.Map;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 
 /**
@@ -41,12 +45,73 @@ import io.reactivex.Observable;
  * later on the UI thread.
  */
 public interface DataController {
+    /**
+     * How urgently a read from the sensor database is needed.  Waiting INTERACTIVE reads are run
+     * before waiting BACKGROUND reads.
+     */
+    enum ReadPriority {
+        /** Data that the user is waiting to see, such as a chart that is loading. */
+        INTERACTIVE,
+        /** Bulk processing, such as recalculating stats or exporting. */
+        BACKGROUND
+    }
+
+    /**
+     * Reads at {@link ReadPriority#INTERACTIVE}.
+     */
     void getScalarReadings(String databaseTag, final int resolutionTier, TimeRange timeRange,
             int maxRecords, MaybeConsumer<ScalarReadingList> onSuccess);
 
+    void getScalarReadings(String databaseTag, int resolutionTier, TimeRange timeRange,
+            int maxRecords, ReadPriority priority, MaybeConsumer<ScalarReadingList> onSuccess);
+
+    /**
+     * Min, max, mean and count of one sensor's tier-0 readings in {@code timeRange}, for
+     * recalculating stats.  See {@code SensorDatabase#getScalarSummary}.
+     */
+    void getScalarSummary(String databaseTag, TimeRange timeRange, ReadPriority priority,
+            MaybeConsumer<ScalarSummary> onSuccess);
+
+    /**
+     * Summarizes one sensor's readings into buckets.  See {@code SensorDatabase#getAggregates}
+     * for when the results come from a coarser resolution tier.  That is only done when
+     * {@code tierStrategy}, the strategy that the readings' tiers were recorded with (see
+     * {@link ZoomRecorder#getTierStrategy}), keeps the min and max of each run of readings.
+     */
+    void getAggregates(String databaseTag, TimeRange timeRange, long bucketMillis,
+            @ZoomRecorder.TierStrategy int tierStrategy, ReadPriority priority,
+            MaybeConsumer<ScalarAggregates> onSuccess);
+
     Observable<ScalarReading> createScalarObservable(String[] sensorIds,
             TimeRange timeRange, final int resolutionTier);
 
+    /**
+     * Like {@link #createScalarObservable}, but only reads from the database as fast as the
+     * subscriber requests readings.  Reads at {@link ReadPriority#BACKGROUND}.
+     */
+    Flowable<ScalarReading> createScalarFlowable(String[] sensorIds, TimeRange timeRange,
+            int resolutionTier);
+
+    /**
+     * Imports the rows of {@code reader}, which end at {@code lastRowTimestamp}, into the sensor
+     * database, at a time where they can't be confused with other readings of the same sensors
+     * (see {@link TrialImporter}).  Rows are imported on the sensor data thread a batch at a
+     * time, taking turns with other writes, and {@code progressListener} is called there after
+     * each batch.  {@code onSuccess} is given the finished importer, to make the trial from.  If
+     * the import fails, any readings already imported are removed.
+     */
+    void importTrialData(TrialDataReader reader, long lastRowTimestamp,
+            TrialImporter.ProgressListener progressListener,
+            MaybeConsumer<TrialImporter> onSuccess);
+
+    /**
+     * Runs one turn of {@code backfiller}, reading up to {@code maxRows} tier-0 readings, on the
+     * sensor data thread.  {@code onSuccess} is given true if there is more to backfill, in which
+     * case the caller may call this again when it is ready for another turn.
+     */
+    void backfillZoomTiers(TierBackfiller backfiller, int maxRows,
+            MaybeConsumer<Boolean> onSuccess);
+
     void deleteTrialData(Trial trial, MaybeConsumer<Success> onSuccess);
 
     void createExperiment(MaybeConsumer<Experiment> onSuccess);
@@ -16,10 +16,14 @@
 
 package com.google.android.apps.forscience.whistlepunk;
 
+import android.util.Log;
+
 import com.google.android.apps.forscience.javalib.Consumer;
+import com.google.android.apps.forscience.javalib.Delay;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.MaybeConsumers;
+import com.google.android.apps.forscience.javalib.Scheduler;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.api.scalarinput.InputDeviceSpec;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
@@ -30,29 +34,67 @@ import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregates;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Range;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.schedulers.Schedulers;
 
 public class DataControllerImpl implements DataController, RecordingDataController {
     private static final String TAG = "DataControllerImpl";
+
+    /**
+     * Default number of scalar readings to buffer before writing them to the database in a
+     * single transaction.
+     */
+    public static final int DEFAULT_MAX_BATCHED_READINGS = 500;
+
+    /**
+     * Default maximum age of the oldest buffered scalar reading before the buffer is written,
+     * even if it is not full.
+     */
+    public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1000;
+
+    // Number of rows to migrate per turn on the sensor data thread, small enough that reads and
+    // writes queued behind a turn are not noticeably delayed.
+    private static final int MIGRATION_CHUNK_ROWS = 2000;
+
+    // Imported readings are written in much larger transactions than recorded ones, since there
+    // is no one watching them arrive.  Rows are imported in turns on the sensor data thread, like
+    // migration chunks.
+    private static final int IMPORT_BATCHED_READINGS = 10000;
+    private static final int IMPORT_TURN_ROWS = 20000;
+
     private final SensorDatabase mSensorDatabase;
     private final Executor mUiThread;
     private final Executor mMetaDataThread;
+    // All writes to the sensor database happen on mSensorDataThread.  Reads may run on other
+    // threads, and so in parallel with writes and with each other.
     private final Executor mSensorDataThread;
+    private final Executor mInteractiveReadThread;
+    private final Executor mBackgroundReadThread;
     private MetaDataManager mMetaDataManager;
     private Clock mClock;
     private Map<String, FailureListener> mSensorFailureListeners = new HashMap<>();
@@ -61,16 +103,84 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     private Map<String, WeakReference<Experiment>> mCachedExperiments = new HashMap<>();
     private ConnectableSensor.Connector mConnector;
 
+    // Scalar readings waiting to be written to the database.  Sensors add readings from their own
+    // threads, so access to the pending batch is guarded by mBatchLock.
+    private final Object mBatchLock = new Object();
+    private final int mMaxBatchedReadings;
+    private final long mMaxBatchDelayMillis;
+    private ScalarReadingBatch mPendingReadings;
+    private long mFirstPendingReadingMillis;
+    // Readings that stop arriving would otherwise wait in the batch, so the batch is also
+    // written once mMaxBatchDelayMillis have passed without another reading to check the time.
+    private final Scheduler mScheduler;
+    private final Runnable mWriteDelayedReadings = this::writeDelayedReadings;
+    private boolean mDelayedWriteScheduled = false;
+    // Batches taken from mPendingReadings that have not yet been written.
+    private final List<ScalarReadingBatch> mUnwrittenBatches = new ArrayList<>();
+    private final Queue<ScalarReadingBatch> mSpareBatches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a controller that writes each scalar reading to the database as soon as it is
+     * added.
+     */
     public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
             Executor metaDataThread, Executor sensorDataThread, MetaDataManager metaDataManager,
             Clock clock, Map<String, SensorProvider> providerMap,
             ConnectableSensor.Connector connector) {
+        this(sensorDatabase, uiThread, metaDataThread, sensorDataThread, metaDataManager, clock,
+                providerMap, connector, null, 1, 0);
+    }
+
+    /**
+     * Creates a controller that reads and writes sensor data on the same thread.
+     *
+     * @param maxBatchedReadings scalar readings are buffered and written in one transaction once
+     *                           this many are waiting
+     * @param maxBatchDelayMillis buffered readings are also written once the oldest has been
+     *                            waiting this long
+     */
+    public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread, MetaDataManager metaDataManager,
+            Clock clock, Map<String, SensorProvider> providerMap,
+            ConnectableSensor.Connector connector, Scheduler scheduler, int maxBatchedReadings,
+            long maxBatchDelayMillis) {
+        this(sensorDatabase, uiThread, metaDataThread, sensorDataThread, sensorDataThread,
+                sensorDataThread, metaDataManager, clock, providerMap, connector, scheduler,
+                maxBatchedReadings, maxBatchDelayMillis);
+    }
+
+    /**
+     * @param sensorDataThread all writes to the sensor database are made here, in order
+     * @param interactiveReadThread reads at {@link ReadPriority#INTERACTIVE} are made here
+     * @param backgroundReadThread reads at {@link ReadPriority#BACKGROUND} are made here.  The
+     *                             sensor database must allow reads on these threads concurrently
+     *                             with writes on sensorDataThread, unless they are the same thread.
+     * @param scheduler times the write of buffered readings that have waited maxBatchDelayMillis,
+     *                  measured by clock.  Unused if maxBatchedReadings is 1.
+     * @param maxBatchedReadings scalar readings are buffered and written in one transaction once
+     *                           this many are waiting
+     * @param maxBatchDelayMillis buffered readings are also written once the oldest has been
+     *                            waiting this long
+     */
+    public DataControllerImpl(SensorDatabase sensorDatabase, Executor uiThread,
+            Executor metaDataThread, Executor sensorDataThread, Executor interactiveReadThread,
+            Executor backgroundReadThread, MetaDataManager metaDataManager, Clock clock,
+            Map<String, SensorProvider> providerMap, ConnectableSensor.Connector connector,
+            Scheduler scheduler, int maxBatchedReadings, long maxBatchDelayMillis) {
+        Preconditions.checkArgument(maxBatchedReadings > 0);
+        Preconditions.checkArgument(maxBatchedReadings == 1 || scheduler != null);
+        mMaxBatchedReadings = maxBatchedReadings;
+        mMaxBatchDelayMillis = maxBatchDelayMillis;
+        mPendingReadings = new ScalarReadingBatch(maxBatchedReadings);
         mSensorDatabase = sensorDatabase;
         mUiThread = uiThread;
         mMetaDataThread = metaDataThread;
         mSensorDataThread = sensorDataThread;
+        mInteractiveReadThread = interactiveReadThread;
+        mBackgroundReadThread = backgroundReadThread;
         mMetaDataManager = metaDataManager;
         mClock = clock;
+        mScheduler = scheduler;
         mProviderMap = providerMap;
         mConnector = connector;
     }
@@ -109,6 +219,7 @@ public class DataControllerImpl implements DataController, RecordingDataControll
 
     private void removeTrialSensorData(final Trial trial) {
         mSensorDataThread.execute(() -> {
+            writePendingReadingsNow();
             long firstTimestamp = trial.getOriginalFirstTimestamp();
             long lastTimestamp = trial.getOriginalLastTimestamp();
             if (firstTimestamp > lastTimestamp) {
@@ -127,19 +238,213 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     @Override
     public void addScalarReading(final String sensorId, final int resolutionTier,
             final long timestampMillis, final double value) {
+        ScalarReadingBatch toWrite = null;
+        synchronized (mBatchLock) {
+            mPendingReadings.add(sensorId, resolutionTier, timestampMillis, value);
+            if (shouldWritePendingReadings()) {
+                toWrite = takePendingReadings();
+            }
+        }
+        if (toWrite != null) {
+            writeBatchInBackground(toWrite);
+        }
+    }
+
+    @Override
+    public void flushScalarReadings() {
+        ScalarReadingBatch toWrite;
+        synchronized (mBatchLock) {
+            toWrite = takePendingReadings();
+        }
+        if (toWrite != null) {
+            writeBatchInBackground(toWrite);
+        }
+    }
+
+    // Must be called while holding mBatchLock
+    private boolean shouldWritePendingReadings() {
+        int size = mPendingReadings.size();
+        if (size >= mMaxBatchedReadings) {
+            return true;
+        }
+        long now = mClock.getNow();
+        if (size == 1) {
+            mFirstPendingReadingMillis = now;
+            if (!mDelayedWriteScheduled) {
+                mDelayedWriteScheduled = true;
+                mScheduler.schedule(Delay.millis(mMaxBatchDelayMillis), mWriteDelayedReadings);
+            }
+            return false;
+        }
+        return now - mFirstPendingReadingMillis >= mMaxBatchDelayMillis;
+    }
+
+    /**
+     * Writes the pending batch if its oldest reading has waited long enough, and otherwise waits
+     * until it has.  Runs on the scheduler.
+     */
+    private void writeDelayedReadings() {
+        ScalarReadingBatch toWrite = null;
+        synchronized (mBatchLock) {
+            if (mPendingReadings.isEmpty()) {
+                mDelayedWriteScheduled = false;
+                return;
+            }
+            // The batch may have been written and a new one started since this was scheduled.
+            long waited = mClock.getNow() - mFirstPendingReadingMillis;
+            if (waited >= mMaxBatchDelayMillis) {
+                mDelayedWriteScheduled = false;
+                toWrite = takePendingReadings();
+            } else {
+                mScheduler.schedule(Delay.millis(mMaxBatchDelayMillis - waited),
+                        mWriteDelayedReadings);
+            }
+        }
+        if (toWrite != null) {
+            writeBatchInBackground(toWrite);
+        }
+    }
+
+    /**
+     * Swaps out the pending batch for an empty one.  Must be called while holding mBatchLock.
+     *
+     * @return the batch of readings to write, or null if there are none.
+     */
+    private ScalarReadingBatch takePendingReadings() {
+        if (mPendingReadings.isEmpty()) {
+            return null;
+        }
+        ScalarReadingBatch pending = mPendingReadings;
+        ScalarReadingBatch spare = mSpareBatches.poll();
+        mPendingReadings = spare != null ? spare : new ScalarReadingBatch(mMaxBatchedReadings);
+        mUnwrittenBatches.add(pending);
+        return pending;
+    }
+
+    private void writeBatchInBackground(final ScalarReadingBatch batch) {
+        mSensorDataThread.execute(() -> writeBatch(batch));
+    }
+
+    /**
+     * @return an executor that runs each command on {@code readThread}, but only once every
+     * reading of {@code sensorTags} in {@code range} that was added before the command was
+     * submitted has been written.  Reads run on their own database connections, so a read that
+     * needs none of the unwritten readings, which includes reads of other sensors or of earlier
+     * times while recording, goes straight to {@code readThread}; only one that needs them first
+     * takes a turn on mSensorDataThread.
+     */
+    private Executor afterPendingWrites(final Executor readThread, final String[] sensorTags,
+            final TimeRange range) {
+        return command -> {
+            if (readThread == mSensorDataThread) {
+                readThread.execute(() -> {
+                    writePendingReadingsNow();
+                    command.run();
+                });
+            } else if (!hasUnwrittenData(sensorTags, range)) {
+                readThread.execute(command);
+            } else {
+                mSensorDataThread.execute(() -> {
+                    writePendingReadingsNow();
+                    readThread.execute(command);
+                });
+            }
+        };
+    }
+
+    private Executor afterPendingWrites(Executor readThread, String sensorTag, TimeRange range) {
+        return afterPendingWrites(readThread, new String[] {sensorTag}, range);
+    }
+
+    private boolean hasUnwrittenData(String[] sensorTags, TimeRange range) {
+        synchronized (mBatchLock) {
+            if (mPendingReadings.hasDataFor(sensorTags, range)) {
+                return true;
+            }
+            for (ScalarReadingBatch batch : mUnwrittenBatches) {
+                if (batch.hasDataFor(sensorTags, range)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes any readings that have not yet been handed to the database.  Must be called on
+     * mSensorDataThread, before any query that should see those readings.
+     */
+    private void writePendingReadingsNow() {
+        ScalarReadingBatch toWrite;
+        synchronized (mBatchLock) {
+            toWrite = takePendingReadings();
+        }
+        if (toWrite != null) {
+            writeBatch(toWrite);
+        }
+    }
+
+    private void writeBatch(ScalarReadingBatch batch) {
+        try {
+            mSensorDatabase.addScalarReadings(batch);
+        } catch (final Exception e) {
+            final Set<String> sensorIds = new HashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                sensorIds.add(batch.getSensorTag(i));
+            }
+            for (int i = 0; i < batch.getSummaryCount(); i++) {
+                sensorIds.add(batch.getSummarySensorTag(i));
+            }
+            mUiThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (String sensorId : sensorIds) {
+                        notifyFailureListener(sensorId, e);
+                    }
+                }
+            });
+        } finally {
+            synchronized (mBatchLock) {
+                mUnwrittenBatches.remove(batch);
+            }
+            batch.clear();
+            mSpareBatches.offer(batch);
+        }
+    }
+
+    @Override
+    public void addScalarSummary(final String sensorId, final ScalarSummary summary) {
+        // Summaries wait with the readings, so that they are written in the same transaction.
+        // A controller that doesn't batch readings doesn't hold summaries either.
+        ScalarReadingBatch toWrite = null;
+        synchronized (mBatchLock) {
+            mPendingReadings.addSummary(sensorId, summary);
+            if (mMaxBatchedReadings <= 1) {
+                toWrite = takePendingReadings();
+            }
+        }
+        if (toWrite != null) {
+            writeBatchInBackground(toWrite);
+        }
+    }
+
+    /**
+     * Runs any deferred sensor database migration on the sensor data thread, a chunk at a time.
+     * Each chunk is queued behind whatever work is already waiting, so that recording and
+     * queries stay responsive while a large database is migrated.
+     */
+    public void migrateSensorDatabaseInBackground() {
         mSensorDataThread.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    mSensorDatabase.addScalarReading(sensorId, resolutionTier, timestampMillis,
-                            value);
-                } catch (final Exception e) {
-                    mUiThread.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyFailureListener(sensorId, e);
-                        }
-                    });
+                    if (mSensorDatabase.migrateIncrementally(MIGRATION_CHUNK_ROWS)) {
+                        mSensorDataThread.execute(this);
+                    }
+                } catch (Exception e) {
+                    if (Log.isLoggable(TAG, Log.ERROR)) {
+                        Log.e(TAG, "Could not migrate sensor database", e);
+                    }
                 }
             }
         });
@@ -156,8 +461,17 @@ public class DataControllerImpl implements DataController, RecordingDataControll
     public void getScalarReadings(final String databaseTag, final int resolutionTier,
             final TimeRange timeRange, final int maxRecords,
             final MaybeConsumer<ScalarReadingList> onSuccess) {
+        getScalarReadings(databaseTag, resolutionTier, timeRange, maxRecords,
+                ReadPriority.INTERACTIVE, onSuccess);
+    }
+
+    @Override
+    public void getScalarReadings(final String databaseTag, final int resolutionTier,
+            final TimeRange timeRange, final int maxRecords, ReadPriority priority,
+            final MaybeConsumer<ScalarReadingList> onSuccess) {
         Preconditions.checkNotNull(databaseTag);
-        background(mSensorDataThread, onSuccess, new Callable<ScalarReadingList>() {
+        background(afterPendingWrites(getReadThread(priority), databaseTag, timeRange),
+                onSuccess, new Callable<ScalarReadingList>() {
             @Override
             public ScalarReadingList call() throws Exception {
                 return mSensorDatabase.getScalarReadings(databaseTag, timeRange, resolutionTier,
@@ -166,6 +480,37 @@ public class DataControllerImpl implements DataController, RecordingDataControll
         });
     }
 
+    @Override
+    public void getScalarSummary(final String databaseTag, final TimeRange timeRange,
+            ReadPriority priority, MaybeConsumer<ScalarSummary> onSuccess) {
+        Preconditions.checkNotNull(databaseTag);
+        background(afterPendingWrites(getReadThread(priority), databaseTag, timeRange),
+                onSuccess, () -> mSensorDatabase.getScalarSummary(databaseTag, timeRange));
+    }
+
+    @Override
+    public void getAggregates(final String databaseTag, final TimeRange timeRange,
+            final long bucketMillis, @ZoomRecorder.TierStrategy int tierStrategy,
+            ReadPriority priority, MaybeConsumer<ScalarAggregates> onSuccess) {
+        Preconditions.checkNotNull(databaseTag);
+        Executor readThread = afterPendingWrites(getReadThread(priority), databaseTag,
+                timeRange);
+        if (tierStrategy == ZoomRecorder.TIER_STRATEGY_MIN_MAX) {
+            background(readThread, onSuccess,
+                    () -> mSensorDatabase.getAggregates(databaseTag, timeRange, bucketMillis));
+        } else {
+            // Other tiers miss the extremes of the readings they stand for.
+            background(readThread, onSuccess,
+                    () -> mSensorDatabase.getAggregates(databaseTag, timeRange, bucketMillis,
+                            0));
+        }
+    }
+
+    private Executor getReadThread(ReadPriority priority) {
+        return priority == ReadPriority.INTERACTIVE ? mInteractiveReadThread
+                : mBackgroundReadThread;
+    }
+
     @Override
     public Observable<ScalarReading> createScalarObservable(final String[] sensorIds,
             final TimeRange timeRange, final int resolutionTier) {
@@ -173,6 +518,50 @@ public class DataControllerImpl implements DataController, RecordingDataControll
                 .observeOn(Schedulers.from(mSensorDataThread));
     }
 
+    @Override
+    public Flowable<ScalarReading> createScalarFlowable(final String[] sensorIds,
+            final TimeRange timeRange, final int resolutionTier) {
+        return Flowable.defer(() -> mSensorDatabase.createScalarFlowable(sensorIds, timeRange,
+                resolutionTier)).subscribeOn(Schedulers.from(
+                afterPendingWrites(mBackgroundReadThread, sensorIds, timeRange)));
+    }
+
+    @Override
+    public void importTrialData(final TrialDataReader reader, final long lastRowTimestamp,
+            final TrialImporter.ProgressListener progressListener,
+            final MaybeConsumer<TrialImporter> onSuccess) {
+        final TrialImporter importer = new TrialImporter(mSensorDatabase, reader,
+                lastRowTimestamp, mClock.getNow(), IMPORT_BATCHED_READINGS,
+                ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS, ScalarSensor.DEFAULT_TIER_STRATEGY);
+        mSensorDataThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean moreRows = importer.importIncrementally(IMPORT_TURN_ROWS);
+                    progressListener.onProgress(reader.getBytesRead());
+                    if (moreRows) {
+                        mSensorDataThread.execute(this);
+                    } else {
+                        mUiThread.execute(() -> onSuccess.success(importer));
+                    }
+                } catch (final Exception e) {
+                    importer.abort();
+                    mUiThread.execute(() -> onSuccess.fail(e));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void backfillZoomTiers(final TierBackfiller backfiller, final int maxRows,
+            MaybeConsumer<Boolean> onSuccess) {
+        background(mSensorDataThread, onSuccess, () -> {
+            // Tier-0 readings of the trial may still be waiting to be written.
+            writePendingReadingsNow();
+            return backfiller.backfillIncrementally(mSensorDatabase, maxRows);
+        });
+    }
+
     @Override
     public void deleteTrialData(final Trial trial, MaybeConsumer<Success> onSuccess) {
         background(mMetaDataThread, onSuccess, new Callable<Success>() {
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingBatch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+
+/**
+ * Collects the readings and summaries that recorders produce into large batches, and writes
+ * them straight to the database.  Errors are thrown to the caller rather than reported to
+ * listeners, so this must only be used on the thread that writes sensor data.
+ */
+class DatabaseBatchWriter implements RecordingDataController {
+    private final SensorDatabase mSensorDatabase;
+    private final int mMaxBatchedReadings;
+    private final ScalarReadingBatch mBatch;
+
+    DatabaseBatchWriter(SensorDatabase sensorDatabase, int maxBatchedReadings) {
+        mSensorDatabase = sensorDatabase;
+        mMaxBatchedReadings = maxBatchedReadings;
+        mBatch = new ScalarReadingBatch(maxBatchedReadings);
+    }
+
+    @Override
+    public void addScalarReading(String sensorId, int resolutionTier, long timestampMillis,
+            double value) {
+        mBatch.add(sensorId, resolutionTier, timestampMillis, value);
+        if (mBatch.size() >= mMaxBatchedReadings) {
+            flushScalarReadings();
+        }
+    }
+
+    @Override
+    public void flushScalarReadings() {
+        if (!mBatch.isEmpty()) {
+            mSensorDatabase.addScalarReadings(mBatch);
+            mBatch.clear();
+        }
+    }
+
+    /**
+     * Forgets any readings and summaries not yet written.
+     */
+    void clear() {
+        mBatch.clear();
+    }
+
+    @Override
+    public void addScalarSummary(String sensorId, ScalarSummary summary) {
+        mBatch.addSummary(sensorId, summary);
+    }
+
+    @Override
+    public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+        // Errors are thrown to the caller.
+    }
+
+    @Override
+    public void clearDataErrorListenerForSensor(String sensorId) {
+    }
+}
@@ -41,6 +41,7 @@ public class DevOptionsFragment extends PreferenceFragment {
     public static final String KEY_DEV_SONIFICATION_TYPES = "enable_dev_sonification_types";
     public static final String KEY_AMBIENT_TEMPERATURE_SENSOR = "enable_ambient_temp_sensor";
     private static final String KEY_PERF_DEBUG_SCREEN = "show_perf_tracker_debug";
+    private static final String KEY_CHUNKED_SENSOR_STORAGE = "use_chunked_sensor_storage";
 
     public static DevOptionsFragment newInstance() {
         return new DevOptionsFragment();
@@ -112,6 +113,10 @@ public class DevOptionsFragment extends PreferenceFragment {
         return getBoolean(KEY_STRICT_MODE, false, context);
     }
 
+    public static boolean isChunkedSensorStorageEnabled(Context context) {
+        return getBoolean(KEY_CHUNKED_SENSOR_STORAGE, false, context);
+    }
+
     public static boolean isDebugVersion() {
         return BuildConfig.DEBUG;
     }
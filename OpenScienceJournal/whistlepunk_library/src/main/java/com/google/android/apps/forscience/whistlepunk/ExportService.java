@@ -39,6 +39,9 @@ import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
 
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -46,9 +49,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 
 import io.reactivex.Observable;
-import io.reactivex.Observer;
 import io.reactivex.Single;
-import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.BehaviorSubject;
 import io.reactivex.subjects.PublishSubject;
@@ -292,7 +293,7 @@ public class ExportService extends Service {
         // Start observing sensor data from here, while grouping them into timestamp equal rows.
         // Then write the rows out.
         Range<Long> range = Range.closed(trial.getFirstTimestamp(), trial.getLastTimestamp());
-        dc.createScalarObservable(sensorIds, TimeRange.oldest(range), 0 /* resolution tier */)
+        dc.createScalarFlowable(sensorIds, TimeRange.oldest(range), 0 /* resolution tier */)
                 .doOnComplete(() -> stopSelf(startId))
                 .observeOn(Schedulers.io())
                 .subscribe(new TrialDataWriter(trialId, fileName, relativeTime, sensorIds,
@@ -365,7 +366,7 @@ public class ExportService extends Service {
                 });
     }
 
-    private class TrialDataWriter implements Observer<ScalarReading> {
+    private class TrialDataWriter implements Subscriber<ScalarReading> {
 
         private final long mFirstTimeStamp;
         private final long mLastTimeStamp;
@@ -390,7 +391,7 @@ public class ExportService extends Service {
         }
 
         @Override
-        public void onSubscribe(Disposable disposable) {
+        public void onSubscribe(Subscription subscription) {
             // Start writing stream.
             File storageDir = getStorageDir();
 
@@ -398,6 +399,7 @@ public class ExportService extends Service {
             if (!storageDir.exists()) {
                 if (!storageDir.mkdirs()) {
                     Log.e(TAG, "failed to create directory");
+                    subscription.cancel();
                     onError(new IOException("Could not create dir " +
                             storageDir.getAbsolutePath()));
                     return;
@@ -409,6 +411,7 @@ public class ExportService extends Service {
             try {
                 fs = new FileOutputStream(file);
             } catch (FileNotFoundException e) {
+                subscription.cancel();
                 onError(e);
                 return;
             }
@@ -423,10 +426,15 @@ public class ExportService extends Service {
                 }
                 mOutputStreamWriter.write("\n");
             } catch (IOException e) {
+                subscription.cancel();
                 onError(e);
                 return;
             }
             updateProgress(new ExportProgress(mTrialId, ExportProgress.EXPORTING, 0));
+
+            // observeOn only requests a bounded buffer's worth of readings from the database at a
+            // time, so this does not read ahead of the writer.
+            subscription.request(Long.MAX_VALUE);
         }
 
         @Override
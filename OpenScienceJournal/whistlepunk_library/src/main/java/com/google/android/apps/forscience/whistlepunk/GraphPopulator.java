@@ -22,14 +22,11 @@ import android.support.v4.util.Pair;
 import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.FallibleConsumer;
 import com.google.android.apps.forscience.javalib.MaybeConsumers;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Range;
 
-import java.util.List;
-
 // TODO(saff): port tests from Weather
 public class GraphPopulator {
     // How many datapoints do we grab from the database at one time?
@@ -103,8 +100,11 @@ public class GraphPopulator {
                                         }
                                         addToRequestedTimes(getEffectiveAddedRange(r,
                                                 received.first));
+                                        observations.release();
                                         requestObservations(graphStatus, dataController,
                                                 failureListener, resolutionTier, sensorId);
+                                    } else {
+                                        observations.release();
                                     }
                                 }
 
@@ -114,32 +114,19 @@ public class GraphPopulator {
 
                                 public Pair<Range<Long>, Range<Double>> addObservationsToDisplay(
                                         ScalarReadingList observations) {
-                                    List<ScalarReading> points = ScalarReading.slurp(observations);
-                                    long xMin = Long.MAX_VALUE;
-                                    long xMax = Long.MIN_VALUE;
-                                    double yMin = Double.MAX_VALUE;
-                                    double yMax = Double.MIN_VALUE;
                                     Range<Long> timeRange = null;
                                     Range<Double> valueRange = null;
-                                    for (ScalarReading point : points) {
-                                        if (point.getCollectedTimeMillis() < xMin) {
-                                            xMin = point.getCollectedTimeMillis();
-                                        }
-                                        if (point.getCollectedTimeMillis() > xMax) {
-                                            xMax = point.getCollectedTimeMillis();
-                                        }
-                                        if (point.getValue() < yMin) {
-                                            yMin = point.getValue();
-                                        }
-                                        if (point.getValue() > yMax) {
-                                            yMax = point.getValue();
-                                        }
-                                    }
-                                    if (xMin <= xMax) {
-                                        timeRange = Range.closed(xMin, xMax);
+                                    int size = observations.size();
+                                    if (size > 0) {
+                                        // Readings arrive in timestamp order, one way or the other.
+                                        long first = observations.getTimestamp(0);
+                                        long last = observations.getTimestamp(size - 1);
+                                        timeRange = Range.closed(Math.min(first, last),
+                                                Math.max(first, last));
                                     }
-                                    if (yMin <= yMax) {
-                                        valueRange = Range.closed(yMin, yMax);
+                                    if (!Double.isNaN(observations.getMinValue())) {
+                                        valueRange = Range.closed(observations.getMinValue(),
+                                                observations.getMaxValue());
                                     }
                                     return new Pair<>(timeRange, valueRange);
                                 }
@@ -201,6 +188,10 @@ public class GraphPopulator {
     }
 
     public interface ObservationDisplay {
+        /**
+         * @param observations only valid until this returns; copy out anything that is needed
+         *                     afterwards.
+         */
         void addRange(ScalarReadingList observations, Range<Double> valueRange, long requestId);
 
         void onFinish(long requestId);
@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+
+import java.io.IOException;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * Service for importing trial data, in the CSV layout written by {@link ExportService}, as a new
+ * trial in an experiment.
+ * Can be bound for status updates using {@link #bind(Context)}.
+ * Import trial data using {@link #importTrial(Context, String, Uri)}
+ */
+public class ImportService extends Service {
+    private static final String TAG = "ImportService";
+
+    private static final String ACTION_IMPORT_TRIAL =
+            "com.google.android.apps.forscience.whistlepunk.action.IMPORT_TRIAL";
+
+    private static final String EXTRA_EXPERIMENT_ID =
+            "com.google.android.apps.forscience.whistlepunk.extra.EXPERIMENT_ID";
+    private static final String EXTRA_FILE_URI =
+            "com.google.android.apps.forscience.whistlepunk.extra.FILE_URI";
+
+    private final IBinder mBinder = new ImportServiceBinder();
+
+    // Make static so that all instances of this service can reach it.
+    private final static BehaviorSubject<ImportProgress> sProgressSubject =
+            BehaviorSubject.createDefault(new ImportProgress("", ImportProgress.NOT_IMPORTING, 0));
+
+    // As in ExportService, we handle intents one at a time like an IntentService, but wait to
+    // call stopSelf until the import finishes.
+    private volatile Looper mServiceLooper;
+    private volatile ServiceHandler mServiceHandler;
+
+    private final class ServiceHandler extends Handler {
+        public ServiceHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            onHandleIntent((Intent) msg.obj, msg.arg1);
+        }
+    }
+
+    public class ImportServiceBinder extends Binder {
+        ImportService getService() {
+            return ImportService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        HandlerThread thread = new HandlerThread("ImportService");
+        thread.start();
+        mServiceLooper = thread.getLooper();
+        mServiceHandler = new ServiceHandler(mServiceLooper);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Message msg = mServiceHandler.obtainMessage();
+        msg.arg1 = startId;
+        msg.obj = intent;
+        mServiceHandler.sendMessage(msg);
+
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Starts this service to import the trial data in {@code fileUri} into the experiment. If
+     * the service is already performing a task this action will be queued.
+     */
+    public static void importTrial(Context context, String experimentId, Uri fileUri) {
+        Intent intent = new Intent(context, ImportService.class);
+        intent.setAction(ACTION_IMPORT_TRIAL);
+        intent.putExtra(EXTRA_EXPERIMENT_ID, experimentId);
+        intent.putExtra(EXTRA_FILE_URI, fileUri);
+        context.startService(intent);
+    }
+
+    private void onHandleIntent(Intent intent, int startId) {
+        if (intent != null && ACTION_IMPORT_TRIAL.equals(intent.getAction())) {
+            final String experimentId = intent.getStringExtra(EXTRA_EXPERIMENT_ID);
+            final Uri fileUri = intent.getParcelableExtra(EXTRA_FILE_URI);
+            handleActionImportTrial(experimentId, fileUri, startId);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, "Destroying service");
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    public BehaviorSubject<ImportProgress> getProgressSubject() {
+        return sProgressSubject;
+    }
+
+    public static class ImportProgress {
+        public static final int NOT_IMPORTING = 0;
+        public static final int ERROR = 1;
+        public static final int IMPORTING = 2;
+        public static final int IMPORT_COMPLETE = 3;
+
+        private final String mExperimentId;
+        private final int mState;
+        private final int mProgress;
+
+        private Throwable mError;
+        private String mTrialId;
+
+        public ImportProgress(String experimentId, int state, int progress) {
+            mExperimentId = experimentId;
+            mState = state;
+            mProgress = progress;
+        }
+
+        public String getExperimentId() {
+            return mExperimentId;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        public int getProgress() {
+            return mProgress;
+        }
+
+        public Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * @return the id of the imported trial, once the import is complete
+         */
+        public String getTrialId() {
+            return mTrialId;
+        }
+
+        @Override
+        public String toString() {
+            return "State: " + mState + " progress " + mProgress;
+        }
+
+        public static ImportProgress getComplete(String experimentId, String trialId) {
+            ImportProgress progress = new ImportProgress(experimentId, IMPORT_COMPLETE, 0);
+            progress.mTrialId = trialId;
+            return progress;
+        }
+
+        public static ImportProgress fromThrowable(String experimentId, Throwable throwable) {
+            ImportProgress progress = new ImportProgress(experimentId, ERROR, 0);
+            progress.mError = throwable;
+            return progress;
+        }
+    }
+
+    public static void resetProgress(String experimentId) {
+        sProgressSubject.onNext(new ImportProgress(experimentId, ImportProgress.NOT_IMPORTING, 0));
+    }
+
+    public static Observable<ImportProgress> bind(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final PublishSubject<ImportProgress> progressPublishSubject = PublishSubject.create();
+
+        final ServiceConnection conn = new ServiceConnection() {
+
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                ImportServiceBinder importer = (ImportServiceBinder) service;
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "binding service " + importer);
+                }
+                importer.getService().getProgressSubject()
+                        .subscribe(progressPublishSubject);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {}
+        };
+        Intent intent = new Intent(appContext, ImportService.class);
+        if (appContext.bindService(intent, conn, BIND_AUTO_CREATE)) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "trying to bind service.");
+            }
+        }
+
+        return progressPublishSubject
+                .doOnDispose(() -> {
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "unbinding service ");
+                    }
+                    appContext.unbindService(conn);
+                });
+    }
+
+    /**
+     * Handle action import trial in the provided background thread with the provided
+     * parameters.
+     */
+    private void handleActionImportTrial(String experimentId, Uri fileUri, int startId) {
+        // Blocking gets OK: this is already background threaded.
+        DataController dc = getDataController().blockingGet();
+        Experiment experiment = RxDataController.getExperimentById(dc, experimentId).blockingGet();
+
+        long fileLength = getFileLength(fileUri);
+        final long lastRowTimestamp;
+        final TrialDataReader reader;
+        try {
+            lastRowTimestamp = readLastTimestamp(fileUri);
+            reader = new TrialDataReader(getContentResolver().openInputStream(fileUri));
+        } catch (IOException e) {
+            updateProgress(ImportProgress.fromThrowable(experimentId, e));
+            stopSelf(startId);
+            return;
+        }
+        updateProgress(new ImportProgress(experimentId, ImportProgress.IMPORTING, 0));
+
+        SensorAppearanceProvider appearanceProvider =
+                AppSingleton.getInstance(this).getSensorAppearanceProvider();
+        RxDataController.importTrialData(dc, reader, lastRowTimestamp,
+                bytesRead -> updateProgress(new ImportProgress(experimentId,
+                        ImportProgress.IMPORTING, getPercent(bytesRead, fileLength))))
+                .flatMap(importer -> {
+                    Trial trial = importer.makeTrial(appearanceProvider, this);
+                    experiment.addTrial(trial);
+                    return RxDataController.updateExperiment(dc, experiment)
+                            .doOnError(e -> dc.deleteTrialData(trial,
+                                    LoggingConsumer.expectSuccess(TAG, "remove imported data")))
+                            .toSingleDefault(trial);
+                })
+                .doFinally(() -> {
+                    closeReader(reader);
+                    stopSelf(startId);
+                })
+                .subscribe(trial -> updateProgress(
+                        ImportProgress.getComplete(experimentId, trial.getTrialId())),
+                        error -> updateProgress(
+                                ImportProgress.fromThrowable(experimentId, error)));
+    }
+
+    /**
+     * Reads through the file once without importing anything, to find where in time it ends, so
+     * that the import can be placed in time before it starts.
+     */
+    private long readLastTimestamp(Uri fileUri) throws IOException {
+        TrialDataReader reader = new TrialDataReader(
+                getContentResolver().openInputStream(fileUri));
+        try {
+            return reader.readLastTimestamp();
+        } finally {
+            closeReader(reader);
+        }
+    }
+
+    private Single<DataController> getDataController() {
+        return DataService.bind(this).map(AppSingleton::getDataController);
+    }
+
+    /**
+     * @return the length of the file, or {@link AssetFileDescriptor#UNKNOWN_LENGTH}
+     */
+    private long getFileLength(Uri fileUri) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = getContentResolver().openAssetFileDescriptor(fileUri, "r");
+            return descriptor == null ? AssetFileDescriptor.UNKNOWN_LENGTH
+                    : descriptor.getLength();
+        } catch (IOException e) {
+            return AssetFileDescriptor.UNKNOWN_LENGTH;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Only the length was needed.
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static int getPercent(long bytesRead, long fileLength) {
+        if (fileLength <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, bytesRead * 100 / fileLength);
+    }
+
+    private static void closeReader(TrialDataReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Log.e(TAG, "File close failed: " + e.toString());
+        }
+    }
+
+    private void updateProgress(ImportProgress importProgress) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Updating progress " + importProgress + " from " + this);
+        }
+        sProgressSubject.onNext(importProgress);
+    }
+}
@@ -117,6 +117,11 @@ public class MainActivity extends AppCompatActivity
         onNavigationItemSelected(item);
 
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
+
+        if (savedInstanceState == null) {
+            // Trials recorded before zoom tiers were stored get them in the background.
+            TierBackfillService.backfillTiers(this);
+        }
     }
 
     private int getSavedItemId(Bundle savedInstanceState) {
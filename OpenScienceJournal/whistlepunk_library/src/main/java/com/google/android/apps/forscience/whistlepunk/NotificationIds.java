@@ -22,4 +22,5 @@ package com.google.android.apps.forscience.whistlepunk;
 public class NotificationIds {
     public static final int RECORDER_SERVICE = 1;
     public static final int RECORDING_COMPLETED = 2;
+    public static final int TIER_BACKFILL = 3;
 }
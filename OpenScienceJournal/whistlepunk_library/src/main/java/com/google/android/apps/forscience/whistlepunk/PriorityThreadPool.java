@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of threads that always starts the highest-priority waiting task next, and tasks of
+ * equal priority in the order they were submitted.  Each priority is exposed as its own
+ * {@link Executor} "lane", so that callers can be handed a lane without knowing about the others.
+ *
+ * A running task is never interrupted: a high-priority task only overtakes tasks that are still
+ * waiting.
+ */
+public class PriorityThreadPool {
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    public PriorityThreadPool(int threadCount, final String name) {
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, name + "-" + mThreadCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * @return an executor that runs tasks on this pool at {@code priority}.  Waiting tasks with a
+     * larger priority run first.
+     */
+    public Executor getLane(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mExecutor.execute(new PrioritizedTask(command, priority,
+                        mNextSequence.getAndIncrement()));
+            }
+        };
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable mTask;
+        private final int mPriority;
+        private final long mSequence;
+
+        PrioritizedTask(Runnable task, int priority, long sequence) {
+            mTask = task;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
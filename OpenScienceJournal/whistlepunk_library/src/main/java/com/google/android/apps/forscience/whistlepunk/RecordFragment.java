@@ -63,7 +63,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorChoice;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.WriteableSensorOptions;
-import com.google.android.apps.forscience.whistlepunk.sensors.DecibelSensor;
+import com.google.android.apps.forscience.whistlepunk.sensors.AudioCaptureHub;
 import com.google.android.apps.forscience.whistlepunk.wireapi.RecordingMetadata;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Lists;
@@ -173,7 +173,8 @@ public class RecordFragment extends PanesToolFragment implements Handler.Callbac
     // A temporary variable to store a sensor card presenter that wants to use
     // the decibel sensor before the permission to use microphone is granted
     // in Android M.
-    private SensorCardPresenter mDecibelSensorCardPresenter;
+    private SensorCardPresenter mAudioSensorCardPresenter;
+    private String mAudioSensorId;
 
     private Handler mHandler;
     private FeatureDiscoveryProvider mFeatureDiscoveryProvider;
@@ -231,22 +232,23 @@ public class RecordFragment extends PanesToolFragment implements Handler.Callbac
     }
 
     private void onAudioPermissionChanged(@PermissionUtils.PermissionState int newState) {
-        if (mDecibelSensorCardPresenter == null || getActivity() == null) {
+        if (mAudioSensorCardPresenter == null || getActivity() == null) {
             return;
         }
         if (newState == PermissionUtils.GRANTED) {
-            mDecibelSensorCardPresenter.retryConnection(getActivity());
+            mAudioSensorCardPresenter.retryConnection(getActivity());
         } else if (newState == PermissionUtils.DENIED) {
             // If the sensor can't be loaded, still show it as selected on the card
             // so the user understands that they wanted this sensor but can't use it.
-            mDecibelSensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mAudioSensorCardPresenter.setConnectingUI(mAudioSensorId, true,
                     getActivity(), true);
         } else {
-            mDecibelSensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mAudioSensorCardPresenter.setConnectingUI(mAudioSensorId, true,
                     getActivity(), false);
         }
         // in either case, we have our answer.  Stop waiting for it.
-        mDecibelSensorCardPresenter = null;
+        mAudioSensorCardPresenter = null;
+        mAudioSensorId = null;
         updateAvailableSensors();
     }
 
@@ -876,11 +878,12 @@ public class RecordFragment extends PanesToolFragment implements Handler.Callbac
 
     private void tryStartObserving(SensorCardPresenter sensorCardPresenter, String sensorId,
             RecordingStatus status) {
-        if (TextUtils.equals(sensorId, DecibelSensor.ID) && mDecibelSensorCardPresenter == null &&
+        if (AudioCaptureHub.isAudioSensor(sensorId) && mAudioSensorCardPresenter == null &&
                 !PermissionUtils.hasPermission(getActivity(),
                         PermissionUtils.REQUEST_RECORD_AUDIO)) {
-            mDecibelSensorCardPresenter = sensorCardPresenter;
-            sensorCardPresenter.setConnectingUI(DecibelSensor.ID, true,
+            mAudioSensorCardPresenter = sensorCardPresenter;
+            mAudioSensorId = sensorId;
+            sensorCardPresenter.setConnectingUI(sensorId, true,
                     getActivity().getApplicationContext(), true);
             PermissionUtils.tryRequestingPermission(getActivity(),
                     PermissionUtils.REQUEST_RECORD_AUDIO,
@@ -915,16 +918,15 @@ public class RecordFragment extends PanesToolFragment implements Handler.Callbac
                 mSensorCardAdapter.getSensorCardPresenters();
 
         // Available Sensors includes only sensors that are not being observed.
-        // Check if a card wants to show the decibel sensor but permission was denied.
-        // Remove this from the list of available sensors so the decibel sensor icon doesn't show
+        // Check if a card wants to show a microphone sensor but permission was denied.
+        // Remove this from the list of available sensors so the sensor's icon doesn't show
         // up in other cards.
         // TODO: Extend this to work for any sensor that doesn't have the permission granted.
         // See b/27439593
-        if (availableSensors.contains(DecibelSensor.ID)) {
-            for (SensorCardPresenter presenter : sensorCardPresenters) {
-                if (TextUtils.equals(presenter.getSelectedSensorId(), DecibelSensor.ID)) {
-                    availableSensors.remove(DecibelSensor.ID);
-                }
+        for (SensorCardPresenter presenter : sensorCardPresenters) {
+            String selectedSensorId = presenter.getSelectedSensorId();
+            if (AudioCaptureHub.isAudioSensor(selectedSensorId)) {
+                availableSensors.remove(selectedSensorId);
             }
         }
         for (SensorCardPresenter presenter : sensorCardPresenters) {
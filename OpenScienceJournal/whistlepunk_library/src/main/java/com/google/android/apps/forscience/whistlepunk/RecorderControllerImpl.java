@@ -238,7 +238,7 @@ public class RecorderControllerImpl implements RecorderController {
                                 fireSensorTrigger(trigger, timestamp, sensorRegistry);
                             }
                         }
-                    }, null);
+                    }, null, true);
             mServiceObservers.put(sensorId, serviceObserverId);
         }
     }
@@ -18,6 +18,7 @@ package com.google.android.apps.forscience.whistlepunk;
 
 import android.os.Bundle;
 
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorDataRing;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.common.collect.HashMultimap;
@@ -46,12 +47,14 @@ public class RecorderListenerRegistry implements SensorStatusListener {
         public final String observerId;
         public final SensorStatusListener statusListener;
         public final SensorObserver observer;
+        public final boolean needsEveryPoint;
 
         private ListenerSet(String observerId, SensorStatusListener statusListener,
-                SensorObserver observer) {
+                SensorObserver observer, boolean needsEveryPoint) {
             this.observerId = observerId;
             this.statusListener = statusListener;
             this.observer = observer;
+            this.needsEveryPoint = needsEveryPoint;
         }
     }
 
@@ -103,11 +106,25 @@ public class RecorderListenerRegistry implements SensorStatusListener {
                 getSourceStatus(id) == SensorStatusListener.STATUS_CONNECTED;
     }
 
+    /**
+     * Adds an observer that only displays data, and so may be handed fewer data points than the
+     * sensor produces when the UI thread falls behind.
+     */
     public String putListeners(String sensorId, SensorObserver observer,
             SensorStatusListener listener) {
+        return putListeners(sensorId, observer, listener, false);
+    }
+
+    /**
+     * @param needsEveryPoint true if {@code observer} acts on each data point, like a trigger,
+     *                        rather than only displaying them
+     */
+    public String putListeners(String sensorId, SensorObserver observer,
+            SensorStatusListener listener, boolean needsEveryPoint) {
         String observerId = sensorId + (++mObserverCount);
 
-        mListeners.put(sensorId, new ListenerSet(observerId, listener, observer));
+        mListeners.put(sensorId, new ListenerSet(observerId, listener, observer,
+                needsEveryPoint));
 
         Integer status = mCurrentStatus.get(sensorId);
         if (status != null && listener != null) {
@@ -143,14 +160,40 @@ public class RecorderListenerRegistry implements SensorStatusListener {
 
     /**
      * Returns a new SensorObserver that routes new data to the currently-active UI listener, if
-     * any, for the given sensor.
+     * any, for the given sensor.  It is a {@link SensorDataRing.SplitObserver}, so that data
+     * points shed on their way to the display still reach the observers that need every point.
      */
     public SensorObserver makeObserverForRecorder(final String sensorId) {
+        final SensorObserver everyPointObserver = makeRoutingObserver(sensorId, true);
+        final SensorObserver displayObserver = makeRoutingObserver(sensorId, false);
+        return new SensorDataRing.SplitObserver() {
+            @Override
+            public void onNewData(long timestamp, Data bundle) {
+                everyPointObserver.onNewData(timestamp, bundle);
+                displayObserver.onNewData(timestamp, bundle);
+            }
+
+            @Override
+            public SensorObserver getEveryPointObserver() {
+                return everyPointObserver;
+            }
+
+            @Override
+            public SensorObserver getDisplayObserver() {
+                return displayObserver;
+            }
+        };
+    }
+
+    private SensorObserver makeRoutingObserver(final String sensorId,
+            final boolean needsEveryPoint) {
         return new SensorObserver() {
             @Override
             public void onNewData(long timestamp, Data bundle) {
                 for (ListenerSet set : mListeners.get(sensorId)) {
-                    set.observer.onNewData(timestamp, bundle);
+                    if (set.needsEveryPoint == needsEveryPoint) {
+                        set.observer.onNewData(timestamp, bundle);
+                    }
                 }
             }
         };
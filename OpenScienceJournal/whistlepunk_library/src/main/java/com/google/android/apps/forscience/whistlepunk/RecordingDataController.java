@@ -20,6 +20,7 @@ import com.google.android.apps.forscience.javalib.FailureListener;
 import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 
 /**
  * Data interface for sensor recorders
@@ -31,6 +32,21 @@ public interface RecordingDataController {
     void addScalarReading(String sensorId, final int resolutionTier, long timestampMillis,
             double value);
 
+    /**
+     * Scalar readings may be buffered before they are written.  Calling this makes sure that
+     * every reading added so far is written soon, without waiting for more readings to arrive.
+     * Call this when a sensor stops recording.
+     */
+    void flushScalarReadings();
+
+    /**
+     * Like scalar readings, summaries may be buffered before they are written.  The summary is
+     * copied, so callers may reuse it.
+     *
+     * @see com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase#addScalarSummary(String, ScalarSummary)
+     */
+    void addScalarSummary(String sensorId, ScalarSummary summary);
+
     /**
      * If an error is encountered storing data or stats for {@code sensorId}, notify {@code
      * listener}
@@ -20,6 +20,9 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.LabelListHolder;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregates;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
@@ -67,6 +70,25 @@ public class RxDataController {
         });
     }
 
+    public static Single<ScalarAggregates> getAggregates(DataController dc, String databaseTag,
+            TimeRange timeRange, long bucketMillis, @ZoomRecorder.TierStrategy int tierStrategy,
+            DataController.ReadPriority priority) {
+        return MaybeConsumers.buildSingle(mc -> dc.getAggregates(databaseTag, timeRange,
+                bucketMillis, tierStrategy, priority, mc));
+    }
+
+    public static Single<TrialImporter> importTrialData(DataController dc,
+            TrialDataReader reader, long lastRowTimestamp,
+            TrialImporter.ProgressListener progressListener) {
+        return MaybeConsumers.buildSingle(
+                mc -> dc.importTrialData(reader, lastRowTimestamp, progressListener, mc));
+    }
+
+    public static Single<Boolean> backfillZoomTiers(DataController dc,
+            TierBackfiller backfiller, int maxRows) {
+        return MaybeConsumers.buildSingle(mc -> dc.backfillZoomTiers(backfiller, maxRows, mc));
+    }
+
     public static Completable addTrialLabel(Label label, DataController dc, Experiment experiment,
             String trialId) {
         experiment.getTrial(trialId).addLabel(label);
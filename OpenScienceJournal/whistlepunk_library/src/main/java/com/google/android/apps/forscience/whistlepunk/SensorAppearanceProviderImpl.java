@@ -31,6 +31,8 @@ import com.google.android.apps.forscience.whistlepunk.sensors.CompassSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.DecibelSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.LinearAccelerometerSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.MagneticStrengthSensor;
+import com.google.android.apps.forscience.whistlepunk.sensors.PeakAmplitudeSensor;
+import com.google.android.apps.forscience.whistlepunk.sensors.PitchSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.SineWavePseudoSensor;
 import com.google.common.base.Preconditions;
 
@@ -172,6 +174,20 @@ public class SensorAppearanceProviderImpl implements SensorAppearanceProvider {
                         SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
                 BuiltInSensorAppearance.DEFAULT_POINTS_AFTER_DECIMAL, DecibelSensor.ID));
 
+        putAppearance(PeakAmplitudeSensor.ID, BuiltInSensorAppearance.create(
+                R.string.peak_amplitude, R.drawable.ic_sensor_decibels_white_24dp,
+                R.string.decibel_units, R.string.sensor_desc_short_peak_amplitude, 0, 0, 0,
+                new SensorAnimationBehavior(R.drawable.decibel_level_drawable,
+                        SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
+                BuiltInSensorAppearance.DEFAULT_POINTS_AFTER_DECIMAL, PeakAmplitudeSensor.ID));
+
+        putAppearance(PitchSensor.ID, BuiltInSensorAppearance.create(R.string.pitch,
+                R.drawable.ic_sensor_decibels_white_24dp, R.string.pitch_units,
+                R.string.sensor_desc_short_pitch, 0, 0, 0,
+                new SensorAnimationBehavior(R.drawable.decibel_level_drawable,
+                        SensorAnimationBehavior.TYPE_RELATIVE_SCALE),
+                0 /* whole Hz */, PitchSensor.ID));
+
         putAppearance(BarometerSensor.ID, BuiltInSensorAppearance.create(R.string.barometer,
                 R.drawable.ic_sensor_barometer_white_24dp, R.string.barometer_units,
                 R.string.sensor_desc_short_barometer,
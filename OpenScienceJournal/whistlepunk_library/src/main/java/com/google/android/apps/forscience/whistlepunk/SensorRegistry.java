@@ -39,6 +39,8 @@ import com.google.android.apps.forscience.whistlepunk.sensors.CompassSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.DecibelSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.LinearAccelerometerSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.MagneticStrengthSensor;
+import com.google.android.apps.forscience.whistlepunk.sensors.PeakAmplitudeSensor;
+import com.google.android.apps.forscience.whistlepunk.sensors.PitchSensor;
 import com.google.android.apps.forscience.whistlepunk.sensors.SineWavePseudoSensor;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
@@ -206,6 +208,8 @@ public class SensorRegistry {
             addBuiltInSensor(new AmbientLightSensor());
         }
         addBuiltInSensor(new DecibelSensor());
+        addBuiltInSensor(new PeakAmplitudeSensor());
+        addBuiltInSensor(new PitchSensor());
 
         if (AccelerometerSensor.isAccelerometerAvailable(available)) {
             addBuiltInSensor(new AccelerometerSensor(AccelerometerSensor.Axis.X));
@@ -23,6 +23,8 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
+import com.google.android.apps.forscience.whistlepunk.sensordb.QuantileSketch;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.wireapi.RecordingMetadata;
 
 import java.lang.annotation.Retention;
@@ -41,6 +43,10 @@ public class StatsAccumulator {
     public static final String KEY_AVERAGE = "stats_average";
     public static final String KEY_NUM_DATA_POINTS = "stats_count";
     public static final String KEY_TOTAL_DURATION = "stats_total_duration";
+    public static final String KEY_STANDARD_DEVIATION = "stats_standard_deviation";
+    public static final String KEY_MEDIAN = "stats_median";
+    public static final String KEY_PERCENTILE_5 = "stats_percentile_5";
+    public static final String KEY_PERCENTILE_95 = "stats_percentile_95";
     public static final String KEY_STATUS = "status";
 
 
@@ -121,6 +127,12 @@ public class StatsAccumulator {
     private double mMax;
     private double mSum;
 
+    // Welford's running mean and sum of squared differences from it, for the variance, and a
+    // sketch of the distribution, for quantiles.  Neither allocates as values are added.
+    private double mMean;
+    private double mM2;
+    private final QuantileSketch mSketch = new QuantileSketch();
+
     private long mStartTimestamp = RecordingMetadata.NOT_RECORDING;
     private long mLatestTimestamp = RecordingMetadata.NOT_RECORDING;
     private int mStatSize;
@@ -137,6 +149,9 @@ public class StatsAccumulator {
         mMin = Double.MAX_VALUE;
         mMax = -Double.MAX_VALUE;
         mSum = 0;
+        mMean = 0;
+        mM2 = 0;
+        mSketch.clear();
         mStartTimestamp = RecordingMetadata.NOT_RECORDING;
         mLatestTimestamp = RecordingMetadata.NOT_RECORDING;
         mStatSize = 0;
@@ -164,12 +179,57 @@ public class StatsAccumulator {
             }
             mSum = mSum + value;
         }
+        double delta = value - mMean;
+        mMean += delta / mStatSize;
+        mM2 += delta * (value - mMean);
+        mSketch.add(value);
+    }
+
+    /**
+     * Replaces the stats with those of the readings described by {@code summary}.
+     */
+    public void setStats(ScalarSummary summary) {
+        clearStats();
+        if (summary.getCount() == 0) {
+            return;
+        }
+        mStartTimestamp = summary.getFirstTimestamp();
+        mLatestTimestamp = summary.getLastTimestamp();
+        mMin = summary.getMin();
+        mMax = summary.getMax();
+        mSum = summary.getSum();
+        mStatSize = summary.getCount();
+        mMean = summary.getMean();
+        mM2 = summary.getSumOfSquaredDifferences();
+        if (summary.hasDistribution()) {
+            mSketch.add(summary.getSketch());
+        }
     }
 
     private double getAverage() {
         return mSum / mStatSize;
     }
 
+    /**
+     * @return the sample standard deviation, or NaN if there are fewer than two values
+     */
+    public double getStandardDeviation() {
+        return mStatSize < 2 ? Double.NaN : Math.sqrt(mM2 / (mStatSize - 1));
+    }
+
+    /**
+     * @param quantile between 0 and 1; 0.5 is the median
+     * @return an estimate of the value below which {@code quantile} of the values fall, or NaN if
+     * their distribution is unknown
+     */
+    public double getQuantile(double quantile) {
+        return hasDistribution() ? mSketch.getQuantile(quantile) : Double.NaN;
+    }
+
+    private boolean hasDistribution() {
+        return mStatSize > 0 && mSketch.getCount() == mStatSize;
+    }
+
     public long getLatestTimestamp() {
         return mLatestTimestamp;
     }
@@ -199,5 +259,24 @@ public class StatsAccumulator {
         stats.putStat(GoosciTrial.SensorStat.AVERAGE, getAverage());
         stats.putStat(GoosciTrial.SensorStat.NUM_DATA_POINTS, mStatSize);
         stats.putStat(GoosciTrial.SensorStat.TOTAL_DURATION, mLatestTimestamp - mStartTimestamp);
+
+        // Leave out, rather than keep stale, stats that can't be known from these values.
+        double standardDeviation = getStandardDeviation();
+        if (Double.isNaN(standardDeviation)) {
+            stats.removeStat(GoosciTrial.SensorStat.STANDARD_DEVIATION);
+        } else {
+            stats.putStat(GoosciTrial.SensorStat.STANDARD_DEVIATION, standardDeviation);
+        }
+        if (hasDistribution()) {
+            stats.putStat(GoosciTrial.SensorStat.MEDIAN, mSketch.getQuantile(0.5));
+            stats.putStat(GoosciTrial.SensorStat.PERCENTILE_5, mSketch.getQuantile(0.05));
+            stats.putStat(GoosciTrial.SensorStat.PERCENTILE_95, mSketch.getQuantile(0.95));
+            stats.putQuantileSketch(mSketch);
+        } else {
+            stats.removeStat(GoosciTrial.SensorStat.MEDIAN);
+            stats.removeStat(GoosciTrial.SensorStat.PERCENTILE_5);
+            stats.removeStat(GoosciTrial.SensorStat.PERCENTILE_95);
+            stats.putQuantileSketch(null);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+/**
+ * Service that builds the missing zoom tiers of trials recorded before tiers were stored, so
+ * that reviewing them doesn't load every reading.  Progress is shown in a notification.
+ *
+ * Tiers are built a turn at a time with pauses between turns, and not at all while recording,
+ * so that the backfill never competes with a live recording.  Each sensor's stats are saved as
+ * soon as its tiers are built, so if the service is stopped part way through, the next start
+ * picks up from the first sensor that still needs tiers.
+ */
+public class TierBackfillService extends Service {
+    private static final String TAG = "TierBackfillService";
+
+    private static final String ACTION_BACKFILL_TIERS =
+            "com.google.android.apps.forscience.whistlepunk.action.BACKFILL_TIERS";
+
+    // Like migration chunks, turns are small enough that writes queued behind one are not
+    // noticeably delayed.
+    private static final int TURN_ROWS = 2000;
+    private static final int BATCHED_READINGS = 2000;
+
+    // Pause between turns, which limits the backfill to a small share of the sensor data thread.
+    private static final long PAUSE_BETWEEN_TURNS_MILLIS = 100;
+
+    // As in ExportService, we handle intents one at a time like an IntentService, but on a
+    // background priority thread.
+    private volatile Looper mServiceLooper;
+    private volatile ServiceHandler mServiceHandler;
+    private RecorderController mRecorderController;
+
+    private final class ServiceHandler extends Handler {
+        public ServiceHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            onHandleIntent((Intent) msg.obj, msg.arg1);
+        }
+    }
+
+    /**
+     * A sensor in a trial that needs tiers.
+     */
+    private static class BackfillTask {
+        final String experimentId;
+        final String trialId;
+        final String sensorId;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final int zoomLevelBetweenTiers;
+
+        BackfillTask(String experimentId, Trial trial, String sensorId) {
+            this.experimentId = experimentId;
+            this.trialId = trial.getTrialId();
+            this.sensorId = sensorId;
+            this.firstTimestamp = trial.getOriginalFirstTimestamp();
+            this.lastTimestamp = trial.getOriginalLastTimestamp();
+            this.zoomLevelBetweenTiers = ScalarSensor.getZoomLevelForDataRate(
+                    getReadingsPerSecond(trial.getStatsForSensor(sensorId)));
+        }
+
+        /**
+         * @return the mean rate of the sensor's readings, or 0 if the stats don't say
+         */
+        private static double getReadingsPerSecond(TrialStats stats) {
+            double count = stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, 0);
+            double duration = stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, 0);
+            return count > 1 && duration > 0 ? (count - 1) * 1000 / duration : 0;
+        }
+    }
+
+    /**
+     * Starts this service to backfill the tiers of any trials that need them.  If the service is
+     * already backfilling, this action will be queued, and will find nothing left to do.
+     */
+    public static void backfillTiers(Context context) {
+        Intent intent = new Intent(context, TierBackfillService.class);
+        intent.setAction(ACTION_BACKFILL_TIERS);
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        HandlerThread thread = new HandlerThread("TierBackfillService",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mServiceLooper = thread.getLooper();
+        mServiceHandler = new ServiceHandler(mServiceLooper);
+        mRecorderController = AppSingleton.getInstance(this).getRecorderController();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Message msg = mServiceHandler.obtainMessage();
+        msg.arg1 = startId;
+        msg.obj = intent;
+        mServiceHandler.sendMessage(msg);
+
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mServiceLooper.quit();
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void onHandleIntent(Intent intent, int startId) {
+        if (intent != null && ACTION_BACKFILL_TIERS.equals(intent.getAction())) {
+            try {
+                handleActionBackfillTiers();
+            } catch (Exception e) {
+                if (Log.isLoggable(TAG, Log.ERROR)) {
+                    Log.e(TAG, "Could not backfill tiers", e);
+                }
+            } finally {
+                getNotificationManager().cancel(NotificationIds.TIER_BACKFILL);
+            }
+        }
+        stopSelf(startId);
+    }
+
+    private void handleActionBackfillTiers() {
+        // Blocking gets OK: this is already background threaded.
+        DataController dc = getDataController().blockingGet();
+        List<BackfillTask> tasks = findBackfillTasks(dc);
+        for (int i = 0; i < tasks.size(); i++) {
+            showProgress(i, tasks.size());
+            try {
+                backfill(dc, tasks.get(i), i, tasks.size());
+            } catch (Exception e) {
+                // Leave the stats as they are, so that this sensor is tried again next time.
+                if (Log.isLoggable(TAG, Log.ERROR)) {
+                    Log.e(TAG, "Could not backfill tiers of " + tasks.get(i).sensorId, e);
+                }
+            }
+        }
+    }
+
+    private List<BackfillTask> findBackfillTasks(DataController dc) {
+        List<BackfillTask> tasks = new ArrayList<>();
+        for (GoosciUserMetadata.ExperimentOverview overview :
+                dc.blockingGetExperimentOverviews(true)) {
+            Experiment experiment =
+                    RxDataController.getExperimentById(dc, overview.experimentId).blockingGet();
+            for (Trial trial : experiment.getTrials(true, false)) {
+                for (String sensorId : trial.getSensorIds()) {
+                    if (TierBackfiller.needsBackfill(trial.getStatsForSensor(sensorId))) {
+                        tasks.add(new BackfillTask(overview.experimentId, trial, sensorId));
+                    }
+                }
+            }
+        }
+        return tasks;
+    }
+
+    private void backfill(DataController dc, BackfillTask task, int done, int total) {
+        TierBackfiller backfiller = new TierBackfiller(task.sensorId, task.firstTimestamp,
+                task.lastTimestamp, BATCHED_READINGS, task.zoomLevelBetweenTiers,
+                ScalarSensor.DEFAULT_TIER_STRATEGY);
+        do {
+            waitUntilNotRecording(done, total);
+        } while (takeTurn(dc, backfiller));
+
+        // Look the trial up again, since it may have been edited or deleted in the meantime.
+        Experiment experiment =
+                RxDataController.getExperimentById(dc, task.experimentId).blockingGet();
+        Trial trial = experiment.getTrial(task.trialId);
+        if (trial == null) {
+            return;
+        }
+        TrialStats stats = trial.getStatsForSensor(task.sensorId);
+        if (!TierBackfiller.needsBackfill(stats)) {
+            return;
+        }
+        backfiller.addStatsTo(stats);
+        trial.setStats(stats);
+        experiment.updateTrial(trial);
+        RxDataController.updateExperiment(dc, experiment).blockingAwait();
+    }
+
+    private boolean takeTurn(DataController dc, TierBackfiller backfiller) {
+        boolean more = RxDataController.backfillZoomTiers(dc, backfiller, TURN_ROWS).blockingGet();
+        if (more) {
+            SystemClock.sleep(PAUSE_BETWEEN_TURNS_MILLIS);
+        }
+        return more;
+    }
+
+    private void waitUntilNotRecording(int done, int total) {
+        Observable<RecordingStatus> statuses = mRecorderController.watchRecordingStatus();
+        if (!statuses.blockingFirst().isRecording()) {
+            return;
+        }
+        // Only the recording notification is shown while recording.
+        getNotificationManager().cancel(NotificationIds.TIER_BACKFILL);
+        statuses.filter(status -> !status.isRecording()).blockingFirst();
+        showProgress(done, total);
+    }
+
+    private void showProgress(int done, int total) {
+        getNotificationManager().notify(NotificationIds.TIER_BACKFILL,
+                new Notification.Builder(this)
+                        .setContentTitle(getString(R.string.tier_backfill_notification_title))
+                        .setContentText(getString(R.string.tier_backfill_notification_text,
+                                done + 1, total))
+                        .setSmallIcon(R.drawable.ic_notification_24dp)
+                        .setProgress(total, done, false)
+                        .setOngoing(true)
+                        .build());
+    }
+
+    private NotificationManager getNotificationManager() {
+        return (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    private Single<DataController> getDataController() {
+        return DataService.bind(this).map(AppSingleton::getDataController);
+    }
+}
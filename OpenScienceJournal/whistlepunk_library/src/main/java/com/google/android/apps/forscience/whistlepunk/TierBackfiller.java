@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+/**
+ * Builds the zoom tiers of one sensor in a trial that was recorded before tiers were stored, by
+ * streaming its tier-0 readings through a {@link ZoomRecorder}.  Without tiers, reviewing a long
+ * trial loads every reading.
+ *
+ * Like {@link TrialImporter}, a backfiller writes straight to the database, so it must only be
+ * used on the thread that writes sensor data.
+ */
+public class TierBackfiller {
+    private final String mSensorId;
+    private final long mFirstTimestamp;
+    private final long mLastTimestamp;
+    private final int mMaxBatchedReadings;
+    private final int mZoomLevelBetweenTiers;
+    private final @ZoomRecorder.TierStrategy int mTierStrategy;
+    private final ZoomRecorder mZoomRecorder;
+    private DatabaseBatchWriter mWriter;
+
+    private long mNextTimestamp;
+    private int mReadingCount = 0;
+    private long mFirstReadingTimestamp = -1;
+    private long mLastReadingTimestamp = -1;
+    private int mTierCount = 0;
+    private boolean mFinished = false;
+
+    /**
+     * @param firstTimestamp the first timestamp of the trial's original recording range
+     * @param lastTimestamp the last timestamp of the trial's original recording range
+     * @param maxBatchedReadings tier readings are written in one transaction once this many are
+     *                           waiting
+     * @param zoomLevelBetweenTiers see {@link ZoomRecorder#create}
+     */
+    public TierBackfiller(String sensorId, long firstTimestamp, long lastTimestamp,
+            int maxBatchedReadings, int zoomLevelBetweenTiers,
+            @ZoomRecorder.TierStrategy int tierStrategy) {
+        mSensorId = sensorId;
+        mFirstTimestamp = firstTimestamp;
+        mLastTimestamp = lastTimestamp;
+        mMaxBatchedReadings = maxBatchedReadings;
+        mZoomLevelBetweenTiers = zoomLevelBetweenTiers;
+        mTierStrategy = tierStrategy;
+        mZoomRecorder = ZoomRecorder.create(sensorId, zoomLevelBetweenTiers, tierStrategy);
+        mNextTimestamp = firstTimestamp;
+    }
+
+    /**
+     * @return true if {@code stats} were saved without the zoom tier stats, so that the trial's
+     * tiers may need to be backfilled.  Sensors with no saved stats at all are left alone.
+     */
+    public static boolean needsBackfill(TrialStats stats) {
+        return stats != null && !stats.hasStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT);
+    }
+
+    public String getSensorId() {
+        return mSensorId;
+    }
+
+    /**
+     * Reads up to {@code maxRows} more tier-0 readings and writes the tier readings they make.
+     * Backfilling a few rows at a time lets recording and queries take turns with it.
+     *
+     * A backfill that is interrupted, for example because the app is stopped, can simply be
+     * started over with a new backfiller: any tiers that were already written in the trial's
+     * range are deleted on the first call.
+     *
+     * @return true if there may be more readings to backfill, false once every reading has been
+     * read and the last of the tiers have been written.
+     */
+    public boolean backfillIncrementally(SensorDatabase db, int maxRows) {
+        Preconditions.checkArgument(maxRows > 0);
+        if (mFinished) {
+            return false;
+        }
+        if (mWriter == null) {
+            db.deleteZoomTiers(mSensorId,
+                    TimeRange.oldest(Range.closed(mFirstTimestamp, mLastTimestamp)));
+            mWriter = new DatabaseBatchWriter(db, mMaxBatchedReadings);
+        }
+
+        ScalarReadingList readings = db.getScalarReadings(mSensorId,
+                TimeRange.oldest(Range.closed(mNextTimestamp, mLastTimestamp)), 0, maxRows);
+        int size = readings.size();
+        boolean lastPage = size < maxRows;
+        if (!lastPage) {
+            // Readings that share the last timestamp may go on past this page, and the next page
+            // starts after this one's last timestamp, so leave them all to the next page.
+            long pageEnd = readings.getTimestamp(size - 1);
+            while (size > 0 && readings.getTimestamp(size - 1) == pageEnd) {
+                size--;
+            }
+            if (size == 0) {
+                // The whole page has one timestamp, so read all of that timestamp's readings.
+                readings.release();
+                readings = db.getScalarReadings(mSensorId,
+                        TimeRange.oldest(Range.singleton(pageEnd)), 0, 0);
+                size = readings.size();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            mZoomRecorder.addData(readings.getTimestamp(i), readings.getValue(i), mWriter);
+        }
+        if (size > 0) {
+            if (mReadingCount == 0) {
+                mFirstReadingTimestamp = readings.getTimestamp(0);
+            }
+            mLastReadingTimestamp = readings.getTimestamp(size - 1);
+            mReadingCount += size;
+            mNextTimestamp = mLastReadingTimestamp + 1;
+        }
+        readings.release();
+
+        if (lastPage || mNextTimestamp > mLastTimestamp) {
+            // Tiers must be counted before they are flushed, which forgets the upper tiers.
+            mTierCount = mZoomRecorder.countTiers();
+            mZoomRecorder.flushAllTiers(mWriter);
+            mWriter.flushScalarReadings();
+            mFinished = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tier-0 readings read so far
+     */
+    public int getReadingCount() {
+        return mReadingCount;
+    }
+
+    /**
+     * Adds the zoom tier stats to {@code stats}, along with the count and duration of the
+     * readings if they are missing.  Must be called once backfilling is finished.
+     */
+    public void addStatsTo(TrialStats stats) {
+        Preconditions.checkState(mFinished);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, mTierCount);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
+                mZoomLevelBetweenTiers);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY, mTierStrategy);
+        if (!stats.hasStat(GoosciTrial.SensorStat.NUM_DATA_POINTS)) {
+            stats.putStat(GoosciTrial.SensorStat.NUM_DATA_POINTS, mReadingCount);
+        }
+        if (!stats.hasStat(GoosciTrial.SensorStat.TOTAL_DURATION) && mReadingCount > 0) {
+            stats.putStat(GoosciTrial.SensorStat.TOTAL_DURATION,
+                    mLastReadingTimestamp - mFirstReadingTimestamp);
+        }
+    }
+}
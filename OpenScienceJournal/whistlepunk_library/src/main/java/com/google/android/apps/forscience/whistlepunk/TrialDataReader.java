@@ -0,0 +1,361 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads trial data in the CSV layout that {@link ExportService} writes: a header row of
+ * "timestamp" or "relative_time" followed by the sensor ids, then one row per timestamp, with an
+ * empty cell for each sensor that has no reading at that time.
+ *
+ * Rows are parsed straight out of a reusable byte buffer into reusable primitive arrays, so
+ * reading a row allocates nothing unless a value is too precise for the fast number parser.
+ */
+public class TrialDataReader implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String TIMESTAMP_COLUMN = "timestamp";
+    private static final String RELATIVE_TIME_COLUMN = "relative_time";
+    private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+    // Any value with at most this many digits, and a power of ten no further from 0 than
+    // MAX_EXACT_POWER_OF_TEN, is exactly mantissa * 10^exponent after a single rounding.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+            1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final InputStream mInput;
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private long mBytesBeforeBuffer = 0;
+    private int mLineStart;
+    private int mLineEnd;
+    private int mLineNumber = 0;
+
+    private final String[] mSensorIds;
+    private final boolean mRelativeTime;
+    private long mTimestamp;
+    private final double[] mValues;
+    private final boolean[] mHasValues;
+
+    /**
+     * Reads the header row from {@code input}.
+     *
+     * @throws IOException if the input can't be read, or doesn't start with an exported header
+     */
+    public TrialDataReader(InputStream input) throws IOException {
+        mInput = input;
+        if (!nextLine()) {
+            throw new IOException("No header row");
+        }
+        String header = new String(mBuffer, mLineStart, mLineEnd - mLineStart, UTF_8);
+        if (header.startsWith(BYTE_ORDER_MARK)) {
+            // Added by some spreadsheet apps when saving as CSV.
+            header = header.substring(BYTE_ORDER_MARK.length());
+        }
+        String[] columns = header.split(",", -1);
+        if (TIMESTAMP_COLUMN.equals(columns[0])) {
+            mRelativeTime = false;
+        } else if (RELATIVE_TIME_COLUMN.equals(columns[0])) {
+            mRelativeTime = true;
+        } else {
+            throw new IOException("Unrecognized time column: " + columns[0]);
+        }
+        if (columns.length < 2) {
+            throw new IOException("No sensor columns");
+        }
+        mSensorIds = Arrays.copyOfRange(columns, 1, columns.length);
+        mValues = new double[mSensorIds.length];
+        mHasValues = new boolean[mSensorIds.length];
+    }
+
+    public String[] getSensorIds() {
+        return mSensorIds;
+    }
+
+    /**
+     * @return true if timestamps are relative to the first row, rather than absolute
+     */
+    public boolean isRelativeTime() {
+        return mRelativeTime;
+    }
+
+    /**
+     * Reads the next row, replacing the timestamp and values of the previous one.  Blank lines
+     * are skipped.
+     *
+     * @return false if there are no more rows
+     * @throws IOException if the input can't be read, or the row can't be parsed
+     */
+    public boolean readRow() throws IOException {
+        do {
+            if (!nextLine()) {
+                return false;
+            }
+        } while (mLineStart == mLineEnd);
+        parseRow();
+        return true;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return true if the current row has a value for the sensor in {@code column}
+     */
+    public boolean hasValue(int column) {
+        return mHasValues[column];
+    }
+
+    /**
+     * @return the value for the sensor in {@code column}, or NaN if the current row has none
+     */
+    public double getValue(int column) {
+        return mValues[column];
+    }
+
+    /**
+     * Reads the rest of the rows, to find out where in time the input ends before importing it.
+     *
+     * @return the timestamp of the last row
+     * @throws IOException if the input can't be read or parsed, or has no more rows
+     */
+    public long readLastTimestamp() throws IOException {
+        if (!readRow()) {
+            throw new IOException("No rows");
+        }
+        while (readRow()) {
+            // keep reading
+        }
+        return mTimestamp;
+    }
+
+    /**
+     * @return the number of bytes of input taken up by the header and the rows read so far
+     */
+    public long getBytesRead() {
+        return mBytesBeforeBuffer + mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * Finds the next line in the buffer, reading more input if needed, and sets mLineStart and
+     * mLineEnd to its bounds, not counting the line ending.
+     *
+     * @return false if there is no more input
+     */
+    private boolean nextLine() throws IOException {
+        int scanned = mPosition;
+        int newline;
+        while ((newline = indexOfNewline(scanned)) < 0) {
+            int scannedFromPosition = mLimit - mPosition;
+            if (!fill()) {
+                if (mPosition == mLimit) {
+                    return false;
+                }
+                // The last line has no newline.
+                newline = mLimit;
+                break;
+            }
+            scanned = mPosition + scannedFromPosition;
+        }
+        mLineNumber++;
+        mLineStart = mPosition;
+        mLineEnd = newline;
+        if (mLineEnd > mLineStart && mBuffer[mLineEnd - 1] == '\r') {
+            mLineEnd--;
+        }
+        mPosition = Math.min(newline + 1, mLimit);
+        return true;
+    }
+
+    private int indexOfNewline(int from) {
+        final byte[] buffer = mBuffer;
+        for (int i = from; i < mLimit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer, growing it if the unread bytes already
+     * fill it, and reads more input after them.
+     *
+     * @return false if there is no more input
+     */
+    private boolean fill() throws IOException {
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mBytesBeforeBuffer += mPosition;
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+        if (mLimit == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+        int read = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+
+    private void parseRow() throws IOException {
+        int end = indexOfComma(mLineStart);
+        mTimestamp = parseLong(mLineStart, end);
+        for (int column = 0; column < mValues.length; column++) {
+            if (end == mLineEnd) {
+                // Trailing empty cells may be left off.
+                mHasValues[column] = false;
+                mValues[column] = Double.NaN;
+                continue;
+            }
+            int start = end + 1;
+            end = indexOfComma(start);
+            if (start == end) {
+                mHasValues[column] = false;
+                mValues[column] = Double.NaN;
+            } else {
+                mHasValues[column] = true;
+                mValues[column] = parseDouble(start, end);
+            }
+        }
+        if (end != mLineEnd) {
+            throw parseError("more than " + (mValues.length + 1) + " columns");
+        }
+    }
+
+    private int indexOfComma(int from) {
+        final byte[] buffer = mBuffer;
+        for (int i = from; i < mLineEnd; i++) {
+            if (buffer[i] == ',') {
+                return i;
+            }
+        }
+        return mLineEnd;
+    }
+
+    private long parseLong(int start, int end) throws IOException {
+        final byte[] buffer = mBuffer;
+        int i = start;
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end || end - i > MAX_FAST_DIGITS) {
+            throw parseError("bad timestamp " + text(start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw parseError("bad timestamp " + text(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain and scientific decimal numbers, like those written by
+     * {@link Double#toString(double)}, without allocating.  Anything else, including values too
+     * precise to be parsed exactly this way, is passed to {@link Double#parseDouble(String)}.
+     */
+    private double parseDouble(int start, int end) throws IOException {
+        final byte[] buffer = mBuffer;
+        int i = start;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        for (; i < end && isDigit(buffer[i]); i++) {
+            mantissa = mantissa * 10 + (buffer[i] - '0');
+            digits++;
+        }
+        if (i < end && buffer[i] == '.') {
+            for (i++; i < end && isDigit(buffer[i]) && digits <= MAX_FAST_DIGITS; i++) {
+                mantissa = mantissa * 10 + (buffer[i] - '0');
+                digits++;
+                exponent--;
+            }
+        }
+        if (i < end && (buffer[i] == 'E' || buffer[i] == 'e')) {
+            i++;
+            boolean negativeExponent = i < end && buffer[i] == '-';
+            if (negativeExponent) {
+                i++;
+            }
+            int exponentStart = i;
+            int explicitExponent = 0;
+            for (; i < end && isDigit(buffer[i]) && i - exponentStart < 4; i++) {
+                explicitExponent = explicitExponent * 10 + (buffer[i] - '0');
+            }
+            if (i == exponentStart) {
+                return parseDoubleSlowly(start, end);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != end || digits == 0 || digits > MAX_FAST_DIGITS || mantissa > MAX_EXACT_MANTISSA
+                || Math.abs(exponent) > MAX_EXACT_POWER_OF_TEN) {
+            return parseDoubleSlowly(start, end);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlowly(int start, int end) throws IOException {
+        try {
+            return Double.parseDouble(text(start, end));
+        } catch (NumberFormatException e) {
+            throw parseError("bad value " + text(start, end));
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private String text(int start, int end) {
+        return new String(mBuffer, start, end - start, US_ASCII);
+    }
+
+    private IOException parseError(String message) {
+        return new IOException("Line " + mLineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciSensorLayout;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SummaryRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Imports the rows of a {@link TrialDataReader} into the sensor database as a new trial.  In the
+ * same pass over the rows, it builds the zoom tiers, stored summaries and stats that recording
+ * the readings would have built, so that the trial can be reviewed as soon as it is created.
+ *
+ * Readings are written in large batches straight to the database, so an importer must only be
+ * used on the thread that writes sensor data.
+ */
+public class TrialImporter {
+    public interface ProgressListener {
+        /**
+         * @param bytesRead how much of the input has been imported so far
+         */
+        void onProgress(long bytesRead);
+    }
+
+    private final SensorDatabase mSensorDatabase;
+    private final TrialDataReader mReader;
+    private final long mLastRowTimestamp;
+    private final long mNowMs;
+    private final int mZoomLevelBetweenTiers;
+    private final @ZoomRecorder.TierStrategy int mTierStrategy;
+    private final DatabaseBatchWriter mWriter;
+
+    private final String[] mSensorIds;
+    private final StatsAccumulator[] mStats;
+    private final ZoomRecorder[] mZoomRecorders;
+    private final SummaryRecorder[] mSummaryRecorders;
+    private final int[] mTierCounts;
+
+    private long mTimestampOffset;
+    private long mFirstTimestamp = -1;
+    private long mLastTimestamp = -1;
+    private int mRowCount = 0;
+    private boolean mFinished = false;
+
+    /**
+     * Readings are keyed by sensor id and time alone, so the imported readings must not share any
+     * time with readings already stored for the same sensors, or with recordings made later.
+     * They keep their original times when those are free and in the past, and are otherwise
+     * moved to end at {@code nowMs}, or if that is taken, to end before the earliest reading of
+     * any of their sensors.
+     *
+     * @param lastRowTimestamp the timestamp of the last row in {@code reader}, from
+     *                         {@link TrialDataReader#readLastTimestamp()} on another reader of
+     *                         the same input
+     * @param nowMs the current time
+     * @param maxBatchedReadings readings are written in one transaction once this many are
+     *                           waiting
+     * @param zoomLevelBetweenTiers see {@link ZoomRecorder#create}
+     */
+    public TrialImporter(SensorDatabase sensorDatabase, TrialDataReader reader,
+            long lastRowTimestamp, long nowMs, int maxBatchedReadings, int zoomLevelBetweenTiers,
+            @ZoomRecorder.TierStrategy int tierStrategy) {
+        mSensorDatabase = sensorDatabase;
+        mReader = reader;
+        mLastRowTimestamp = lastRowTimestamp;
+        mNowMs = nowMs;
+        mZoomLevelBetweenTiers = zoomLevelBetweenTiers;
+        mTierStrategy = tierStrategy;
+        mWriter = new DatabaseBatchWriter(sensorDatabase, maxBatchedReadings);
+
+        mSensorIds = reader.getSensorIds();
+        int sensorCount = mSensorIds.length;
+        mStats = new StatsAccumulator[sensorCount];
+        mZoomRecorders = new ZoomRecorder[sensorCount];
+        mSummaryRecorders = new SummaryRecorder[sensorCount];
+        mTierCounts = new int[sensorCount];
+        for (int i = 0; i < sensorCount; i++) {
+            mStats[i] = new StatsAccumulator(mSensorIds[i]);
+            mZoomRecorders[i] = ZoomRecorder.create(mSensorIds[i], zoomLevelBetweenTiers,
+                    tierStrategy);
+            mSummaryRecorders[i] = new SummaryRecorder(mSensorIds[i]);
+        }
+    }
+
+    /**
+     * Imports up to {@code maxRows} more rows.  Importing a few rows at a time lets other writes
+     * to the database take turns with a long import.
+     *
+     * @return true if there may be more rows to import, false once every row has been imported
+     * and the last of the readings, tiers and summaries have been written.
+     * @throws IOException if the rows can't be read or parsed, or aren't in increasing time
+     *                     order.  Readings that were already imported are not removed; call
+     *                     {@link #abort()} to remove them.
+     */
+    public boolean importIncrementally(int maxRows) throws IOException {
+        if (mFinished) {
+            return false;
+        }
+        final TrialDataReader reader = mReader;
+        final int sensorCount = mSensorIds.length;
+        for (int row = 0; row < maxRows; row++) {
+            if (!reader.readRow()) {
+                finish();
+                return false;
+            }
+            long timestamp = reader.getTimestamp();
+            if (timestamp > mLastRowTimestamp) {
+                throw new IOException("Row after the last row: " + timestamp);
+            }
+            if (mRowCount == 0) {
+                mTimestampOffset = chooseTimestampOffset(timestamp);
+                mFirstTimestamp = timestamp + mTimestampOffset;
+            } else if (timestamp + mTimestampOffset <= mLastTimestamp) {
+                throw new IOException("Timestamps must increase: " + timestamp + " after "
+                        + (mLastTimestamp - mTimestampOffset));
+            }
+            timestamp += mTimestampOffset;
+            mLastTimestamp = timestamp;
+            mRowCount++;
+
+            for (int i = 0; i < sensorCount; i++) {
+                if (reader.hasValue(i)) {
+                    double value = reader.getValue(i);
+                    mStats[i].updateRecordingStreamStats(timestamp, value);
+                    mZoomRecorders[i].addData(timestamp, value, mWriter);
+                    mSummaryRecorders[i].addData(timestamp, value, mWriter);
+                    mWriter.addScalarReading(mSensorIds[i], 0, timestamp, value);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return how far to move the rows in time, so that they start and end at times where the
+     * sensors being imported have no readings
+     */
+    private long chooseTimestampOffset(long firstRowTimestamp) {
+        if (!mReader.isRelativeTime() && mLastRowTimestamp <= mNowMs
+                && !hasReadings(firstRowTimestamp, mLastRowTimestamp)) {
+            return 0;
+        }
+        long duration = mLastRowTimestamp - firstRowTimestamp;
+        long end = mNowMs;
+        if (hasReadings(end - duration, end)) {
+            end = getEarliestReading() - 1;
+        }
+        return end - mLastRowTimestamp;
+    }
+
+    private boolean hasReadings(long start, long end) {
+        TimeRange range = TimeRange.oldest(Range.closed(start, end));
+        for (String sensorId : mSensorIds) {
+            ScalarReadingList readings = mSensorDatabase.getScalarReadings(sensorId, range, 0, 1);
+            int size = readings.size();
+            readings.release();
+            if (size > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getEarliestReading() {
+        long earliest = mNowMs;
+        TimeRange all = TimeRange.oldest(Range.<Long>all());
+        for (String sensorId : mSensorIds) {
+            ScalarReadingList readings = mSensorDatabase.getScalarReadings(sensorId, all, 0, 1);
+            if (readings.size() > 0) {
+                earliest = Math.min(earliest, readings.getTimestamp(0));
+            }
+            readings.release();
+        }
+        return earliest;
+    }
+
+    private void finish() throws IOException {
+        if (mRowCount == 0) {
+            throw new IOException("No readings to import");
+        }
+        for (int i = 0; i < mSensorIds.length; i++) {
+            // Tiers must be counted before they are flushed, which forgets the upper tiers.
+            mTierCounts[i] = mZoomRecorders[i].countTiers();
+            mZoomRecorders[i].flushAllTiers(mWriter);
+            mSummaryRecorders[i].flush(mWriter);
+        }
+        mWriter.flushScalarReadings();
+        mFinished = true;
+    }
+
+    /**
+     * Removes every reading, tier and summary imported so far.
+     */
+    public void abort() {
+        mWriter.clear();
+        if (mRowCount == 0) {
+            return;
+        }
+        TimeRange imported = TimeRange.oldest(Range.closed(mFirstTimestamp, mLastTimestamp));
+        for (String sensorId : mSensorIds) {
+            mSensorDatabase.deleteScalarReadings(sensorId, imported);
+        }
+    }
+
+    public String[] getSensorIds() {
+        return mSensorIds;
+    }
+
+    /**
+     * @return the timestamp given to the first imported row, or -1 if none have been imported
+     */
+    public long getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    /**
+     * @return the timestamp given to the last imported row, or -1 if none have been imported
+     */
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return the stats of the imported readings for the sensor in {@code column}, or null if
+     * the file had no readings for it
+     */
+    public TrialStats getStats(int column) {
+        if (!mStats[column].isInitialized()) {
+            return null;
+        }
+        TrialStats stats = mStats[column].makeSaveableStats();
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, mTierCounts[column]);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
+                mZoomLevelBetweenTiers);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY, mTierStrategy);
+        return stats;
+    }
+
+    /**
+     * Creates a trial covering the imported readings, with a card and stats for each sensor.
+     * Must be called once every row has been imported.
+     */
+    public Trial makeTrial(SensorAppearanceProvider appearanceProvider, Context context) {
+        ColorAllocator colorAllocator = new ColorAllocator(
+                context.getResources().getIntArray(R.array.graph_colors_array).length);
+        int[] usedColors = new int[mSensorIds.length];
+        GoosciSensorLayout.SensorLayout[] layouts =
+                new GoosciSensorLayout.SensorLayout[mSensorIds.length];
+        for (int i = 0; i < mSensorIds.length; i++) {
+            usedColors[i] = colorAllocator.getNextColor(Arrays.copyOf(usedColors, i));
+            layouts[i] = RecordFragment.defaultLayout(usedColors[i]);
+            layouts[i].sensorId = mSensorIds[i];
+        }
+
+        Trial trial = Trial.newTrial(mFirstTimestamp, layouts, appearanceProvider, context);
+        trial.setRecordingEndTime(mLastTimestamp);
+        for (int i = 0; i < mSensorIds.length; i++) {
+            TrialStats stats = getStats(i);
+            if (stats != null) {
+                trial.setStats(stats);
+            }
+        }
+        return trial;
+    }
+}
@@ -121,6 +121,7 @@ public class AudioPlaybackController {
                                         mFullyLoaded = true;
                                     }
                                     audioData.addAll(list.asDataPoints());
+                                    list.release();
                                 }
 
                                 @Override
@@ -169,6 +170,7 @@ public class AudioPlaybackController {
                         } else {
                             stopPlayback();
                         }
+                        list.release();
                     }
 
                     @Override
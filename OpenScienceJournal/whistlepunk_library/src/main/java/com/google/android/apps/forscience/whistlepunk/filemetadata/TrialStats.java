@@ -17,6 +17,7 @@
 package com.google.android.apps.forscience.whistlepunk.filemetadata;
 
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensordb.QuantileSketch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -83,6 +84,54 @@ public class TrialStats {
         mTrialStats.sensorStats[newSize - 1] = newStat;
     }
 
+    public void removeStat(int type) {
+        GoosciTrial.SensorStat[] stats = mTrialStats.sensorStats;
+        for (int i = 0; i < stats.length; i++) {
+            if (stats[i].statType == type) {
+                GoosciTrial.SensorStat[] newStats = new GoosciTrial.SensorStat[stats.length - 1];
+                System.arraycopy(stats, 0, newStats, 0, i);
+                System.arraycopy(stats, i + 1, newStats, i, stats.length - i - 1);
+                mTrialStats.sensorStats = newStats;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stores a copy of {@code sketch}, or removes the stored sketch if it is null.
+     */
+    public void putQuantileSketch(QuantileSketch sketch) {
+        if (sketch == null || sketch.isEmpty()) {
+            mTrialStats.quantileSketch = null;
+            return;
+        }
+        int count = sketch.getCentroidCount();
+        GoosciTrial.QuantileSketch proto = new GoosciTrial.QuantileSketch();
+        proto.means = new double[count];
+        proto.weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            proto.means[i] = sketch.getCentroidMean(i);
+            proto.weights[i] = sketch.getCentroidWeight(i);
+        }
+        proto.min = sketch.getMin();
+        proto.max = sketch.getMax();
+        mTrialStats.quantileSketch = proto;
+    }
+
+    /**
+     * @return the stored sketch of the distribution of the values, which can be merged with
+     * others, or null if there is none
+     */
+    public QuantileSketch getQuantileSketch() {
+        GoosciTrial.QuantileSketch proto = mTrialStats.quantileSketch;
+        if (proto == null) {
+            return null;
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.setCentroids(proto.means, proto.weights, proto.means.length, proto.min, proto.max);
+        return sketch;
+    }
+
     public double getStatValue(int type, double defaultValue) {
         for (GoosciTrial.SensorStat sensorStat : mTrialStats.sensorStats) {
             if (sensorStat.statType == type) {
@@ -20,7 +20,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.support.annotation.VisibleForTesting;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
@@ -35,14 +34,12 @@ import com.google.android.apps.forscience.whistlepunk.analytics.TrackerConstants
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 import com.google.common.collect.Range;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Helper class for cropping.
@@ -54,14 +51,19 @@ public class CropHelper {
     // If this is changed, make sure to update R.string.crop_failed_range_too_small as well.
     public static final long MINIMUM_CROP_MILLIS = 1000;
 
-    private static final int DATAPOINTS_PER_LOAD = 500;
-
-    private static final String ACTION_CROP_STATS_RECALCULATED = "action_crop_stats_recalculated";
+    // Sent once for each sensor whose stats have been recalculated, or found to have no data.
+    private static final String ACTION_CROP_STATS_PROGRESS = "action_crop_stats_progress";
     public static final String EXTRA_SENSOR_ID = "extra_sensor_id";
     public static final String EXTRA_TRIAL_ID = "extra_trial_id";
+    public static final String EXTRA_SENSORS_DONE = "extra_sensors_done";
+    public static final String EXTRA_SENSOR_COUNT = "extra_sensor_count";
 
     private static final IntentFilter STATS_INTENT_FILTER = new IntentFilter(
-            ACTION_CROP_STATS_RECALCULATED);
+            ACTION_CROP_STATS_PROGRESS);
+
+    // The stats recalculation in flight for each trial, so that cropping the trial again can
+    // cancel it.  Only touched on the main thread.
+    private static final Map<String, StatsJob> sStatsJobs = new HashMap<>();
 
     static class CropLabels {
         ApplicationLabel cropStartLabel;
@@ -72,19 +74,29 @@ public class CropHelper {
         }
     }
 
-    private static class ProcessPriorityThreadFactory implements ThreadFactory {
-        private final int mThreadPriority;
+    /**
+     * Tracks the recalculation of the stats of every sensor in one crop of a trial.
+     */
+    private static class StatsJob {
+        private final String mTrialId;
+        private final int mSensorCount;
+        private int mSensorsDone = 0;
+        private boolean mCancelled = false;
 
-        ProcessPriorityThreadFactory(int threadPriority) {
-            super();
-            mThreadPriority = threadPriority;
+        StatsJob(String trialId, int sensorCount) {
+            mTrialId = trialId;
+            mSensorCount = sensorCount;
         }
 
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread thread = new Thread(r);
-            thread.setPriority(mThreadPriority);
-            return thread;
+        /**
+         * @return the number of sensors now done, including this one
+         */
+        int onSensorDone() {
+            mSensorsDone++;
+            if (mSensorsDone == mSensorCount && sStatsJobs.get(mTrialId) == this) {
+                sStatsJobs.remove(mTrialId);
+            }
+            return mSensorsDone;
         }
     }
 
@@ -102,18 +114,9 @@ public class CropHelper {
         void onCropFailed(int errorId);
     }
 
-    private int mStatsUpdated = 0;
-    private Executor mCropStatsExecutor;
     private DataController mDataController;
 
     public CropHelper(DataController dataController) {
-        this(Executors.newSingleThreadExecutor(new ProcessPriorityThreadFactory(
-                android.os.Process.THREAD_PRIORITY_BACKGROUND)), dataController);
-    }
-
-    @VisibleForTesting
-    CropHelper(Executor executor, DataController dataController) {
-        mCropStatsExecutor = executor;
         mDataController = dataController;
     }
 
@@ -142,6 +145,14 @@ public class CropHelper {
         cropRange.startMs = startTimestamp;
         cropRange.endMs = endTimestamp;
         trial.setCropRange(cropRange);
+
+        // Stats still being calculated for an earlier crop would be out of date.
+        StatsJob previousJob = sStatsJobs.remove(trialId);
+        if (previousJob != null) {
+            previousJob.mCancelled = true;
+        }
+        final StatsJob job = new StatsJob(trialId, trial.getSensorIds().size());
+        sStatsJobs.put(trialId, job);
         for (String sensorId : trial.getSensorIds()) {
             // First delete the min/max/avg stats, but leave the rest available, because they are
             // used in loading data by ZoomPresenter.
@@ -155,8 +166,15 @@ public class CropHelper {
                         logEvent(context, TrackerConstants.ACTION_CROP_COMPLETED);
                         // At this point, we can go back to RunReview.
                         listener.onCropCompleted();
+                        if (job.mCancelled) {
+                            return;
+                        }
+                        // Each sensor's summary is read on the data controller's pool of
+                        // background read threads, so sensors are recalculated in parallel.
                         for (String sensorId : trial.getSensorIds()) {
-                            adjustTrialStats(context, experiment, trialId, sensorId);
+                            StatsAdjuster adjuster = new StatsAdjuster(sensorId, experiment,
+                                    trialId, context, job);
+                            adjuster.recalculateStats(mDataController);
                         }
                     }
                 });
@@ -167,109 +185,103 @@ public class CropHelper {
                 event, "", 1);
     }
 
-    private void adjustTrialStats(final Context context, final Experiment experiment,
-            final String trialId, final String sensorId) {
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                // Moves the current Thread into the background
-                StatsAdjuster adjuster = new StatsAdjuster(sensorId, experiment, trialId, context);
-                adjuster.recalculateStats(mDataController);
-            }
-        };
-        // Update the stats in the background, without blocking anything.
-        mCropStatsExecutor.execute(runnable);
-    }
-
     // A class that recalculates and resaves the stats in a trial.
     private class StatsAdjuster {
         private final String mSensorId;
         private final Experiment mExperiment;
         private final String mTrialId;
+        private final StatsJob mJob;
         private StatsAccumulator mStatsAccumulator;
-        StreamConsumer mStreamConsumer;
         private Context mContext;
 
-        StatsAdjuster(String sensorId, Experiment experiment, String trialId, Context context) {
+        StatsAdjuster(String sensorId, Experiment experiment, String trialId, Context context,
+                StatsJob job) {
             mStatsAccumulator = new StatsAccumulator(sensorId);
             mSensorId = sensorId;
             mExperiment = experiment;
             mTrialId = trialId;
-            mStreamConsumer = new StreamConsumer() {
-                @Override
-                public boolean addData(long timestampMillis, double value) {
-                    mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
-                    return true;
-                }
-            };
             mContext = context;
+            mJob = job;
         }
 
-        void recalculateStats(DataController dc) {
-            TimeRange range = TimeRange.oldest(Range.closed(
-                    mExperiment.getTrial(mTrialId).getFirstTimestamp(),
-                    mExperiment.getTrial(mTrialId).getLastTimestamp()));
-            addReadingsToStats(dc, range);
-        }
-
-        private void addReadingsToStats(final DataController dc, final TimeRange range) {
-            dc.getScalarReadings(mSensorId, /* tier 0 */ 0, range,
-                    DATAPOINTS_PER_LOAD, new MaybeConsumer<ScalarReadingList>() {
+        void recalculateStats(final DataController dc) {
+            final Trial trial = mExperiment.getTrial(mTrialId);
+            TimeRange range = TimeRange.oldest(Range.closed(trial.getFirstTimestamp(),
+                    trial.getLastTimestamp()));
+            dc.getScalarSummary(mSensorId, range, DataController.ReadPriority.BACKGROUND,
+                    new MaybeConsumer<ScalarSummary>() {
                         @Override
-                        public void success(ScalarReadingList list) {
-                            list.deliver(mStreamConsumer);
-                            Trial trial = mExperiment.getTrial(mTrialId);
-                            if (list.size() == 0 || list.size() < DATAPOINTS_PER_LOAD ||
-                                    mStatsAccumulator.getLatestTimestamp() >=
-                                            trial.getLastTimestamp()) {
-                                if (!mStatsAccumulator.isInitialized()) {
-                                    // There was no data in this region, so the stats are still
-                                    // not valid.
-                                    return;
-                                }
-                                // Done! Save back to the database.
-                                TrialStats fullStats = trial.getStatsForSensor(mSensorId);
-                                mStatsAccumulator.populateTrialStats(fullStats);
-                                trial.setStats(fullStats);
-                                dc.updateExperiment(mExperiment.getExperimentId(),
-                                        new LoggingConsumer<Success>(TAG, "update stats") {
-                                            @Override
-                                            public void success(Success value) {
-                                                sendStatsUpdatedBroadcast(mContext, mSensorId,
-                                                        mTrialId);
-                                            }
-                                        });
-                            } else {
-                                TimeRange nextRange = TimeRange.oldest(
-                                        Range.openClosed(mStatsAccumulator.getLatestTimestamp(),
-                                                trial.getLastTimestamp()));
-                                addReadingsToStats(dc, nextRange);
+                        public void success(ScalarSummary summary) {
+                            if (mJob.mCancelled) {
+                                // The trial has been cropped again since this was requested.
+                                return;
+                            }
+                            mStatsAccumulator.setStats(summary);
+                            if (!mStatsAccumulator.isInitialized()) {
+                                // There was no data in this region, so the stats are still
+                                // not valid.
+                                onSensorDone();
+                                return;
                             }
+                            // Done! Save back to the database.
+                            TrialStats fullStats = trial.getStatsForSensor(mSensorId);
+                            mStatsAccumulator.populateTrialStats(fullStats);
+                            trial.setStats(fullStats);
+                            dc.updateExperiment(mExperiment.getExperimentId(),
+                                    new LoggingConsumer<Success>(TAG, "update stats") {
+                                        @Override
+                                        public void success(Success value) {
+                                            if (!mJob.mCancelled) {
+                                                onSensorDone();
+                                            }
+                                        }
+                                    });
                         }
 
                         @Override
                         public void fail(Exception e) {
                             Log.e(TAG, "Error loading data to adjust stats after crop");
+                            if (!mJob.mCancelled) {
+                                onSensorDone();
+                            }
                         }
                     });
         }
+
+        private void onSensorDone() {
+            sendStatsProgressBroadcast(mContext, mSensorId, mTrialId, mJob.onSensorDone(),
+                    mJob.mSensorCount);
+        }
     }
 
     // Use a Broadcast to tell RunReviewFragment or ExperimentDetailsFragment or anyone who uses
-    // stats that the stats are updated for this sensor on this run.
-    private static void sendStatsUpdatedBroadcast(Context context, String sensorId, String trialId) {
+    // stats that the stats are updated for this sensor on this run, and how many of the run's
+    // sensors are done.
+    private static void sendStatsProgressBroadcast(Context context, String sensorId,
+            String trialId, int sensorsDone, int sensorCount) {
         if (context == null) {
             return;
         }
         // Use a LocalBroadcastManager, because we do not need this broadcast outside the app.
         LocalBroadcastManager lbm = getBroadcastManager(context);
         Intent intent = new Intent();
-        intent.setAction(ACTION_CROP_STATS_RECALCULATED);
+        intent.setAction(ACTION_CROP_STATS_PROGRESS);
         intent.putExtra(EXTRA_SENSOR_ID, sensorId);
         intent.putExtra(EXTRA_TRIAL_ID, trialId);
+        intent.putExtra(EXTRA_SENSORS_DONE, sensorsDone);
+        intent.putExtra(EXTRA_SENSOR_COUNT, sensorCount);
         lbm.sendBroadcast(intent);
     }
 
+    /**
+     * @return true if {@code intent}, received by a stats broadcast receiver, reports the last
+     * sensor of its crop
+     */
+    public static boolean isStatsRecalculationComplete(Intent intent) {
+        return intent.getIntExtra(EXTRA_SENSORS_DONE, 0)
+                >= intent.getIntExtra(EXTRA_SENSOR_COUNT, 0);
+    }
+
     private static LocalBroadcastManager getBroadcastManager(Context context) {
         // For security, only use local broadcasts (See b/32803250)
         return LocalBroadcastManager.getInstance(context);
@@ -59,6 +59,13 @@ public class RunStats {
                 GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT);
         keyMap.put(ZoomRecorder.STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS,
                 GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS);
+        keyMap.put(ZoomRecorder.STATS_KEY_TIER_STRATEGY,
+                GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY);
+        keyMap.put(StatsAccumulator.KEY_STANDARD_DEVIATION,
+                GoosciTrial.SensorStat.STANDARD_DEVIATION);
+        keyMap.put(StatsAccumulator.KEY_MEDIAN, GoosciTrial.SensorStat.MEDIAN);
+        keyMap.put(StatsAccumulator.KEY_PERCENTILE_5, GoosciTrial.SensorStat.PERCENTILE_5);
+        keyMap.put(StatsAccumulator.KEY_PERCENTILE_95, GoosciTrial.SensorStat.PERCENTILE_95);
     }
 
     public RunStats(String sensorId) {
@@ -16,12 +16,14 @@
 
 package com.google.android.apps.forscience.whistlepunk.project.experiment;
 
+import android.app.Activity;
 import android.app.Fragment;
 import android.app.TaskStackBuilder;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
@@ -55,6 +57,8 @@ import com.google.android.apps.forscience.whistlepunk.Appearances;
 import com.google.android.apps.forscience.whistlepunk.ColorUtils;
 import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.DeletedLabel;
+import com.google.android.apps.forscience.whistlepunk.ImportService;
+import com.google.android.apps.forscience.whistlepunk.ImportService.ImportProgress;
 import com.google.android.apps.forscience.whistlepunk.LoggingConsumer;
 import com.google.android.apps.forscience.whistlepunk.MainActivity;
 import com.google.android.apps.forscience.whistlepunk.NoteViewHolder;
@@ -97,6 +101,8 @@ import java.util.List;
 import java.util.Objects;
 
 import io.reactivex.Completable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Consumer;
 
 /**
@@ -115,6 +121,9 @@ public class ExperimentDetailsFragment extends Fragment
      */
     private static final String EXTRA_INCLUDE_ARCHIVED = "includeArchived";
 
+    // Distinct from the PictureUtils request codes, which this fragment also handles.
+    private static final int REQUEST_IMPORT_TRIAL = 100;
+
     private RecyclerView mDetails;
     private DetailsAdapter mAdapter;
 
@@ -125,6 +134,7 @@ public class ExperimentDetailsFragment extends Fragment
     private BroadcastReceiver mBroadcastReceiver;
     private String mActiveTrialId;
     private TextView mEmptyView;
+    private Disposable mImportProgress;
 
     /**
      * Creates a new instance of this fragment.
@@ -179,6 +189,10 @@ public class ExperimentDetailsFragment extends Fragment
         mBroadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
+                // The whole run is reloaded, so wait until all of its sensors are done.
+                if (!CropHelper.isStatsRecalculationComplete(intent)) {
+                    return;
+                }
                 String statsRunId = intent.getStringExtra(CropHelper.EXTRA_TRIAL_ID);
                 mAdapter.onStatsBroadcastReceived(statsRunId, getDataController());
             }
@@ -394,6 +408,10 @@ public class ExperimentDetailsFragment extends Fragment
         menu.findItem(R.id.action_exclude_archived).setVisible(mIncludeArchived);
         menu.findItem(R.id.action_edit_experiment).setVisible(mExperiment != null &&
                 !mExperiment.isArchived());
+        menu.findItem(R.id.action_import_trial).setVisible(mExperiment != null &&
+                !mExperiment.isArchived());
+        menu.findItem(R.id.action_import_trial).setEnabled(!isRecording()
+                && mImportProgress == null);
         setHomeButtonState(isRecording());
     }
 
@@ -425,6 +443,13 @@ public class ExperimentDetailsFragment extends Fragment
             loadExperimentData(mExperiment);
             getActivity().invalidateOptionsMenu();
             return true;
+        } else if (itemId == R.id.action_import_trial) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            // CSV files are labeled with any of several text types.
+            intent.setType("text/*");
+            startActivityForResult(intent, REQUEST_IMPORT_TRIAL);
+            return true;
         } else if (itemId == R.id.action_delete_experiment) {
             confirmDeleteExperiment();
         }
@@ -548,9 +573,54 @@ public class ExperimentDetailsFragment extends Fragment
             if (dialog != null) {
                 dialog.onActivityResult(requestCode, resultCode, data);
             }
+        } else if (requestCode == REQUEST_IMPORT_TRIAL) {
+            if (resultCode == Activity.RESULT_OK && data != null && data.getData() != null) {
+                importTrial(data.getData());
+            }
         }
     }
 
+    private void importTrial(Uri fileUri) {
+        ImportService.importTrial(getActivity(), mExperimentId, fileUri);
+        final String experimentId = mExperimentId;
+        mImportProgress = ImportService.bind(getActivity())
+                .filter(progress -> experimentId.equals(progress.getExperimentId()))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::onImportProgress);
+        getActivity().invalidateOptionsMenu();
+    }
+
+    private void onImportProgress(ImportProgress progress) {
+        if (progress.getState() != ImportProgress.IMPORT_COMPLETE
+                && progress.getState() != ImportProgress.ERROR) {
+            return;
+        }
+        ImportService.resetProgress(progress.getExperimentId());
+        stopWatchingImport();
+        if (progress.getState() == ImportProgress.IMPORT_COMPLETE) {
+            reloadAndScrollToBottom();
+        } else if (getView() != null) {
+            AccessibilityUtils.makeSnackbar(getView(), getString(R.string.import_error),
+                    Snackbar.LENGTH_LONG).show();
+        }
+        if (getActivity() != null) {
+            getActivity().invalidateOptionsMenu();
+        }
+    }
+
+    private void stopWatchingImport() {
+        if (mImportProgress != null) {
+            mImportProgress.dispose();
+            mImportProgress = null;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        stopWatchingImport();
+        super.onDestroy();
+    }
+
     void deleteLabel(Label label) {
         if (getActivity() != null) {
             Consumer<Context> assetDeleter = mExperiment.deleteLabelAndReturnAssetDeleter(label);
@@ -17,12 +17,12 @@
 package com.google.android.apps.forscience.whistlepunk.review;
 
 import com.google.android.apps.forscience.javalib.FailureListener;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractStreamConsumer;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 
-public class ExportStreamConsumer implements StreamConsumer {
+public class ExportStreamConsumer extends AbstractStreamConsumer {
     private FailureListener mFailureListener;
     private OutputStreamWriter mOutputStreamWriter;
     private boolean mStartAtZero;
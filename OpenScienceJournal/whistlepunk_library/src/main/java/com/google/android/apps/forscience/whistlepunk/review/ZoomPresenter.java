@@ -19,6 +19,7 @@ package com.google.android.apps.forscience.whistlepunk.review;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
 import com.google.common.annotations.VisibleForTesting;
 
 /**
@@ -98,6 +99,12 @@ public class ZoomPresenter {
         return actualTier;
     }
 
+    /**
+     * @param idealNumberOfDisplayedDatapoints how many points to display from min/max tiers.
+     *                                         Tiers that keep fewer points for each run of
+     *                                         readings show the same detail with
+     *                                         proportionally fewer points.
+     */
     @VisibleForTesting
     public static double computeIdealTier(int idealNumberOfDisplayedDatapoints,
             TrialStats trialStats, long loadedRange) {
@@ -105,8 +112,13 @@ public class ZoomPresenter {
                 trialStats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, 0)
                 / trialStats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, 1);
         double expectedTierZeroDatapointsInRange = loadedRange / meanMillisPerDataPoint;
+
+        @ZoomRecorder.TierStrategy int tierStrategy = ZoomRecorder.getTierStrategy(trialStats);
+        double idealDisplayedDatapoints = idealNumberOfDisplayedDatapoints
+                * ZoomRecorder.getPointsPerWindow(tierStrategy)
+                / (double) ZoomRecorder.getPointsPerWindow(ZoomRecorder.TIER_STRATEGY_MIN_MAX);
         double idealTierZeroDatapointsPerDisplayedPoint =
-                expectedTierZeroDatapointsInRange / idealNumberOfDisplayedDatapoints;
+                expectedTierZeroDatapointsInRange / idealDisplayedDatapoints;
 
         int zoomLevelBetweenTiers = (int) trialStats.getStatValue(
                 GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
@@ -216,9 +216,9 @@ public class ChartController {
         mChartOptions.setPinnedToNow(false);
     }
 
-    private void addOrderedGroupOfPoints(List<ChartData.DataPoint> points, long requestId) {
+    private void addOrderedGroupOfPoints(ScalarReadingList readings, long requestId) {
         if (mCurrentLoadIds.contains(requestId)) {
-            mChartData.addOrderedGroupOfPoints(points);
+            mChartData.addOrderedGroupOfPoints(readings);
         }
     }
 
@@ -398,10 +398,9 @@ public class ChartController {
             return null;
         }
         int closestIndex = mChartData.getClosestIndexToTimestamp(timestamp);
-        ChartData.DataPoint closestPoint = mChartData.getPoints().get(closestIndex);
         // Check if we are above the aboveTimestamp.
-        if (closestPoint.getX() >= aboveTimestamp) {
-            return closestPoint;
+        if (mChartData.getXAt(closestIndex) >= aboveTimestamp) {
+            return mChartData.getPoints().get(closestIndex);
         }
         if (closestIndex + 1 < mChartData.getNumPoints() - 1) {
             return mChartData.getPoints().get(closestIndex + 1);
@@ -423,10 +422,9 @@ public class ChartController {
             return null;
         }
         int closestIndex = mChartData.getClosestIndexToTimestamp(timestamp);
-        ChartData.DataPoint closestPoint = mChartData.getPoints().get(closestIndex);
         // Check if we are above the aboveTimestamp.
-        if (closestPoint.getX() <= belowTimestamp) {
-            return closestPoint;
+        if (mChartData.getXAt(closestIndex) <= belowTimestamp) {
+            return mChartData.getPoints().get(closestIndex);
         }
         if (closestIndex - 1 >= 0) {
             return mChartData.getPoints().get(closestIndex - 1);
@@ -578,7 +576,7 @@ public class ChartController {
             public void addRange(ScalarReadingList observations, Range<Double> valueRange,
                     long requestId) {
                 updateYRangeFromValueRange(valueRange);
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations, requestId);
             }
 
             @Override
@@ -751,7 +749,7 @@ public class ChartController {
             public void addRange(ScalarReadingList observations, Range<Double> valueRange,
                     long requestId) {
                 updateYRangeFromValueRange(valueRange);
-                addOrderedGroupOfPoints(observations.asDataPoints(), requestId);
+                addOrderedGroupOfPoints(observations, requestId);
             }
 
             @Override
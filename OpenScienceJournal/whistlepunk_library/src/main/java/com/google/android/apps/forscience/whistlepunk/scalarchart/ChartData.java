@@ -20,7 +20,9 @@ import android.support.annotation.VisibleForTesting;
 
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -68,7 +70,47 @@ public class ChartData {
     public static final long DEFAULT_THROWAWAY_TIME_THRESHOLD = 1000 * 60 * 2;
     private long mThrowawayDataTimeThreshold = DEFAULT_THROWAWAY_TIME_THRESHOLD;
 
-    private List<DataPoint> mData = new ArrayList<>();
+    // Must be a power of two, as must every later capacity.
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The points, ordered by X, in a ring: point i is at (mHead + i) & mMask.  Old points can be
+    // thrown away from the start, and new ones added at the end, without moving the rest.
+    private long[] mXs = new long[INITIAL_CAPACITY];
+    private double[] mYs = new double[INITIAL_CAPACITY];
+    private int mMask = INITIAL_CAPACITY - 1;
+    private int mHead = 0;
+    private int mSize = 0;
+
+    // Changed whenever points are added other than by addPoint, or removed.
+    private int mVersion = 0;
+
+    // A live view of the points, for callers that want DataPoints.  Each DataPoint is made as it
+    // is read.
+    private final List<DataPoint> mPoints = new AbstractList<DataPoint>() {
+        @Override
+        public DataPoint get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            }
+            return new DataPoint(getXAt(index), getYAt(index));
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Points can only be added at the end, and must come after all previous points.
+         */
+        @Override
+        public void add(int index, DataPoint point) {
+            if (index != mSize) {
+                throw new UnsupportedOperationException("Points can only be added at the end");
+            }
+            append(point.getX(), point.getY());
+        }
+    };
 
     // The list of data points at which a label should be displayed.
     private List<DataPoint> mLabels = new ArrayList<>();
@@ -101,7 +143,7 @@ public class ChartData {
     // This assumes the data point occurs after all previous data points.
     // Order is not checked.
     public void addPoint(DataPoint point) {
-        mData.add(point);
+        append(point.getX(), point.getY());
         if (mUnaddedLabels.size() > 0) {
             // TODO to avoid extra work, only try again if new data might come in in the direction
             // of these labels...?
@@ -115,43 +157,256 @@ public class ChartData {
         }
     }
 
+    /**
+     * @return a live view of the points.  Points may be added to the end of it.
+     */
     public List<DataPoint> getPoints() {
-        return mData;
+        return mPoints;
+    }
+
+    /**
+     * @return the X value of the point at {@code index}, in X order
+     */
+    public long getXAt(int index) {
+        return mXs[(mHead + index) & mMask];
+    }
+
+    /**
+     * @return the Y value of the point at {@code index}, in X order
+     */
+    public double getYAt(int index) {
+        return mYs[(mHead + index) & mMask];
     }
 
     // This assumes the List<DataPoint> is ordered by timestamp.
     public void setPoints(List<DataPoint> data) {
-        mData = data;
+        mVersion++;
+        mHead = 0;
+        mSize = 0;
+        ensureCapacity(data.size());
+        for (int i = 0, size = data.size(); i < size; i++) {
+            DataPoint point = data.get(i);
+            append(point.getX(), point.getY());
+        }
     }
 
     public void addOrderedGroupOfPoints(List<DataPoint> points) {
         if (points == null || points.size() == 0) {
             return;
         }
-        mData.addAll(points);
-        Collections.sort(mData, DATA_POINT_COMPARATOR);
+        mVersion++;
+        int size = points.size();
+        long[] xs = new long[size];
+        double[] ys = new double[size];
+        boolean ordered = true;
+        for (int i = 0; i < size; i++) {
+            DataPoint point = points.get(i);
+            xs[i] = point.getX();
+            ys[i] = point.getY();
+            ordered &= i == 0 || xs[i - 1] <= xs[i];
+        }
+        if (!ordered) {
+            List<DataPoint> sorted = new ArrayList<>(points);
+            Collections.sort(sorted, DATA_POINT_COMPARATOR);
+            for (int i = 0; i < size; i++) {
+                xs[i] = sorted.get(i).getX();
+                ys[i] = sorted.get(i).getY();
+            }
+        }
+        addOrderedPoints(xs, ys, size);
+    }
+
+    /**
+     * Adds readings that are ordered by timestamp, in either direction.  Readings that all come
+     * after the existing data, as they do while a chart is filled in from left to right, are
+     * appended; otherwise they are merged in.
+     */
+    public void addOrderedGroupOfPoints(ScalarReadingList readings) {
+        int size = readings.size();
+        if (size == 0) {
+            return;
+        }
+        mVersion++;
+        boolean ascending = readings.getTimestamp(0) <= readings.getTimestamp(size - 1);
+        long firstX = ascending ? readings.getTimestamp(0) : readings.getTimestamp(size - 1);
+        if (mSize == 0 || firstX >= getXAt(mSize - 1)) {
+            ensureCapacity(mSize + size);
+            for (int i = 0; i < size; i++) {
+                int index = ascending ? i : size - 1 - i;
+                append(readings.getTimestamp(index), readings.getValue(index));
+            }
+            return;
+        }
+        long[] xs = new long[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            int index = ascending ? i : size - 1 - i;
+            xs[i] = readings.getTimestamp(index);
+            ys[i] = readings.getValue(index);
+        }
+        addOrderedPoints(xs, ys, size);
+    }
+
+    /**
+     * Copies the X and Y values of the points from {@code start} up to but not including
+     * {@code end} to the start of {@code xs} and {@code ys}.
+     */
+    public void copyPoints(int start, int end, long[] xs, double[] ys) {
+        copyTo(start, end, xs, ys, 0);
+    }
+
+    /**
+     * Merges points, ordered by X, into the data.  Existing points come before new points with
+     * the same X.
+     */
+    private void addOrderedPoints(long[] xs, double[] ys, int count) {
+        if (mSize == 0 || xs[0] >= getXAt(mSize - 1)) {
+            ensureCapacity(mSize + count);
+            for (int i = 0; i < count; i++) {
+                append(xs[i], ys[i]);
+            }
+            return;
+        }
+        if (xs[count - 1] < getXAt(0)) {
+            // Earlier pages, as loaded while scrolling back, go in front of the head.
+            ensureCapacity(mSize + count);
+            mHead = (mHead - count) & mMask;
+            mSize += count;
+            for (int i = 0; i < count; i++) {
+                int index = (mHead + i) & mMask;
+                mXs[index] = xs[i];
+                mYs[index] = ys[i];
+            }
+            return;
+        }
+
+        int total = mSize + count;
+        int capacity = capacityFor(total);
+        long[] mergedXs = new long[capacity];
+        double[] mergedYs = new double[capacity];
+        // Existing points before the first new one keep their order, so are copied in bulk.
+        int existing = exactBinarySearch(xs[0], 0);
+        while (existing > 0 && getXAt(existing - 1) > xs[0]) {
+            existing--;
+        }
+        while (existing < mSize && getXAt(existing) <= xs[0]) {
+            existing++;
+        }
+        copyTo(0, existing, mergedXs, mergedYs, 0);
+        int incoming = 0;
+        int merged = existing;
+        while (existing < mSize && incoming < count) {
+            if (getXAt(existing) <= xs[incoming]) {
+                mergedXs[merged] = getXAt(existing);
+                mergedYs[merged] = getYAt(existing);
+                existing++;
+            } else {
+                mergedXs[merged] = xs[incoming];
+                mergedYs[merged] = ys[incoming];
+                incoming++;
+            }
+            merged++;
+        }
+        System.arraycopy(xs, incoming, mergedXs, merged, count - incoming);
+        System.arraycopy(ys, incoming, mergedYs, merged, count - incoming);
+        merged += count - incoming;
+        copyTo(existing, mSize, mergedXs, mergedYs, merged);
+        mXs = mergedXs;
+        mYs = mergedYs;
+        mMask = capacity - 1;
+        mHead = 0;
+        mSize = total;
+    }
+
+    private void append(long x, double y) {
+        if (mSize == mXs.length) {
+            ensureCapacity(mSize + 1);
+        }
+        int index = (mHead + mSize) & mMask;
+        mXs[index] = x;
+        mYs[index] = y;
+        mSize++;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= mXs.length) {
+            return;
+        }
+        int capacity = capacityFor(size);
+        long[] xs = new long[capacity];
+        double[] ys = new double[capacity];
+        copyTo(0, mSize, xs, ys, 0);
+        mXs = xs;
+        mYs = ys;
+        mMask = capacity - 1;
+        mHead = 0;
+    }
+
+    /**
+     * Copies the points from {@code start} up to but not including {@code end} into the given
+     * arrays, from {@code offset}.
+     */
+    private void copyTo(int start, int end, long[] xs, double[] ys, int offset) {
+        int count = end - start;
+        if (count <= 0) {
+            return;
+        }
+        int first = (mHead + start) & mMask;
+        // The ring may wrap around the end of the arrays.
+        int firstPart = Math.min(count, mXs.length - first);
+        System.arraycopy(mXs, first, xs, offset, firstPart);
+        System.arraycopy(mYs, first, ys, offset, firstPart);
+        System.arraycopy(mXs, 0, xs, offset + firstPart, count - firstPart);
+        System.arraycopy(mYs, 0, ys, offset + firstPart, count - firstPart);
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < size) {
+            capacity *= 2;
+        }
+        return capacity;
     }
 
     public List<DataPoint> getPointsInRangeToEnd(long xMin) {
-        int startIndex = approximateBinarySearch(xMin, 0, true);
-        return mData.subList(startIndex, mData.size());
+        int startIndex = getStartIndexOfRange(xMin);
+        return mPoints.subList(startIndex, mSize);
     }
 
     public List<DataPoint> getPointsInRange(long xMin, long xMax) {
-        int startIndex = approximateBinarySearch(xMin, 0, true);
-        int endIndex = approximateBinarySearch(xMax, startIndex, false);
+        int startIndex = getStartIndexOfRange(xMin);
+        int endIndex = getEndIndexOfRange(xMax, startIndex);
         if (startIndex > endIndex) {
             return Collections.emptyList();
         }
-        return mData.subList(startIndex, endIndex + 1);
+        return mPoints.subList(startIndex, endIndex + 1);
+    }
+
+    /**
+     * @return the index of a point at or a little before {@code xMin}, from which to draw a
+     * range starting at {@code xMin}
+     */
+    public int getStartIndexOfRange(long xMin) {
+        return approximateBinarySearch(xMin, 0, true);
+    }
+
+    /**
+     * @return the index of a point at or a little after {@code xMax}, up to which to draw a
+     * range ending at {@code xMax}; or less than {@code startIndex} if there are no points
+     */
+    public int getEndIndexOfRange(long xMax, int startIndex) {
+        if (mSize == 0) {
+            return -1;
+        }
+        return approximateBinarySearch(xMax, startIndex, false);
     }
 
     public DataPoint getClosestDataPointToTimestamp(long timestamp) {
         int index = getClosestIndexToTimestamp(timestamp);
-        if (mData.size() == 0) {
+        if (mSize == 0) {
             return null;
         }
-        return mData.get(index);
+        return new DataPoint(getXAt(index), getYAt(index));
     }
 
     // Searches for the closest index to a given timestamp, round up or down if the search
@@ -169,7 +424,7 @@ public class ChartData {
      */
     @VisibleForTesting
     int exactBinarySearch(long searchX, int startSearchIndex) {
-        return approximateBinarySearch(searchX, startSearchIndex, mData.size() - 1, true, 0);
+        return approximateBinarySearch(searchX, startSearchIndex, mSize - 1, true, 0);
     }
 
     /**
@@ -183,7 +438,7 @@ public class ChartData {
      * @return The index of an approximate X match in the array
      */
     private int approximateBinarySearch(long searchX, int startSearchIndex, boolean preferStart) {
-        return approximateBinarySearch(searchX, startSearchIndex, mData.size() - 1, preferStart,
+        return approximateBinarySearch(searchX, startSearchIndex, mSize - 1, preferStart,
                 DEFAULT_APPROX_RANGE);
     }
 
@@ -208,66 +463,77 @@ public class ChartData {
     @VisibleForTesting
     int approximateBinarySearch(long searchX, int startIndex, int endIndex,
             boolean preferStart, int searchRange) {
-        if (mData.isEmpty()) {
+        if (mSize == 0) {
             return 0;
         }
 
-        // See if we're already done (need to do this before calculating distances below, in case
-        // searchX is so big or small we're in danger of overflow).
-
-        long startValue = mData.get(startIndex).getX();
-        if (searchX <= startValue) {
-            return startIndex;
-        }
-        long endValue = mData.get(endIndex).getX();
-        if (searchX >= endValue) {
-            return endIndex;
-        }
-        if (endIndex - startIndex <= searchRange) {
-            return preferStart ? startIndex : endIndex;
-        }
-        if (searchRange == 0 && endIndex - startIndex == 1) {
-            long distanceToStart = searchX - startValue;
-            long distanceToEnd = endValue - searchX;
-            if (distanceToStart < distanceToEnd) {
+        while (true) {
+            // See if we're already done (need to do this before calculating distances below, in
+            // case searchX is so big or small we're in danger of overflow).
+            long startValue = getXAt(startIndex);
+            if (searchX <= startValue) {
                 return startIndex;
-            } else if (distanceToStart == distanceToEnd) {
+            }
+            long endValue = getXAt(endIndex);
+            if (searchX >= endValue) {
+                return endIndex;
+            }
+            if (endIndex - startIndex <= searchRange) {
                 return preferStart ? startIndex : endIndex;
+            }
+            if (searchRange == 0 && endIndex - startIndex == 1) {
+                long distanceToStart = searchX - startValue;
+                long distanceToEnd = endValue - searchX;
+                if (distanceToStart < distanceToEnd) {
+                    return startIndex;
+                } else if (distanceToStart == distanceToEnd) {
+                    return preferStart ? startIndex : endIndex;
+                } else {
+                    return endIndex;
+                }
+            }
+            int mid = (startIndex + endIndex) / 2;
+            long midX = getXAt(mid);
+            if (midX < searchX) {
+                startIndex = mid;
+            } else if (midX > searchX) {
+                endIndex = mid;
             } else {
-                return endIndex;
+                return mid;
             }
         }
-        int mid = (startIndex + endIndex) / 2;
-        long midX = mData.get(mid).getX();
-        if (midX < searchX) {
-            return approximateBinarySearch(searchX, mid, endIndex, preferStart, searchRange);
-        } else if (midX > searchX) {
-            return approximateBinarySearch(searchX, startIndex, mid, preferStart, searchRange);
-        } else {
-            return mid;
-        }
     }
 
     public int getNumPoints() {
-        return mData.size();
+        return mSize;
+    }
+
+    /**
+     * @return a number that changes whenever points are added other than by {@link #addPoint},
+     * or removed, so that anything made from the points knows to make itself again
+     */
+    public int getVersion() {
+        return mVersion;
     }
 
     public boolean isEmpty() {
-        return mData.isEmpty();
+        return mSize == 0;
     }
 
     // Assume points are ordered
     public long getXMin() {
-        return mData.get(0).getX();
+        return getXAt(0);
     }
 
     // Assume points are ordered
     public long getXMax() {
-        return mData.get(mData.size() - 1).getX();
+        return getXAt(mSize - 1);
     }
 
     public void clear() {
-        mData.clear();
+        mVersion++;
+        mHead = 0;
+        mSize = 0;
         mLabels.clear();
         mUnaddedLabels.clear();
     }
@@ -291,19 +557,19 @@ public class ChartData {
     @VisibleForTesting
     boolean tryAddingLabel(Label label) {
         long timestamp = label.getTimeStamp();
-        if (mData.isEmpty() || timestamp < getXMin() || timestamp > getXMax()) {
+        if (mSize == 0 || timestamp < getXMin() || timestamp > getXMax()) {
             return false;
         }
         int indexPrev = exactBinarySearch(timestamp, 0);
-        DataPoint start = mData.get(indexPrev);
-        if (timestamp == start.getX()) {
-            mLabels.add(start);
+        long startX = getXAt(indexPrev);
+        if (timestamp == startX) {
+            mLabels.add(new DataPoint(startX, getYAt(indexPrev)));
             return true;
-        } else if (indexPrev < mData.size() - 2) {
-            DataPoint end = mData.get(indexPrev + 1);
-            double weight = (timestamp - start.getX()) / (1.0 * end.getX() - start.getX());
-            mLabels.add(
-                    new DataPoint(timestamp, start.getY() * weight + end.getY() * (1 - weight)));
+        } else if (indexPrev < mSize - 2) {
+            long endX = getXAt(indexPrev + 1);
+            double weight = (timestamp - startX) / (1.0 * endX - startX);
+            mLabels.add(new DataPoint(timestamp,
+                    getYAt(indexPrev) * weight + getYAt(indexPrev + 1) * (1 - weight)));
             return true;
         }
         return false;
@@ -335,21 +601,55 @@ public class ChartData {
         }
 
         // This should be the index to the right of max
-        int indexEnd = approximateBinarySearch(throwAwayMaxX, 0, mData.size() - 1, false, 1);
-        int indexStart = approximateBinarySearch(throwAwayMinX, 0, mData.size() - 1, false, 1);
+        int indexEnd = approximateBinarySearch(throwAwayMaxX, 0, mSize - 1, false, 1);
+        int indexStart = approximateBinarySearch(throwAwayMinX, 0, mSize - 1, false, 1);
 
         // Only throw away in bulk once we reach a threshold, so that all the work is not done on
         // every iteration. Make sure to also throw out very far away old data to avoid
         // "path too long". So if the data is less than the size, and the range is not too long,
         // we can just "return" here.
         if (indexEnd - indexStart < mThrowawayDataSizeThreshold && (
-                indexStart >= 0 && indexEnd < mData.size() &&
-                mData.get(indexEnd).getX() - mData.get(indexStart).getX() <
-                        mThrowawayDataTimeThreshold)) {
+                indexStart >= 0 && indexEnd < mSize &&
+                getXAt(indexEnd) - getXAt(indexStart) < mThrowawayDataTimeThreshold)) {
             return;
 
         }
-        mData.subList(indexStart, indexEnd).clear();
+        removeRange(indexStart, indexEnd);
+    }
+
+    /**
+     * Removes the points from {@code start} up to but not including {@code end}.
+     */
+    private void removeRange(int start, int end) {
+        int count = end - start;
+        if (count <= 0) {
+            return;
+        }
+        mVersion++;
+        if (start == 0) {
+            // The usual case, throwing away old points, just moves the head.
+            mHead = (mHead + count) & mMask;
+        } else if (end < mSize) {
+            // Close the gap by moving whichever side is shorter, once the ring is laid out in
+            // order so that each side can be moved in one copy.
+            if (mHead + mSize > mXs.length) {
+                long[] xs = new long[mXs.length];
+                double[] ys = new double[mYs.length];
+                copyTo(0, mSize, xs, ys, 0);
+                mXs = xs;
+                mYs = ys;
+                mHead = 0;
+            }
+            if (start < mSize - end) {
+                System.arraycopy(mXs, mHead, mXs, mHead + count, start);
+                System.arraycopy(mYs, mHead, mYs, mHead + count, start);
+                mHead += count;
+            } else {
+                System.arraycopy(mXs, mHead + end, mXs, mHead + start, mSize - end);
+                System.arraycopy(mYs, mHead + end, mYs, mHead + start, mSize - end);
+            }
+        }
+        mSize -= count;
     }
 
-}
\ No newline at end of file
+}
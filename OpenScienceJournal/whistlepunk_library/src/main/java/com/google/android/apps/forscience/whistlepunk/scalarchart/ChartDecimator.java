@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+/**
+ * Reduces the points of a {@link ChartData} to at most four per pixel column of a chart: the
+ * first, lowest, highest and last point in each column (M4 decimation).  A line through these
+ * points draws the same pixels as a line through all of them, but is much faster to build and
+ * draw when there are many more points than pixels.
+ *
+ * Columns are a fixed number of milliseconds wide and aligned to multiples of that width, so
+ * that the decimated points stay good while the chart pans at the same zoom level.  The last
+ * column is left open, so that points added to the end of the data can be added here too.
+ */
+class ChartDecimator {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] mXs = new long[INITIAL_CAPACITY];
+    private double[] mYs = new double[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    // What the decimated points were made from: every point of that version of the data with an
+    // X from mFirstX to mLastX.
+    private int mDataVersion;
+    private long mColumnWidth = 0;
+    private long mFirstX;
+    private long mLastX;
+
+    // The open column, and the points in it that are kept, by their position in the column.
+    private long mColumn;
+    private int mColumnStart;
+    private int mColumnCount;
+    private double mFirstY;
+    private long mFirstXInColumn;
+    private int mMinPosition;
+    private long mMinX;
+    private double mMinY;
+    private int mMaxPosition;
+    private long mMaxX;
+    private double mMaxY;
+    private long mLastXInColumn;
+    private double mLastYInColumn;
+
+    /**
+     * @return the width of a column, in X units, for a chart showing {@code xRange} across
+     * {@code widthInPixels}
+     */
+    static long getColumnWidth(long xRange, float widthInPixels) {
+        return Math.max(1, (long) (xRange / widthInPixels));
+    }
+
+    public void clear() {
+        mSize = 0;
+        mColumnWidth = 0;
+    }
+
+    /**
+     * Replaces the decimated points with those made from the points of {@code data} from
+     * {@code startIndex} to {@code endIndex}, inclusive.
+     */
+    public void decimate(ChartData data, int startIndex, int endIndex, long columnWidth) {
+        start(data.getVersion(), columnWidth, data.getXAt(startIndex));
+        for (int i = startIndex; i <= endIndex; i++) {
+            add(data.getXAt(i), data.getYAt(i));
+        }
+    }
+
+    /**
+     * Replaces the decimated points with those made from the first {@code count} of the given
+     * points, copied from {@code dataVersion} of a {@link ChartData}.  This needs no access to the
+     * ChartData, so can run on any thread.
+     */
+    public void decimate(long[] xs, double[] ys, int count, int dataVersion, long columnWidth) {
+        start(dataVersion, columnWidth, xs[0]);
+        for (int i = 0; i < count; i++) {
+            add(xs[i], ys[i]);
+        }
+    }
+
+    private void start(int dataVersion, long columnWidth, long firstX) {
+        mSize = 0;
+        mColumnWidth = columnWidth;
+        mDataVersion = dataVersion;
+        mFirstX = firstX;
+    }
+
+    /**
+     * @return true if the decimated points were made from {@code data} as it is now, apart from
+     * points added to its end, in columns {@code columnWidth} wide, and cover {@code xMin} to
+     * {@code xMax}
+     */
+    public boolean covers(ChartData data, long columnWidth, long xMin, long xMax) {
+        return canExtend(data, columnWidth) && mFirstX <= xMin && xMax <= mLastX;
+    }
+
+    /**
+     * @return true if the decimated points were made from {@code data} as it is now, in columns
+     * {@code columnWidth} wide, and so can be extended by points added to its end
+     */
+    public boolean canExtend(ChartData data, long columnWidth) {
+        return mSize > 0 && mColumnWidth == columnWidth && mDataVersion == data.getVersion();
+    }
+
+    /**
+     * Adds a point after all the points decimated so far.
+     */
+    public void add(long x, double y) {
+        long column = getColumn(x);
+        if (mSize == 0 || column != mColumn) {
+            mColumn = column;
+            mColumnStart = mSize;
+            mColumnCount = 0;
+            mFirstXInColumn = x;
+            mFirstY = y;
+            mMinPosition = 0;
+            mMinX = x;
+            mMinY = y;
+            mMaxPosition = 0;
+            mMaxX = x;
+            mMaxY = y;
+        } else if (y < mMinY) {
+            mMinPosition = mColumnCount;
+            mMinX = x;
+            mMinY = y;
+        } else if (y > mMaxY) {
+            mMaxPosition = mColumnCount;
+            mMaxX = x;
+            mMaxY = y;
+        }
+        mLastXInColumn = x;
+        mLastYInColumn = y;
+        mColumnCount++;
+        mLastX = x;
+        writeOpenColumn();
+    }
+
+    public int getNumPoints() {
+        return mSize;
+    }
+
+    public long getXAt(int index) {
+        return mXs[index];
+    }
+
+    public double getYAt(int index) {
+        return mYs[index];
+    }
+
+    /**
+     * @return the index of the last decimated point at or before {@code x}, or 0 if there is none
+     */
+    public int getIndexAtOrBefore(long x) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mXs[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first decimated point at or after {@code x}, or the last index if
+     * there is none
+     */
+    public int getIndexAtOrAfter(long x) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mXs[mid] >= x) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Rewrites the open column's points, in X order, without repeating any.
+     */
+    private void writeOpenColumn() {
+        mSize = mColumnStart;
+        write(mFirstXInColumn, mFirstY);
+        int lastPosition = mColumnCount - 1;
+        boolean minFirst = mMinPosition < mMaxPosition;
+        int second = minFirst ? mMinPosition : mMaxPosition;
+        int third = minFirst ? mMaxPosition : mMinPosition;
+        if (second > 0) {
+            write(minFirst ? mMinX : mMaxX, minFirst ? mMinY : mMaxY);
+        }
+        if (third > second) {
+            write(minFirst ? mMaxX : mMinX, minFirst ? mMaxY : mMinY);
+        }
+        if (lastPosition > third) {
+            write(mLastXInColumn, mLastYInColumn);
+        }
+    }
+
+    private void write(long x, double y) {
+        if (mSize == mXs.length) {
+            long[] xs = new long[mSize * 2];
+            double[] ys = new double[mSize * 2];
+            System.arraycopy(mXs, 0, xs, 0, mSize);
+            System.arraycopy(mYs, 0, ys, 0, mSize);
+            mXs = xs;
+            mYs = ys;
+        }
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mSize++;
+    }
+
+    private long getColumn(long x) {
+        // Rounds down for negative X as well, so that every column is the same width.
+        long column = x / mColumnWidth;
+        return x < 0 && column * mColumnWidth != x ? column - 1 : column;
+    }
+}
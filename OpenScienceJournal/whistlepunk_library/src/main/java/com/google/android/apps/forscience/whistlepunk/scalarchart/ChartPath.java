@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import android.graphics.RectF;
+
+/**
+ * A chart's line, as screen coordinates for one set of axes.  Lines through many points are
+ * built away from the UI thread, then handed to the {@link ChartView}, which draws the newest
+ * one moved and stretched to fit its current axes.  A ChartPath doesn't change once built.
+ */
+class ChartPath {
+    private final int mGeneration;
+    private final ChartDecimator mDecimator;
+
+    // The axes, and the part of the screen, that the coordinates were calculated for.
+    private final long mAxisXMin;
+    private final long mAxisXMax;
+    private final double mAxisYMin;
+    private final double mAxisYMax;
+
+    // The X and then Y screen coordinate of each point, in order.
+    private final float[] mCoordinates;
+
+    // The X values of the first and last points, as in the chart data.
+    private final long mXMinInPath;
+    private final long mXMaxInPath;
+
+    /**
+     * Builds a line through the decimated points, from the last point at or before {@code xMin}
+     * to the first at or after {@code xMax}.
+     *
+     * @param generation which request for a line this answers
+     * @param decimator which this takes ownership of
+     * @param chartRect where the axes are drawn on the screen
+     */
+    ChartPath(int generation, ChartDecimator decimator, long xMin, long xMax, long axisXMin,
+            long axisXMax, double axisYMin, double axisYMax, RectF chartRect) {
+        mGeneration = generation;
+        mDecimator = decimator;
+        mAxisXMin = axisXMin;
+        mAxisXMax = axisXMax;
+        mAxisYMin = axisYMin;
+        mAxisYMax = axisYMax;
+
+        int first = decimator.getIndexAtOrBefore(xMin);
+        int last = decimator.getIndexAtOrAfter(xMax);
+        mCoordinates = new float[(last - first + 1) * 2];
+        for (int i = first; i <= last; i++) {
+            int offset = (i - first) * 2;
+            mCoordinates[offset] = toScreenX(decimator.getXAt(i), axisXMin, axisXMax, chartRect);
+            mCoordinates[offset + 1] =
+                    toScreenY(decimator.getYAt(i), axisYMin, axisYMax, chartRect);
+        }
+        mXMinInPath = decimator.getXAt(first);
+        mXMaxInPath = decimator.getXAt(last);
+    }
+
+    /**
+     * @return the screen X coordinate of {@code x} on an X axis from {@code xMin} to
+     * {@code xMax} drawn across {@code chartRect}
+     */
+    static float toScreenX(long x, long xMin, long xMax, RectF chartRect) {
+        return (1.0f * (x - xMin)) / (xMax - xMin) * chartRect.width() + chartRect.left;
+    }
+
+    /**
+     * @return the screen Y coordinate of {@code y} on a Y axis from {@code yMin} to
+     * {@code yMax} drawn up {@code chartRect}
+     */
+    static float toScreenY(double y, double yMin, double yMax, RectF chartRect) {
+        return (float) (chartRect.height() * (1 - ((y - yMin) / (yMax - yMin))) + chartRect.top);
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    ChartDecimator getDecimator() {
+        return mDecimator;
+    }
+
+    int getNumPoints() {
+        return mCoordinates.length / 2;
+    }
+
+    float getScreenX(int index) {
+        return mCoordinates[index * 2];
+    }
+
+    float getScreenY(int index) {
+        return mCoordinates[index * 2 + 1];
+    }
+
+    long getAxisXMin() {
+        return mAxisXMin;
+    }
+
+    long getAxisXMax() {
+        return mAxisXMax;
+    }
+
+    double getAxisYMin() {
+        return mAxisYMin;
+    }
+
+    double getAxisYMax() {
+        return mAxisYMax;
+    }
+
+    long getXMinInPath() {
+        return mXMinInPath;
+    }
+
+    long getXMaxInPath() {
+        return mXMaxInPath;
+    }
+}
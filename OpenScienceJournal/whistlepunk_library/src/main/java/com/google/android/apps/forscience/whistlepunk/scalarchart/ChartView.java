@@ -35,12 +35,14 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.accessibility.AccessibilityManager;
 
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
 import com.google.android.apps.forscience.whistlepunk.ExternalAxisController;
 import com.google.android.apps.forscience.whistlepunk.R;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamStat;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ChartView extends View {
     private static final String TAG = "ChartView";
@@ -75,6 +77,20 @@ public class ChartView extends View {
     private boolean mHasPath;
     private Matrix mMatrix = new Matrix();
 
+    // The points the path is made from, reduced to a few per pixel column. Kept between redraws
+    // so that panning and adding points don't need to go through all the data again.
+    private ChartDecimator mDecimator = new ChartDecimator();
+
+    // Paths through many points are built in the background. Each path built replaces those
+    // requested before it, but never one requested after it, so that only the newest is drawn.
+    private final AtomicReference<ChartPath> mNextPath = new AtomicReference<>();
+    private int mPathGeneration = 0;
+    private boolean mPathInProgress = false;
+    // The generation of the path being built, while mPathInProgress.  A build abandoned by
+    // initialize() may still finish after it, with an older generation.
+    private int mPathInProgressGeneration;
+    private boolean mPathRequestWaiting = false;
+
     private Paint mAxisPaint;
     private Paint mAxisTextPaint;
     private float mAxisTextHeight;
@@ -294,6 +310,14 @@ public class ChartView extends View {
     public void initialize(ChartOptions chartOptions, ChartData chartData) {
         mChartOptions = chartOptions;
         mChartData = chartData;
+        mDecimator.clear();
+        // Paths still being built for the old data are stale, and so is the one on screen: a
+        // recycled view would otherwise stretch the old data's line over the new axes until the
+        // new path is ready.
+        clearPath();
+        mNextPath.set(null);
+        mPathInProgress = false;
+        mPathRequestWaiting = false;
         measure();
         if (mWidth <= 1 || mHeight <= 1) {
             return;
@@ -600,40 +624,172 @@ public class ChartView extends View {
     }
 
     /**
-     * Populates the path from the chart data, from scratch.
+     * Populates the path from the chart data, from scratch.  If that means going through many
+     * points, and the chart isn't following new points as they arrive, the path is built in the
+     * background, and the current path is transformed to fit until it is ready.
      */
     private void populatePath(boolean optimizePinnedToEnd) {
         int numPoints = mChartData.getNumPoints();
-        mPath.reset();
-
         if (numPoints == 0) {
+            clearPath();
             return;
         }
 
         // Just get the points in the range that we want to render, instead of all the points.
         // Adds some buffer to the load in case of scrolling, if those data points are available.
-        updatePathCalcs();
-        List<ChartData.DataPoint> points;
+        // Read the points in place by index, rather than as DataPoint objects, and draw them
+        // decimated to a few per pixel column, as many more than that can't be seen anyway.
+        int startIndex = mChartData.getStartIndexOfRange(
+                mChartOptions.getRenderedXMin() - BUFFER_MS);
+        int endIndex;
         if (optimizePinnedToEnd) {
             // This is a slightly more efficient call, so use it when possible.
-            points = mChartData.getPointsInRangeToEnd(mChartOptions.getRenderedXMin() - BUFFER_MS);
+            endIndex = numPoints - 1;
         } else {
-            points = mChartData.getPointsInRange(mChartOptions.getRenderedXMin() - BUFFER_MS,
-                    mChartOptions.getRenderedXMax() + BUFFER_MS);
+            endIndex = mChartData.getEndIndexOfRange(
+                    mChartOptions.getRenderedXMax() + BUFFER_MS, startIndex);
         }
-        int numPlottedPoints = points.size();
-        if (numPlottedPoints == 0) {
+        if (startIndex > endIndex) {
+            clearPath();
             return;
         }
-        mPath.moveTo(getPathX(points.get(0).getX()), getPathY(points.get(0).getY()));
-        for (int i = 1; i < numPlottedPoints; i++) {
-            mPath.lineTo(getPathX(points.get(i).getX()), getPathY(points.get(i).getY()));
+        long xMin = mChartData.getXAt(startIndex);
+        long xMax = mChartData.getXAt(endIndex);
+        long columnWidth = getColumnWidth();
+        if (!mDecimator.covers(mChartData, columnWidth, xMin, xMax)) {
+            // Also decimate a screen's width to either side, which panning is likely to need.
+            long xRange = mChartOptions.getRenderedXMax() - mChartOptions.getRenderedXMin();
+            int decimateStartIndex = mChartData.getStartIndexOfRange(xMin - xRange);
+            int decimateEndIndex = optimizePinnedToEnd ? endIndex :
+                    mChartData.getEndIndexOfRange(xMax + xRange, endIndex);
+            if (!optimizePinnedToEnd) {
+                requestPathInBackground(decimateStartIndex, decimateEndIndex, xMin, xMax,
+                        columnWidth);
+                return;
+            }
+            mDecimator.decimate(mChartData, decimateStartIndex, decimateEndIndex, columnWidth);
+        }
+
+        // This path supersedes any being built in the background.
+        mPathGeneration++;
+        mPath.reset();
+        updatePathCalcs();
+        int first = mDecimator.getIndexAtOrBefore(xMin);
+        int last = mDecimator.getIndexAtOrAfter(xMax);
+        mPath.moveTo(getPathX(mDecimator.getXAt(first)), getPathY(mDecimator.getYAt(first)));
+        for (int i = first + 1; i <= last; i++) {
+            mPath.lineTo(getPathX(mDecimator.getXAt(i)), getPathY(mDecimator.getYAt(i)));
         }
         mHasPath = true;
 
         // Only update these when the path is redrawn. They track how much data the path covers.
-        mXMinInPath = points.get(0).getX();
-        mXMaxInPath = points.get(numPlottedPoints - 1).getX();
+        mXMinInPath = mDecimator.getXAt(first);
+        mXMaxInPath = mDecimator.getXAt(last);
+    }
+
+    private void clearPath() {
+        mPathGeneration++;
+        mPath.reset();
+        mHasPath = false;
+        updatePathCalcs();
+    }
+
+    /**
+     * Builds the path through the points from {@code startIndex} to {@code endIndex} on the
+     * shared chart path threads, to be drawn once it is ready.  Only one path per chart is built
+     * at a time: a request made while one is being built waits for it, and then builds the
+     * path for the axes as they are at that point.
+     */
+    private void requestPathInBackground(int startIndex, int endIndex, final long xMin,
+            final long xMax, final long columnWidth) {
+        // Until then, keep showing the current path, moved to fit the new axes.
+        if (mHasPath) {
+            transformPath();
+        } else {
+            updatePathCalcs();
+        }
+        if (mPathInProgress) {
+            mPathRequestWaiting = true;
+            return;
+        }
+        mPathInProgress = true;
+        final int generation = ++mPathGeneration;
+        mPathInProgressGeneration = generation;
+
+        // The chart data is only read on the UI thread, so copy out the points to be decimated.
+        final int count = endIndex - startIndex + 1;
+        final long[] xs = new long[count];
+        final double[] ys = new double[count];
+        mChartData.copyPoints(startIndex, endIndex + 1, xs, ys);
+        final int dataVersion = mChartData.getVersion();
+        final long axisXMin = mChartOptions.getRenderedXMin();
+        final long axisXMax = mChartOptions.getRenderedXMax();
+        final double axisYMin = mChartOptions.getRenderedYMin();
+        final double axisYMax = mChartOptions.getRenderedYMax();
+        final RectF chartRect = new RectF(mChartRect);
+        AppSingleton.getChartPathExecutor().execute(() -> {
+            ChartDecimator decimator = new ChartDecimator();
+            decimator.decimate(xs, ys, count, dataVersion, columnWidth);
+            if (offerPath(mNextPath, new ChartPath(generation, decimator, xMin, xMax,
+                    axisXMin, axisXMax, axisYMin, axisYMax, chartRect))) {
+                postInvalidateOnAnimation();
+            }
+        });
+    }
+
+    /**
+     * Puts {@code path} in {@code nextPath}, unless the path already waiting there is newer.
+     * Paths can finish building out of order, so a stale path must not replace a newer one.
+     *
+     * @return true if {@code path} was put in {@code nextPath}
+     */
+    @VisibleForTesting
+    static boolean offerPath(AtomicReference<ChartPath> nextPath, ChartPath path) {
+        ChartPath waiting;
+        do {
+            waiting = nextPath.get();
+            if (waiting != null && waiting.getGeneration() > path.getGeneration()) {
+                return false;
+            }
+        } while (!nextPath.compareAndSet(waiting, path));
+        return true;
+    }
+
+    /**
+     * Swaps in the path last built in the background, if it is still wanted.  Called before
+     * drawing, on the UI thread.
+     */
+    private void takeNextPath() {
+        ChartPath next = mNextPath.getAndSet(null);
+        if (next == null) {
+            return;
+        }
+        if (next.getGeneration() != mPathInProgressGeneration) {
+            // Left over from before initialize(); the path in progress is still coming.
+            return;
+        }
+        mPathInProgress = false;
+        if (next.getGeneration() == mPathGeneration) {
+            mDecimator = next.getDecimator();
+            mPath.reset();
+            mPath.moveTo(next.getScreenX(0), next.getScreenY(0));
+            for (int i = 1; i < next.getNumPoints(); i++) {
+                mPath.lineTo(next.getScreenX(i), next.getScreenY(i));
+            }
+            mHasPath = true;
+            mXMinInPath = next.getXMinInPath();
+            mXMaxInPath = next.getXMaxInPath();
+            mXMinForPathCalcs = next.getAxisXMin();
+            mXMaxForPathCalcs = next.getAxisXMax();
+            mYMinForPathCalcs = next.getAxisYMin();
+            mYMaxForPathCalcs = next.getAxisYMax();
+            // The axes may have moved on while the path was being built.
+            transformPathToRenderedAxes();
+        }
+        if (mPathRequestWaiting) {
+            mPathRequestWaiting = false;
+            populatePath(false);
+        }
     }
 
     /**
@@ -645,6 +801,12 @@ public class ChartView extends View {
      */
     public void addPointToEndOfPath(ChartData.DataPoint point) {
         int numPoints = mChartData.getNumPoints();
+        // Keep the decimated points up to date, so that the next full redraw can use them.
+        if (numPoints > 1 && mDecimator.canExtend(mChartData, getColumnWidth()) &&
+                mDecimator.getXAt(mDecimator.getNumPoints() - 1) ==
+                        mChartData.getXAt(numPoints - 2)) {
+            mDecimator.add(point.getX(), point.getY());
+        }
         if (!mHasPath || numPoints < MAXIMUM_NUM_POINTS_FOR_POPULATE_PATH ||
                 (numPoints % DRAWN_POINTS_REDRAW_THRESHOLD == 0 && mChartOptions.isPinnedToNow())) {
             populatePath(true);
@@ -669,6 +831,11 @@ public class ChartView extends View {
      * Transform the path by stretching and translating it to meet the new rendered size.
      */
     public void transformPath() {
+        transformPathToRenderedAxes();
+        postInvalidateOnAnimation();
+    }
+
+    private void transformPathToRenderedAxes() {
         // The path needs to be scaled in X and Y based on the range of the new data points.
         mMatrix.reset();
         mPreviousChartRect.set(getScreenX(mXMinForPathCalcs), getScreenY(mYMaxForPathCalcs),
@@ -677,7 +844,11 @@ public class ChartView extends View {
         mPath.transform(mMatrix);
 
         updatePathCalcs();
-        postInvalidateOnAnimation();
+    }
+
+    private long getColumnWidth() {
+        return ChartDecimator.getColumnWidth(
+                mChartOptions.getRenderedXMax() - mChartOptions.getRenderedXMin(), mChartWidth);
     }
 
     private void updatePathCalcs() {
@@ -691,16 +862,14 @@ public class ChartView extends View {
     // from the rendered min/max coordinates if the path has not yet been transformed and drawn.
     // This should just be used when drawing the path.
     private float getPathX(long x) {
-        return (1.0f * (x - mXMinForPathCalcs)) / (mXMaxForPathCalcs - mXMinForPathCalcs) *
-                mChartWidth + mStartPadding;
+        return ChartPath.toScreenX(x, mXMinForPathCalcs, mXMaxForPathCalcs, mChartRect);
     }
 
     // Gets the Y coordinate of a point in the current path coordinates, which may be different
     // from the rendered min/max coordinates if the path has not yet been transformed and drawn.
     // This should just be used when drawing the path.
     private float getPathY(double y) {
-        return (float) (mChartHeight * (1 - ((y - mYMinForPathCalcs) /
-                (mYMaxForPathCalcs - mYMinForPathCalcs))) + mTopPadding);
+        return ChartPath.toScreenY(y, mYMinForPathCalcs, mYMaxForPathCalcs, mChartRect);
     }
 
     @Override
@@ -710,6 +879,7 @@ public class ChartView extends View {
         if (mChartData == null || mChartData.getNumPoints() == 0) {
             return;
         }
+        takeNextPath();
 
         if (mChartOptions.showYGrid()) {
             updateYAxisPoints();
@@ -808,10 +978,11 @@ public class ChartView extends View {
 
     private void tryDrawingEndpoints(Canvas canvas) {
         if (mChartOptions.isShowLeadingEdge()) {
-            ChartData.DataPoint point = mChartData.getPoints().get(mChartData.getNumPoints() - 1);
-            if (point.getX() == mXMaxInPath && mXMaxInPath <= mXMaxForPathCalcs) {
+            int last = mChartData.getNumPoints() - 1;
+            long lastX = mChartData.getXAt(last);
+            if (lastX == mXMaxInPath && mXMaxInPath <= mXMaxForPathCalcs) {
                 mLeadingEdgeIsDrawn = true;
-                canvas.drawCircle(getScreenX(point.getX()), getScreenY(point.getY()),
+                canvas.drawCircle(getScreenX(lastX), getScreenY(mChartData.getYAt(last)),
                         mLeadingEdgeRadius, mLeadingEdgePaint);
             } else {
                 mLeadingEdgeIsDrawn = false;
@@ -821,20 +992,21 @@ public class ChartView extends View {
             // start and/or end times.
             if (mChartOptions.getRenderedXMin() < mChartOptions.getRecordingStartTime() &&
                     mChartOptions.getRecordingStartTime() < mChartOptions.getRenderedXMax()) {
-                ChartData.DataPoint start = mChartData.getPoints().get(0);
-                if (start.getX() >= mXMinForPathCalcs) {
-                    float screenX = getScreenX(start.getX());
-                    float screenY = getScreenY(start.getY());
+                long startX = mChartData.getXAt(0);
+                if (startX >= mXMinForPathCalcs) {
+                    float screenX = getScreenX(startX);
+                    float screenY = getScreenY(mChartData.getYAt(0));
                     canvas.drawCircle(screenX, screenY, mEndpointOuterRadius, mEndpointPaint);
                     canvas.drawCircle(screenX, screenY, mEndpointInnerRadius, mBackgroundPaint);
                 }
             }
             if (mChartOptions.getRenderedXMin() < mChartOptions.getRecordingEndTime() &&
                     mChartOptions.getRecordingEndTime() < mChartOptions.getRenderedXMax()) {
-                ChartData.DataPoint end = mChartData.getPoints().get(mChartData.getNumPoints() - 1);
-                if (end.getX() <= mXMaxForPathCalcs) {
-                    float screenX = getScreenX(end.getX());
-                    float screenY = getScreenY(end.getY());
+                int last = mChartData.getNumPoints() - 1;
+                long endX = mChartData.getXAt(last);
+                if (endX <= mXMaxForPathCalcs) {
+                    float screenX = getScreenX(endX);
+                    float screenY = getScreenY(mChartData.getYAt(last));
                     canvas.drawCircle(screenX, screenY, mEndpointOuterRadius, mEndpointPaint);
                     canvas.drawCircle(screenX, screenY, mEndpointInnerRadius, mBackgroundPaint);
                 }
@@ -0,0 +1,29 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+/**
+ * ValueFilter that filters batches one value at a time.
+ */
+public abstract class AbstractValueFilter implements ValueFilter {
+    @Override
+    public void filterValues(long[] timestamps, double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            values[i] = filterValue(timestamps[i], values[i]);
+        }
+    }
+}
@@ -20,13 +20,56 @@ package com.google.android.apps.forscience.whistlepunk.sensorapi;
  * Creates a filter that applies two filters in order
  */
 public class ComposeFilter {
+    /**
+     * Consecutive {@link ScaleFilter}s are fused into one, and identity filters are dropped, so
+     * that each value goes through as few filters as possible.
+     */
     public static ValueFilter applyInOrder(final ValueFilter first, final ValueFilter second) {
-        return new ValueFilter() {
-            @Override
-            public double filterValue(long timestamp, double value) {
-                double firstValue = first.filterValue(timestamp, value);
-                return second.filterValue(timestamp, firstValue);
+        if (first == ValueFilter.IDENTITY) {
+            return second;
+        }
+        if (second == ValueFilter.IDENTITY) {
+            return first;
+        }
+        if (first instanceof ScaleFilter && second instanceof ScaleFilter) {
+            return ((ScaleFilter) first).andThen((ScaleFilter) second);
+        }
+        if (first instanceof Composed && second instanceof ScaleFilter) {
+            Composed composed = (Composed) first;
+            if (composed.mSecond instanceof ScaleFilter) {
+                return new Composed(composed.mFirst,
+                        ((ScaleFilter) composed.mSecond).andThen((ScaleFilter) second));
             }
-        };
+        }
+        if (first instanceof ScaleFilter && second instanceof Composed) {
+            Composed composed = (Composed) second;
+            if (composed.mFirst instanceof ScaleFilter) {
+                return new Composed(((ScaleFilter) first).andThen((ScaleFilter) composed.mFirst),
+                        composed.mSecond);
+            }
+        }
+        return new Composed(first, second);
+    }
+
+    private static class Composed implements ValueFilter {
+        private final ValueFilter mFirst;
+        private final ValueFilter mSecond;
+
+        Composed(ValueFilter first, ValueFilter second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        @Override
+        public double filterValue(long timestamp, double value) {
+            double firstValue = mFirst.filterValue(timestamp, value);
+            return mSecond.filterValue(timestamp, firstValue);
+        }
+
+        @Override
+        public void filterValues(long[] timestamps, double[] values, int count) {
+            mFirst.filterValues(timestamps, values, count);
+            mSecond.filterValues(timestamps, values, count);
+        }
     }
 }
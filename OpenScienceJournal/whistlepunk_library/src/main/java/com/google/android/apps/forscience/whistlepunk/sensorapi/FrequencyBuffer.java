@@ -16,13 +16,32 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
-import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
-
-import java.util.LinkedList;
-import java.util.List;
-
-public class FrequencyBuffer implements ValueFilter {
-    private List<ScalarReading> mReadings = new LinkedList<>();
+/**
+ * Estimates the frequency of a signal from how often it crosses its average over a sliding window.
+ *
+ * Readings are kept in primitive ring buffers with a running total, and each reading is compared
+ * to the average when it arrives, so that filtering a value costs the same however many readings
+ * are in the window.
+ */
+public class FrequencyBuffer extends AbstractValueFilter {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The readings in the window, oldest first, starting at mHead.  Both rings always have a
+    // power-of-two capacity, and grow as needed.
+    private long[] mTimestamps = new long[INITIAL_CAPACITY];
+    private double[] mValues = new double[INITIAL_CAPACITY];
+    private int mHead = 0;
+    private int mSize = 0;
+    private double mTotal = 0;
+
+    // The readings that crossed the average from the one before them, as the reading's sequence
+    // number (the oldest reading in the window is mFirstSequence).  Only crossings between two
+    // readings in the window are kept.
+    private long[] mCrossings = new long[INITIAL_CAPACITY];
+    private int mCrossingHead = 0;
+    private int mCrossingCount = 0;
+    private long mFirstSequence = 0;
+    private boolean mNewestAboveAverage = false;
 
     private long mWindow;
     private final double mDenominatorInMillis;
@@ -42,54 +61,38 @@ public class FrequencyBuffer implements ValueFilter {
 
     public void changeWindow(long newWindowMillis) {
         mWindow = newWindowMillis;
-        if (!mReadings.isEmpty()) {
+        if (mSize > 0) {
             prune(getNewestTimestamp());
+            recomputeCrossings();
         }
     }
 
+    public void changeFilter(double newFilter) {
+        mFilter = newFilter;
+        recomputeCrossings();
+    }
+
     @Override
     public double filterValue(long timestamp, double value) {
-        mReadings.add(new ScalarReading(timestamp, value));
+        add(timestamp, value);
         prune(timestamp);
-        return getLatestFrequency();
-    }
-
-    private void prune(long timestamp) {
-        long oldestRemaining = timestamp - mWindow;
-        while (mReadings.get(0).getCollectedTimeMillis() < oldestRemaining) {
-            mReadings.remove(0);
+        boolean aboveAverage = value > getThreshold();
+        if (mSize > 1 && aboveAverage != mNewestAboveAverage) {
+            addCrossing(mFirstSequence + mSize - 1);
         }
+        mNewestAboveAverage = aboveAverage;
+        return getLatestFrequency();
     }
 
     public double getLatestFrequency() {
-        if (mReadings.size() < 2) {
+        if (mSize < 2 || mCrossingCount < 2) {
             return 0.0;
         }
 
-        double average = computeAverageValue();
-        int crossings = 0;
-        long firstCrossingTime = -1;
-        long lastCrossingTime = -1;
-
-        boolean higherThanAverage = mReadings.get(0).getValue() > average;
-        for (ScalarReading reading : mReadings.subList(1, mReadings.size())) {
-            boolean thisReadingHigher = reading.getValue() > average;
-            if (higherThanAverage != thisReadingHigher) {
-                higherThanAverage = thisReadingHigher;
-                crossings++;
-                if (firstCrossingTime == -1) {
-                    firstCrossingTime = reading.getCollectedTimeMillis();
-                } else {
-                    lastCrossingTime = reading.getCollectedTimeMillis();
-                }
-            }
-        }
+        long firstCrossingTime = getCrossingTime(0);
+        long lastCrossingTime = getCrossingTime(mCrossingCount - 1);
         // Drop the leading cross because that's where time starts
-        crossings--;
-
-        if (firstCrossingTime == -1 || lastCrossingTime == -1) {
-            return 0.0;
-        }
+        int crossings = mCrossingCount - 1;
 
         long adjustedWindowMillis = lastCrossingTime - firstCrossingTime;
 
@@ -107,25 +110,115 @@ public class FrequencyBuffer implements ValueFilter {
         return userUnitFrequency;
     }
 
-    private double computeAverageValue() {
+    private void add(long timestamp, double value) {
+        if (mSize == mValues.length) {
+            grow();
+        }
+        int index = (mHead + mSize) & (mValues.length - 1);
+        mTimestamps[index] = timestamp;
+        mValues[index] = value;
+        mSize++;
+        mTotal += value;
+    }
+
+    private void prune(long timestamp) {
+        long oldestRemaining = timestamp - mWindow;
+        int mask = mValues.length - 1;
+        while (mSize > 0 && mTimestamps[mHead] < oldestRemaining) {
+            mTotal -= mValues[mHead];
+            mHead = (mHead + 1) & mask;
+            mSize--;
+            mFirstSequence++;
+            if (mHead == 0) {
+                // Once per trip around the ring, start the total afresh so that rounding errors
+                // from adding and subtracting don't build up.
+                recomputeTotal();
+            }
+        }
+        // A crossing at the oldest reading was from a reading that's no longer in the window.
+        int crossingMask = mCrossings.length - 1;
+        while (mCrossingCount > 0 && mCrossings[mCrossingHead] <= mFirstSequence) {
+            mCrossingHead = (mCrossingHead + 1) & crossingMask;
+            mCrossingCount--;
+        }
+    }
+
+    /**
+     * Compares every reading in the window to the current average, as after the window or filter
+     * changes.
+     */
+    private void recomputeCrossings() {
+        mCrossingHead = 0;
+        mCrossingCount = 0;
+        if (mSize == 0) {
+            return;
+        }
+        double threshold = getThreshold();
+        int mask = mValues.length - 1;
+        boolean aboveAverage = mValues[mHead] > threshold;
+        for (int i = 1; i < mSize; i++) {
+            boolean thisAboveAverage = mValues[(mHead + i) & mask] > threshold;
+            if (thisAboveAverage != aboveAverage) {
+                aboveAverage = thisAboveAverage;
+                addCrossing(mFirstSequence + i);
+            }
+        }
+        mNewestAboveAverage = aboveAverage;
+    }
+
+    private double getThreshold() {
         // TODO: if readings are not somewhat evenly distributed in time, we should weight
         // low-sampling-rate readings more heavily than high-sampling-rate.  But we'll just
         // assume for now that doesn't happen.
 
+        // Adding mFilter means that variations of less than mFilter won't register as cycles.
+        return mTotal / mSize + mFilter;
+    }
+
+    private void recomputeTotal() {
         double total = 0;
-        for (ScalarReading reading : mReadings) {
-            total += reading.getValue();
+        int mask = mValues.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            total += mValues[(mHead + i) & mask];
         }
-        // Adding mFilter means that variations of less than mFilter won't register as cycles.
-        return total / mReadings.size() + mFilter;
+        mTotal = total;
+    }
+
+    private void addCrossing(long sequence) {
+        // There is never more than one crossing per reading, and the crossings ring grows with
+        // the readings ring, so there is always room.
+        int index = (mCrossingHead + mCrossingCount) & (mCrossings.length - 1);
+        mCrossings[index] = sequence;
+        mCrossingCount++;
+    }
+
+    private long getCrossingTime(int crossing) {
+        long sequence = mCrossings[(mCrossingHead + crossing) & (mCrossings.length - 1)];
+        int index = (int) (mHead + sequence - mFirstSequence) & (mValues.length - 1);
+        return mTimestamps[index];
     }
 
     private long getNewestTimestamp() {
-        final ScalarReading mostRecentReading = mReadings.get(mReadings.size() - 1);
-        return mostRecentReading.getCollectedTimeMillis();
+        return mTimestamps[(mHead + mSize - 1) & (mValues.length - 1)];
     }
 
-    public void changeFilter(double newFilter) {
-        mFilter = newFilter;
+    private void grow() {
+        int capacity = mValues.length * 2;
+        long[] timestamps = new long[capacity];
+        double[] values = new double[capacity];
+        int mask = mValues.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            timestamps[i] = mTimestamps[(mHead + i) & mask];
+            values[i] = mValues[(mHead + i) & mask];
+        }
+        long[] crossings = new long[capacity];
+        for (int i = 0; i < mCrossingCount; i++) {
+            crossings[i] = mCrossings[(mCrossingHead + i) & mask];
+        }
+        mTimestamps = timestamps;
+        mValues = values;
+        mHead = 0;
+        mCrossings = crossings;
+        mCrossingHead = 0;
     }
 }
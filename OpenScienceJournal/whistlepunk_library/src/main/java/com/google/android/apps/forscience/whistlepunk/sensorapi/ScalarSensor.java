@@ -56,6 +56,7 @@ import com.google.common.base.Preconditions;
 import java.text.NumberFormat;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A SensorChoice that records a scalar value to the database and shows it onscreen as a linegraph.
@@ -63,17 +64,36 @@ import java.util.concurrent.Executor;
 public abstract class ScalarSensor extends SensorChoice implements FilterChangeListener {
     /**
      * The default zoom level available between sensor-data "tiers".  This means that each tier will
-     * contain 2 data points for every 20 in the tier below, so each tier has 10% of the data of
+     * contain 1 data point for every 20 in the tier below, so each tier has 5% of the data of
      * the next-lower tier.
      */
     public static final int DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS = 20;
 
+    /**
+     * Pass as the zoom level between tiers to choose one for each recording from how fast the
+     * sensor has been sending data; see {@link #getZoomLevelForDataRate(double)}.
+     */
+    public static final int ZOOM_LEVEL_FROM_DATA_RATE = 0;
+
+    // At the default zoom level, tier 1 of a fast sensor holds more data points per second than
+    // most sensors record, which costs writes without helping review.  Fast sensors zoom out
+    // further between tiers, so that tier 1 holds about this many data points per second.
+    private static final double TIER_ONE_READINGS_PER_SECOND = 10;
+    private static final int MAX_ZOOM_LEVEL_BETWEEN_TIERS = 100;
+
+    /**
+     * How new recordings choose the data points in each tier.  LTTB tiers keep the shape of the
+     * line with half as many points as min/max tiers, so reviewing a run loads fewer rows.
+     */
+    public static final int DEFAULT_TIER_STRATEGY = ZoomRecorder.TIER_STRATEGY_LTTB;
+
     private static final String TAG = "ScalarSensor";
     private static final double DENOMINATOR_FOR_RPMS = 60 * 1000.0;
     public static final String BUNDLE_KEY_SENSOR_VALUE = "key_sensor_value";
 
     private final FailureListener mDataFailureListener;
     private final int mZoomLevelBetweenTiers;
+    private final @ZoomRecorder.TierStrategy int mTierStrategy;
 
     private final long mDefaultGraphRange;
     private Executor mUiThreadExecutor;
@@ -81,24 +101,33 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
     private ChartController mChartController;
     private AudioGenerator mAudioGenerator;
     private final Clock mClock;
+    private final AtomicLong mShedPointCount = new AtomicLong();
 
     public ScalarSensor(String id) {
-        this(id, AppSingleton.getUiThreadExecutor());
+        this(id, AppSingleton.getUiFrameExecutor());
     }
 
+    /**
+     * @param uiThreadExecutor runs work on the UI thread, including delivering data to observers.
+     *                         Data that arrives while a delivery is waiting joins it, so an
+     *                         executor that waits for the next frame, like
+     *                         {@link AppSingleton#getUiFrameExecutor()}, delivers data at most
+     *                         once per frame.
+     */
     @VisibleForTesting
     public ScalarSensor(String id, Executor uiThreadExecutor) {
         this(id, ExternalAxisController.DEFAULT_GRAPH_RANGE_IN_MILLIS, uiThreadExecutor,
-                DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS, new UptimeClock());
+                ZOOM_LEVEL_FROM_DATA_RATE, DEFAULT_TIER_STRATEGY, new UptimeClock());
     }
 
     @VisibleForTesting
     ScalarSensor(String id, long defaultGraphRange, Executor uiThreadExecutor,
-            int zoomLevelBetweenTiers, Clock clock) {
+            int zoomLevelBetweenTiers, @ZoomRecorder.TierStrategy int tierStrategy, Clock clock) {
         super(id);
         mDefaultGraphRange = defaultGraphRange;
         mUiThreadExecutor = uiThreadExecutor;
         mZoomLevelBetweenTiers = zoomLevelBetweenTiers;
+        mTierStrategy = tierStrategy;
         mDataFailureListener = new FailureListener() {
             @Override
             public void fail(Exception e) {
@@ -110,6 +139,15 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         mClock = clock;
     }
 
+    /**
+     * @return how many data points have been left off the display, across all of this sensor's
+     * observers, because the UI thread fell behind.  They are still recorded.  See
+     * {@link SensorDataRing}.
+     */
+    public long getShedPointCount() {
+        return mShedPointCount.get();
+    }
+
     @Override
     public SensorPresenter createPresenter(final DataViewOptions dataViewOptions,
             NumberFormat statsNumberFormat, StatsListener statsListener) {
@@ -355,13 +393,11 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         final RecordingDataController dataController = Preconditions.checkNotNull(
                 environment.getDataController());
 
-        // We need twice the buffer as the zoom level, because in this implementation of zoom, we
-        // decided to store min and max data points at each level.
-        // TODO: make this configurable?
-        int zoomBufferSize = mZoomLevelBetweenTiers * 2;
-        final ZoomRecorder zoomRecorder = new ZoomRecorder(getId(), zoomBufferSize, 1);
+        final ZoomRecorder zoomRecorder = ZoomRecorder.create(getId(),
+                chooseZoomLevelBetweenTiers(0), mTierStrategy, getMaxTierCount());
+        final SummaryRecorder summaryRecorder = new SummaryRecorder(getId());
         final ScalarStreamConsumer consumer = new ScalarStreamConsumer(statsAccumulator, observer,
-                dataController, zoomRecorder);
+                dataController, zoomRecorder, summaryRecorder);
         final SensorRecorder recorder = makeScalarControl(consumer, environment, context, listener);
         return new DelegatingSensorRecorder(recorder) {
             private String mRunId;
@@ -375,6 +411,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             @Override
             public void stopObserving() {
                 super.stopObserving();
+                // Write readings still waiting in the batch now, rather than after its delay.
+                dataController.flushScalarReadings();
                 dataController.clearDataErrorListenerForSensor(getId());
             }
 
@@ -382,7 +420,9 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
             public void startRecording(String runId) {
                 mRunId = runId;
                 statsAccumulator.clearStats();
-                zoomRecorder.clear();
+                zoomRecorder.clear(
+                        chooseZoomLevelBetweenTiers(consumer.getObservedReadingsPerSecond()));
+                summaryRecorder.clear();
                 consumer.startRecording();
                 super.startRecording(runId);
             }
@@ -395,7 +435,9 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
                 trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT,
                         zoomRecorder.countTiers());
                 trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS,
-                        mZoomLevelBetweenTiers);
+                        zoomRecorder.getZoomLevelBetweenTiers());
+                trialStats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY,
+                        mTierStrategy);
                 if (trialToUpdate != null) {
                     trialToUpdate.setStats(trialStats);
                 }
@@ -410,6 +452,32 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         };
     }
 
+    private int chooseZoomLevelBetweenTiers(double readingsPerSecond) {
+        if (mZoomLevelBetweenTiers != ZOOM_LEVEL_FROM_DATA_RATE) {
+            return mZoomLevelBetweenTiers;
+        }
+        return getZoomLevelForDataRate(readingsPerSecond);
+    }
+
+    /**
+     * @return the zoom level between tiers for a sensor that sends about
+     * {@code readingsPerSecond}: the default for most sensors, and more for fast ones.
+     */
+    @VisibleForTesting
+    public static int getZoomLevelForDataRate(double readingsPerSecond) {
+        int zoomLevel = (int) Math.ceil(readingsPerSecond / TIER_ONE_READINGS_PER_SECOND);
+        return Math.max(DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                Math.min(MAX_ZOOM_LEVEL_BETWEEN_TIERS, zoomLevel));
+    }
+
+    /**
+     * @return the most zoom tiers to store for this sensor's recordings, counting tier 0.
+     * Sensors whose recordings are never zoomed out far may store fewer.
+     */
+    protected int getMaxTierCount() {
+        return ZoomRecorder.DEFAULT_MAX_TIER_COUNT;
+    }
+
     public static ValueFilter computeValueFilter(long newWindow, double newFilter,
             boolean newEnabled, GoosciSensorConfig.BleSensorConfig.ScaleTransform scaleTransform) {
         ValueFilter valueFilter = computeFrequencyFilter(newWindow, newFilter, newEnabled);
@@ -457,18 +525,25 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         private final StatsAccumulator mStatsAccumulator;
         private final RecordingDataController mDataController;
         private final ZoomRecorder mZoomRecorder;
+        private final SummaryRecorder mSummaryRecorder;
         private boolean mIsRecording = false;
         private long mLastDataTimestampMillis = NO_DATA_RECORDED;
         private long mTimestampBeforeRecordingStart = NO_DATA_RECORDED;
-        private SensorMessage.Pool mMessagePool;
+        private long mFirstDataTimestampMillis = NO_DATA_RECORDED;
+        private long mDataCount = 0;
+        private final SensorDataRing mDataRing;
+        private final SensorObserver.Data mObservedData = new SensorObserver.Data();
+        private long[] mBatchTimestamps = new long[0];
+        private double[] mBatchValues = new double[0];
 
         public ScalarStreamConsumer(StatsAccumulator statsAccumulator,
                 SensorObserver observer, RecordingDataController dataController,
-                ZoomRecorder zoomRecorder) {
+                ZoomRecorder zoomRecorder, SummaryRecorder summaryRecorder) {
             mStatsAccumulator = statsAccumulator;
             mDataController = dataController;
             mZoomRecorder = zoomRecorder;
-            mMessagePool = new SensorMessage.Pool(observer);
+            mSummaryRecorder = summaryRecorder;
+            mDataRing = new SensorDataRing(observer, mUiThreadExecutor, mShedPointCount);
         }
 
         public void startRecording() {
@@ -479,6 +554,8 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
         public void stopRecording() {
             mIsRecording = false;
             mZoomRecorder.flushAllTiers(mDataController);
+            mSummaryRecorder.flush(mDataController);
+            mDataController.flushScalarReadings();
         }
 
         public boolean maintainsTimeSeries(final long timestampMillis) {
@@ -495,29 +572,72 @@ public abstract class ScalarSensor extends SensorChoice implements FilterChangeL
                 return false;
             }
             value = maybeFilter(timestampMillis, value);
+            acceptData(timestampMillis, value);
+            return true;
+        }
+
+        @Override
+        public void addData(long[] timestampsMillis, double[] values, int from, int count) {
+            ensureBatchCapacity(count);
+            int accepted = 0;
+            long lastTimestamp = mLastDataTimestampMillis;
+            for (int i = from; i < from + count; i++) {
+                if (timestampsMillis[i] > lastTimestamp) {
+                    lastTimestamp = timestampsMillis[i];
+                    mBatchTimestamps[accepted] = lastTimestamp;
+                    mBatchValues[accepted] = values[i];
+                    accepted++;
+                }
+            }
+            if (mValueFilter != null) {
+                // One call per batch, so a composed filter runs each stage over the whole batch.
+                mValueFilter.filterValues(mBatchTimestamps, mBatchValues, accepted);
+            }
+            for (int i = 0; i < accepted; i++) {
+                acceptData(mBatchTimestamps[i], mBatchValues[i]);
+            }
+        }
+
+        private void ensureBatchCapacity(int count) {
+            if (mBatchTimestamps.length < count) {
+                mBatchTimestamps = new long[count];
+                mBatchValues = new double[count];
+            }
+        }
+
+        private void acceptData(long timestampMillis, double value) {
             observeData(timestampMillis, value);
             recordData(timestampMillis, value);
+            if (mDataCount == 0) {
+                mFirstDataTimestampMillis = timestampMillis;
+            }
+            mDataCount++;
             mLastDataTimestampMillis = timestampMillis;
-            return true;
         }
 
-        public void observeData(final long timestampMillis, double value) {
-            // Each call to obtain is guaranteed to retrieve a currently-unused message...
-            SensorMessage message = mMessagePool.obtain();
+        /**
+         * @return the mean rate of the data seen so far, or 0 if it is not yet known
+         */
+        public double getObservedReadingsPerSecond() {
+            long elapsed = mLastDataTimestampMillis - mFirstDataTimestampMillis;
+            if (mDataCount < 2 || elapsed <= 0) {
+                return 0;
+            }
+            return (mDataCount - 1) * 1000.0 / elapsed;
+        }
 
-            // ...which is set up with the correct values here...
-            message.setTimestamp(timestampMillis);
-            message.getData().setValue(value);
+        public void observeData(final long timestampMillis, double value) {
             mStatsAccumulator.updateRecordingStreamStats(timestampMillis, value);
-            mStatsAccumulator.addStatsToBundle(message.getData());
-
-            // ..and will be cleared and released back to the message pool when getRunnable is run.
-            runOnMainThread(message.getRunnable());
+            mObservedData.setValue(value);
+            mStatsAccumulator.addStatsToBundle(mObservedData);
+            // The ring copies the data, and delivers it along with any other waiting data.
+            mDataRing.add(timestampMillis, mObservedData);
         }
 
         public void recordData(long timestampMillis, double value) {
             if (mIsRecording) {
                 mZoomRecorder.addData(timestampMillis, value, mDataController);
+                mSummaryRecorder.addData(timestampMillis, value, mDataController);
                 mDataController.addScalarReading(getId(), 0, timestampMillis, value);
             }
         }
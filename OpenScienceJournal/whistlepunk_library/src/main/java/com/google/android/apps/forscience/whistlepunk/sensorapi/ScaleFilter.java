@@ -23,23 +23,44 @@ import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorConfig.Bl
  * Filter that applies a linear function to the incoming function
  */
 public class ScaleFilter implements ValueFilter {
-    private final double mSourceBottom;
-    private final double mDestBottom;
-    private final double mSourceRange;
-    private final double mDestRange;
+    // The function, as value * mScale + mOffset
+    private final double mScale;
+    private final double mOffset;
 
     public ScaleFilter(ScaleTransform transform) {
-        mSourceBottom = transform.sourceBottom;
-        mSourceRange = transform.sourceTop - mSourceBottom;
-        mDestBottom = transform.destBottom;
-        mDestRange = transform.destTop - mDestBottom;
+        // Maps sourceBottom to destBottom and sourceTop to destTop.
+        this(getScale(transform), transform.destBottom
+                - transform.sourceBottom * getScale(transform));
+    }
+
+    private static double getScale(ScaleTransform transform) {
+        return (transform.destTop - transform.destBottom)
+                / (transform.sourceTop - transform.sourceBottom);
+    }
+
+    ScaleFilter(double scale, double offset) {
+        mScale = scale;
+        mOffset = offset;
+    }
+
+    /**
+     * @return a filter that applies this filter and then {@code next}, in one step
+     */
+    public ScaleFilter andThen(ScaleFilter next) {
+        return new ScaleFilter(mScale * next.mScale, mOffset * next.mScale + next.mOffset);
     }
 
     @Override
     public double filterValue(long timestamp, double value) {
-        double ratio = (value - mSourceBottom) / mSourceRange;
-        double transformed = (ratio * mDestRange) + mDestBottom;
-        return transformed;
+        return value * mScale + mOffset;
     }
 
+    @Override
+    public void filterValues(long[] timestamps, double[] values, int count) {
+        final double scale = mScale;
+        final double offset = mOffset;
+        for (int i = 0; i < count; i++) {
+            values[i] = values[i] * scale + offset;
+        }
+    }
 }
@@ -0,0 +1,252 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carries one sensor's data from the thread that produces it to the observer on the UI thread.
+ *
+ * The producer adds each data point to a fixed-size ring, and only asks the UI executor to
+ * deliver them if a delivery isn't already waiting.  The delivery hands the observer every point
+ * that has arrived since the last one, so a fast sensor costs the UI thread one message for each
+ * delivery rather than one for each data point.  With an executor that runs commands at the next
+ * frame, that is at most one message per frame.
+ *
+ * The ring is lock-free, for exactly one producer thread and one UI thread.
+ *
+ * When the UI thread stalls, for example during a scroll or a garbage collection, points pile up
+ * faster than they are delivered.  Rather than make the observer catch up on every stale point,
+ * a delivery of more than a set number of points sheds the points in between: they are collapsed
+ * into the min and max of each of a few runs of points, followed by the latest point.  If the
+ * observer is a {@link SplitObserver}, only its display is shed to; the consumers that act on
+ * each point, like triggers, are still handed every point first.  If the UI thread falls so far
+ * behind that the ring fills, new points are shed until it catches up, and those are lost to
+ * every consumer.  Shed points are still recorded, since recording doesn't go through the ring,
+ * and are counted so that the limits can be tuned.
+ */
+public class SensorDataRing {
+    /**
+     * About 5 seconds of data from a 200 Hz sensor.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * More than a frame's worth from any sensor we support, so points are only shed when the UI
+     * thread has stalled.
+     */
+    public static final int DEFAULT_MAX_DELIVERED_POINTS = 100;
+
+    /**
+     * An observer with two kinds of consumers: some, like triggers, that act on each data point,
+     * and some that only display them.  Its own {@link #onNewData} hands a point to both.
+     */
+    public interface SplitObserver extends SensorObserver {
+        /**
+         * @return the consumers that must see every point
+         */
+        SensorObserver getEveryPointObserver();
+
+        /**
+         * @return the consumers that may be handed fewer points when the UI thread falls behind
+         */
+        SensorObserver getDisplayObserver();
+    }
+
+    // Null unless the observer is a SplitObserver.
+    private final SensorObserver mEveryPointObserver;
+    private final SensorObserver mObserver;
+    private final Executor mUiThreadExecutor;
+    private final int mMaxDeliveredPoints;
+    private final AtomicLong mShedCount;
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private final double[] mMins;
+    private final double[] mMaxes;
+    private final double[] mAverages;
+
+    // How many points have ever been added and delivered.  Each count is only written by one
+    // thread, and lazySet publishes the slots it covers to the other.
+    private final AtomicLong mAddedCount = new AtomicLong();
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+    private final AtomicBoolean mDeliveryWaiting = new AtomicBoolean();
+
+    private final SensorObserver.Data mDeliveredData = new SensorObserver.Data();
+    private final Runnable mDelivery = this::deliver;
+
+    /**
+     * @param capacity the most points that can wait for delivery; must be a power of 2
+     * @param maxDeliveredPoints the most points to hand the observer in one delivery; at least 3
+     * @param shedCount counts the points that are not delivered
+     */
+    public SensorDataRing(SensorObserver observer, Executor uiThreadExecutor, int capacity,
+            int maxDeliveredPoints, AtomicLong shedCount) {
+        Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1);
+        Preconditions.checkArgument(maxDeliveredPoints >= 3);
+        if (observer instanceof SplitObserver) {
+            mEveryPointObserver = ((SplitObserver) observer).getEveryPointObserver();
+            mObserver = ((SplitObserver) observer).getDisplayObserver();
+        } else {
+            mEveryPointObserver = null;
+            mObserver = observer;
+        }
+        mUiThreadExecutor = uiThreadExecutor;
+        mMaxDeliveredPoints = maxDeliveredPoints;
+        mShedCount = shedCount;
+        mMask = capacity - 1;
+        mTimestamps = new long[capacity];
+        mValues = new double[capacity];
+        mMins = new double[capacity];
+        mMaxes = new double[capacity];
+        mAverages = new double[capacity];
+    }
+
+    public SensorDataRing(SensorObserver observer, Executor uiThreadExecutor,
+            AtomicLong shedCount) {
+        this(observer, uiThreadExecutor, DEFAULT_CAPACITY, DEFAULT_MAX_DELIVERED_POINTS,
+                shedCount);
+    }
+
+    /**
+     * Queues the value and stats in {@code data} for delivery.  {@code data} is copied, so the
+     * producer may reuse it.  Must only be called from the producer thread.
+     *
+     * @return false if the ring was full, so the point was shed
+     */
+    public boolean add(long timestampMillis, SensorObserver.Data data) {
+        long added = mAddedCount.get();
+        boolean fits = added - mDeliveredCount.get() <= mMask;
+        if (fits) {
+            int slot = (int) added & mMask;
+            mTimestamps[slot] = timestampMillis;
+            mValues[slot] = data.getValue();
+            mMins[slot] = data.min;
+            mMaxes[slot] = data.max;
+            mAverages[slot] = data.average;
+            mAddedCount.lazySet(added + 1);
+        } else {
+            mShedCount.incrementAndGet();
+        }
+        if (mDeliveryWaiting.compareAndSet(false, true)) {
+            mUiThreadExecutor.execute(mDelivery);
+        }
+        return fits;
+    }
+
+    private void deliver() {
+        // Cleared first, so that a point added during this delivery asks for another.
+        mDeliveryWaiting.set(false);
+        long delivered = mDeliveredCount.get();
+        long added = mAddedCount.get();
+        if (added - delivered > mMaxDeliveredPoints) {
+            if (mEveryPointObserver != null) {
+                for (long i = delivered; i < added; i++) {
+                    observeSlot(mEveryPointObserver, (int) i & mMask);
+                }
+            }
+            deliverCollapsed(delivered, added);
+            return;
+        }
+        while (delivered < added) {
+            int slot = (int) delivered & mMask;
+            if (mEveryPointObserver != null) {
+                observeSlot(mEveryPointObserver, slot);
+            }
+            deliverSlot(slot, delivered + 1);
+            delivered++;
+        }
+    }
+
+    /**
+     * Delivers the min and max of each of a few runs of the points from {@code delivered} up to
+     * {@code added}, and then the last point, shedding the others.
+     */
+    private void deliverCollapsed(long delivered, long added) {
+        // The last point is delivered on its own, so that the observer is up to date.
+        long last = added - 1;
+        long runCount = (mMaxDeliveredPoints - 1) / 2;
+        long runPoints = last - delivered;
+        int deliveredPoints = 0;
+        long runStart = delivered;
+        for (long run = 0; run < runCount; run++) {
+            long runEnd = delivered + runPoints * (run + 1) / runCount;
+            if (runEnd == runStart) {
+                continue;
+            }
+            int minSlot = (int) runStart & mMask;
+            int maxSlot = minSlot;
+            for (long i = runStart + 1; i < runEnd; i++) {
+                int slot = (int) i & mMask;
+                if (mValues[slot] < mValues[minSlot]) {
+                    minSlot = slot;
+                }
+                if (mValues[slot] > mValues[maxSlot]) {
+                    maxSlot = slot;
+                }
+            }
+            // Delivered in time order; each delivery frees the run's slots.
+            int firstSlot = mTimestamps[minSlot] <= mTimestamps[maxSlot] ? minSlot : maxSlot;
+            int secondSlot = firstSlot == minSlot ? maxSlot : minSlot;
+            if (firstSlot != secondSlot) {
+                deliverSlot(firstSlot, runStart);
+                deliveredPoints++;
+            }
+            deliverSlot(secondSlot, runEnd);
+            deliveredPoints++;
+            runStart = runEnd;
+        }
+        deliverSlot((int) last & mMask, added);
+        deliveredPoints++;
+        mShedCount.addAndGet(added - delivered - deliveredPoints);
+    }
+
+    /**
+     * Hands the point in {@code slot} to the display observer, after marking the points before
+     * {@code deliveredCount} as delivered.
+     */
+    private void deliverSlot(int slot, long deliveredCount) {
+        long timestamp = mTimestamps[slot];
+        SensorObserver.Data data = copySlot(slot);
+        // The point has been copied out, so its slot can be reused.
+        mDeliveredCount.lazySet(deliveredCount);
+        mObserver.onNewData(timestamp, data);
+        data.clear();
+    }
+
+    /**
+     * Hands the point in {@code slot} to {@code observer}, without freeing the slot.
+     */
+    private void observeSlot(SensorObserver observer, int slot) {
+        SensorObserver.Data data = copySlot(slot);
+        observer.onNewData(mTimestamps[slot], data);
+        data.clear();
+    }
+
+    private SensorObserver.Data copySlot(int slot) {
+        SensorObserver.Data data = mDeliveredData;
+        data.setValue(mValues[slot]);
+        data.min = mMins[slot];
+        data.max = mMaxes[slot];
+        data.average = mAverages[slot];
+        return data;
+    }
+}
@@ -18,6 +18,9 @@ package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
 /**
  * Consumes new single-value time-series data points as they are generated.
+ *
+ * Consumers that only need {@link #addData(long, double)} can extend
+ * {@link AbstractStreamConsumer}.
  */
 public interface StreamConsumer {
     /**
@@ -26,4 +29,11 @@ public interface StreamConsumer {
      * @return true if data was successfully accepted by the consumer
      */
     boolean addData(long timestampMillis, double value);
+
+    /**
+     * Several new values have been seen, in order: the {@code count} values starting at
+     * {@code from}.  The same as calling {@link #addData(long, double)} on each, but lets the
+     * consumer handle them together.  The arrays belong to the caller and must not be changed.
+     */
+    void addData(long[] timestampsMillis, double[] values, int from, int count);
 }
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
+
+/**
+ * Stores a summary of the recorded readings in each fixed block of time, so that stats for any
+ * range of a recording can be computed from a few summaries instead of every reading.
+ */
+public class SummaryRecorder {
+    /**
+     * Length of each summarized block.  An hour of recording is 360 summaries.
+     */
+    public static final long DEFAULT_BLOCK_MILLIS = 10000;
+
+    private final String mSensorId;
+    private final long mBlockMillis;
+    private long mCurrentBlock;
+    private final ScalarSummary mSummary = new ScalarSummary();
+
+    public SummaryRecorder(String sensorId) {
+        this(sensorId, DEFAULT_BLOCK_MILLIS);
+    }
+
+    public SummaryRecorder(String sensorId, long blockMillis) {
+        mSensorId = sensorId;
+        mBlockMillis = blockMillis;
+    }
+
+    /**
+     * Forgets any readings not yet stored.
+     */
+    public void clear() {
+        mSummary.clear();
+    }
+
+    /**
+     * Readings must be added in timestamp order.
+     */
+    public void addData(long timestampMillis, double value, RecordingDataController dc) {
+        long block = timestampMillis / mBlockMillis;
+        if (block != mCurrentBlock) {
+            flush(dc);
+            mCurrentBlock = block;
+        }
+        mSummary.add(timestampMillis, value);
+    }
+
+    /**
+     * Stores the summary of the current, partly-filled block.  Call this when recording stops.
+     */
+    public void flush(RecordingDataController dc) {
+        if (!mSummary.isEmpty()) {
+            // The data controller copies the summary, so it can be reused.
+            dc.addScalarSummary(mSensorId, mSummary);
+            mSummary.clear();
+        }
+    }
+}
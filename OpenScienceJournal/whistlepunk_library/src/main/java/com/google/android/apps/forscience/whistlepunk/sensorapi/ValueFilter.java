@@ -19,6 +19,8 @@ package com.google.android.apps.forscience.whistlepunk.sensorapi;
 /**
  * Takes a stream of scalar values, and produces an altered stream of scalar values having the same
  * timestamps.  Can be used to do simple frequency extraction, or re-scale units.
+ *
+ * Filters that only need {@link #filterValue} can extend {@link AbstractValueFilter}.
  */
 public interface ValueFilter {
     ValueFilter IDENTITY = new ValueFilter() {
@@ -26,7 +28,19 @@ public interface ValueFilter {
         public double filterValue(long timestamp, double value) {
             return value;
         }
+
+        @Override
+        public void filterValues(long[] timestamps, double[] values, int count) {
+            // Nothing to change
+        }
     };
 
     double filterValue(long timestamp, double value);
+
+    /**
+     * Filters the first {@code count} values in place, in order, with the same result as calling
+     * {@link #filterValue} on each.  One call per batch saves a call through each filter in a
+     * chain for every value.
+     */
+    void filterValues(long[] timestamps, double[] values, int count);
 }
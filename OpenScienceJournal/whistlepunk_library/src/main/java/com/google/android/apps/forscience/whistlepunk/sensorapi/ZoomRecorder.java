@@ -16,14 +16,30 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
+import android.support.annotation.IntDef;
+
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.common.base.Preconditions;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
 
 /**
- * Stores data at multiple granularities.  For each run of N*2 data points in tier X, there are 2
- * data points in tier X+1, and those are the max and min data points over that run.
+ * Stores data at multiple granularities.  Each run of readings in tier X is represented by a few
+ * readings in tier X+1, chosen by the recorder's {@link TierStrategy}:
+ *
+ * {@link #TIER_STRATEGY_MIN_MAX} stores the max and min data points over each run of N*2 data
+ * points.  This seems to allow us to capture the general shape of the graph better than trying
+ * to, for example, synthesize an "average" data point for the run, but zoomed-out charts show a
+ * jagged envelope.
  *
- * This seems to allow us to capture the general shape of the graph better than trying to, for
- * example, synthesize an "average" data point for the run.
+ * {@link #TIER_STRATEGY_LTTB} stores the one data point in each run of N that best keeps the shape
+ * of the line, using Largest-Triangle-Three-Buckets: the point that makes the largest triangle
+ * with the point chosen for the previous run and the average of the next run.  Since it waits for
+ * the next run, each tier holds back one run until it is flushed.
  */
 public class ZoomRecorder {
     /**
@@ -38,94 +54,404 @@ public class ZoomRecorder {
      */
     public static final String STATS_KEY_ZOOM_LEVEL_BETWEEN_TIERS = "stats_zoom_level";
 
-    private final String mSensorId;
-    private final int mZoomBufferSize;
-    private final int mTier;
+    /**
+     * Statistics key for the {@link TierStrategy} used to choose the data points in each tier.
+     * Runs recorded without it used {@link #TIER_STRATEGY_MIN_MAX}.
+     */
+    public static final String STATS_KEY_TIER_STRATEGY = "stats_tier_strategy";
 
-    private int mSeenThisPass = 0;
-    private long mTimestampOfMinSeen;
-    private double mValueOfMinSeen;
-    private long mTimestampOfMaxSeen;
-    private double mValueOfMaxSeen;
-    private ZoomRecorder mNextTierUp = null;
+    @IntDef({TIER_STRATEGY_MIN_MAX, TIER_STRATEGY_LTTB})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface TierStrategy {}
+
+    public static final int TIER_STRATEGY_MIN_MAX = 0;
+    public static final int TIER_STRATEGY_LTTB = 1;
 
     /**
-     * @param zoomBufferSize how many data points we can store before sending summary data points to
-     *                       the next tier up.  Note that since we send 2 summary points per buffer,
-     *                       (max and min), each tier will hold (2 / zoomBufferSize) as many data
-     *                       points as the next tier down.
+     * Default for {@link #create(String, int, int)}.  With the default zoom level, the top tier
+     * would hold one data point for every billion or so recorded, so recordings are never long
+     * enough to reach it.
      */
-    public ZoomRecorder(String id, int zoomBufferSize, int tier) {
+    public static final int DEFAULT_MAX_TIER_COUNT = 8;
+
+    // Each sampler chooses at most this many data points for each data point added to it, or
+    // when it is flushed.
+    private static final int MAX_CHOSEN_AT_ONCE = 2;
+
+    private final String mSensorId;
+    private final @TierStrategy int mStrategy;
+    private final int mMaxTierCount;
+    private int mZoomLevelBetweenTiers;
+    private int mZoomBufferSize;
+
+    // mTiers[t] chooses the data points stored at tier t from those of tier t - 1; slot 0 is
+    // unused.  Samplers are made when their tier is first reached, and reused after clear().
+    private final TierSampler[] mTiers;
+    private int mTierCount = 1;
+
+    // Data points chosen at one tier, waiting to be added to the tier above.  Handing them up a
+    // tier at a time keeps the cascade flat, however many tiers it reaches.
+    private long[] mChosenTimestamps = new long[MAX_CHOSEN_AT_ONCE];
+    private double[] mChosenValues = new double[MAX_CHOSEN_AT_ONCE];
+    private int mChosenCount = 0;
+    private long[] mAddingTimestamps = new long[MAX_CHOSEN_AT_ONCE];
+    private double[] mAddingValues = new double[MAX_CHOSEN_AT_ONCE];
+
+    private ZoomRecorder(String id, int zoomLevelBetweenTiers, @TierStrategy int strategy,
+            int maxTierCount) {
+        Preconditions.checkArgument(zoomLevelBetweenTiers >= 2);
+        Preconditions.checkArgument(maxTierCount >= 1);
         mSensorId = id;
-        mTier = tier;
-        mZoomBufferSize = zoomBufferSize;
-        resetBuffer();
+        mStrategy = strategy;
+        mMaxTierCount = maxTierCount;
+        mTiers = new TierSampler[maxTierCount];
+        setZoomLevelBetweenTiers(zoomLevelBetweenTiers);
+    }
+
+    /**
+     * @return a recorder for tier 1 and up, in which each tier holds 1 data point for every
+     * {@code zoomLevelBetweenTiers} in the tier below.
+     */
+    public static ZoomRecorder create(String id, int zoomLevelBetweenTiers,
+            @TierStrategy int strategy) {
+        return create(id, zoomLevelBetweenTiers, strategy, DEFAULT_MAX_TIER_COUNT);
+    }
+
+    /**
+     * @param maxTierCount the most tiers to store, counting tier 0.  Data points are not handed
+     *                     up from the top tier.
+     */
+    public static ZoomRecorder create(String id, int zoomLevelBetweenTiers,
+            @TierStrategy int strategy, int maxTierCount) {
+        return new ZoomRecorder(id, zoomLevelBetweenTiers, strategy, maxTierCount);
+    }
+
+    /**
+     * @return how many data points {@code strategy} stores for each run of data points in the
+     * tier below
+     */
+    public static int getPointsPerWindow(@TierStrategy int strategy) {
+        return strategy == TIER_STRATEGY_LTTB ? 1 : 2;
+    }
+
+    /**
+     * @return the strategy that the tiers of a sensor's readings in a trial were recorded with
+     */
+    public static @TierStrategy int getTierStrategy(TrialStats trialStats) {
+        // Runs recorded before tier strategies were saved used min/max tiers.
+        return (int) trialStats.getStatValue(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY,
+                TIER_STRATEGY_MIN_MAX);
+    }
+
+    public int getZoomLevelBetweenTiers() {
+        return mZoomLevelBetweenTiers;
+    }
+
+    public @TierStrategy int getTierStrategy() {
+        return mStrategy;
     }
 
     public void clear() {
-        mNextTierUp = null;
-        resetBuffer();
+        for (int tier = 1; tier < mMaxTierCount; tier++) {
+            if (mTiers[tier] != null) {
+                mTiers[tier].reset();
+            }
+        }
+        mTierCount = 1;
+        mChosenCount = 0;
     }
 
-    private void resetBuffer() {
-        mSeenThisPass = 0;
-        mValueOfMinSeen = Double.MAX_VALUE;
-        mValueOfMaxSeen = -Double.MAX_VALUE;
-        mTimestampOfMaxSeen = mTimestampOfMinSeen = -1;
+    /**
+     * Like {@link #clear()}, and stores the following data points with a new zoom level between
+     * tiers, for example one suited to how fast the sensor turned out to send data.
+     */
+    public void clear(int zoomLevelBetweenTiers) {
+        Preconditions.checkArgument(zoomLevelBetweenTiers >= 2);
+        if (zoomLevelBetweenTiers != mZoomLevelBetweenTiers) {
+            setZoomLevelBetweenTiers(zoomLevelBetweenTiers);
+        }
+        clear();
+    }
+
+    private void setZoomLevelBetweenTiers(int zoomLevelBetweenTiers) {
+        mZoomLevelBetweenTiers = zoomLevelBetweenTiers;
+        mZoomBufferSize = zoomLevelBetweenTiers * getPointsPerWindow(mStrategy);
+        // Samplers may hold buffers of the old size, so make new ones as they are needed.
+        Arrays.fill(mTiers, null);
     }
 
     public void addData(long timestampMillis, double value, RecordingDataController dc) {
-        mSeenThisPass++;
-        if (value > mValueOfMaxSeen) {
-            mValueOfMaxSeen = value;
-            mTimestampOfMaxSeen = timestampMillis;
+        if (mMaxTierCount > 1) {
+            getTier(1).addData(timestampMillis, value, dc);
+            handChosenUpFrom(1, dc);
         }
-        if (value < mValueOfMinSeen) {
-            mValueOfMinSeen = value;
-            mTimestampOfMinSeen = timestampMillis;
-        }
-        if (mSeenThisPass == mZoomBufferSize) {
-            flush(dc);
+    }
+
+    /**
+     * Adds the data points just chosen at {@code tier} to the tiers above it in turn, until a
+     * tier chooses none or the top tier is reached.
+     */
+    private void handChosenUpFrom(int tier, RecordingDataController dc) {
+        while (mChosenCount > 0 && ++tier < mMaxTierCount) {
+            long[] timestamps = mChosenTimestamps;
+            double[] values = mChosenValues;
+            int count = mChosenCount;
+            mChosenTimestamps = mAddingTimestamps;
+            mChosenValues = mAddingValues;
+            mChosenCount = 0;
+            mAddingTimestamps = timestamps;
+            mAddingValues = values;
+
+            TierSampler sampler = getTier(tier);
+            for (int i = 0; i < count; i++) {
+                sampler.addData(timestamps[i], values[i], dc);
+            }
         }
+        mChosenCount = 0;
     }
 
-    private void addReadingAtThisTier(RecordingDataController dc, long timestamp,
+    private void addReadingAtTier(int tier, RecordingDataController dc, long timestamp,
             double value) {
-        dc.addScalarReading(mSensorId, mTier, timestamp, value);
-        getNextTierUp().addData(timestamp, value, dc);
+        dc.addScalarReading(mSensorId, tier, timestamp, value);
+        if (tier >= mTierCount) {
+            mTierCount = tier + 1;
+        }
+        mChosenTimestamps[mChosenCount] = timestamp;
+        mChosenValues[mChosenCount] = value;
+        mChosenCount++;
     }
 
-    private ZoomRecorder getNextTierUp() {
-        if (mNextTierUp == null) {
-            mNextTierUp = new ZoomRecorder(mSensorId, mZoomBufferSize, mTier + 1);
+    private TierSampler getTier(int tier) {
+        TierSampler sampler = mTiers[tier];
+        if (sampler == null) {
+            sampler = mStrategy == TIER_STRATEGY_LTTB ? new LttbSampler(tier)
+                    : new MinMaxSampler(tier);
+            mTiers[tier] = sampler;
         }
-        return mNextTierUp;
+        return sampler;
     }
 
+    /**
+     * @return the number of tiers that have stored data so far, counting tier 0.  Must be called
+     * before {@link #flushAllTiers}, which forgets the tiers.
+     */
     public int countTiers() {
-        if (mNextTierUp == null) {
-            // If we don't have a parent, then we haven't written anything at our level yet, so
-            // the total count is our tier number
-            return mTier;
-        } else {
-            return mNextTierUp.countTiers();
-        }
+        return mTierCount;
     }
 
+    /**
+     * Stores the data points held back at each tier, from the top tier down, without handing
+     * them up any further, and then forgets every tier.
+     */
     public void flushAllTiers(RecordingDataController dc) {
-        if (mNextTierUp != null) {
-            mNextTierUp.flushAllTiers(dc);
-            mNextTierUp = null;
+        for (int tier = Math.min(mTierCount, mMaxTierCount - 1); tier >= 1; tier--) {
+            if (mTiers[tier] != null) {
+                mTiers[tier].flush(dc);
+                mChosenCount = 0;
+            }
         }
-        flush(dc);
+        clear();
     }
 
+    /**
+     * Stores the data points held back at tier 1, and hands them up to the tiers above.
+     */
     public void flush(RecordingDataController dc) {
-        if (mSeenThisPass > 0) {
-            // order of adding data to DB doesn't matter
-            addReadingAtThisTier(dc, mTimestampOfMinSeen, mValueOfMinSeen);
-            addReadingAtThisTier(dc, mTimestampOfMaxSeen, mValueOfMaxSeen);
-            resetBuffer();
+        if (mTiers.length > 1 && mTiers[1] != null) {
+            mTiers[1].flush(dc);
+            handChosenUpFrom(1, dc);
+        }
+    }
+
+    /**
+     * Chooses the data points to store at this tier from the data points of the tier below.
+     */
+    private abstract class TierSampler {
+        final int mTier;
+
+        TierSampler(int tier) {
+            mTier = tier;
+        }
+
+        abstract void addData(long timestampMillis, double value, RecordingDataController dc);
+
+        /**
+         * Stores data points for any data points that have been held back.
+         */
+        abstract void flush(RecordingDataController dc);
+
+        abstract void reset();
+    }
+
+    private class MinMaxSampler extends TierSampler {
+        private int mSeenThisPass = 0;
+        private long mTimestampOfMinSeen;
+        private double mValueOfMinSeen;
+        private long mTimestampOfMaxSeen;
+        private double mValueOfMaxSeen;
+
+        MinMaxSampler(int tier) {
+            super(tier);
+            reset();
+        }
+
+        @Override
+        void reset() {
+            mSeenThisPass = 0;
+            mValueOfMinSeen = Double.MAX_VALUE;
+            mValueOfMaxSeen = -Double.MAX_VALUE;
+            mTimestampOfMaxSeen = mTimestampOfMinSeen = -1;
+        }
+
+        @Override
+        void addData(long timestampMillis, double value, RecordingDataController dc) {
+            mSeenThisPass++;
+            if (value > mValueOfMaxSeen) {
+                mValueOfMaxSeen = value;
+                mTimestampOfMaxSeen = timestampMillis;
+            }
+            if (value < mValueOfMinSeen) {
+                mValueOfMinSeen = value;
+                mTimestampOfMinSeen = timestampMillis;
+            }
+            if (mSeenThisPass == mZoomBufferSize) {
+                flush(dc);
+            }
+        }
+
+        @Override
+        void flush(RecordingDataController dc) {
+            if (mSeenThisPass > 0) {
+                // order of adding data to DB doesn't matter
+                addReadingAtTier(mTier, dc, mTimestampOfMinSeen, mValueOfMinSeen);
+                addReadingAtTier(mTier, dc, mTimestampOfMaxSeen, mValueOfMaxSeen);
+                reset();
+            }
+        }
+    }
+
+    /**
+     * Streaming Largest-Triangle-Three-Buckets.  The run before the current one is held in
+     * mPending until the current run is complete, so that its average can be used to choose the
+     * pending run's point.
+     */
+    private class LttbSampler extends TierSampler {
+        private long[] mPendingTimestamps = new long[mZoomBufferSize];
+        private double[] mPendingValues = new double[mZoomBufferSize];
+        private int mPendingCount;
+        private long[] mCurrentTimestamps = new long[mZoomBufferSize];
+        private double[] mCurrentValues = new double[mZoomBufferSize];
+        private int mCurrentCount;
+        private double mCurrentValueSum;
+        private boolean mHasChosen;
+        private long mChosenTimestamp;
+        private double mChosenValue;
+
+        LttbSampler(int tier) {
+            super(tier);
+        }
+
+        @Override
+        void reset() {
+            mPendingCount = 0;
+            mCurrentCount = 0;
+            mCurrentValueSum = 0;
+            mHasChosen = false;
+        }
+
+        @Override
+        void addData(long timestampMillis, double value, RecordingDataController dc) {
+            appendToCurrent(timestampMillis, value);
+            if (mCurrentCount == mZoomBufferSize) {
+                if (mPendingCount > 0) {
+                    choosePending(dc, averageCurrentTimestamp(), mCurrentValueSum / mCurrentCount);
+                }
+                swapCurrentIntoPending();
+            }
+        }
+
+        @Override
+        void flush(RecordingDataController dc) {
+            if (mPendingCount > 0 && mCurrentCount == 0) {
+                // Move the last point into a run of its own, so that it is kept below.
+                mPendingCount--;
+                appendToCurrent(mPendingTimestamps[mPendingCount], mPendingValues[mPendingCount]);
+            }
+            if (mPendingCount > 0) {
+                choosePending(dc, averageCurrentTimestamp(), mCurrentValueSum / mCurrentCount);
+            }
+            if (mCurrentCount > 0) {
+                // Like the first and last buckets of LTTB, keep the ends of the line in place.
+                if (!mHasChosen && mCurrentCount > 1) {
+                    choose(dc, mCurrentTimestamps[0], mCurrentValues[0]);
+                }
+                int last = mCurrentCount - 1;
+                choose(dc, mCurrentTimestamps[last], mCurrentValues[last]);
+            }
+            reset();
+        }
+
+        private void appendToCurrent(long timestampMillis, double value) {
+            mCurrentTimestamps[mCurrentCount] = timestampMillis;
+            mCurrentValues[mCurrentCount] = value;
+            mCurrentCount++;
+            mCurrentValueSum += value;
+        }
+
+        private double averageCurrentTimestamp() {
+            // Averaged relative to the first timestamp, so that the sum can't overflow.
+            long first = mCurrentTimestamps[0];
+            long offsetSum = 0;
+            for (int i = 0; i < mCurrentCount; i++) {
+                offsetSum += mCurrentTimestamps[i] - first;
+            }
+            return first + offsetSum / (double) mCurrentCount;
+        }
+
+        /**
+         * Chooses the pending point that makes the largest triangle with the last chosen point
+         * and (nextTimestamp, nextValue).
+         */
+        private void choosePending(RecordingDataController dc, double nextTimestamp,
+                double nextValue) {
+            int best = 0;
+            if (mHasChosen) {
+                double bestArea = -1;
+                for (int i = 0; i < mPendingCount; i++) {
+                    // Twice the triangle's area; only the comparison matters.
+                    double area = Math.abs(
+                            (mChosenTimestamp - nextTimestamp) * (mPendingValues[i] - mChosenValue)
+                            - (mChosenTimestamp - mPendingTimestamps[i])
+                                    * (nextValue - mChosenValue));
+                    if (area > bestArea) {
+                        bestArea = area;
+                        best = i;
+                    }
+                }
+            }
+            // The first run has no chosen point to measure from, so, like LTTB, keep the first
+            // point.
+            choose(dc, mPendingTimestamps[best], mPendingValues[best]);
+            mPendingCount = 0;
+        }
+
+        private void choose(RecordingDataController dc, long timestamp, double value) {
+            mHasChosen = true;
+            mChosenTimestamp = timestamp;
+            mChosenValue = value;
+            addReadingAtTier(mTier, dc, timestamp, value);
+        }
+
+        private void swapCurrentIntoPending() {
+            long[] timestamps = mPendingTimestamps;
+            double[] values = mPendingValues;
+            mPendingTimestamps = mCurrentTimestamps;
+            mPendingValues = mCurrentValues;
+            mPendingCount = mCurrentCount;
+            mCurrentTimestamps = timestamps;
+            mCurrentValues = values;
+            mCurrentCount = 0;
+            mCurrentValueSum = 0;
         }
     }
 }
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only ScalarReadingList backed by parallel primitive arrays, which may come from a
+ * {@link ReadingArrayPool}.
+ */
+class ArrayScalarReadingList implements ScalarReadingList {
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    private final int mStart;
+    private final int mSize;
+    private final double mMinValue;
+    private final double mMaxValue;
+
+    // Pool to return the arrays to on release, or null if this is a view of another list, or
+    // the arrays were not pooled.
+    private final ReadingArrayPool mPool;
+    private boolean mReleased = false;
+
+    /**
+     * @param size the number of readings at the start of the arrays that belong to the list
+     */
+    ArrayScalarReadingList(long[] timestamps, double[] values, int size, ReadingArrayPool pool) {
+        this(timestamps, values, 0, size, pool);
+    }
+
+    private ArrayScalarReadingList(long[] timestamps, double[] values, int start, int size,
+            ReadingArrayPool pool) {
+        mTimestamps = timestamps;
+        mValues = values;
+        mStart = start;
+        mSize = size;
+        mPool = pool;
+
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (int i = start; i < start + size; i++) {
+            double value = values[i];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            if (Double.isNaN(min) || value < min) {
+                min = value;
+            }
+            if (Double.isNaN(max) || value > max) {
+                max = value;
+            }
+        }
+        mMinValue = min;
+        mMaxValue = max;
+    }
+
+    @Override
+    public void deliver(StreamConsumer c) {
+        c.addData(mTimestamps, mValues, mStart, mSize);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public List<ChartData.DataPoint> asDataPoints() {
+        List<ChartData.DataPoint> result = new ArrayList<>(mSize);
+        for (int i = mStart; i < mStart + mSize; i++) {
+            result.add(new ChartData.DataPoint(mTimestamps[i], mValues[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return mTimestamps[mStart + index];
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        return mValues[mStart + index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+    }
+
+    @Override
+    public double getMinValue() {
+        return mMinValue;
+    }
+
+    @Override
+    public double getMaxValue() {
+        return mMaxValue;
+    }
+
+    @Override
+    public ScalarReadingList subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mSize || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + fromIndex + ", " + toIndex + "), size " + mSize);
+        }
+        return new ArrayScalarReadingList(mTimestamps, mValues, mStart + fromIndex,
+                toIndex - fromIndex, null);
+    }
+
+    @Override
+    public void release() {
+        // Recycling twice would hand the same arrays to two later queries.
+        if (mPool != null && !mReleased) {
+            mReleased = true;
+            mPool.recycle(mTimestamps, mValues);
+        }
+    }
+}
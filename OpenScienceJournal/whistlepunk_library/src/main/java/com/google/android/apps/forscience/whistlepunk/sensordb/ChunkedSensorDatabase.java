@@ -0,0 +1,838 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+
+/**
+ * A SensorDatabase that stores each sensor's readings at each resolution tier in its own
+ * append-only file of {@link CompressedChunk}s, instead of one SQLite row per reading.
+ *
+ * Each chunk is preceded by a fixed-size header giving its reading count and time span.  The
+ * headers are read once per file to build an in-memory chunk index, so that a time range query
+ * only decodes the chunks that overlap it.  Chunk data is read through memory-mapped windows of
+ * the file, so that files may grow past the 2 GB that one mapping can cover.
+ *
+ * Access is synchronized on the database, so queries on reader threads wait for any write in
+ * progress, and for each other.
+ */
+public class ChunkedSensorDatabase implements SensorDatabase {
+    private static final String SERIES_FILE_SUFFIX = ".chunks";
+    // A series file being rewritten, until it is renamed over the original.
+    private static final String REWRITE_FILE_SUFFIX = ".rewrite";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // count (int), minTimestamp (long), maxTimestamp (long), payload length (int)
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 4;
+
+    // Bytes of a series file mapped at once, unless a single chunk needs more.
+    private static final int MAP_WINDOW_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Location and span of one chunk in a series file.
+     */
+    private static class ChunkInfo {
+        final long payloadOffset;
+        final int payloadLength;
+        final int count;
+        final long minTimestamp;
+        final long maxTimestamp;
+
+        ChunkInfo(long payloadOffset, int payloadLength, int count, long minTimestamp,
+                long maxTimestamp) {
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.count = count;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+
+        boolean overlaps(Range<Long> times) {
+            Range<Long> span = Range.closed(minTimestamp, maxTimestamp);
+            return times.isConnected(span) && !times.intersection(span).isEmpty();
+        }
+    }
+
+    private static final Comparator<ChunkInfo> BY_MIN_TIMESTAMP = new Comparator<ChunkInfo>() {
+        @Override
+        public int compare(ChunkInfo a, ChunkInfo b) {
+            return Long.compare(a.minTimestamp, b.minTimestamp);
+        }
+    };
+
+    /**
+     * Read-only views of a series file, mapped a window at a time as they are needed.
+     */
+    private static class MappedWindows implements Closeable {
+        private final File mFile;
+        // Held open by a scan, so that it keeps reading the file it started with even if the
+        // series is rewritten or deleted; otherwise null, and the file is opened to map each
+        // window.
+        private final RandomAccessFile mOpenFile;
+        private MappedByteBuffer mWindow = null;
+        private long mWindowStart = 0;
+
+        MappedWindows(File file) {
+            mFile = file;
+            mOpenFile = null;
+        }
+
+        MappedWindows(RandomAccessFile openFile) {
+            mFile = null;
+            mOpenFile = openFile;
+        }
+
+        /**
+         * @return a view of the {@code length} bytes at {@code offset} in the file, from its
+         *         position to its limit.
+         */
+        ByteBuffer map(long offset, int length) throws IOException {
+            if (mWindow == null || offset < mWindowStart
+                    || offset + length > mWindowStart + mWindow.capacity()) {
+                if (mOpenFile != null) {
+                    mapWindow(mOpenFile.getChannel(), offset, length);
+                } else {
+                    try (RandomAccessFile raf = new RandomAccessFile(mFile, "r")) {
+                        mapWindow(raf.getChannel(), offset, length);
+                    }
+                }
+            }
+            ByteBuffer view = mWindow.duplicate();
+            int position = (int) (offset - mWindowStart);
+            view.limit(position + length);
+            view.position(position);
+            return view;
+        }
+
+        private void mapWindow(FileChannel channel, long offset, int length) throws IOException {
+            long size = Math.max(length, Math.min(MAP_WINDOW_BYTES, channel.size() - offset));
+            mWindow = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            mWindowStart = offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mWindow = null;
+            if (mOpenFile != null) {
+                mOpenFile.close();
+            }
+        }
+    }
+
+    /**
+     * All of the readings for one sensor at one resolution tier.
+     */
+    private static class Series {
+        final String tag;
+        final int tier;
+        final File file;
+        final List<ChunkInfo> chunks = new ArrayList<>();
+        private MappedWindows mWindows = null;
+
+        Series(String tag, int tier, File file) {
+            this.tag = tag;
+            this.tier = tier;
+            this.file = file;
+        }
+
+        /**
+         * @return a view of the {@code length} bytes at {@code offset} in the file
+         */
+        ByteBuffer map(long offset, int length) throws IOException {
+            if (mWindows == null) {
+                mWindows = new MappedWindows(file);
+            }
+            return mWindows.map(offset, length);
+        }
+
+        /**
+         * Opens the file as it is now, for a scan that must keep reading it even if the series
+         * is rewritten or deleted before the scan finishes.
+         */
+        MappedWindows openForScan() throws IOException {
+            return new MappedWindows(new RandomAccessFile(file, "r"));
+        }
+
+        void forgetMapping() {
+            mWindows = null;
+        }
+    }
+
+    // Large enough for a page of any of the regular callers of getScalarReadings.
+    private static final int POOLED_READING_ARRAY_LENGTH = 500;
+
+    private final File mDirectory;
+
+    // Storage for the results of getScalarReadings, reused once callers release them.
+    private final ReadingArrayPool mReadingArrayPool =
+            new ReadingArrayPool(POOLED_READING_ARRAY_LENGTH);
+
+    // Keyed by seriesKey(tag, tier); null until the directory has been scanned.
+    private Map<String, Series> mSeries = null;
+
+    public ChunkedSensorDatabase(File directory) {
+        mDirectory = directory;
+    }
+
+    private Map<String, Series> getAllSeries() {
+        if (mSeries == null) {
+            mSeries = new HashMap<>();
+            mDirectory.mkdirs();
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(REWRITE_FILE_SUFFIX)) {
+                        // Left by a rewrite that never finished; the original is still intact.
+                        file.delete();
+                        continue;
+                    }
+                    Series series = parseSeriesFile(file);
+                    if (series != null) {
+                        mSeries.put(seriesKey(series.tag, series.tier), series);
+                    }
+                }
+            }
+        }
+        return mSeries;
+    }
+
+    private static String seriesKey(String tag, int tier) {
+        return tier + "/" + tag;
+    }
+
+    // Tags can contain any character, so file names hold them hex-encoded.
+    private static String seriesFileName(String tag, int tier) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : tag.getBytes(UTF_8)) {
+            name.append(String.format("%02x", b & 0xff));
+        }
+        return name.append('_').append(tier).append(SERIES_FILE_SUFFIX).toString();
+    }
+
+    private static Series parseSeriesFile(File file) {
+        String name = file.getName();
+        int separator = name.lastIndexOf('_');
+        if (!name.endsWith(SERIES_FILE_SUFFIX) || separator < 0 || separator % 2 != 0) {
+            return null;
+        }
+        try {
+            byte[] tagBytes = new byte[separator / 2];
+            for (int i = 0; i < tagBytes.length; i++) {
+                tagBytes[i] = (byte) Integer.parseInt(name.substring(i * 2, i * 2 + 2), 16);
+            }
+            int tier = Integer.parseInt(
+                    name.substring(separator + 1, name.length() - SERIES_FILE_SUFFIX.length()));
+            Series series = new Series(new String(tagBytes, UTF_8), tier, file);
+            readChunkIndex(series);
+            return series;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void readChunkIndex(Series series) {
+        long validLength;
+        long length;
+        try (RandomAccessFile raf = new RandomAccessFile(series.file, "r")) {
+            length = raf.length();
+            long position = 0;
+            while (position + HEADER_BYTES <= length) {
+                raf.seek(position);
+                int count = raf.readInt();
+                long minTimestamp = raf.readLong();
+                long maxTimestamp = raf.readLong();
+                int payloadLength = raf.readInt();
+                long payloadOffset = position + HEADER_BYTES;
+                if (payloadOffset + payloadLength > length) {
+                    // Partially-written final chunk.
+                    break;
+                }
+                series.chunks.add(new ChunkInfo(payloadOffset, payloadLength, count,
+                        minTimestamp, maxTimestamp));
+                position = payloadOffset + payloadLength;
+            }
+            validLength = position;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (validLength < length) {
+            // Cut off the torn chunk, so that the next chunk is appended where the index expects
+            // it, rather than after the garbage.
+            try (RandomAccessFile raf = new RandomAccessFile(series.file, "rw")) {
+                raf.setLength(validLength);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private Series getOrCreateSeries(String tag, int tier) {
+        String key = seriesKey(tag, tier);
+        Series series = getAllSeries().get(key);
+        if (series == null) {
+            series = new Series(tag, tier, new File(mDirectory, seriesFileName(tag, tier)));
+            mSeries.put(key, series);
+        }
+        return series;
+    }
+
+    @Override
+    public synchronized void addScalarReading(String sensorTag, int resolutionTier,
+            long timestampMillis, double value) {
+        appendChunk(getOrCreateSeries(sensorTag, resolutionTier), new long[] {timestampMillis},
+                new double[] {value}, 1);
+    }
+
+    @Override
+    public synchronized void addScalarReadings(ScalarReadingBatch batch) {
+        // Summaries in the batch are dropped, like those passed to addScalarSummary.
+        // Group the batch by series, keeping each series' readings in arrival order.
+        Map<String, List<Integer>> indicesBySeries = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String key = seriesKey(batch.getSensorTag(i), batch.getResolutionTier(i));
+            List<Integer> indices = indicesBySeries.get(key);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                indicesBySeries.put(key, indices);
+            }
+            indices.add(i);
+        }
+        for (List<Integer> indices : indicesBySeries.values()) {
+            int first = indices.get(0);
+            Series series = getOrCreateSeries(batch.getSensorTag(first),
+                    batch.getResolutionTier(first));
+            long[] timestamps = new long[indices.size()];
+            double[] values = new double[indices.size()];
+            for (int i = 0; i < indices.size(); i++) {
+                timestamps[i] = batch.getTimestampMillis(indices.get(i));
+                values[i] = batch.getValue(indices.get(i));
+            }
+            appendChunk(series, timestamps, values, indices.size());
+        }
+    }
+
+    private void appendChunk(Series series, long[] timestamps, double[] values, int count) {
+        long offset = series.file.length();
+        try (FileChannel channel = new FileOutputStream(series.file, true).getChannel()) {
+            series.chunks.add(writeChunk(channel, offset, timestamps, values, count));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a chunk of readings to {@code channel}, which is at {@code offset} in its file.
+     *
+     * @return where the chunk was written
+     */
+    private static ChunkInfo writeChunk(FileChannel channel, long offset, long[] timestamps,
+            double[] values, int count) throws IOException {
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minTimestamp = Math.min(minTimestamp, timestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+        }
+        byte[] payload = CompressedChunk.encode(timestamps, values, 0, count);
+        ByteBuffer chunk = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        chunk.putInt(count).putLong(minTimestamp).putLong(maxTimestamp).putInt(payload.length);
+        chunk.put(payload);
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        return new ChunkInfo(offset + HEADER_BYTES, payload.length, count, minTimestamp,
+                maxTimestamp);
+    }
+
+    /**
+     * Decodes the readings of {@code chunk} that fall within {@code times} onto the end of
+     * {@code into}.
+     */
+    private static void decodeChunk(Series series, ChunkInfo chunk, Range<Long> times,
+            Readings into) {
+        if (chunk.count == 0) {
+            return;
+        }
+        try {
+            decodeChunk(series.map(chunk.payloadOffset, chunk.payloadLength), chunk, times, into);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void decodeChunk(ByteBuffer payload, ChunkInfo chunk, Range<Long> times,
+            Readings into) {
+        long[] timestamps = new long[chunk.count];
+        double[] values = new double[chunk.count];
+        CompressedChunk.decode(payload, chunk.count, timestamps, values, 0);
+        for (int i = 0; i < chunk.count; i++) {
+            if (times.contains(timestamps[i])) {
+                into.add(timestamps[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Growable parallel arrays of readings.
+     */
+    private static class Readings {
+        long[] timestamps = new long[64];
+        double[] values = new double[64];
+        int size = 0;
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        /**
+         * Stable insertion sort by timestamp.  Chunks are nearly always already in order (only
+         * zoom tiers reorder a reading or two), so this is close to linear in practice.
+         */
+        void sort() {
+            for (int i = 1; i < size; i++) {
+                long timestamp = timestamps[i];
+                double value = values[i];
+                int j = i - 1;
+                while (j >= 0 && timestamps[j] > timestamp) {
+                    timestamps[j + 1] = timestamps[j];
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                timestamps[j + 1] = timestamp;
+                values[j + 1] = value;
+            }
+        }
+
+        long minTimestamp() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, timestamps[i]);
+            }
+            return min;
+        }
+
+        long maxTimestamp() {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, timestamps[i]);
+            }
+            return max;
+        }
+    }
+
+    private static Range<Long> getTimes(TimeRange range) {
+        Range<Long> times = range.getTimes();
+        return times == null ? Range.<Long>all() : times;
+    }
+
+    @Override
+    public synchronized ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
+            int resolutionTier, int maxRecords) {
+        Range<Long> times = getTimes(range);
+        boolean oldestFirst = range.getOrder() == TimeRange.ObservationOrder.OLDEST_FIRST;
+        Readings readings = new Readings();
+
+        Series series = getAllSeries().get(seriesKey(sensorTag, resolutionTier));
+        if (series != null) {
+            List<ChunkInfo> chunks = new ArrayList<>();
+            for (ChunkInfo chunk : series.chunks) {
+                if (chunk.overlaps(times)) {
+                    chunks.add(chunk);
+                }
+            }
+            Collections.sort(chunks, BY_MIN_TIMESTAMP);
+            if (!oldestFirst) {
+                Collections.reverse(chunks);
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                decodeChunk(series, chunks.get(i), times, readings);
+                if (maxRecords > 0 && readings.size >= maxRecords && i + 1 < chunks.size()) {
+                    // Stop once no remaining chunk can hold a reading that belongs in the
+                    // first maxRecords.
+                    ChunkInfo next = chunks.get(i + 1);
+                    if (oldestFirst ? next.minTimestamp > readings.maxTimestamp()
+                            : next.maxTimestamp < readings.minTimestamp()) {
+                        break;
+                    }
+                }
+            }
+        }
+        readings.sort();
+
+        int count = maxRecords > 0 ? Math.min(maxRecords, readings.size) : readings.size;
+        long[] timestamps = mReadingArrayPool.obtainTimestamps(count);
+        double[] values = mReadingArrayPool.obtainValues(count);
+        for (int i = 0; i < count; i++) {
+            int from = oldestFirst ? i : readings.size - 1 - i;
+            timestamps[i] = readings.timestamps[from];
+            values[i] = readings.values[from];
+        }
+        return new ArrayScalarReadingList(timestamps, values, count, mReadingArrayPool);
+    }
+
+    @Override
+    public synchronized ScalarAggregates getAggregates(String sensorTag, TimeRange range,
+            long bucketMillis) {
+        Range<Long> times = getTimes(range);
+        int tier = 0;
+        while (isDenseEnough(getAllSeries().get(seriesKey(sensorTag, tier + 1)), times,
+                bucketMillis)) {
+            tier++;
+        }
+        return getAggregates(sensorTag, range, bucketMillis, tier);
+    }
+
+    /**
+     * Estimates the density of {@code series} from its chunk headers alone, so that choosing a
+     * tier does not decode any readings.
+     */
+    private static boolean isDenseEnough(Series series, Range<Long> times, long bucketMillis) {
+        if (series == null) {
+            return false;
+        }
+        int count = 0;
+        long firstTimestamp = Long.MAX_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        for (ChunkInfo chunk : series.chunks) {
+            if (chunk.overlaps(times)) {
+                count += chunk.count;
+                firstTimestamp = Math.min(firstTimestamp, chunk.minTimestamp);
+                lastTimestamp = Math.max(lastTimestamp, chunk.maxTimestamp);
+            }
+        }
+        return count > 0 && ScalarAggregates.isDenseEnough(count, firstTimestamp, lastTimestamp,
+                bucketMillis);
+    }
+
+    @Override
+    public synchronized ScalarAggregates getAggregates(String sensorTag, TimeRange range,
+            long bucketMillis, int resolutionTier) {
+        Preconditions.checkArgument(bucketMillis > 0);
+        Range<Long> times = getTimes(range);
+        Readings readings = new Readings();
+        Series series = getAllSeries().get(seriesKey(sensorTag, resolutionTier));
+        if (series != null) {
+            List<ChunkInfo> chunks = new ArrayList<>();
+            for (ChunkInfo chunk : series.chunks) {
+                if (chunk.overlaps(times)) {
+                    chunks.add(chunk);
+                }
+            }
+            // Decoding in time order leaves little for the sort to do
+            Collections.sort(chunks, BY_MIN_TIMESTAMP);
+            for (ChunkInfo chunk : chunks) {
+                decodeChunk(series, chunk, times, readings);
+            }
+        }
+        readings.sort();
+
+        ScalarAggregates.Accumulator accumulator = new ScalarAggregates.Accumulator(
+                new ScalarAggregates(bucketMillis, resolutionTier, 0),
+                ScalarAggregates.getOrigin(range));
+        for (int i = 0; i < readings.size; i++) {
+            accumulator.add(readings.timestamps[i], readings.values[i]);
+        }
+        return accumulator.finish();
+    }
+
+    /**
+     * Summaries are not stored; {@link #getScalarSummary} decodes the readings instead, which is
+     * still cheap compared to reading them from SQLite.
+     */
+    @Override
+    public void addScalarSummary(String sensorTag, ScalarSummary summary) {
+    }
+
+    @Override
+    public synchronized ScalarSummary getScalarSummary(String sensorTag, TimeRange range) {
+        Range<Long> times = getTimes(range);
+        ScalarSummary summary = new ScalarSummary();
+        Series series = getAllSeries().get(seriesKey(sensorTag, 0));
+        if (series != null) {
+            for (ChunkInfo chunk : series.chunks) {
+                if (chunk.overlaps(times)) {
+                    Readings readings = new Readings();
+                    decodeChunk(series, chunk, times, readings);
+                    for (int i = 0; i < readings.size; i++) {
+                        summary.add(readings.timestamps[i], readings.values[i]);
+                    }
+                }
+            }
+        }
+        return summary;
+    }
+
+    @Override
+    public synchronized String getFirstDatabaseTagAfter(long timestamp) {
+        Range<Long> after = Range.greaterThan(timestamp);
+        String firstTag = null;
+        long firstTimestamp = Long.MAX_VALUE;
+        for (Series series : getAllSeries().values()) {
+            for (ChunkInfo chunk : series.chunks) {
+                if (!chunk.overlaps(after) || chunk.minTimestamp >= firstTimestamp) {
+                    continue;
+                }
+                Readings readings = new Readings();
+                decodeChunk(series, chunk, after, readings);
+                if (readings.size > 0 && readings.minTimestamp() < firstTimestamp) {
+                    firstTimestamp = readings.minTimestamp();
+                    firstTag = series.tag;
+                }
+            }
+        }
+        return firstTag;
+    }
+
+    @Override
+    public synchronized void deleteScalarReadings(String sensorTag, TimeRange range) {
+        deleteFromSeries(sensorTag, getTimes(range), 0);
+    }
+
+    @Override
+    public synchronized void deleteZoomTiers(String sensorTag, TimeRange range) {
+        deleteFromSeries(sensorTag, getTimes(range), 1);
+    }
+
+    /**
+     * Deletes the readings in {@code times} from each of {@code sensorTag}'s series at
+     * {@code minTier} and above.
+     */
+    private void deleteFromSeries(String sensorTag, Range<Long> times, int minTier) {
+        for (Series series : new ArrayList<>(getAllSeries().values())) {
+            if (!series.tag.equals(sensorTag) || series.tier < minTier) {
+                continue;
+            }
+            boolean affected = false;
+            for (ChunkInfo chunk : series.chunks) {
+                affected |= chunk.overlaps(times);
+            }
+            if (affected) {
+                rewriteWithout(series, times);
+            }
+        }
+    }
+
+    /**
+     * Rewrites a series file without the readings in {@code times}.
+     *
+     * The new file is written alongside the original a chunk at a time, so that only one chunk
+     * is in memory at once, and then renamed over it, so that a crash part way through leaves
+     * the original intact.  Chunks with no readings to delete are copied as they are.
+     */
+    private void rewriteWithout(Series series, Range<Long> times) {
+        File rewrite = new File(series.file.getPath() + REWRITE_FILE_SUFFIX);
+        List<ChunkInfo> keptChunks = new ArrayList<>();
+        Range<Long> everything = Range.all();
+        try (FileChannel channel = new FileOutputStream(rewrite).getChannel()) {
+            for (ChunkInfo chunk : series.chunks) {
+                long offset = channel.position();
+                if (!chunk.overlaps(times)) {
+                    ByteBuffer bytes = series.map(chunk.payloadOffset - HEADER_BYTES,
+                            HEADER_BYTES + chunk.payloadLength);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    keptChunks.add(new ChunkInfo(offset + HEADER_BYTES, chunk.payloadLength,
+                            chunk.count, chunk.minTimestamp, chunk.maxTimestamp));
+                    continue;
+                }
+                Readings all = new Readings();
+                decodeChunk(series, chunk, everything, all);
+                Readings kept = new Readings();
+                for (int i = 0; i < all.size; i++) {
+                    if (!times.contains(all.timestamps[i])) {
+                        kept.add(all.timestamps[i], all.values[i]);
+                    }
+                }
+                if (kept.size > 0) {
+                    keptChunks.add(writeChunk(channel, offset, kept.timestamps, kept.values,
+                            kept.size));
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            rewrite.delete();
+            throw new IllegalStateException(e);
+        }
+
+        series.forgetMapping();
+        if (keptChunks.isEmpty()) {
+            rewrite.delete();
+            if (!series.file.delete() && series.file.exists()) {
+                throw new IllegalStateException("Could not delete " + series.file);
+            }
+            mSeries.remove(seriesKey(series.tag, series.tier));
+            return;
+        }
+        if (!rewrite.renameTo(series.file)) {
+            rewrite.delete();
+            throw new IllegalStateException("Could not replace " + series.file);
+        }
+        series.chunks.clear();
+        series.chunks.addAll(keptChunks);
+    }
+
+    @Override
+    public boolean migrateIncrementally(int maxRows) {
+        return false;
+    }
+
+    @Override
+    public Observable<ScalarReading> createScalarObservable(final String[] sensorTags,
+            final TimeRange range, final int resolutionTier) {
+        return createScalarFlowable(sensorTags, range, resolutionTier).toObservable();
+    }
+
+    /**
+     * Emits readings oldest first, decoding one chunk at a time as readings are requested, so
+     * that memory use is bounded by the chunks that overlap in time, rather than by the whole
+     * range.  The scan reads the series files as they were when it started, even if they are
+     * rewritten or deleted before it finishes.
+     */
+    @Override
+    public Flowable<ScalarReading> createScalarFlowable(final String[] sensorTags,
+            final TimeRange range, final int resolutionTier) {
+        return Flowable.generate(() -> new ChunkMerge(sensorTags, getTimes(range),
+                resolutionTier), (merge, emitter) -> {
+            ScalarReading reading = merge.next();
+            if (reading == null) {
+                emitter.onComplete();
+            } else {
+                emitter.onNext(reading);
+            }
+            return merge;
+        }, ChunkMerge::close);
+    }
+
+    /**
+     * Merges the chunks of several series that overlap a time range into a single stream of
+     * readings in timestamp order.
+     */
+    private class ChunkMerge implements Closeable {
+        private final Range<Long> mTimes;
+        private final List<ChunkInfo> mChunks = new ArrayList<>();
+        private final Map<ChunkInfo, String> mChunkTags = new HashMap<>();
+        // The files of the series being scanned, held open until the scan is closed.
+        private final Map<ChunkInfo, MappedWindows> mChunkFiles = new HashMap<>();
+        private final List<MappedWindows> mOpenFiles = new ArrayList<>();
+        private final PriorityQueue<ScalarReading> mPending = new PriorityQueue<>();
+        private int mNextChunk = 0;
+
+        ChunkMerge(String[] sensorTags, Range<Long> times, int resolutionTier)
+                throws IOException {
+            mTimes = times;
+            synchronized (ChunkedSensorDatabase.this) {
+                try {
+                    findChunks(sensorTags, times, resolutionTier);
+                } catch (IOException e) {
+                    close();
+                    throw e;
+                }
+            }
+        }
+
+        private void findChunks(String[] sensorTags, Range<Long> times, int resolutionTier)
+                throws IOException {
+            for (String tag : sensorTags) {
+                Series series = getAllSeries().get(seriesKey(tag, resolutionTier));
+                if (series == null) {
+                    continue;
+                }
+                MappedWindows file = null;
+                for (ChunkInfo chunk : series.chunks) {
+                    if (chunk.overlaps(times)) {
+                        if (file == null) {
+                            file = series.openForScan();
+                            mOpenFiles.add(file);
+                        }
+                        mChunks.add(chunk);
+                        mChunkTags.put(chunk, series.tag);
+                        mChunkFiles.put(chunk, file);
+                    }
+                }
+            }
+            Collections.sort(mChunks, BY_MIN_TIMESTAMP);
+        }
+
+        /**
+         * @return the next reading, or null if there are no more.
+         */
+        ScalarReading next() throws IOException {
+            while (true) {
+                // A pending reading can be emitted once no undecoded chunk could hold an
+                // earlier one.
+                if (!mPending.isEmpty() && (mNextChunk == mChunks.size()
+                        || mPending.peek().getCollectedTimeMillis()
+                        < mChunks.get(mNextChunk).minTimestamp)) {
+                    return mPending.poll();
+                } else if (mNextChunk < mChunks.size()) {
+                    ChunkInfo chunk = mChunks.get(mNextChunk++);
+                    if (chunk.count == 0) {
+                        continue;
+                    }
+                    String tag = mChunkTags.get(chunk);
+                    Readings readings = new Readings();
+                    decodeChunk(mChunkFiles.get(chunk).map(chunk.payloadOffset,
+                            chunk.payloadLength), chunk, mTimes, readings);
+                    for (int i = 0; i < readings.size; i++) {
+                        mPending.add(new ScalarReading(readings.timestamps[i],
+                                readings.values[i], tag));
+                    }
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (MappedWindows file : mOpenFiles) {
+                file.close();
+            }
+            mOpenFiles.clear();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses a run of (timestamp, value) readings in the style of Facebook's Gorilla time series
+ * database: timestamps are stored as delta-of-deltas, which are usually zero or tiny for a sensor
+ * sampling at a steady rate, and each value is stored as the XOR of its bits with the previous
+ * value's bits, which for slowly-changing values has long runs of leading and trailing zeros.
+ *
+ * Readings need not be in timestamp order, but steady, ordered input compresses best.
+ */
+public class CompressedChunk {
+    private CompressedChunk() {
+    }
+
+    /**
+     * Encodes {@code count} readings starting at {@code from}.
+     *
+     * @return the compressed bytes.  The count is not stored, and must be passed to
+     * {@link #decode}.
+     */
+    public static byte[] encode(long[] timestamps, double[] values, int from, int count) {
+        BitWriter out = new BitWriter(count * 2 + 16);
+        long prevTimestamp = 0;
+        long prevDelta = 0;
+        long prevBits = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = from; i < from + count; i++) {
+            long timestamp = timestamps[i];
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == from) {
+                out.write(timestamp, 64);
+                out.write(bits, 64);
+            } else {
+                long delta = timestamp - prevTimestamp;
+                writeDeltaOfDelta(out, delta - prevDelta);
+                prevDelta = delta;
+
+                long xor = bits ^ prevBits;
+                if (xor == 0) {
+                    out.writeBit(false);
+                } else {
+                    out.writeBit(true);
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                        // Meaningful bits fit inside the previous window
+                        out.writeBit(false);
+                        out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    } else {
+                        int significant = 64 - leading - trailing;
+                        out.writeBit(true);
+                        out.write(leading, 5);
+                        out.write(significant - 1, 6);
+                        out.write(xor >>> trailing, significant);
+                        prevLeading = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+            }
+            prevTimestamp = timestamp;
+            prevBits = bits;
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.writeBit(false);
+        } else if (dod >= -63 && dod <= 64) {
+            out.write(0b10, 2);
+            out.write(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            out.write(0b110, 3);
+            out.write(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            out.write(0b1110, 4);
+            out.write(dod + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(dod, 64);
+        }
+    }
+
+    /**
+     * Decodes {@code count} readings from {@code in}, starting at its current position, into the
+     * arrays starting at {@code offset}.  The arrays must have room for them.
+     */
+    public static void decode(ByteBuffer in, int count, long[] timestamps, double[] values,
+            int offset) {
+        BitReader reader = new BitReader(in);
+        long timestamp = 0;
+        long delta = 0;
+        long bits = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                timestamp = reader.read(64);
+                bits = reader.read(64);
+            } else {
+                delta += readDeltaOfDelta(reader);
+                timestamp += delta;
+                if (reader.readBit()) {
+                    if (reader.readBit()) {
+                        leading = (int) reader.read(5);
+                        int significant = (int) reader.read(6) + 1;
+                        trailing = 64 - leading - significant;
+                    }
+                    bits ^= reader.read(64 - leading - trailing) << trailing;
+                }
+            }
+            timestamps[offset + i] = timestamp;
+            values[offset + i] = Double.longBitsToDouble(bits);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return in.read(7) - 63;
+        }
+        if (!in.readBit()) {
+            return in.read(9) - 255;
+        }
+        if (!in.readBit()) {
+            return in.read(12) - 2047;
+        }
+        return in.read(64);
+    }
+
+    private static class BitWriter {
+        private byte[] mBytes;
+        private int mBitCount = 0;
+
+        BitWriter(int initialBytes) {
+            mBytes = new byte[Math.max(initialBytes, 16)];
+        }
+
+        void writeBit(boolean bit) {
+            write(bit ? 1 : 0, 1);
+        }
+
+        /**
+         * Writes the low {@code numBits} bits of {@code value}, most significant first.
+         */
+        void write(long value, int numBits) {
+            ensureCapacity(mBitCount + numBits);
+            for (int i = numBits - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) != 0) {
+                    mBytes[mBitCount >>> 3] |= 0x80 >>> (mBitCount & 7);
+                }
+                mBitCount++;
+            }
+        }
+
+        private void ensureCapacity(int bits) {
+            int bytes = (bits + 7) >>> 3;
+            if (bytes > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(bytes, mBytes.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBytes, (mBitCount + 7) >>> 3);
+        }
+    }
+
+    private static class BitReader {
+        private final ByteBuffer mBuffer;
+        private final int mStart;
+        private int mBitPosition = 0;
+
+        BitReader(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mStart = buffer.position();
+        }
+
+        boolean readBit() {
+            return read(1) != 0;
+        }
+
+        long read(int numBits) {
+            long result = 0;
+            for (int i = 0; i < numBits; i++) {
+                int b = mBuffer.get(mStart + (mBitPosition >>> 3));
+                int bit = (b >>> (7 - (mBitPosition & 7))) & 1;
+                result = (result << 1) | bit;
+                mBitPosition++;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A fixed-size sketch of the distribution of a stream of values, from which quantiles such as
+ * the median can be estimated.  Sketches of neighboring runs of readings can be merged.
+ *
+ * This is a merging t-digest: values are clustered into weighted centroids, which are kept
+ * small near the ends of the distribution and allowed to grow in the middle, so that extreme
+ * quantiles are estimated as well as central ones.  New values are buffered, and merged into the
+ * centroids when the buffer fills, so that adding a value never allocates.
+ */
+public class QuantileSketch {
+    // Higher is more accurate, and keeps more centroids.
+    private static final int COMPRESSION = 100;
+    private static final int MAX_CENTROIDS = 2 * COMPRESSION;
+
+    // Short enough that Arrays.sort sorts it in place.
+    private static final int BUFFER_SIZE = 256;
+
+    private double[] mMeans = new double[MAX_CENTROIDS];
+    private double[] mWeights = new double[MAX_CENTROIDS];
+    private int mCentroidCount = 0;
+    private double mTotalWeight = 0;
+
+    // Where merges are built, then swapped with the centroids.
+    private double[] mMergedMeans = new double[MAX_CENTROIDS];
+    private double[] mMergedWeights = new double[MAX_CENTROIDS];
+
+    private final double[] mBuffer = new double[BUFFER_SIZE];
+    private int mBufferCount = 0;
+
+    private double mMin = Double.POSITIVE_INFINITY;
+    private double mMax = Double.NEGATIVE_INFINITY;
+
+    public void clear() {
+        mCentroidCount = 0;
+        mTotalWeight = 0;
+        mBufferCount = 0;
+        mMin = Double.POSITIVE_INFINITY;
+        mMax = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds a value.  NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        mBuffer[mBufferCount++] = value;
+        if (mBufferCount == BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the values sketched by {@code other} to this sketch.
+     */
+    public void add(QuantileSketch other) {
+        other.flush();
+        if (other.mCentroidCount == 0) {
+            return;
+        }
+        flush();
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+        merge(other.mMeans, other.mWeights, other.mCentroidCount);
+    }
+
+    public boolean isEmpty() {
+        return mCentroidCount == 0 && mBufferCount == 0;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return Math.round(mTotalWeight) + mBufferCount;
+    }
+
+    /**
+     * @param quantile between 0 and 1; 0.5 is the median
+     * @return an estimate of the value below which {@code quantile} of the values fall, or NaN if
+     * there are none
+     */
+    public double getQuantile(double quantile) {
+        flush();
+        if (mCentroidCount == 0) {
+            return Double.NaN;
+        }
+        if (quantile <= 0) {
+            return mMin;
+        }
+        if (quantile >= 1) {
+            return mMax;
+        }
+        if (mCentroidCount == 1) {
+            return mMeans[0];
+        }
+
+        // Each centroid's values are assumed to be spread evenly around its mean, so interpolate
+        // between the means of the centroids on either side of the target.
+        double index = quantile * mTotalWeight;
+        double firstHalf = mWeights[0] / 2;
+        if (index < firstHalf) {
+            return mMin + (mMeans[0] - mMin) * index / firstHalf;
+        }
+        double weightSoFar = firstHalf;
+        for (int i = 0; i < mCentroidCount - 1; i++) {
+            double between = (mWeights[i] + mWeights[i + 1]) / 2;
+            if (weightSoFar + between > index) {
+                double fraction = (index - weightSoFar) / between;
+                return mMeans[i] + (mMeans[i + 1] - mMeans[i]) * fraction;
+            }
+            weightSoFar += between;
+        }
+        int last = mCentroidCount - 1;
+        double lastHalf = mWeights[last] / 2;
+        double fraction = Math.min(1, (index - weightSoFar) / lastHalf);
+        return mMeans[last] + (mMax - mMeans[last]) * fraction;
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return the number of centroids, after merging any buffered values
+     */
+    public int getCentroidCount() {
+        flush();
+        return mCentroidCount;
+    }
+
+    public double getCentroidMean(int index) {
+        return mMeans[index];
+    }
+
+    public double getCentroidWeight(int index) {
+        return mWeights[index];
+    }
+
+    /**
+     * Replaces this sketch with one made of the given centroids, sorted by mean, as read from
+     * {@link #getCentroidMean} and {@link #getCentroidWeight}.
+     */
+    public void setCentroids(double[] means, double[] weights, int count, double min, double max) {
+        clear();
+        if (count == 0) {
+            return;
+        }
+        mMin = min;
+        mMax = max;
+        merge(means, weights, count);
+    }
+
+    /**
+     * @return the sketch in a form that {@link #readFrom} reads back
+     */
+    public byte[] toBytes() {
+        flush();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 * 2 + 8 * 2 * mCentroidCount);
+        buffer.putInt(mCentroidCount);
+        buffer.putDouble(mMin);
+        buffer.putDouble(mMax);
+        for (int i = 0; i < mCentroidCount; i++) {
+            buffer.putDouble(mMeans[i]);
+            buffer.putDouble(mWeights[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Replaces this sketch with one written by {@link #toBytes}.
+     */
+    public void readFrom(byte[] bytes) {
+        clear();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        mCentroidCount = buffer.getInt();
+        mMin = buffer.getDouble();
+        mMax = buffer.getDouble();
+        for (int i = 0; i < mCentroidCount; i++) {
+            mMeans[i] = buffer.getDouble();
+            mWeights[i] = buffer.getDouble();
+            mTotalWeight += mWeights[i];
+        }
+    }
+
+    private void flush() {
+        if (mBufferCount == 0) {
+            return;
+        }
+        Arrays.sort(mBuffer, 0, mBufferCount);
+        int count = mBufferCount;
+        mBufferCount = 0;
+        merge(mBuffer, null, count);
+    }
+
+    /**
+     * Merges sorted weighted values into the centroids.
+     *
+     * @param weights null if every value has weight 1
+     */
+    private void merge(double[] means, double[] weights, int count) {
+        double totalWeight = mTotalWeight;
+        for (int i = 0; i < count; i++) {
+            totalWeight += weights == null ? 1 : weights[i];
+        }
+
+        int merged = 0;
+        double weightBefore = 0;
+        double kBefore = scale(0);
+        int centroid = 0;
+        int incoming = 0;
+        while (centroid < mCentroidCount || incoming < count) {
+            double mean;
+            double weight;
+            if (incoming == count
+                    || (centroid < mCentroidCount && mMeans[centroid] <= means[incoming])) {
+                mean = mMeans[centroid];
+                weight = mWeights[centroid];
+                centroid++;
+            } else {
+                mean = means[incoming];
+                weight = weights == null ? 1 : weights[incoming];
+                incoming++;
+            }
+
+            // Grow the last centroid if it stays within its size limit, otherwise start another.
+            if (merged > 0) {
+                double combined = mMergedWeights[merged - 1] + weight;
+                if (scale((weightBefore + combined) / totalWeight) - kBefore <= 1) {
+                    mMergedMeans[merged - 1] +=
+                            (mean - mMergedMeans[merged - 1]) * weight / combined;
+                    mMergedWeights[merged - 1] = combined;
+                    continue;
+                }
+                weightBefore += mMergedWeights[merged - 1];
+                kBefore = scale(weightBefore / totalWeight);
+            }
+            mMergedMeans[merged] = mean;
+            mMergedWeights[merged] = weight;
+            merged++;
+        }
+
+        double[] swap = mMeans;
+        mMeans = mMergedMeans;
+        mMergedMeans = swap;
+        swap = mWeights;
+        mWeights = mMergedWeights;
+        mMergedWeights = swap;
+        mCentroidCount = merged;
+        mTotalWeight = totalWeight;
+    }
+
+    /**
+     * The t-digest scale function: each centroid may span at most 1 unit of this.  It is steep
+     * near 0 and 1, which keeps centroids at the ends of the distribution small.  It ranges over
+     * COMPRESSION / 2 units, and no two neighboring centroids fit in one unit, so there are never
+     * many more than COMPRESSION centroids.
+     */
+    private static double scale(double quantile) {
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * Math.min(1, quantile) - 1);
+    }
+}
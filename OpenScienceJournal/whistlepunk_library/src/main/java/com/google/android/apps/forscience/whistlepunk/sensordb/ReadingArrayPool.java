@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reusable timestamp and value arrays for {@link ArrayScalarReadingList}s.  Queries fill lists on
+ * the database thread, and callers release them on the UI thread, so this is thread-safe.
+ *
+ * Only arrays of exactly the pooled length are reused; a query for more readings than that gets
+ * arrays of its own, which are left for the garbage collector.
+ */
+class ReadingArrayPool {
+    private final int mPooledLength;
+    private final ConcurrentLinkedQueue<long[]> mTimestamps = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<double[]> mValues = new ConcurrentLinkedQueue<>();
+
+    ReadingArrayPool(int pooledLength) {
+        mPooledLength = pooledLength;
+    }
+
+    long[] obtainTimestamps(int minLength) {
+        if (minLength <= mPooledLength) {
+            long[] pooled = mTimestamps.poll();
+            return pooled != null ? pooled : new long[mPooledLength];
+        }
+        return new long[minLength];
+    }
+
+    double[] obtainValues(int minLength) {
+        if (minLength <= mPooledLength) {
+            double[] pooled = mValues.poll();
+            return pooled != null ? pooled : new double[mPooledLength];
+        }
+        return new double[minLength];
+    }
+
+    void recycle(long[] timestamps, double[] values) {
+        if (timestamps.length == mPooledLength && values.length == mPooledLength) {
+            mTimestamps.offer(timestamps);
+            mValues.offer(values);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+
+/**
+ * The min, max, mean and count of one sensor's readings in each of a run of equal-width time
+ * buckets, stored in parallel primitive arrays.  Buckets are in increasing time order, and buckets
+ * with no readings are left out.
+ *
+ * Bucket {@code i} holds the readings with timestamps in
+ * {@code [getBucketStart(i), getBucketStart(i) + getBucketMillis())}.
+ */
+public class ScalarAggregates {
+    private final long mBucketMillis;
+    private final int mResolutionTier;
+    private long[] mBucketStarts;
+    private double[] mMins;
+    private double[] mMaxes;
+    private double[] mMeans;
+    private int[] mCounts;
+    private int mSize = 0;
+
+    /**
+     * @param resolutionTier the tier that the readings were aggregated from.  Above tier 0, only
+     *                       the min and max of each bucket are meaningful; see
+     *                       {@link SensorDatabase#getAggregates(String, TimeRange, long)}.
+     */
+    public ScalarAggregates(long bucketMillis, int resolutionTier, int initialCapacity) {
+        mBucketMillis = bucketMillis;
+        mResolutionTier = resolutionTier;
+        int capacity = Math.max(1, initialCapacity);
+        mBucketStarts = new long[capacity];
+        mMins = new double[capacity];
+        mMaxes = new double[capacity];
+        mMeans = new double[capacity];
+        mCounts = new int[capacity];
+    }
+
+    /**
+     * Appends a bucket, which must start after the last bucket added.
+     */
+    public void add(long bucketStart, double min, double max, double mean, int count) {
+        if (mSize == mBucketStarts.length) {
+            grow();
+        }
+        mBucketStarts[mSize] = bucketStart;
+        mMins[mSize] = min;
+        mMaxes[mSize] = max;
+        mMeans[mSize] = mean;
+        mCounts[mSize] = count;
+        mSize++;
+    }
+
+    private void grow() {
+        int newCapacity = mBucketStarts.length * 2;
+        mBucketStarts = Arrays.copyOf(mBucketStarts, newCapacity);
+        mMins = Arrays.copyOf(mMins, newCapacity);
+        mMaxes = Arrays.copyOf(mMaxes, newCapacity);
+        mMeans = Arrays.copyOf(mMeans, newCapacity);
+        mCounts = Arrays.copyOf(mCounts, newCapacity);
+    }
+
+    public long getBucketMillis() {
+        return mBucketMillis;
+    }
+
+    public int getResolutionTier() {
+        return mResolutionTier;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getBucketStart(int index) {
+        return mBucketStarts[index];
+    }
+
+    /**
+     * @return the smallest value in the bucket, or NaN if every value in it was NaN
+     */
+    public double getMin(int index) {
+        return mMins[index];
+    }
+
+    /**
+     * @return the largest value in the bucket, or NaN if every value in it was NaN
+     */
+    public double getMax(int index) {
+        return mMaxes[index];
+    }
+
+    /**
+     * @return the mean of the values in the bucket, or NaN if every value in it was NaN
+     */
+    public double getMean(int index) {
+        return mMeans[index];
+    }
+
+    /**
+     * @return the number of readings in the bucket
+     */
+    public int getCount(int index) {
+        return mCounts[index];
+    }
+
+    /**
+     * Collects readings into buckets, for databases that cannot aggregate readings themselves.
+     * Readings must be added in timestamp order, and must not be before the origin.
+     */
+    static class Accumulator {
+        private final ScalarAggregates mAggregates;
+        private final long mOrigin;
+        private long mBucket = Long.MIN_VALUE;
+        private double mMin;
+        private double mMax;
+        private double mSum;
+        private int mValueCount;
+        private int mCount;
+
+        Accumulator(ScalarAggregates aggregates, long origin) {
+            mAggregates = aggregates;
+            mOrigin = origin;
+        }
+
+        void add(long timestamp, double value) {
+            long bucket = (timestamp - mOrigin) / mAggregates.getBucketMillis();
+            if (bucket != mBucket) {
+                finishBucket();
+                mBucket = bucket;
+                mMin = Double.POSITIVE_INFINITY;
+                mMax = Double.NEGATIVE_INFINITY;
+                mSum = 0;
+                mValueCount = 0;
+                mCount = 0;
+            }
+            mCount++;
+            if (!Double.isNaN(value)) {
+                mMin = Math.min(mMin, value);
+                mMax = Math.max(mMax, value);
+                mSum += value;
+                mValueCount++;
+            }
+        }
+
+        ScalarAggregates finish() {
+            finishBucket();
+            mCount = 0;
+            return mAggregates;
+        }
+
+        private void finishBucket() {
+            if (mCount == 0) {
+                return;
+            }
+            long start = mOrigin + mBucket * mAggregates.getBucketMillis();
+            if (mValueCount == 0) {
+                mAggregates.add(start, Double.NaN, Double.NaN, Double.NaN, mCount);
+            } else {
+                mAggregates.add(start, mMin, mMax, mSum / mValueCount, mCount);
+            }
+        }
+    }
+
+    /**
+     * A resolution tier is only used for aggregates if it has at least this many readings for
+     * the average bucket.  Each reading above tier 0 is the min or max of a run of readings in
+     * the tier below, so with fewer than this a bucket's extremes are likely to be missed.
+     */
+    static final int MIN_READINGS_PER_BUCKET = 8;
+
+    /**
+     * @return true if {@code count} readings spread between {@code firstTimestamp} and
+     * {@code lastTimestamp} are enough to aggregate into {@code bucketMillis}-wide buckets.
+     */
+    static boolean isDenseEnough(int count, long firstTimestamp, long lastTimestamp,
+            long bucketMillis) {
+        long buckets = (lastTimestamp - firstTimestamp) / bucketMillis + 1;
+        return count >= buckets * MIN_READINGS_PER_BUCKET;
+    }
+
+    /**
+     * @return the timestamp that bucket boundaries are measured from: the start of
+     * {@code range}, or 0 if it has no lower bound.
+     */
+    static long getOrigin(TimeRange range) {
+        Range<Long> times = range.getTimes();
+        return times != null && times.hasLowerBound() ? times.lowerEndpoint() : 0;
+    }
+}
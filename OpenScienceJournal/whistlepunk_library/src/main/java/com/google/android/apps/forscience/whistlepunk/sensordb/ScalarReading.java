@@ -17,7 +17,7 @@
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
 import com.google.android.apps.forscience.whistlepunk.TimedEvent;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractStreamConsumer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -49,7 +49,7 @@ public class ScalarReading implements TimedEvent, Comparable<ScalarReading> {
      */
     public static List<ScalarReading> slurp(ScalarReadingList list) {
         final List<ScalarReading> readings = new ArrayList<>();
-        list.deliver(new StreamConsumer() {
+        list.deliver(new AbstractStreamConsumer() {
             @Override
             public boolean addData(long timestampMillis, double value) {
                 readings.add(new ScalarReading(timestampMillis, value));
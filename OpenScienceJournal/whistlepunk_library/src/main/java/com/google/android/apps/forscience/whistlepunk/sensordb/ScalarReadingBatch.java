@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of scalar readings, stored in parallel primitive arrays so that buffering a
+ * reading does not allocate.  A batch may also hold summaries, which are stored along with the
+ * readings.  Batches are not thread-safe; callers that fill a batch from several threads must
+ * synchronize externally.
+ */
+public class ScalarReadingBatch {
+    private String[] mSensorTags;
+    private int[] mResolutionTiers;
+    private long[] mTimestamps;
+    private double[] mValues;
+    private int mSize = 0;
+
+    // Copies of the added summaries, kept for reuse once the batch is cleared.
+    private String[] mSummaryTags = new String[1];
+    private ScalarSummary[] mSummaries = new ScalarSummary[1];
+    private int mSummaryCount = 0;
+
+    public ScalarReadingBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        mSensorTags = new String[capacity];
+        mResolutionTiers = new int[capacity];
+        mTimestamps = new long[capacity];
+        mValues = new double[capacity];
+    }
+
+    /**
+     * See {@link SensorDatabase#addScalarReading(String, int, long, double)} for semantics of
+     * these params
+     */
+    public void add(String sensorTag, int resolutionTier, long timestampMillis, double value) {
+        if (mSize == mTimestamps.length) {
+            grow();
+        }
+        mSensorTags[mSize] = sensorTag;
+        mResolutionTiers[mSize] = resolutionTier;
+        mTimestamps[mSize] = timestampMillis;
+        mValues[mSize] = value;
+        mSize++;
+    }
+
+    /**
+     * See {@link SensorDatabase#addScalarSummary(String, ScalarSummary)}.  The summary is copied,
+     * so callers may reuse it.
+     */
+    public void addSummary(String sensorTag, ScalarSummary summary) {
+        if (mSummaryCount == mSummaries.length) {
+            mSummaryTags = Arrays.copyOf(mSummaryTags, mSummaryCount * 2);
+            mSummaries = Arrays.copyOf(mSummaries, mSummaryCount * 2);
+        }
+        ScalarSummary copy = mSummaries[mSummaryCount];
+        if (copy == null) {
+            copy = new ScalarSummary();
+            mSummaries[mSummaryCount] = copy;
+        }
+        copy.clear();
+        copy.add(summary);
+        mSummaryTags[mSummaryCount] = sensorTag;
+        mSummaryCount++;
+    }
+
+    private void grow() {
+        int newCapacity = mTimestamps.length * 2;
+        mSensorTags = Arrays.copyOf(mSensorTags, newCapacity);
+        mResolutionTiers = Arrays.copyOf(mResolutionTiers, newCapacity);
+        mTimestamps = Arrays.copyOf(mTimestamps, newCapacity);
+        mValues = Arrays.copyOf(mValues, newCapacity);
+    }
+
+    /**
+     * @return the number of readings in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the batch holds no readings and no summaries
+     */
+    public boolean isEmpty() {
+        return mSize == 0 && mSummaryCount == 0;
+    }
+
+    /**
+     * Empties the batch, keeping the backing arrays for reuse.
+     */
+    public void clear() {
+        // Drop tag references so that the batch does not pin strings for old sensors.
+        Arrays.fill(mSensorTags, 0, mSize, null);
+        Arrays.fill(mSummaryTags, 0, mSummaryCount, null);
+        mSize = 0;
+        mSummaryCount = 0;
+    }
+
+    /**
+     * @return true if a query for {@code sensorTags} in {@code range} could see anything in the
+     * batch: a reading at any tier in the range, or a summary for one of the sensors
+     */
+    public boolean hasDataFor(String[] sensorTags, TimeRange range) {
+        Range<Long> times = range.getTimes().canonical(DiscreteDomain.longs());
+        // Canonical long ranges are closed below and open above, where they have bounds.
+        long lowest = times.hasLowerBound() ? times.lowerEndpoint() : Long.MIN_VALUE;
+        long highest = !times.hasUpperBound() ? Long.MAX_VALUE
+                : times.upperBoundType() == BoundType.OPEN ? times.upperEndpoint() - 1
+                : times.upperEndpoint();
+        for (String sensorTag : sensorTags) {
+            for (int i = 0; i < mSize; i++) {
+                if (mTimestamps[i] >= lowest && mTimestamps[i] <= highest
+                        && sensorTag.equals(mSensorTags[i])) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < mSummaryCount; i++) {
+                if (sensorTag.equals(mSummaryTags[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public String getSensorTag(int index) {
+        return mSensorTags[index];
+    }
+
+    public int getResolutionTier(int index) {
+        return mResolutionTiers[index];
+    }
+
+    public long getTimestampMillis(int index) {
+        return mTimestamps[index];
+    }
+
+    public double getValue(int index) {
+        return mValues[index];
+    }
+
+    public int getSummaryCount() {
+        return mSummaryCount;
+    }
+
+    public String getSummarySensorTag(int index) {
+        return mSummaryTags[index];
+    }
+
+    /**
+     * @return the summary at {@code index}, which is only valid until the batch is cleared
+     */
+    public ScalarSummary getSummary(int index) {
+        return mSummaries[index];
+    }
+}
@@ -38,4 +38,31 @@ public interface ScalarReadingList {
      * @return The scalar reading list as a list of data points.
      */
     List<ChartData.DataPoint> asDataPoints();
+
+    long getTimestamp(int index);
+
+    double getValue(int index);
+
+    /**
+     * @return the smallest value in the list, ignoring NaNs, or NaN if there are none.
+     */
+    double getMinValue();
+
+    /**
+     * @return the largest value in the list, ignoring NaNs, or NaN if there are none.
+     */
+    double getMaxValue();
+
+    /**
+     * Returns a view of the readings from {@code fromIndex}, inclusive, to {@code toIndex},
+     * exclusive, which shares storage with this list.
+     */
+    ScalarReadingList subList(int fromIndex, int toIndex);
+
+    /**
+     * Returns this list's storage for reuse by later queries.  Neither this list nor any view of
+     * it may be used afterwards.  Calling this is optional, but saves allocating new storage for
+     * every query.
+     */
+    void release();
 }
@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+/**
+ * The min, max, sum and count of a run of one sensor's readings, and the timestamps of the first
+ * and last of them, along with their variance and a {@link QuantileSketch} of their distribution.
+ * Summaries of neighboring runs can be combined without going back to the readings.
+ *
+ * NaN values are left out of the min, max, sum, count and distribution, but their timestamps are
+ * not.
+ */
+public class ScalarSummary {
+    private long mFirstTimestamp;
+    private long mLastTimestamp;
+    private double mMin;
+    private double mMax;
+    private double mSum;
+    private int mCount;
+
+    // Welford's running mean and sum of squared differences from it, which stay accurate where
+    // a sum of squares would lose precision.
+    private double mMean;
+    private double mM2;
+
+    private final QuantileSketch mSketch = new QuantileSketch();
+
+    public ScalarSummary() {
+        clear();
+    }
+
+    /**
+     * A summary whose variance and distribution are unknown, unless it has at most one value.
+     */
+    public ScalarSummary(long firstTimestamp, long lastTimestamp, double min, double max,
+            double sum, int count) {
+        this(firstTimestamp, lastTimestamp, min, max, sum, count, count > 1 ? Double.NaN : 0,
+                null);
+    }
+
+    /**
+     * @param m2 the sum of the squared differences of the values from their mean
+     * @param sketch the distribution of the values, which is copied; or null if unknown
+     */
+    public ScalarSummary(long firstTimestamp, long lastTimestamp, double min, double max,
+            double sum, int count, double m2, QuantileSketch sketch) {
+        set(firstTimestamp, lastTimestamp, min, max, sum, count, m2, sketch);
+    }
+
+    /**
+     * Replaces the contents of this summary, taking the same arguments as
+     * {@link #ScalarSummary(long, long, double, double, double, int, double, QuantileSketch)},
+     * so that one summary can be reused to read many.
+     */
+    public void set(long firstTimestamp, long lastTimestamp, double min, double max,
+            double sum, int count, double m2, QuantileSketch sketch) {
+        mFirstTimestamp = firstTimestamp;
+        mLastTimestamp = lastTimestamp;
+        mMin = min;
+        mMax = max;
+        mSum = sum;
+        mCount = count;
+        mMean = count == 0 ? 0 : sum / count;
+        mM2 = m2;
+        mSketch.clear();
+        if (sketch != null) {
+            mSketch.add(sketch);
+        } else if (count == 1) {
+            mSketch.add(min);
+        }
+    }
+
+    public void clear() {
+        mFirstTimestamp = Long.MAX_VALUE;
+        mLastTimestamp = Long.MIN_VALUE;
+        mMin = Double.POSITIVE_INFINITY;
+        mMax = Double.NEGATIVE_INFINITY;
+        mSum = 0;
+        mCount = 0;
+        mMean = 0;
+        mM2 = 0;
+        mSketch.clear();
+    }
+
+    public void add(long timestampMillis, double value) {
+        mFirstTimestamp = Math.min(mFirstTimestamp, timestampMillis);
+        mLastTimestamp = Math.max(mLastTimestamp, timestampMillis);
+        if (!Double.isNaN(value)) {
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+            mSum += value;
+            mCount++;
+            double delta = value - mMean;
+            mMean += delta / mCount;
+            mM2 += delta * (value - mMean);
+            mSketch.add(value);
+        }
+    }
+
+    /**
+     * Adds the readings summarized by {@code other} to this summary.
+     */
+    public void add(ScalarSummary other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        mFirstTimestamp = Math.min(mFirstTimestamp, other.mFirstTimestamp);
+        mLastTimestamp = Math.max(mLastTimestamp, other.mLastTimestamp);
+        if (other.mCount > 0) {
+            mMin = Math.min(mMin, other.mMin);
+            mMax = Math.max(mMax, other.mMax);
+            mSum += other.mSum;
+            // Chan et al.'s pairwise update of the mean and squared differences
+            int count = mCount + other.mCount;
+            double delta = other.mMean - mMean;
+            mM2 += other.mM2 + delta * delta * ((double) mCount * other.mCount / count);
+            mMean += delta * other.mCount / count;
+            mCount = count;
+            mSketch.add(other.mSketch);
+        }
+    }
+
+    /**
+     * @return true if no readings, not even NaN ones, have been added
+     */
+    public boolean isEmpty() {
+        return mFirstTimestamp > mLastTimestamp;
+    }
+
+    public long getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    /**
+     * @return the smallest value, or NaN if there are none
+     */
+    public double getMin() {
+        return mCount == 0 ? Double.NaN : mMin;
+    }
+
+    /**
+     * @return the largest value, or NaN if there are none
+     */
+    public double getMax() {
+        return mCount == 0 ? Double.NaN : mMax;
+    }
+
+    public double getSum() {
+        return mSum;
+    }
+
+    /**
+     * @return the mean value, or NaN if there are none
+     */
+    public double getMean() {
+        return mCount == 0 ? Double.NaN : mSum / mCount;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the sum of the squared differences of the values from their mean, or NaN if it is
+     * unknown
+     */
+    public double getSumOfSquaredDifferences() {
+        return mM2;
+    }
+
+    /**
+     * @return the sample variance of the values, or NaN if there are fewer than two
+     */
+    public double getVariance() {
+        return mCount < 2 ? Double.NaN : mM2 / (mCount - 1);
+    }
+
+    /**
+     * @return the sample standard deviation of the values, or NaN if there are fewer than two
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @param quantile between 0 and 1; 0.5 is the median
+     * @return an estimate of the value below which {@code quantile} of the values fall, or NaN if
+     * there are none or the distribution is unknown
+     */
+    public double getQuantile(double quantile) {
+        return hasDistribution() ? mSketch.getQuantile(quantile) : Double.NaN;
+    }
+
+    /**
+     * @return true if every value is in the sketch of the distribution
+     */
+    public boolean hasDistribution() {
+        return mCount > 0 && mSketch.getCount() == mCount;
+    }
+
+    /**
+     * @return the sketch of the distribution of the values, which must not be changed
+     */
+    public QuantileSketch getSketch() {
+        return mSketch;
+    }
+
+    @Override
+    public String toString() {
+        return "ScalarSummary{" +
+                "firstTimestamp=" + mFirstTimestamp +
+                ", lastTimestamp=" + mLastTimestamp +
+                ", min=" + getMin() +
+                ", max=" + getMax() +
+                ", sum=" + mSum +
+                ", count=" + mCount +
+                ", variance=" + getVariance() +
+                '}';
+    }
+}
@@ -16,11 +16,15 @@
 
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 
 /**
- * Stores and retrieves sensor data from on-device storage.  All access should be be from a single
- * background thread; all calls are blocking, and do not perform internal synchronization.
+ * Stores and retrieves sensor data from on-device storage.  All calls are blocking, and should be
+ * made from background threads.  Writes should all be made from a single thread, but reads may be
+ * made from other threads at the same time.
  */
 public interface SensorDatabase {
 
@@ -29,6 +33,14 @@ public interface SensorDatabase {
      */
     void addScalarReading(String sensorTag, int resolutionTier, long timestampMillis, double value);
 
+    /**
+     * Adds every reading and summary in {@code batch}.  Implementations should store the whole
+     * batch in a single transaction, which is much cheaper than calling
+     * {@link #addScalarReading(String, int, long, double)} once per reading.  The batch is not
+     * retained, so callers may clear and reuse it once this returns.
+     */
+    void addScalarReadings(ScalarReadingBatch batch);
+
     /**
      * Get stored scalar records
      *
@@ -45,6 +57,45 @@ public interface SensorDatabase {
     ScalarReadingList getScalarReadings(String sensorTag, TimeRange range, int resolutionTier,
             int maxRecords);
 
+    /**
+     * Summarizes one sensor's readings in {@code range} as the min, max, mean and count of each
+     * {@code bucketMillis}-wide bucket, with buckets measured from the start of the range.
+     *
+     * When buckets are wide enough, the readings are taken from the coarsest resolution tier that
+     * still has several readings per bucket, which is much cheaper than reading tier 0.  This
+     * assumes that each reading above tier 0 is the min or max of a run of readings in the tier
+     * below, as {@link ZoomRecorder#TIER_STRATEGY_MIN_MAX} records them, so that the min and max
+     * of each bucket are still close to those of the raw readings; only use this for readings
+     * recorded that way.  The means and counts of the buckets are not close to the raw ones;
+     * check {@link ScalarAggregates#getResolutionTier()}, or use
+     * {@link #getAggregates(String, TimeRange, long, int)} with tier 0 when those are needed.
+     */
+    ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis);
+
+    /**
+     * Like {@link #getAggregates(String, TimeRange, long)}, but always reads from
+     * {@code resolutionTier}.
+     */
+    ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis,
+            int resolutionTier);
+
+    /**
+     * Stores a summary of a run of {@code sensorTag}'s tier-0 readings, so that
+     * {@link #getScalarSummary} need not read them again.  The summary must describe every tier-0
+     * reading of the sensor from its first timestamp to its last, and must not overlap any other
+     * summary of the sensor.  Recorders write a summary for each consecutive block of time, so
+     * that a recording is summarized from start to end without gaps.
+     */
+    void addScalarSummary(String sensorTag, ScalarSummary summary);
+
+    /**
+     * Summarizes {@code sensorTag}'s tier-0 readings in {@code range}.  Stored summaries that lie
+     * entirely within the range are combined, and only the readings before the first of them and
+     * after the last are read, so the cost grows with the number of summaries rather than the
+     * number of readings.  If no summaries were stored, every reading in the range is read.
+     */
+    ScalarSummary getScalarSummary(String sensorTag, TimeRange range);
+
     /**
      * Find the first sensor reading after {@code timestamp}.  Return the database tag that
      * represents the sensor corresponding to the reading.  This is likely to only be of value
@@ -57,6 +108,30 @@ public interface SensorDatabase {
      */
     void deleteScalarReadings(String sensorTag, TimeRange range);
 
+    /**
+     * Deletes the readings in resolution tiers above 0 for the given sensor for the given time
+     * range, leaving the recorded readings and their summaries in place.
+     */
+    void deleteZoomTiers(String sensorTag, TimeRange range);
+
+    /**
+     * Performs a bounded amount of any schema migration that was deferred when the database was
+     * opened.  Readings are visible to queries whether or not they have been migrated yet.
+     *
+     * @param maxRows the most rows to migrate in this call
+     * @return true if there is more migration work to do, in which case this should be called
+     * again later.
+     */
+    boolean migrateIncrementally(int maxRows);
+
     Observable<ScalarReading> createScalarObservable(String[] sensorTags, TimeRange range,
             int resolutionTier);
+
+    /**
+     * Emits the readings of all of the given sensors in the given range, oldest first.  Readings
+     * are only read from storage as they are requested, so a slow subscriber does not cause
+     * readings to pile up in memory.
+     */
+    Flowable<ScalarReading> createScalarFlowable(String[] sensorTags, TimeRange range,
+            int resolutionTier);
 }
@@ -19,109 +19,548 @@ package com.google.android.apps.forscience.whistlepunk.sensordb;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.util.Pair;
+import android.text.TextUtils;
+import android.util.SparseArray;
 
-import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.BoundType;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
-import io.reactivex.ObservableEmitter;
-import io.reactivex.ObservableOnSubscribe;
 
 public class SensorDatabaseImpl implements SensorDatabase {
     private static class DbVersions {
         public static final int V1_START = 1;
         public static final int V2_INDEX = 2;
         public static final int V3_TIER = 3;
-        public static final int CURRENT = V3_TIER;
+        public static final int V4_TAG_TIER_INDEX = 4;
+        public static final int V5_TAG_DICTIONARY = 5;
+        public static final int V6_SUMMARIES = 6;
+        public static final int CURRENT = V6_SUMMARIES;
+    }
+
+    /**
+     * Maps each sensor tag to a small integer, so that readings do not repeat the tag string in
+     * every row.
+     */
+    private static class SensorTagsTable {
+        public static final String NAME = "sensor_tags";
+
+        public static class Column {
+            public static final String ID = "_id";
+            public static final String TAG = "tag";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.ID
+                + " INTEGER PRIMARY KEY, " + Column.TAG + " TEXT NOT NULL UNIQUE);";
     }
 
     private static class ScalarSensorsTable {
         public static final String NAME = "scalar_sensors";
 
         public static class Column {
-            public static final String TAG = "tag";
+            public static final String TAG_ID = "tagId";
             public static final String RESOLUTION_TIER = "resolutionTier";
             public static final String TIMESTAMP_MILLIS = "timestampMillis";
             public static final String VALUE = "value";
         }
 
-        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG + " " +
-                " TEXT, " + Column.TIMESTAMP_MILLIS + " INTEGER, " + Column.VALUE + " REAL,"
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG_ID
+                + " INTEGER, " + Column.TIMESTAMP_MILLIS + " INTEGER, " + Column.VALUE + " REAL,"
                 + Column.RESOLUTION_TIER + " INTEGER DEFAULT 0);";
 
-        public static final String INDEX_SQL =
-                "CREATE INDEX timestamp ON " + NAME + "(" + Column.TIMESTAMP_MILLIS + ");";
+        public static final String TIMESTAMP_INDEX_SQL = "CREATE INDEX readings_by_time ON "
+                + NAME + "(" + Column.TIMESTAMP_MILLIS + ");";
+
+        // Covers every column read by getCursor, so that a page of one sensor's readings at one
+        // tier is a contiguous range scan that never touches the table itself.
+        public static final String SENSOR_INDEX_SQL = "CREATE INDEX readings_by_sensor ON " + NAME
+                + "(" + Column.TAG_ID + ", " + Column.RESOLUTION_TIER + ", "
+                + Column.TIMESTAMP_MILLIS + ", " + Column.VALUE + ");";
+
+        public static final String INSERT_SQL = "INSERT INTO " + NAME + " (" + Column.TAG_ID
+                + ", " + Column.RESOLUTION_TIER + ", " + Column.TIMESTAMP_MILLIS + ", "
+                + Column.VALUE + ") VALUES (?, ?, ?, ?);";
+    }
+
+    /**
+     * Summaries of runs of tier-0 readings; see {@link SensorDatabase#addScalarSummary}.  A
+     * summary with no non-NaN values has NULL min and max.  The sketch is written by
+     * {@link QuantileSketch#toBytes}.
+     */
+    private static class ScalarSummariesTable {
+        public static final String NAME = "scalar_summaries";
+
+        public static class Column {
+            public static final String TAG_ID = "tagId";
+            public static final String FIRST_TIMESTAMP_MILLIS = "firstTimestampMillis";
+            public static final String LAST_TIMESTAMP_MILLIS = "lastTimestampMillis";
+            public static final String MIN = "minValue";
+            public static final String MAX = "maxValue";
+            public static final String SUM = "sumValue";
+            public static final String COUNT = "valueCount";
+            public static final String M2 = "m2Value";
+            public static final String SKETCH = "sketch";
+        }
+
+        public static final String CREATION_SQL = "CREATE TABLE " + NAME + " (" + Column.TAG_ID
+                + " INTEGER, " + Column.FIRST_TIMESTAMP_MILLIS + " INTEGER, "
+                + Column.LAST_TIMESTAMP_MILLIS + " INTEGER, " + Column.MIN + " REAL, "
+                + Column.MAX + " REAL, " + Column.SUM + " REAL, " + Column.COUNT + " INTEGER, "
+                + Column.M2 + " REAL, " + Column.SKETCH + " BLOB);";
+
+        public static final String SENSOR_INDEX_SQL = "CREATE INDEX summaries_by_sensor ON "
+                + NAME + "(" + Column.TAG_ID + ", " + Column.FIRST_TIMESTAMP_MILLIS + ", "
+                + Column.LAST_TIMESTAMP_MILLIS + ");";
+    }
+
+    /**
+     * Tables left behind by schema upgrades.  These store the sensor tag as TEXT in each row.
+     * Upgrading only renames the old table, which is cheap no matter how big it is; its rows are
+     * moved into {@link ScalarSensorsTable} a chunk at a time by
+     * {@link SensorDatabaseImpl#migrateIncrementally(int)}, so that opening a large database does
+     * not block for minutes.
+     */
+    private static class LegacyScalarSensorsTables {
+        public static final String V3_NAME = "scalar_sensors_v3";
+        public static final String V4_NAME = "scalar_sensors_v4";
+
+        // Oldest first; this is the order in which they are migrated.
+        public static final String[] NAMES = {V3_NAME, V4_NAME};
+
+        public static final String TAG = "tag";
+
+        public static final String V1_CREATION_SQL = "CREATE TABLE "
+                + ScalarSensorsTable.NAME + " (" + TAG + " " + " TEXT, "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " INTEGER, "
+                + ScalarSensorsTable.Column.VALUE + " REAL," + ScalarSensorsTable.Column
+                .RESOLUTION_TIER + " INTEGER DEFAULT 0);";
+
+        public static final String V2_INDEX_SQL = "CREATE INDEX timestamp ON "
+                + ScalarSensorsTable.NAME + "(" + ScalarSensorsTable.Column.TIMESTAMP_MILLIS
+                + ");";
+
+        public static final String V4_TIMESTAMP_INDEX_SQL = "CREATE INDEX "
+                + ScalarSensorsTable.NAME + "_timestamp ON " + ScalarSensorsTable.NAME + "("
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ");";
+
+        public static final String V4_TAG_TIER_TIMESTAMP_INDEX_SQL = "CREATE INDEX "
+                + ScalarSensorsTable.NAME + "_tag_tier_timestamp ON " + ScalarSensorsTable.NAME
+                + "(" + TAG + ", " + ScalarSensorsTable.Column.RESOLUTION_TIER + ", "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                + ScalarSensorsTable.Column.VALUE + ");";
+    }
+
+    // Used in place of a tag id when a requested tag has never been stored.  Ids assigned by
+    // SQLite to an INTEGER PRIMARY KEY are always positive, so this matches no rows.
+    private static final String UNKNOWN_TAG_ID = "-1";
+
+    /**
+     * Bidirectional map of every row of SensorTagsTable.  There are only ever a handful of tags.
+     * Never modified once published.
+     */
+    private static class TagCache {
+        final Map<String, Integer> tagIds = new HashMap<>();
+        final SparseArray<String> tags = new SparseArray<>();
+
+        void put(int tagId, String tag) {
+            tagIds.put(tag, tagId);
+            tags.put(tagId, tag);
+        }
     }
 
+    // Page sizes for createScalarFlowable.
+    private static final int SCAN_PAGE_ROWS_PER_TAG = 500;
+    private static final int MAX_SCAN_PAGE_ROWS = 5000;
+
+    // Result columns that queryPage adds to those of queryReadings.
+    private static final String SCAN_SOURCE = "source";
+    private static final String SCAN_ROW_ID = "readingRowId";
+
+    // Large enough for a page of any of the regular callers of getScalarReadings.
+    private static final int POOLED_READING_ARRAY_LENGTH = 500;
+
     private final SQLiteOpenHelper mOpenHelper;
 
+    // Storage for the results of getScalarReadings, reused once callers release them.
+    private final ReadingArrayPool mReadingArrayPool =
+            new ReadingArrayPool(POOLED_READING_ARRAY_LENGTH);
+
+    // Legacy tables that still hold rows; null until checked.
+    private volatile List<String> mLegacyTables = null;
+
+    // Cache of SensorTagsTable; null until loaded.  Replaced rather than modified, so that readers
+    // on other threads can use it without locking.  A reader's query may have begun before a tag
+    // was added, so a cache loaded by a reader only replaces the one it was loaded to replace.
+    private final AtomicReference<TagCache> mTagCache = new AtomicReference<>();
+
+    // Compiled once and reused for every batch; only touched from the writing thread.
+    private SQLiteStatement mInsertStatement;
+    private SQLiteDatabase mInsertStatementDb;
+
     public SensorDatabaseImpl(Context context, String name) {
         mOpenHelper = new SQLiteOpenHelper(context, name, null, DbVersions.CURRENT) {
             @Override
             public void onCreate(SQLiteDatabase db) {
-                db.execSQL(ScalarSensorsTable.CREATION_SQL);
-                db.execSQL(ScalarSensorsTable.INDEX_SQL);
+                createScalarSensorsTable(db);
+                createScalarSummariesTable(db);
             }
 
             @Override
             public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
                 while (oldVersion != newVersion) {
                     if (oldVersion == DbVersions.V1_START) {
-                        db.execSQL(ScalarSensorsTable.INDEX_SQL);
+                        db.execSQL(LegacyScalarSensorsTables.V2_INDEX_SQL);
                         oldVersion = DbVersions.V2_INDEX;
                     } else if (oldVersion == DbVersions.V2_INDEX) {
                         db.execSQL("ALTER TABLE " + ScalarSensorsTable.NAME + " ADD COLUMN "
                                 + ScalarSensorsTable.Column.RESOLUTION_TIER + " INTEGER DEFAULT 0;");
                         oldVersion = DbVersions.V3_TIER;
+                    } else if (oldVersion == DbVersions.V3_TIER) {
+                        renameToLegacy(db, LegacyScalarSensorsTables.V3_NAME);
+                        db.execSQL(LegacyScalarSensorsTables.V1_CREATION_SQL);
+                        db.execSQL(LegacyScalarSensorsTables.V4_TIMESTAMP_INDEX_SQL);
+                        db.execSQL(LegacyScalarSensorsTables.V4_TAG_TIER_TIMESTAMP_INDEX_SQL);
+                        oldVersion = DbVersions.V4_TAG_TIER_INDEX;
+                    } else if (oldVersion == DbVersions.V4_TAG_TIER_INDEX) {
+                        renameToLegacy(db, LegacyScalarSensorsTables.V4_NAME);
+                        createScalarSensorsTable(db);
+                        oldVersion = DbVersions.V5_TAG_DICTIONARY;
+                    } else if (oldVersion == DbVersions.V5_TAG_DICTIONARY) {
+                        // Readings recorded before this have no summaries, and are read
+                        // directly by getScalarSummary.
+                        createScalarSummariesTable(db);
+                        oldVersion = DbVersions.V6_SUMMARIES;
                     }
                 }
             }
+
+            @Override
+            public void onOpen(SQLiteDatabase db) {
+                dropEmptyLegacyTables(db);
+            }
         };
+        // Lets queries on reader threads run while the writing thread is in a transaction.
+        mOpenHelper.setWriteAheadLoggingEnabled(true);
+    }
+
+    private static void createScalarSensorsTable(SQLiteDatabase db) {
+        db.execSQL(SensorTagsTable.CREATION_SQL);
+        db.execSQL(ScalarSensorsTable.CREATION_SQL);
+        db.execSQL(ScalarSensorsTable.TIMESTAMP_INDEX_SQL);
+        db.execSQL(ScalarSensorsTable.SENSOR_INDEX_SQL);
+    }
+
+    private static void createScalarSummariesTable(SQLiteDatabase db) {
+        db.execSQL(ScalarSummariesTable.CREATION_SQL);
+        db.execSQL(ScalarSummariesTable.SENSOR_INDEX_SQL);
+    }
+
+    private static void renameToLegacy(SQLiteDatabase db, String legacyName) {
+        db.execSQL("ALTER TABLE " + ScalarSensorsTable.NAME + " RENAME TO " + legacyName + ";");
+    }
+
+    /**
+     * Drops legacy tables that were emptied by migration the last time the database was open.
+     * They are not dropped as soon as they are emptied, because queries on other threads may
+     * still refer to them; nothing else is using the database while it is being opened.
+     */
+    private static void dropEmptyLegacyTables(SQLiteDatabase db) {
+        for (String name : LegacyScalarSensorsTables.NAMES) {
+            if (tableExists(db, name) && DatabaseUtils.queryNumEntries(db, name) == 0) {
+                db.execSQL("DROP TABLE " + name + ";");
+            }
+        }
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String name) {
+        return DatabaseUtils.queryNumEntries(db, "sqlite_master", "type = 'table' AND name = ?",
+                new String[] {name}) > 0;
+    }
+
+    /**
+     * @return the legacy tables that still hold rows, oldest first.  The list is never modified;
+     * migration replaces it once a table has been emptied.
+     */
+    private List<String> getLegacyTables(SQLiteDatabase db) {
+        List<String> legacyTables = mLegacyTables;
+        if (legacyTables == null) {
+            legacyTables = new ArrayList<>();
+            for (String name : LegacyScalarSensorsTables.NAMES) {
+                if (tableExists(db, name)) {
+                    legacyTables.add(name);
+                }
+            }
+            legacyTables = Collections.unmodifiableList(legacyTables);
+            mLegacyTables = legacyTables;
+        }
+        return legacyTables;
+    }
+
+    @Override
+    public boolean migrateIncrementally(int maxRows) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        List<String> legacyTables = getLegacyTables(db);
+        if (legacyTables.isEmpty()) {
+            return false;
+        }
+        String legacyName = legacyTables.get(0);
+        db.beginTransaction();
+        try {
+            long lastRowId = -1;
+            Cursor cursor = db.rawQuery("SELECT MAX(rowid) FROM (SELECT rowid FROM " + legacyName
+                    + " ORDER BY rowid LIMIT ?);", new String[] {String.valueOf(maxRows)});
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    lastRowId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (lastRowId >= 0) {
+                Object[] bindArgs = new Object[] {lastRowId};
+                db.execSQL("INSERT OR IGNORE INTO " + SensorTagsTable.NAME + " ("
+                        + SensorTagsTable.Column.TAG + ") SELECT DISTINCT "
+                        + LegacyScalarSensorsTables.TAG + " FROM " + legacyName
+                        + " WHERE rowid <= ? AND " + LegacyScalarSensorsTables.TAG
+                        + " IS NOT NULL;", bindArgs);
+                db.execSQL("INSERT INTO " + ScalarSensorsTable.NAME + " ("
+                        + ScalarSensorsTable.Column.TAG_ID + ", "
+                        + ScalarSensorsTable.Column.RESOLUTION_TIER + ", "
+                        + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                        + ScalarSensorsTable.Column.VALUE + ") SELECT t."
+                        + SensorTagsTable.Column.ID + ", l."
+                        + ScalarSensorsTable.Column.RESOLUTION_TIER + ", l."
+                        + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", l."
+                        + ScalarSensorsTable.Column.VALUE + " FROM " + legacyName + " AS l JOIN "
+                        + SensorTagsTable.NAME + " AS t ON t." + SensorTagsTable.Column.TAG
+                        + " = l." + LegacyScalarSensorsTables.TAG + " WHERE l.rowid <= ?;",
+                        bindArgs);
+                db.execSQL("DELETE FROM " + legacyName + " WHERE rowid <= ?;", bindArgs);
+            }
+            db.setTransactionSuccessful();
+            if (lastRowId < 0) {
+                // Empty now; stop querying it.  It is dropped the next time the database opens.
+                legacyTables = legacyTables.subList(1, legacyTables.size());
+                mLegacyTables = legacyTables;
+            }
+        } finally {
+            db.endTransaction();
+            // Tags may have been added, or the transaction may have failed.
+            invalidateTagCache();
+        }
+        return !legacyTables.isEmpty();
+    }
+
+    private TagCache getTagCache(SQLiteDatabase db) {
+        TagCache cache = mTagCache.get();
+        if (cache == null) {
+            cache = reloadTagCache(db, null);
+        }
+        return cache;
+    }
+
+    /**
+     * Loads the tag cache and makes it current.  Only for the writing thread, which sees every
+     * tag that has been added.
+     */
+    private TagCache loadTagCache(SQLiteDatabase db) {
+        TagCache cache = readTagCache(db);
+        mTagCache.set(cache);
+        return cache;
+    }
+
+    /**
+     * Loads the tag cache, and makes it current unless {@code stale} has already been replaced.
+     * Safe on any thread: a cache loaded by a reader never replaces a newer one from the writer.
+     */
+    private TagCache reloadTagCache(SQLiteDatabase db, TagCache stale) {
+        TagCache cache = readTagCache(db);
+        mTagCache.compareAndSet(stale, cache);
+        return cache;
+    }
+
+    private TagCache readTagCache(SQLiteDatabase db) {
+        TagCache cache = new TagCache();
+        Cursor cursor = db.query(SensorTagsTable.NAME, new String[] {SensorTagsTable.Column.ID,
+                SensorTagsTable.Column.TAG}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cache.put(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return cache;
+    }
+
+    private void invalidateTagCache() {
+        mTagCache.set(null);
+    }
+
+    /**
+     * @return the id stored for {@code tag}, or null if no readings have ever been stored for it.
+     */
+    private Integer getTagId(SQLiteDatabase db, String tag) {
+        TagCache cache = getTagCache(db);
+        Integer tagId = cache.tagIds.get(tag);
+        if (tagId == null) {
+            // Added since the cache was loaded; reload once.
+            tagId = reloadTagCache(db, cache).tagIds.get(tag);
+        }
+        return tagId;
+    }
+
+    private int getOrCreateTagId(SQLiteDatabase db, String tag) {
+        Integer tagId = getTagCache(db).tagIds.get(tag);
+        if (tagId == null) {
+            // Check the table itself before adding the tag, and make the cache current.
+            tagId = loadTagCache(db).tagIds.get(tag);
+        }
+        if (tagId != null) {
+            return tagId;
+        }
+        ContentValues values = new ContentValues();
+        values.put(SensorTagsTable.Column.TAG, tag);
+        int newId = (int) db.insertOrThrow(SensorTagsTable.NAME, null, values);
+        loadTagCache(db);
+        return newId;
+    }
+
+    /**
+     * Returns the shared tag String for {@code tagId}, so that reading many rows does not make a
+     * new String for each.
+     */
+    private String getTag(SQLiteDatabase db, int tagId) {
+        TagCache cache = getTagCache(db);
+        String tag = cache.tags.get(tagId);
+        if (tag == null) {
+            // Added since the cache was loaded; reload once.
+            tag = reloadTagCache(db, cache).tags.get(tagId);
+        }
+        return tag;
+    }
+
+    /**
+     * Reads the tag column of a cursor from {@link #queryReadings}, which holds a tag id for
+     * current rows and the tag itself for rows that are still in a legacy table.
+     */
+    private String readTag(SQLiteDatabase db, Cursor cursor, int column) {
+        if (cursor.getType(column) == Cursor.FIELD_TYPE_INTEGER) {
+            return getTag(db, cursor.getInt(column));
+        }
+        return cursor.getString(column);
     }
 
     @Override
     public void addScalarReading(String sourceTag, int resolutionTier, long timestampMillis,
             double value) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         ContentValues values = new ContentValues();
-        values.put(ScalarSensorsTable.Column.TAG, sourceTag);
+        values.put(ScalarSensorsTable.Column.TAG_ID, getOrCreateTagId(db, sourceTag));
         values.put(ScalarSensorsTable.Column.TIMESTAMP_MILLIS, timestampMillis);
         values.put(ScalarSensorsTable.Column.VALUE, value);
         values.put(ScalarSensorsTable.Column.RESOLUTION_TIER, resolutionTier);
-        mOpenHelper.getWritableDatabase().insert(ScalarSensorsTable.NAME, null, values);
+        db.insert(ScalarSensorsTable.NAME, null, values);
+    }
+
+    @Override
+    public void addScalarReadings(ScalarReadingBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement insert = getInsertStatement(db);
+        boolean success = false;
+        db.beginTransaction();
+        try {
+            // Readings in a batch tend to come from a few sensors that reuse the same tag
+            // String, so check for that before looking the tag up.
+            String lastTag = null;
+            int lastTagId = 0;
+            int size = batch.size();
+            for (int i = 0; i < size; i++) {
+                String tag = batch.getSensorTag(i);
+                if (tag != lastTag) {
+                    lastTagId = getOrCreateTagId(db, tag);
+                    lastTag = tag;
+                }
+                insert.bindLong(1, lastTagId);
+                insert.bindLong(2, batch.getResolutionTier(i));
+                insert.bindLong(3, batch.getTimestampMillis(i));
+                insert.bindDouble(4, batch.getValue(i));
+                insert.executeInsert();
+            }
+            int summaryCount = batch.getSummaryCount();
+            for (int i = 0; i < summaryCount; i++) {
+                ScalarSummary summary = batch.getSummary(i);
+                if (!summary.isEmpty()) {
+                    insertSummary(db, getOrCreateTagId(db, batch.getSummarySensorTag(i)),
+                            summary);
+                }
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            if (!success) {
+                // Any tags added in this transaction were rolled back.
+                invalidateTagCache();
+            }
+        }
+    }
+
+    private SQLiteStatement getInsertStatement(SQLiteDatabase db) {
+        if (mInsertStatement == null || mInsertStatementDb != db) {
+            if (mInsertStatement != null) {
+                mInsertStatement.close();
+            }
+            mInsertStatement = db.compileStatement(ScalarSensorsTable.INSERT_SQL);
+            mInsertStatementDb = db;
+        }
+        return mInsertStatement;
     }
 
     /**
      * Gets the selection string and selectionArgs based on the tag, range and resolution tier.
      *
+     * @param tagColumn the column to match against {@code tagValues}
+     * @param tagValues values of tagColumn to select, or null to select readings of every sensor
      * @return a pair where the first element is the selection string and the second element is the
      * array of selectionArgs.
      */
-    private Pair<String, String[]> getSelectionAndArgs(String[] sensorTags, TimeRange range,
-            int resolutionTier) {
+    private Pair<String, String[]> getSelectionAndArgs(String tagColumn, String[] tagValues,
+            TimeRange range, int resolutionTier) {
         List<String> clauses = new ArrayList<>();
         List<String> values = new ArrayList<>();
 
-        if (sensorTags != null || sensorTags.length == 0) {
-          if (sensorTags.length == 1) {
-              clauses.add(ScalarSensorsTable.Column.TAG + " = ?");
-              values.add(sensorTags[0]);
+        if (tagValues != null) {
+          if (tagValues.length == 1) {
+              clauses.add(tagColumn + " = ?");
+              values.add(tagValues[0]);
           } else {
               // Generate "(?,?...") for length.
               StringBuilder bindString = new StringBuilder();
-              for (String sensorTag : sensorTags) {
-                  values.add(sensorTag);
+              for (String tagValue : tagValues) {
+                  values.add(tagValue);
                   if (bindString.length() == 0) {
                       bindString.append("(?");
                   } else {
@@ -129,7 +568,7 @@ public class SensorDatabaseImpl implements SensorDatabase {
                   }
               }
               bindString.append(")");
-              clauses.add(ScalarSensorsTable.Column.TAG + " IN " + bindString.toString());
+              clauses.add(tagColumn + " IN " + bindString.toString());
           }
         }
 
@@ -158,44 +597,40 @@ public class SensorDatabaseImpl implements SensorDatabase {
                 values.toArray(new String[values.size()]));
     }
 
+    /**
+     * Converts sensor tags to the ids stored in {@link ScalarSensorsTable}.
+     *
+     * @return null if {@code sensorTags} is null
+     */
+    private String[] getTagIdValues(SQLiteDatabase db, String[] sensorTags) {
+        if (sensorTags == null) {
+            return null;
+        }
+        String[] tagIds = new String[sensorTags.length];
+        for (int i = 0; i < sensorTags.length; i++) {
+            Integer tagId = getTagId(db, sensorTags[i]);
+            tagIds[i] = tagId == null ? UNKNOWN_TAG_ID : String.valueOf(tagId);
+        }
+        return tagIds;
+    }
+
     @Override
     public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
             int resolutionTier, int maxRecords) {
 
-        Cursor cursor = getCursor(new String[] {sensorTag}, range, resolutionTier, maxRecords);
+        Cursor cursor = getCursor(mOpenHelper.getReadableDatabase(), new String[] {sensorTag},
+                range, resolutionTier, maxRecords);
         try {
-            final int max = maxRecords <= 0 ? cursor.getCount() : maxRecords;
-            final long[] readTimestamps = new long[max];
-            final double[] readValues = new double[max];
+            int max = maxRecords <= 0 ? cursor.getCount() : maxRecords;
+            long[] readTimestamps = mReadingArrayPool.obtainTimestamps(max);
+            double[] readValues = mReadingArrayPool.obtainValues(max);
             int i = 0;
             while (cursor.moveToNext()) {
                 readTimestamps[i] = cursor.getLong(0);
                 readValues[i] = cursor.getDouble(1);
                 i++;
             }
-            final int actualCount = i;
-            return new ScalarReadingList() {
-                @Override
-                public void deliver(StreamConsumer c) {
-                    for (int i = 0; i < actualCount; i++) {
-                        c.addData(readTimestamps[i], readValues[i]);
-                    }
-                }
-
-                @Override
-                public int size() {
-                    return actualCount;
-                }
-
-                @Override
-                public List<ChartData.DataPoint> asDataPoints() {
-                    List<ChartData.DataPoint> result = new ArrayList<>();
-                    for (int i = 0; i < actualCount; i++) {
-                        result.add(new ChartData.DataPoint(readTimestamps[i], readValues[i]));
-                    }
-                    return result;
-                }
-            };
+            return new ArrayScalarReadingList(readTimestamps, readValues, i, mReadingArrayPool);
         } finally {
             cursor.close();
         }
@@ -204,86 +639,351 @@ public class SensorDatabaseImpl implements SensorDatabase {
     @Override
     public Observable<ScalarReading> createScalarObservable(String[] sensorTags,
             final TimeRange range, int resolutionTier) {
-        return createScalarObservable(sensorTags, range, resolutionTier, 500);
+        return createScalarFlowable(sensorTags, range, resolutionTier).toObservable();
     }
 
     @VisibleForTesting
     Observable<ScalarReading> createScalarObservable(String[] sensorTags, final TimeRange range,
             int resolutionTier, int pageSize) {
-        return Observable.create(new ObservableOnSubscribe<ScalarReading>() {
+        return createScalarFlowable(sensorTags, range, resolutionTier, pageSize).toObservable();
+    }
 
-            private long mLastTimeStampWritten = -1;
+    @Override
+    public Flowable<ScalarReading> createScalarFlowable(String[] sensorTags, TimeRange range,
+            int resolutionTier) {
+        return createScalarFlowable(sensorTags, range, resolutionTier,
+                getScanPageSize(sensorTags.length));
+    }
 
-            @Override
-            public void subscribe(ObservableEmitter<ScalarReading> observableEmitter)
-                    throws Exception {
-                // Start by opening the cursor.
-                TimeRange searchRange = range;
-                while (true) {
-                    Cursor c = null;
-                    try {
-                        c = getCursor(sensorTags, searchRange, resolutionTier, pageSize);
-                        if (c != null) {
-                            int count = 0;
-                            while (c.moveToNext()) {
-                                long timeStamp = c.getLong(0);
-                                observableEmitter.onNext(new ScalarReading(timeStamp,
-                                        c.getDouble(1), c.getString(2)));
-                                mLastTimeStampWritten = timeStamp;
-                                count++;
-                            }
-                            if (count == 0 || observableEmitter.isDisposed()) {
-                                break;
-                            }
-                        }
-                    } finally {
-                        if (c != null) {
-                            c.close();
-                        }
-                    }
-                    if (mLastTimeStampWritten >= range.getTimes().upperEndpoint()) {
-                        break;
-                    } else {
-                        Range<Long> times = Range.openClosed(mLastTimeStampWritten,
-                                range.getTimes().upperEndpoint());
-                        searchRange = TimeRange.oldest(times);
-                    }
-                    if (observableEmitter.isDisposed()) {
-                        break;
-                    }
+    /**
+     * Readings from several sensors are interleaved in time, so a page needs room for a reading
+     * from each of them to cover the same span as a page of a single sensor.
+     */
+    @VisibleForTesting
+    static int getScanPageSize(int tagCount) {
+        return Math.min(MAX_SCAN_PAGE_ROWS, SCAN_PAGE_ROWS_PER_TAG * Math.max(1, tagCount));
+    }
+
+    @VisibleForTesting
+    Flowable<ScalarReading> createScalarFlowable(String[] sensorTags, TimeRange range,
+            int resolutionTier, int pageSize) {
+        // generate() calls back once per reading, and only while there is outstanding demand,
+        // so a page is only queried once the previous one has been consumed downstream.
+        return Flowable.generate(() -> new ScalarScan(sensorTags, range, resolutionTier,
+                pageSize), (scan, emitter) -> {
+            if (scan.isPageConsumed()) {
+                if (scan.isLastPage()) {
+                    emitter.onComplete();
+                    return scan;
+                }
+                loadPage(scan);
+                if (scan.isPageConsumed()) {
+                    emitter.onComplete();
+                    return scan;
                 }
-                observableEmitter.onComplete();
             }
+            emitter.onNext(scan.next());
+            return scan;
         });
     }
 
-    private Cursor getCursor(String[] sensorTags, TimeRange range, int resolutionTier,
-            int maxRecords) {
-        String[] columns = new String[] {ScalarSensorsTable.Column.TIMESTAMP_MILLIS,
-                ScalarSensorsTable.Column.VALUE, ScalarSensorsTable.Column.TAG};
-        Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(sensorTags,
-                range, resolutionTier);
-        String selection = selectionAndArgs.first;
-        String[] selectionArgs = selectionAndArgs.second;
+    /**
+     * State of one subscription to {@link #createScalarFlowable}: the page of readings being
+     * emitted, and where the next page starts.
+     *
+     * Pages are resumed by timestamp alone, and never end partway through the readings that share
+     * a timestamp.  Each timestamp's readings are then all read by the same query, so readings that
+     * {@link #migrateIncrementally} moves to another table between pages are neither skipped nor
+     * read twice, which a position within a particular table could not promise.
+     */
+    private static class ScalarScan {
+        final String[] sensorTags;
+        final TimeRange range;
+        final int resolutionTier;
+        final int pageSize;
+
+        // Grown if a single timestamp has more than a page of readings.
+        long[] timestamps;
+        double[] values;
+        String[] tags;
+        int pageCount = 0;
+        int nextIndex = 0;
+        long lastTimestamp;
+        boolean loadedAny = false;
+        boolean exhausted = false;
+
+        ScalarScan(String[] sensorTags, TimeRange range, int resolutionTier, int pageSize) {
+            this.sensorTags = sensorTags;
+            this.range = range;
+            this.resolutionTier = resolutionTier;
+            this.pageSize = pageSize;
+            timestamps = new long[pageSize];
+            values = new double[pageSize];
+            tags = new String[pageSize];
+        }
+
+        boolean isPageConsumed() {
+            return nextIndex >= pageCount;
+        }
+
+        boolean isLastPage() {
+            return exhausted;
+        }
+
+        ScalarReading next() {
+            int i = nextIndex++;
+            return new ScalarReading(timestamps[i], values[i], tags[i]);
+        }
+
+        /**
+         * @return the times that the next page is read from
+         */
+        Range<Long> getRemainingTimes() {
+            Range<Long> times = range.getTimes();
+            return loadedAny ? times.intersection(Range.greaterThan(lastTimestamp)) : times;
+        }
+    }
+
+    private void loadPage(ScalarScan scan) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        int count = readPage(db, queryPage(db, scan.sensorTags, scan.getRemainingTimes(),
+                scan.resolutionTier, scan.pageSize), scan);
+        // A short page means the query ran out of readings.
+        scan.exhausted = count < scan.pageSize;
+        if (!scan.exhausted) {
+            // Readings with the last timestamp may go on past this page, so leave them all to
+            // the next one.
+            long lastTimestamp = scan.timestamps[count - 1];
+            int lastTimestampStart = count - 1;
+            while (lastTimestampStart > 0
+                    && scan.timestamps[lastTimestampStart - 1] == lastTimestamp) {
+                lastTimestampStart--;
+            }
+            if (lastTimestampStart > 0) {
+                count = lastTimestampStart;
+            } else {
+                // The whole page has one timestamp, so read all of that timestamp's readings.
+                count = readPage(db, queryPage(db, scan.sensorTags,
+                        Range.singleton(lastTimestamp), scan.resolutionTier, 0), scan);
+            }
+        }
+        scan.pageCount = count;
+        scan.nextIndex = 0;
+        scan.loadedAny = true;
+        if (count > 0) {
+            scan.lastTimestamp = scan.timestamps[count - 1];
+        }
+    }
+
+    /**
+     * Reads and closes {@code c}, a cursor from {@link #queryPage}, into the start of the arrays
+     * of {@code scan}.
+     *
+     * @return the number of readings read
+     */
+    private int readPage(SQLiteDatabase db, Cursor c, ScalarScan scan) {
+        try {
+            int count = c.getCount();
+            if (count > scan.timestamps.length) {
+                scan.timestamps = new long[count];
+                scan.values = new double[count];
+                scan.tags = new String[count];
+            }
+            int i = 0;
+            while (c.moveToNext()) {
+                scan.timestamps[i] = c.getLong(0);
+                scan.values[i] = c.getDouble(1);
+                scan.tags[i] = readTag(db, c, 2);
+                i++;
+            }
+            return i;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Queries a page of readings in {@code times}, oldest first, for
+     * {@link #createScalarFlowable}.  The cursor's columns are those of {@link #queryReadings},
+     * followed by the source table's index and the rowid, which only order readings that share a
+     * timestamp.
+     *
+     * @param pageSize the most readings to read, or 0 to read them all
+     */
+    private Cursor queryPage(SQLiteDatabase db, String[] sensorTags, Range<Long> times,
+            int resolutionTier, int pageSize) {
+        List<String> selects = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        TimeRange range = TimeRange.oldest(times);
+
+        List<String> tables = new ArrayList<>();
+        tables.add(ScalarSensorsTable.NAME);
+        tables.addAll(getLegacyTables(db));
+        for (int source = 0; source < tables.size(); source++) {
+            boolean current = source == 0;
+            String tagColumn = current ? ScalarSensorsTable.Column.TAG_ID
+                    : LegacyScalarSensorsTables.TAG;
+            Pair<String, String[]> selection = getSelectionAndArgs(tagColumn,
+                    current ? getTagIdValues(db, sensorTags) : sensorTags, range,
+                    resolutionTier);
+            Collections.addAll(args, selection.second);
+            selects.add("SELECT " + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                    + ScalarSensorsTable.Column.VALUE + ", " + tagColumn + " AS "
+                    + LegacyScalarSensorsTables.TAG + ", " + source + " AS " + SCAN_SOURCE
+                    + ", rowid AS " + SCAN_ROW_ID + " FROM " + tables.get(source)
+                    + (selection.first.isEmpty() ? "" : " WHERE " + selection.first));
+        }
+
+        String sql = Joiner.on(" UNION ALL ").join(selects) + " ORDER BY "
+                + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", " + SCAN_SOURCE + ", "
+                + SCAN_ROW_ID + (pageSize > 0 ? " LIMIT " + pageSize : "");
+        return db.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    private Cursor getCursor(SQLiteDatabase db, String[] sensorTags, TimeRange range,
+            int resolutionTier, int maxRecords) {
         String orderBy = ScalarSensorsTable.Column.TIMESTAMP_MILLIS + (range.getOrder().equals(
                 TimeRange.ObservationOrder.OLDEST_FIRST) ? " ASC" : " DESC");
         String limit = maxRecords <= 0 ? null : String.valueOf(maxRecords);
-        return mOpenHelper.getReadableDatabase().query(ScalarSensorsTable.NAME,
-                columns,  selection, selectionArgs, null, null, orderBy,
-                limit);
+        return queryReadings(db, sensorTags, range, resolutionTier, orderBy, limit);
+    }
+
+    /**
+     * Queries scalar readings, including any rows that have not yet been migrated out of the
+     * legacy tables.  The cursor's columns are the timestamp, the value, and the tag, which must
+     * be read with {@link #readTag}.
+     *
+     * @param sensorTags tags of the sensors to read, or null to read every sensor
+     * @param resolutionTier tier to read, or -1 to read every tier
+     */
+    private Cursor queryReadings(SQLiteDatabase db, String[] sensorTags, TimeRange range,
+            int resolutionTier, String orderBy, String limit) {
+        List<String> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(
+                selectAllReadings(db, sensorTags, range, resolutionTier, args));
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * @return a query for the readings described by {@link #queryReadings}, in no particular
+     * order.  Its arguments are appended to {@code args}.
+     */
+    private String selectAllReadings(SQLiteDatabase db, String[] sensorTags, TimeRange range,
+            int resolutionTier, List<String> args) {
+        List<String> selects = new ArrayList<>();
+        Pair<String, String[]> current = getSelectionAndArgs(ScalarSensorsTable.Column.TAG_ID,
+                getTagIdValues(db, sensorTags), range, resolutionTier);
+        selects.add(selectReadings(ScalarSensorsTable.NAME, ScalarSensorsTable.Column.TAG_ID,
+                current.first));
+        Collections.addAll(args, current.second);
+
+        for (String legacyName : getLegacyTables(db)) {
+            Pair<String, String[]> legacy = getSelectionAndArgs(LegacyScalarSensorsTables.TAG,
+                    sensorTags, range, resolutionTier);
+            selects.add(selectReadings(legacyName, LegacyScalarSensorsTables.TAG, legacy.first));
+            Collections.addAll(args, legacy.second);
+        }
+        return Joiner.on(" UNION ALL ").join(selects);
+    }
+
+    @Override
+    public ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        return getAggregates(db, sensorTag, range, bucketMillis,
+                chooseAggregateTier(db, sensorTag, range, bucketMillis));
+    }
+
+    @Override
+    public ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis,
+            int resolutionTier) {
+        return getAggregates(mOpenHelper.getReadableDatabase(), sensorTag, range, bucketMillis,
+                resolutionTier);
+    }
+
+    private ScalarAggregates getAggregates(SQLiteDatabase db, String sensorTag, TimeRange range,
+            long bucketMillis, int resolutionTier) {
+        Preconditions.checkArgument(bucketMillis > 0);
+        long origin = ScalarAggregates.getOrigin(range);
+        String column = ScalarSensorsTable.Column.VALUE;
+        // Bucket numbers are computed from constants rather than bound arguments, since bound
+        // arguments are strings, and would make the division a floating point one.
+        String bucket = "(" + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " - " + origin
+                + ") / " + bucketMillis;
+        List<String> args = new ArrayList<>();
+        String sql = "SELECT " + bucket + " AS bucket, MIN(" + column + "), MAX(" + column
+                + "), AVG(" + column + "), COUNT(*) FROM ("
+                + selectAllReadings(db, new String[] {sensorTag}, range, resolutionTier, args)
+                + ") GROUP BY bucket ORDER BY bucket";
+        Cursor cursor = db.rawQuery(sql, args.toArray(new String[args.size()]));
+        try {
+            ScalarAggregates aggregates = new ScalarAggregates(bucketMillis, resolutionTier,
+                    cursor.getCount());
+            while (cursor.moveToNext()) {
+                // SQLite stores NaN as NULL, and leaves NULLs out of MIN, MAX and AVG
+                aggregates.add(origin + cursor.getLong(0) * bucketMillis, getDoubleOrNaN(cursor, 1),
+                        getDoubleOrNaN(cursor, 2), getDoubleOrNaN(cursor, 3), cursor.getInt(4));
+            }
+            return aggregates;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double getDoubleOrNaN(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    /**
+     * @return the coarsest tier with enough readings in {@code range} for aggregates, as decided
+     * by {@link ScalarAggregates#isDenseEnough}.  Each tier has a fraction of the readings of the
+     * tier below, so counting up from tier 1 costs much less than reading tier 0.
+     */
+    private int chooseAggregateTier(SQLiteDatabase db, String sensorTag, TimeRange range,
+            long bucketMillis) {
+        int tier = 0;
+        while (true) {
+            List<String> args = new ArrayList<>();
+            String sql = "SELECT COUNT(*), MIN(" + ScalarSensorsTable.Column.TIMESTAMP_MILLIS
+                    + "), MAX(" + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ") FROM ("
+                    + selectAllReadings(db, new String[] {sensorTag}, range, tier + 1, args)
+                    + ")";
+            Cursor cursor = db.rawQuery(sql, args.toArray(new String[args.size()]));
+            try {
+                if (!cursor.moveToFirst() || cursor.getInt(0) == 0
+                        || !ScalarAggregates.isDenseEnough(cursor.getInt(0), cursor.getLong(1),
+                        cursor.getLong(2), bucketMillis)) {
+                    return tier;
+                }
+            } finally {
+                cursor.close();
+            }
+            tier++;
+        }
+    }
+
+    private static String selectReadings(String table, String tagColumn, String selection) {
+        return "SELECT " + ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ", "
+                + ScalarSensorsTable.Column.VALUE + ", " + tagColumn + " AS "
+                + LegacyScalarSensorsTables.TAG + " FROM " + table
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection);
     }
 
     // TODO: test
     @Override
     public String getFirstDatabaseTagAfter(long timestamp) {
-        final String timestampString = String.valueOf(timestamp);
-        final Cursor cursor = mOpenHelper.getReadableDatabase().query(ScalarSensorsTable.NAME,
-                new String[]{ScalarSensorsTable.Column.TAG},
-                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + ">?", new String[]{timestampString},
-                null, null, ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " ASC", "1");
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        final Cursor cursor = queryReadings(db, null,
+                TimeRange.oldest(Range.greaterThan(timestamp)), -1 /* any tier */,
+                ScalarSensorsTable.Column.TIMESTAMP_MILLIS + " ASC", "1");
         try {
             if (cursor.moveToNext()) {
-                return cursor.getString(0);
+                return readTag(db, cursor, 2);
             } else {
                 return null;
             }
@@ -294,10 +994,218 @@ public class SensorDatabaseImpl implements SensorDatabase {
 
     @Override
     public void deleteScalarReadings(String sensorTag, TimeRange range) {
-        Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(new String[] {sensorTag},
-                range, -1 /* delete all resolutions */);
-        String selection = selectionAndArgs.first;
-        String[] selectionArgs = selectionAndArgs.second;
-        mOpenHelper.getWritableDatabase().delete(ScalarSensorsTable.NAME, selection, selectionArgs);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Integer tagId = getTagId(db, sensorTag);
+        if (tagId != null) {
+            Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(
+                    ScalarSensorsTable.Column.TAG_ID, new String[] {String.valueOf(tagId)},
+                    range, -1 /* delete all resolutions */);
+            db.delete(ScalarSensorsTable.NAME, selectionAndArgs.first, selectionAndArgs.second);
+        }
+        for (String legacyName : getLegacyTables(db)) {
+            Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(
+                    LegacyScalarSensorsTables.TAG, new String[] {sensorTag}, range,
+                    -1 /* delete all resolutions */);
+            db.delete(legacyName, selectionAndArgs.first, selectionAndArgs.second);
+        }
+        if (tagId != null) {
+            trimSummaries(db, sensorTag, tagId, range);
+        }
+    }
+
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Integer tagId = getTagId(db, sensorTag);
+        if (tagId != null) {
+            deleteZoomTiers(db, ScalarSensorsTable.NAME, ScalarSensorsTable.Column.TAG_ID,
+                    String.valueOf(tagId), range);
+        }
+        for (String legacyName : getLegacyTables(db)) {
+            deleteZoomTiers(db, legacyName, LegacyScalarSensorsTables.TAG, sensorTag, range);
+        }
+    }
+
+    private void deleteZoomTiers(SQLiteDatabase db, String table, String tagColumn,
+            String tagValue, TimeRange range) {
+        Pair<String, String[]> selectionAndArgs = getSelectionAndArgs(tagColumn,
+                new String[] {tagValue}, range, -1 /* any tier, narrowed below */);
+        db.delete(table, selectionAndArgs.first + " AND "
+                + ScalarSensorsTable.Column.RESOLUTION_TIER + " > 0", selectionAndArgs.second);
+    }
+
+    /**
+     * Replaces the summaries that overlap a deleted range with summaries of the readings that
+     * are left, so that every summary still describes exactly the readings between its first and
+     * last timestamps.
+     */
+    private void trimSummaries(SQLiteDatabase db, String sensorTag, int tagId, TimeRange range) {
+        long start = getFirstTimestamp(range);
+        long end = getLastTimestamp(range);
+        String selection = ScalarSummariesTable.Column.TAG_ID + " = ? AND "
+                + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS + " <= ? AND "
+                + ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS + " >= ?";
+        String[] args = {String.valueOf(tagId), String.valueOf(end), String.valueOf(start)};
+        db.beginTransaction();
+        try {
+            List<ScalarSummary> remaining = new ArrayList<>();
+            Cursor cursor = db.query(ScalarSummariesTable.NAME, new String[] {
+                    ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS,
+                    ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS}, selection, args, null,
+                    null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long first = cursor.getLong(0);
+                    long last = cursor.getLong(1);
+                    if (first < start) {
+                        remaining.add(summarizeReadings(db, sensorTag, first, start - 1));
+                    }
+                    if (last > end) {
+                        remaining.add(summarizeReadings(db, sensorTag, end + 1, last));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            db.delete(ScalarSummariesTable.NAME, selection, args);
+            for (ScalarSummary summary : remaining) {
+                if (!summary.isEmpty()) {
+                    insertSummary(db, tagId, summary);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void addScalarSummary(String sensorTag, ScalarSummary summary) {
+        if (summary.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        insertSummary(db, getOrCreateTagId(db, sensorTag), summary);
+    }
+
+    private static void insertSummary(SQLiteDatabase db, int tagId, ScalarSummary summary) {
+        ContentValues values = new ContentValues();
+        values.put(ScalarSummariesTable.Column.TAG_ID, tagId);
+        values.put(ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS,
+                summary.getFirstTimestamp());
+        values.put(ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS, summary.getLastTimestamp());
+        if (summary.getCount() > 0) {
+            values.put(ScalarSummariesTable.Column.MIN, summary.getMin());
+            values.put(ScalarSummariesTable.Column.MAX, summary.getMax());
+        }
+        values.put(ScalarSummariesTable.Column.SUM, summary.getSum());
+        values.put(ScalarSummariesTable.Column.COUNT, summary.getCount());
+        values.put(ScalarSummariesTable.Column.M2, summary.getSumOfSquaredDifferences());
+        if (summary.hasDistribution()) {
+            values.put(ScalarSummariesTable.Column.SKETCH, summary.getSketch().toBytes());
+        }
+        db.insert(ScalarSummariesTable.NAME, null, values);
+    }
+
+    @Override
+    public ScalarSummary getScalarSummary(String sensorTag, TimeRange range) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long start = getFirstTimestamp(range);
+        long end = getLastTimestamp(range);
+        Integer tagId = getTagId(db, sensorTag);
+        ScalarSummary stored = tagId == null ? new ScalarSummary()
+                : readStoredSummaries(db, tagId, start, end);
+        if (stored.isEmpty()) {
+            return summarizeReadings(db, sensorTag, start, end);
+        }
+
+        // Summaries are written for every stretch of time while recording, so only the readings
+        // at either end of the range can be missing from them.
+        ScalarSummary result = new ScalarSummary();
+        result.add(stored);
+        if (start < stored.getFirstTimestamp()) {
+            result.add(summarizeReadings(db, sensorTag, start, stored.getFirstTimestamp() - 1));
+        }
+        if (end > stored.getLastTimestamp()) {
+            result.add(summarizeReadings(db, sensorTag, stored.getLastTimestamp() + 1, end));
+        }
+        return result;
+    }
+
+    /**
+     * @return the combination of all stored summaries that lie entirely within
+     * {@code [start, end]}
+     */
+    private static ScalarSummary readStoredSummaries(SQLiteDatabase db, int tagId, long start,
+            long end) {
+        // Variances and sketches can't be combined in SQL, so each row is merged here; there
+        // are only a few hundred summaries in an hour of recording.  Each row is decoded into
+        // the same scratch sketch and summary, rather than allocating a sketch for every row.
+        Cursor cursor = db.query(ScalarSummariesTable.NAME, new String[] {
+                ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS,
+                ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS,
+                ScalarSummariesTable.Column.MIN, ScalarSummariesTable.Column.MAX,
+                ScalarSummariesTable.Column.SUM, ScalarSummariesTable.Column.COUNT,
+                ScalarSummariesTable.Column.M2, ScalarSummariesTable.Column.SKETCH},
+                ScalarSummariesTable.Column.TAG_ID + " = ? AND "
+                        + ScalarSummariesTable.Column.FIRST_TIMESTAMP_MILLIS + " >= ? AND "
+                        + ScalarSummariesTable.Column.LAST_TIMESTAMP_MILLIS + " <= ?",
+                new String[] {String.valueOf(tagId), String.valueOf(start), String.valueOf(end)},
+                null, null, null);
+        ScalarSummary result = new ScalarSummary();
+        ScalarSummary row = new ScalarSummary();
+        QuantileSketch sketch = new QuantileSketch();
+        try {
+            while (cursor.moveToNext()) {
+                int count = cursor.getInt(5);
+                QuantileSketch rowSketch = null;
+                if (!cursor.isNull(7)) {
+                    sketch.readFrom(cursor.getBlob(7));
+                    rowSketch = sketch;
+                }
+                row.set(cursor.getLong(0), cursor.getLong(1),
+                        count == 0 ? Double.POSITIVE_INFINITY : cursor.getDouble(2),
+                        count == 0 ? Double.NEGATIVE_INFINITY : cursor.getDouble(3),
+                        cursor.getDouble(4), count,
+                        cursor.isNull(6) ? Double.NaN : cursor.getDouble(6), rowSketch);
+                result.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return a summary of the tier-0 readings in {@code [start, end]}, read one by one
+     */
+    private ScalarSummary summarizeReadings(SQLiteDatabase db, String sensorTag, long start,
+            long end) {
+        List<String> args = new ArrayList<>();
+        String sql = selectAllReadings(db, new String[] {sensorTag},
+                TimeRange.oldest(Range.closed(start, end)), 0, args);
+        Cursor cursor = db.rawQuery(sql, args.toArray(new String[args.size()]));
+        ScalarSummary summary = new ScalarSummary();
+        try {
+            while (cursor.moveToNext()) {
+                // SQLite stores NaN as NULL
+                summary.add(cursor.getLong(0), cursor.isNull(1) ? Double.NaN
+                        : cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return summary;
+    }
+
+    private static long getFirstTimestamp(TimeRange range) {
+        Range<Long> times = range.getTimes().canonical(DiscreteDomain.longs());
+        return times.hasLowerBound() ? times.lowerEndpoint() : Long.MIN_VALUE;
+    }
+
+    private static long getLastTimestamp(TimeRange range) {
+        // Canonical ranges are closed below and open above
+        Range<Long> times = range.getTimes().canonical(DiscreteDomain.longs());
+        return times.hasUpperBound() ? times.upperEndpoint() - 1 : Long.MAX_VALUE;
     }
 }
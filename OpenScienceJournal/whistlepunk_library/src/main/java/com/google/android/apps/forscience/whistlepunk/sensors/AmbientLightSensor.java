@@ -19,15 +19,14 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.google.android.apps.forscience.javalib.DataRefresher;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -40,8 +39,8 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  */
 public class AmbientLightSensor extends ScalarSensor {
     public static final String ID = "AmbientLightSensor";
+    private static final int DEFAULT_SAMPLING_PERIOD_US = SensorManager.SENSOR_DELAY_UI;
     private final SystemScheduler mScheduler = new SystemScheduler();
-    private SensorEventListener mSensorEventListener;
     private DataRefresher mDataRefresher;
 
     public AmbientLightSensor() {
@@ -52,52 +51,41 @@ public class AmbientLightSensor extends ScalarSensor {
     protected SensorRecorder makeScalarControl(final StreamConsumer c,
             final SensorEnvironment environment, final Context context,
             final SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
+        return new HardwareSensorRecorder(getId(),
+                AppSingleton.getInstance(context).getHardwareSensorHub(),
+                environment.getDefaultClock(), listener, DEFAULT_SAMPLING_PERIOD_US,
+                Sensor.TYPE_LIGHT) {
             @Override
             public void startObserving() {
                 mDataRefresher = new DataRefresher(mScheduler, environment.getDefaultClock());
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                mSensorEventListener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        // values[0] is the ambient light level in SI lux units.
-                        mDataRefresher.setValue(event.values[0]);
-                        mDataRefresher.startStreaming();
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, sensor,
-                        SensorManager.SENSOR_DELAY_UI);
+                super.startObserving();
                 mDataRefresher.setStreamConsumer(c);
+            }
 
+            @Override
+            protected void onSensorChanged(SensorEvent event, long timestampMillis) {
+                // values[0] is the ambient light level in SI lux units.  The refresher
+                // timestamps the values it sends, since it repeats them between events.
+                mDataRefresher.setValue(event.values[0]);
+                mDataRefresher.startStreaming();
             }
 
             @Override
             public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+                super.stopObserving();
                 if (mDataRefresher != null) {
                     mDataRefresher.stopStreaming();
                     mDataRefresher = null;
                 }
             }
-
-            @Override
-            public void applyOptions(ReadableSensorOptions settings) {
-                // do nothing, no settings apply to collection
-            }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingRateOptionsPresenter(DEFAULT_SAMPLING_PERIOD_US);
+    }
+
     public static boolean isAmbientLightAvailable(AvailableSensors availableSensors) {
         return availableSensors.isSensorAvailable(Sensor.TYPE_LIGHT);
     }
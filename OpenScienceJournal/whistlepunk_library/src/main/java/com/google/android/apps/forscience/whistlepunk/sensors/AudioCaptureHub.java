@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares one microphone {@link AudioRecord} between every sensor derived from it, so that, for
+ * example, loudness and pitch can be recorded together.
+ *
+ * The microphone is opened when the first listener subscribes and released when the last one
+ * leaves.  Each buffer of samples is read into the same array, and handed to every listener in
+ * turn on the capture thread.
+ */
+public class AudioCaptureHub {
+    public static final int SAMPLE_RATE_IN_HZ = 44100;
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+
+    // Read 10ms at a time, so that listeners see samples soon after they are captured, whatever
+    // the device's minimum buffer size.
+    private static final int SHORTS_PER_READ = SAMPLE_RATE_IN_HZ / 100;
+
+    // Leave room in the AudioRecord's own buffer for a few reads, in case the capture thread is
+    // slow to be scheduled.
+    private static final int MIN_BUFFER_READS = 4;
+
+    /**
+     * Receives the microphone's samples.
+     */
+    public interface AudioBufferListener {
+        /**
+         * Called on the capture thread for each buffer read.  {@code samples} is reused for the
+         * next buffer, so must not be kept after this returns.
+         *
+         * @param count the number of samples read, at the start of {@code samples}
+         */
+        void onAudioBuffer(short[] samples, int count);
+
+        /**
+         * Called instead of subscribing if the microphone could not be opened.
+         */
+        void onAudioError(String message);
+    }
+
+    /**
+     * @return true if {@code sensorId} is one of the sensors that reads the microphone
+     */
+    public static boolean isAudioSensor(String sensorId) {
+        return TextUtils.equals(sensorId, DecibelSensor.ID)
+                || TextUtils.equals(sensorId, PeakAmplitudeSensor.ID)
+                || TextUtils.equals(sensorId, PitchSensor.ID);
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final short[] mBuffer = new short[SHORTS_PER_READ];
+
+    // Replaced rather than changed, so that buffers can be handed out without locking.
+    private volatile AudioBufferListener[] mListeners = new AudioBufferListener[0];
+
+    private AudioRecord mRecord;
+    private AtomicBoolean mRunning;
+
+    /**
+     * Starts handing samples to {@code listener}, opening the microphone if no one else has.
+     * If the microphone can't be opened, calls {@link AudioBufferListener#onAudioError} instead.
+     */
+    public synchronized void subscribe(AudioBufferListener listener) {
+        if (mListeners.length == 0) {
+            String error = startCapture();
+            if (error != null) {
+                listener.onAudioError(error);
+                return;
+            }
+        }
+        int count = mListeners.length;
+        AudioBufferListener[] listeners = Arrays.copyOf(mListeners, count + 1);
+        listeners[count] = listener;
+        mListeners = listeners;
+    }
+
+    /**
+     * Stops handing samples to {@code listener}, releasing the microphone if it was the last.
+     */
+    public synchronized void unsubscribe(AudioBufferListener listener) {
+        int count = mListeners.length;
+        for (int i = 0; i < count; i++) {
+            if (mListeners[i] == listener) {
+                AudioBufferListener[] listeners = new AudioBufferListener[count - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, count - i - 1);
+                mListeners = listeners;
+                if (listeners.length == 0) {
+                    stopCapture();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return null if capture started, otherwise a description of what went wrong
+     */
+    private String startCapture() {
+        int minBufferSize =
+                AudioRecord.getMinBufferSize(SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT);
+        if (minBufferSize < 0) {
+            // If this is the case, AudioRecord.getMinBufferSize returned an error.
+            return "Could not connect to microphone";
+        }
+        int bufferSize = Math.max(minBufferSize, SHORTS_PER_READ * 2 * MIN_BUFFER_READS);
+
+        // Use VOICE_COMMUNICATION to filter out audio coming from the speakers
+        final AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.VOICE_COMMUNICATION,
+                SAMPLE_RATE_IN_HZ, CHANNEL_CONFIG, AUDIO_FORMAT, bufferSize);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return "Could not connect to microphone";
+        }
+        record.startRecording();
+        // Check to see if we actually started recording before continuing.
+        // AudioRecord#startRecording() logs an error but it has no return value and
+        // doesn't throw an exception when someone else is using the mic.
+        if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            record.release();
+            return "Microphone in use by another application";
+        }
+
+        mRecord = record;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        mRunning = running;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    int readShorts = record.read(mBuffer, 0, mBuffer.length);
+                    if (readShorts > 0 && running.get()) {
+                        for (AudioBufferListener listener : mListeners) {
+                            listener.onAudioBuffer(mBuffer, readShorts);
+                        }
+                    }
+                }
+            }
+        });
+        return null;
+    }
+
+    private void stopCapture() {
+        if (mRunning != null) {
+            mRunning.set(false);
+            mRunning = null;
+        }
+        if (mRecord != null) {
+            if (mRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                mRecord.stop();
+            }
+            mRecord.release();
+            mRecord = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * Measures the level of the microphone's signal over consecutive windows of samples.
+ */
+class AudioLevelWindow {
+    interface Listener {
+        /**
+         * @param timestampMillis when the last sample in the window was captured
+         * @param rms the root mean square of the window's samples
+         * @param peak the largest absolute value of the window's samples
+         */
+        void onWindow(long timestampMillis, double rms, int peak);
+    }
+
+    // Set from the UI thread, and picked up at the end of the current window.
+    private volatile int mWindowSamples;
+    private int mCurrentWindowSamples;
+
+    private double mSumOfSquares = 0;
+    private int mPeak = 0;
+    private int mCount = 0;
+
+    AudioLevelWindow(int windowMillis) {
+        setWindowMillis(windowMillis);
+        mCurrentWindowSamples = mWindowSamples;
+    }
+
+    void setWindowMillis(int windowMillis) {
+        mWindowSamples =
+                Math.max(1, (int) ((long) windowMillis * AudioCaptureHub.SAMPLE_RATE_IN_HZ / 1000));
+    }
+
+    void addSamples(short[] samples, int count, long endTimeMillis, Listener listener) {
+        for (int i = 0; i < count; i++) {
+            int sample = samples[i];
+            mSumOfSquares += sample * sample;
+            int magnitude = Math.abs(sample);
+            if (magnitude > mPeak) {
+                mPeak = magnitude;
+            }
+            mCount++;
+            if (mCount >= mCurrentWindowSamples) {
+                listener.onWindow(AudioSensorRecorder.getSampleTimeMillis(i, count, endTimeMillis),
+                        Math.sqrt(mSumOfSquares / mCount), mPeak);
+                mSumOfSquares = 0;
+                mPeak = 0;
+                mCount = 0;
+                mCurrentWindowSamples = mWindowSamples;
+            }
+        }
+    }
+
+    /**
+     * @return the level of {@code amplitude} in uncalibrated decibels
+     */
+    static double toDecibels(double amplitude) {
+        return 20 * Math.log10(amplitude);
+    }
+
+    /* Some devices (mostly Samsung) seem to spit out
+    some -Double.MAX_VALUE points when the mic starts
+    which mess up graphing/audio due to an absurd yMin
+    so we drop them since they are bad data anyways.
+    */
+    static boolean isValidReading(double reading) {
+        return reading > -Double.MAX_VALUE;
+    }
+}
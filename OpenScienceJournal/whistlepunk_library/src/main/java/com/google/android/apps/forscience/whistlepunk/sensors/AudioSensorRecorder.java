@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+
+/**
+ * Observes the microphone through an {@link AudioCaptureHub}, and gives each sample the time it
+ * was captured.
+ */
+abstract class AudioSensorRecorder extends AbstractSensorRecorder {
+    private final String mSensorId;
+    private final AudioCaptureHub mHub;
+    private final Clock mClock;
+    private final SensorStatusListener mStatusListener;
+    private AudioCaptureHub.AudioBufferListener mBufferListener;
+
+    AudioSensorRecorder(String sensorId, AudioCaptureHub hub, Clock clock,
+            SensorStatusListener statusListener) {
+        mSensorId = sensorId;
+        mHub = hub;
+        mClock = clock;
+        mStatusListener = statusListener;
+    }
+
+    /**
+     * Called on the capture thread for each buffer of samples.
+     *
+     * @param samples reused for the next buffer, so must not be kept
+     * @param endTimeMillis when the last of the samples was captured, on the environment's clock
+     */
+    protected abstract void onSamples(short[] samples, int count, long endTimeMillis);
+
+    @Override
+    public void startObserving() {
+        mStatusListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_CONNECTED);
+        mBufferListener = new AudioCaptureHub.AudioBufferListener() {
+            @Override
+            public void onAudioBuffer(short[] samples, int count) {
+                onSamples(samples, count, mClock.getNow());
+            }
+
+            @Override
+            public void onAudioError(String message) {
+                mStatusListener.onSourceError(mSensorId,
+                        SensorStatusListener.ERROR_FAILED_TO_CONNECT, message);
+            }
+        };
+        mHub.subscribe(mBufferListener);
+    }
+
+    @Override
+    public void stopObserving() {
+        if (mBufferListener != null) {
+            mHub.unsubscribe(mBufferListener);
+            mBufferListener = null;
+        }
+        mStatusListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_DISCONNECTED);
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions settings) {
+        // do nothing, no settings apply to collection
+    }
+
+    /**
+     * @return the time that the sample at {@code index} of a buffer of {@code count} samples was
+     * captured, if the last was captured at {@code endTimeMillis}
+     */
+    static long getSampleTimeMillis(int index, int count, long endTimeMillis) {
+        return endTimeMillis
+                - Math.round((count - 1 - index) * 1000.0 / AudioCaptureHub.SAMPLE_RATE_IN_HZ);
+    }
+}
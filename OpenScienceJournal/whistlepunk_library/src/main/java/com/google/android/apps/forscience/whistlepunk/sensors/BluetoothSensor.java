@@ -76,7 +76,7 @@ public class BluetoothSensor extends ScalarSensor {
     private BleFlowListener mBleFlowListener;
 
     public BluetoothSensor(String sensorId, BleSensorSpec sensor, BleServiceSpec serviceSpec) {
-        this(sensorId, sensor, serviceSpec, AppSingleton.getUiThreadExecutor());
+        this(sensorId, sensor, serviceSpec, AppSingleton.getUiFrameExecutor());
     }
 
     public BluetoothSensor(
@@ -19,14 +19,13 @@ package com.google.android.apps.forscience.whistlepunk.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
-import com.google.android.apps.forscience.whistlepunk.Clock;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.AvailableSensors;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
@@ -36,7 +35,7 @@ import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
  */
 public class CompassSensor extends ScalarSensor {
     public static final String ID = "CompassSensor";
-    private SensorEventListener mSensorEventListener;
+    private static final int DEFAULT_SAMPLING_PERIOD_US = SensorManager.SENSOR_DELAY_UI;
 
     public CompassSensor() {
         super(ID);
@@ -45,67 +44,47 @@ public class CompassSensor extends ScalarSensor {
     @Override
     protected SensorRecorder makeScalarControl(StreamConsumer c, SensorEnvironment environment,
             Context context, SensorStatusListener listener) {
-        return new AbstractSensorRecorder() {
-            @Override
-            public void startObserving() {
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_CONNECTED);
-                SensorManager sensorManager = getSensorManager(context);
-                Sensor magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-                Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-                if (mSensorEventListener != null) {
-                    getSensorManager(context).unregisterListener(mSensorEventListener);
-                }
-                final Clock clock = environment.getDefaultClock();
-                mSensorEventListener = new SensorEventListener() {
-                    private float[] orientation = new float[3];
-                    private float[] magneticRotation;
-                    private float[] acceleration;
-                    private float[] rotation = new float[9];
-                    private float[] inclination = new float[9];
-
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                            acceleration = event.values;
-                        } else {
-                            magneticRotation = event.values;
-                        }
-                        // Update data as long as we have a value for both. This is the highest
-                        // rate of update.
-                        // If we want a slower rate, we can update when *both* values have changed,
-                        // or only when magneticRotation changes, for example.
-                        if (acceleration == null || magneticRotation == null) {
-                            return;
-                        }
-                        boolean hasRotation = SensorManager.getRotationMatrix(rotation, inclination,
-                                acceleration, magneticRotation);
-                        if (hasRotation) {
-                            SensorManager.getOrientation(rotation, orientation);
-                            // Use a positive angle in degrees between 0 and 360.
-                            c.addData(clock.getNow(), 360 - (360 - (Math.toDegrees(orientation[0])))
-                                    % 360);
-                        }
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-                    }
-                };
-                sensorManager.registerListener(mSensorEventListener, magnetometer,
-                        SensorManager.SENSOR_DELAY_UI);
-                sensorManager.registerListener(mSensorEventListener, accelerometer,
-                        SensorManager.SENSOR_DELAY_UI);
-            }
+        return new HardwareSensorRecorder(getId(),
+                AppSingleton.getInstance(context).getHardwareSensorHub(),
+                environment.getDefaultClock(), listener, DEFAULT_SAMPLING_PERIOD_US,
+                Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_ACCELEROMETER) {
+            private float[] orientation = new float[3];
+            private float[] magneticRotation;
+            private float[] acceleration;
+            private float[] rotation = new float[9];
+            private float[] inclination = new float[9];
 
             @Override
-            public void stopObserving() {
-                getSensorManager(context).unregisterListener(mSensorEventListener);
-                listener.onSourceStatus(getId(), SensorStatusListener.STATUS_DISCONNECTED);
+            protected void onSensorChanged(SensorEvent event, long timestampMillis) {
+                if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+                    acceleration = event.values;
+                } else {
+                    magneticRotation = event.values;
+                }
+                // Update data as long as we have a value for both. This is the highest
+                // rate of update.
+                // If we want a slower rate, we can update when *both* values have changed,
+                // or only when magneticRotation changes, for example.
+                if (acceleration == null || magneticRotation == null) {
+                    return;
+                }
+                boolean hasRotation = SensorManager.getRotationMatrix(rotation, inclination,
+                        acceleration, magneticRotation);
+                if (hasRotation) {
+                    SensorManager.getOrientation(rotation, orientation);
+                    // Use a positive angle in degrees between 0 and 360.
+                    c.addData(timestampMillis, 360 - (360 - (Math.toDegrees(orientation[0])))
+                            % 360);
+                }
             }
         };
     }
 
+    @Override
+    protected SensorPresenter.OptionsPresenter createAdditionalScalarOptionsPresenter() {
+        return new SamplingRateOptionsPresenter(DEFAULT_SAMPLING_PERIOD_US);
+    }
+
     public static boolean isCompassSensorAvailable(AvailableSensors availableSensors) {
         return availableSensors.isSensorAvailable(Sensor.TYPE_ACCELEROMETER) &&
                 availableSensors.isSensorAvailable(Sensor.TYPE_MAGNETIC_FIELD);
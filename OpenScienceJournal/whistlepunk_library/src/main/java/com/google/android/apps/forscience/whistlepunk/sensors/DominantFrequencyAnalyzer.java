@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * Finds the strongest frequency in the microphone's signal, over overlapping frames of samples.
+ */
+class DominantFrequencyAnalyzer {
+    // About 46ms of audio, for a resolution of about 21Hz before interpolation.
+    static final int FRAME_SIZE = 2048;
+
+    // Frames overlap by half, so a frequency is found about every 23ms.
+    private static final int HOP_SIZE = FRAME_SIZE / 2;
+
+    interface Listener {
+        /**
+         * @param timestampMillis when the last sample in the frame was captured
+         */
+        void onFrequency(long timestampMillis, double frequencyHz);
+    }
+
+    private final Fft mFft = new Fft(FRAME_SIZE);
+    private final double[] mWindow = new double[FRAME_SIZE];
+
+    // The most recent samples, in a ring starting at mPosition.
+    private final double[] mFrame = new double[FRAME_SIZE];
+    private int mPosition = 0;
+    private int mFilled = 0;
+    private int mSinceLastFrame = 0;
+
+    private final double[] mReal = new double[FRAME_SIZE];
+    private final double[] mImag = new double[FRAME_SIZE];
+
+    DominantFrequencyAnalyzer() {
+        // A Hann window, so that the frame's edges don't smear energy across the spectrum.
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            mWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (FRAME_SIZE - 1));
+        }
+    }
+
+    void addSamples(short[] samples, int count, long endTimeMillis, Listener listener) {
+        for (int i = 0; i < count; i++) {
+            mFrame[mPosition] = samples[i];
+            mPosition = (mPosition + 1) & (FRAME_SIZE - 1);
+            if (mFilled < FRAME_SIZE) {
+                mFilled++;
+            }
+            mSinceLastFrame++;
+            if (mFilled == FRAME_SIZE && mSinceLastFrame >= HOP_SIZE) {
+                mSinceLastFrame = 0;
+                listener.onFrequency(
+                        AudioSensorRecorder.getSampleTimeMillis(i, count, endTimeMillis),
+                        findDominantFrequency());
+            }
+        }
+    }
+
+    private double findDominantFrequency() {
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            mReal[i] = mFrame[(mPosition + i) & (FRAME_SIZE - 1)] * mWindow[i];
+            mImag[i] = 0;
+        }
+        mFft.transform(mReal, mImag);
+
+        // Skip the DC bin, which is only the signal's offset.
+        int strongest = 1;
+        double strongestPower = power(1);
+        for (int bin = 2; bin < FRAME_SIZE / 2; bin++) {
+            double power = power(bin);
+            if (power > strongestPower) {
+                strongest = bin;
+                strongestPower = power;
+            }
+        }
+
+        // Fit a parabola through the strongest bin and its neighbors to find where between bins
+        // the peak really is.
+        double offset = 0;
+        if (strongest < FRAME_SIZE / 2 - 1) {
+            double before = Math.sqrt(power(strongest - 1));
+            double peak = Math.sqrt(strongestPower);
+            double after = Math.sqrt(power(strongest + 1));
+            double denominator = before - 2 * peak + after;
+            if (denominator != 0) {
+                offset = 0.5 * (before - after) / denominator;
+            }
+        }
+        return (strongest + offset) * AudioCaptureHub.SAMPLE_RATE_IN_HZ / FRAME_SIZE;
+    }
+
+    private double power(int bin) {
+        return mReal[bin] * mReal[bin] + mImag[bin] * mImag[bin];
+    }
+}
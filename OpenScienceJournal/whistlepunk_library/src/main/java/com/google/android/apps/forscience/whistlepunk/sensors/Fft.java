@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+/**
+ * In-place radix-2 fast Fourier transform of a fixed size.  The twiddle factors and bit-reversal
+ * permutation are computed once, so each transform allocates nothing.
+ */
+class Fft {
+    private final int mSize;
+    private final double[] mCos;
+    private final double[] mSin;
+    private final int[] mReversed;
+
+    /**
+     * @param size a power of two
+     */
+    Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        mSize = size;
+        mCos = new double[size / 2];
+        mSin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            mCos[i] = Math.cos(-2 * Math.PI * i / size);
+            mSin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+        mReversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            mReversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Replaces {@code real} and {@code imag} with their discrete Fourier transform.
+     */
+    void transform(double[] real, double[] imag) {
+        for (int i = 0; i < mSize; i++) {
+            int j = mReversed[i];
+            if (j > i) {
+                double temp = real[i];
+                real[i] = real[j];
+                real[j] = temp;
+                temp = imag[i];
+                imag[i] = imag[j];
+                imag[j] = temp;
+            }
+        }
+        for (int half = 1; half < mSize; half *= 2) {
+            int step = mSize / (half * 2);
+            for (int start = 0; start < mSize; start += half * 2) {
+                for (int k = 0; k < half; k++) {
+                    int even = start + k;
+                    int odd = even + half;
+                    double cos = mCos[k * step];
+                    double sin = mSin[k * step];
+                    double oddReal = real[odd] * cos - imag[odd] * sin;
+                    double oddImag = real[odd] * sin + imag[odd] * cos;
+                    real[odd] = real[even] - oddReal;
+                    imag[odd] = imag[even] - oddImag;
+                    real[even] += oddReal;
+                    imag[even] += oddImag;
+                }
+            }
+        }
+    }
+}
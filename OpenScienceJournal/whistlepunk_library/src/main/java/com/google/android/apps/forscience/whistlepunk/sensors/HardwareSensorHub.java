@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.SparseArray;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Shares each of the device's built-in sensors between everything observing it.  The X, Y and Z
+ * accelerometer sensors, for example, all read one hardware stream.
+ *
+ * The hub registers one listener with the {@link SensorManager} for each sensor type that has
+ * subscribers, and hands each event to all of them in that one callback.  Subscriptions are
+ * counted, and the hub's listener is unregistered when the last subscriber leaves.  Subscribers
+ * all get events at the fastest rate any of them asked for.
+ *
+ * Listeners are registered with a maximum report latency, so that sensors with a hardware FIFO
+ * batch their events, and the CPU only wakes to drain it.
+ */
+public class HardwareSensorHub {
+    // Long enough that the CPU isn't woken for every event, short enough that the graph doesn't
+    // noticeably lag.  Ignored by sensors without a FIFO.
+    private static final int MAX_REPORT_LATENCY_US = 100 * 1000;
+
+    // The periods that SensorManager uses for each of its SENSOR_DELAY_ constants.
+    private static final int[] SENSOR_DELAY_PERIODS_US = {0, 20000, 66667, 200000};
+
+    private static final int NOT_REGISTERED = -1;
+
+    private final SensorManager mSensorManager;
+    private final SparseArray<Source> mSources = new SparseArray<>();
+
+    /**
+     * The subscribers to one sensor type.
+     */
+    private static class Source implements SensorEventListener {
+        private final int mSensorType;
+        private int mRegisteredPeriodUs = NOT_REGISTERED;
+
+        // Replaced rather than changed, so that events can be handed out without locking.
+        private volatile SensorEventListener[] mListeners = new SensorEventListener[0];
+        private int[] mPeriodsUs = new int[0];
+
+        Source(int sensorType) {
+            mSensorType = sensorType;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            for (SensorEventListener listener : mListeners) {
+                listener.onSensorChanged(event);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            for (SensorEventListener listener : mListeners) {
+                listener.onAccuracyChanged(sensor, accuracy);
+            }
+        }
+
+        void add(SensorEventListener listener, int periodUs) {
+            int count = mListeners.length;
+            SensorEventListener[] listeners = Arrays.copyOf(mListeners, count + 1);
+            listeners[count] = listener;
+            mPeriodsUs = Arrays.copyOf(mPeriodsUs, count + 1);
+            mPeriodsUs[count] = periodUs;
+            mListeners = listeners;
+        }
+
+        /**
+         * @return true if {@code listener} was a subscriber
+         */
+        boolean remove(SensorEventListener listener) {
+            int count = mListeners.length;
+            for (int i = 0; i < count; i++) {
+                if (mListeners[i] == listener) {
+                    SensorEventListener[] listeners = new SensorEventListener[count - 1];
+                    System.arraycopy(mListeners, 0, listeners, 0, i);
+                    System.arraycopy(mListeners, i + 1, listeners, i, count - i - 1);
+                    int[] periodsUs = new int[count - 1];
+                    System.arraycopy(mPeriodsUs, 0, periodsUs, 0, i);
+                    System.arraycopy(mPeriodsUs, i + 1, periodsUs, i, count - i - 1);
+                    mPeriodsUs = periodsUs;
+                    mListeners = listeners;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return mListeners.length == 0;
+        }
+
+        int getFastestPeriodUs() {
+            int fastest = Integer.MAX_VALUE;
+            for (int periodUs : mPeriodsUs) {
+                fastest = Math.min(fastest, periodUs);
+            }
+            return fastest;
+        }
+    }
+
+    public HardwareSensorHub(SensorManager sensorManager) {
+        mSensorManager = sensorManager;
+    }
+
+    /**
+     * Starts handing events from the default sensor of {@code sensorType} to {@code listener}.
+     * A listener may subscribe to several sensor types.
+     *
+     * @param samplingPeriodUs the sampling period in microseconds, or one of the
+     *                         {@code SensorManager.SENSOR_DELAY_} constants
+     */
+    public synchronized void subscribe(int sensorType, SensorEventListener listener,
+            int samplingPeriodUs) {
+        Source source = mSources.get(sensorType);
+        if (source == null) {
+            source = new Source(sensorType);
+            mSources.put(sensorType, source);
+        }
+        source.add(listener, toPeriodUs(samplingPeriodUs));
+        updateRegistration(source);
+    }
+
+    /**
+     * Stops handing events to {@code listener} from every sensor type it subscribed to.
+     */
+    public synchronized void unsubscribe(SensorEventListener listener) {
+        for (int i = mSources.size() - 1; i >= 0; i--) {
+            Source source = mSources.valueAt(i);
+            if (source.remove(listener)) {
+                updateRegistration(source);
+                if (source.isEmpty()) {
+                    mSources.removeAt(i);
+                }
+            }
+        }
+    }
+
+    private void updateRegistration(Source source) {
+        int periodUs = source.isEmpty() ? NOT_REGISTERED : source.getFastestPeriodUs();
+        if (periodUs == source.mRegisteredPeriodUs) {
+            return;
+        }
+        if (source.mRegisteredPeriodUs != NOT_REGISTERED) {
+            unregister(source);
+        }
+        if (periodUs != NOT_REGISTERED) {
+            register(source, source.mSensorType, periodUs);
+        }
+        source.mRegisteredPeriodUs = periodUs;
+    }
+
+    @VisibleForTesting
+    void register(SensorEventListener listener, int sensorType, int periodUs) {
+        mSensorManager.registerListener(listener, mSensorManager.getDefaultSensor(sensorType),
+                periodUs, MAX_REPORT_LATENCY_US);
+    }
+
+    @VisibleForTesting
+    void unregister(SensorEventListener listener) {
+        mSensorManager.unregisterListener(listener);
+    }
+
+    private static int toPeriodUs(int samplingPeriodUs) {
+        if (samplingPeriodUs < SENSOR_DELAY_PERIODS_US.length) {
+            return SENSOR_DELAY_PERIODS_US[samplingPeriodUs];
+        }
+        return samplingPeriodUs;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+import com.google.android.apps.forscience.whistlepunk.Clock;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractSensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observes one or more of the device's built-in sensors through a {@link HardwareSensorHub}, at
+ * the sampling rate chosen in the sensor's options (see {@link SamplingRateOptionsPresenter}).
+ *
+ * Each event is given the time the sensor measured it rather than the time it was delivered, so
+ * that events batched by the sensor's FIFO are spread out as they were measured.
+ */
+abstract class HardwareSensorRecorder extends AbstractSensorRecorder {
+    /**
+     * The sampling period in microseconds, or one of the {@code SensorManager.SENSOR_DELAY_}
+     * constants, as taken by {@link SensorManager#registerListener}.
+     */
+    static final String PREFS_KEY_SAMPLING_PERIOD_US = "sampling_period_us";
+
+    // Event timestamps are usually on the elapsed realtime clock, but some older devices use
+    // another one.  Those events are given the time they are delivered instead.
+    private static final long MAX_EVENT_AGE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String mSensorId;
+    private final HardwareSensorHub mHub;
+    private final Clock mClock;
+    private final SensorStatusListener mStatusListener;
+    private final int mDefaultSamplingPeriodUs;
+    private final int[] mSensorTypes;
+    private int mSamplingPeriodUs;
+    private SensorEventListener mSensorEventListener;
+
+    /**
+     * @param defaultSamplingPeriodUs used until the options choose another, in the form taken by
+     *                                {@link SensorManager#registerListener}
+     * @param sensorTypes the {@link Sensor} types to observe
+     */
+    HardwareSensorRecorder(String sensorId, HardwareSensorHub hub, Clock clock,
+            SensorStatusListener statusListener, int defaultSamplingPeriodUs,
+            int... sensorTypes) {
+        mSensorId = sensorId;
+        mHub = hub;
+        mClock = clock;
+        mStatusListener = statusListener;
+        mDefaultSamplingPeriodUs = defaultSamplingPeriodUs;
+        mSamplingPeriodUs = defaultSamplingPeriodUs;
+        mSensorTypes = sensorTypes;
+    }
+
+    /**
+     * Called on the UI thread for each event from any of the observed sensors.
+     *
+     * @param timestampMillis when the sensor measured the event, on the environment's clock
+     */
+    protected abstract void onSensorChanged(SensorEvent event, long timestampMillis);
+
+    @Override
+    public void startObserving() {
+        mStatusListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_CONNECTED);
+        register();
+    }
+
+    @Override
+    public void stopObserving() {
+        unregister();
+        mStatusListener.onSourceStatus(mSensorId, SensorStatusListener.STATUS_DISCONNECTED);
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions settings) {
+        int samplingPeriodUs = getSamplingPeriodUs(settings, mDefaultSamplingPeriodUs);
+        if (samplingPeriodUs == mSamplingPeriodUs) {
+            return;
+        }
+        mSamplingPeriodUs = samplingPeriodUs;
+        if (mSensorEventListener != null) {
+            register();
+        }
+    }
+
+    private void register() {
+        unregister();
+        mSensorEventListener = new SensorEventListener() {
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+                HardwareSensorRecorder.this.onSensorChanged(event, getEventTimeMillis(
+                        event.timestamp, SystemClock.elapsedRealtimeNanos(), mClock.getNow()));
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+            }
+        };
+        for (int sensorType : mSensorTypes) {
+            mHub.subscribe(sensorType, mSensorEventListener, mSamplingPeriodUs);
+        }
+    }
+
+    private void unregister() {
+        if (mSensorEventListener != null) {
+            mHub.unsubscribe(mSensorEventListener);
+            mSensorEventListener = null;
+        }
+    }
+
+    static int getSamplingPeriodUs(ReadableSensorOptions options, int defaultSamplingPeriodUs) {
+        int samplingPeriodUs = options.getInt(PREFS_KEY_SAMPLING_PERIOD_US,
+                defaultSamplingPeriodUs);
+        return samplingPeriodUs >= 0 ? samplingPeriodUs : defaultSamplingPeriodUs;
+    }
+
+    /**
+     * @param eventTimestampNanos {@link SensorEvent#timestamp}
+     * @param nowNanos the elapsed realtime now
+     * @param nowMillis the environment's clock now
+     * @return the time on the environment's clock that the event was measured
+     */
+    @VisibleForTesting
+    static long getEventTimeMillis(long eventTimestampNanos, long nowNanos, long nowMillis) {
+        long ageNanos = nowNanos - eventTimestampNanos;
+        if (ageNanos < 0 || ageNanos > MAX_EVENT_AGE_NANOS) {
+            return nowMillis;
+        }
+        return nowMillis - TimeUnit.NANOSECONDS.toMillis(ageNanos);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+/**
+ * Displays the loudest instant of sound in each 20ms, in the same uncalibrated decibels as
+ * {@link DecibelSensor}.  Sharp sounds like claps show up here more than in the average level.
+ */
+public class PeakAmplitudeSensor extends ScalarSensor {
+    public static final String ID = "PeakAmplitudeSource";
+    private static final int WINDOW_MS = 20;
+
+    public PeakAmplitudeSensor() {
+        super(ID);
+    }
+
+    @Override
+    protected SensorRecorder makeScalarControl(final StreamConsumer c,
+            final SensorEnvironment environment, Context context,
+            final SensorStatusListener listener) {
+        return new AudioSensorRecorder(getId(),
+                AppSingleton.getInstance(context).getAudioCaptureHub(),
+                environment.getDefaultClock(), listener) {
+            private final AudioLevelWindow mLevel = new AudioLevelWindow(WINDOW_MS);
+            private final AudioLevelWindow.Listener mLevelListener =
+                    (timestampMillis, rms, peak) -> {
+                        double uncalibratedDecibels = AudioLevelWindow.toDecibels(peak);
+                        if (AudioLevelWindow.isValidReading(uncalibratedDecibels)) {
+                            c.addData(timestampMillis, uncalibratedDecibels);
+                        }
+                    };
+
+            @Override
+            protected void onSamples(short[] samples, int count, long endTimeMillis) {
+                mLevel.addSamples(samples, count, endTimeMillis, mLevelListener);
+            }
+        };
+    }
+}
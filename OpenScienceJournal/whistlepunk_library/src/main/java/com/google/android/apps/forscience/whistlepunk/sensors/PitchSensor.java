@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.AppSingleton;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorEnvironment;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+
+/**
+ * Displays the strongest frequency in the sound reaching the microphone, in Hz.
+ */
+public class PitchSensor extends ScalarSensor {
+    public static final String ID = "PitchSource";
+
+    public PitchSensor() {
+        super(ID);
+    }
+
+    @Override
+    protected SensorRecorder makeScalarControl(final StreamConsumer c,
+            final SensorEnvironment environment, Context context,
+            final SensorStatusListener listener) {
+        return new AudioSensorRecorder(getId(),
+                AppSingleton.getInstance(context).getAudioCaptureHub(),
+                environment.getDefaultClock(), listener) {
+            private final DominantFrequencyAnalyzer mAnalyzer = new DominantFrequencyAnalyzer();
+            private final DominantFrequencyAnalyzer.Listener mFrequencyListener = c::addData;
+
+            @Override
+            protected void onSamples(short[] samples, int count, long endTimeMillis) {
+                mAnalyzer.addSamples(samples, count, endTimeMillis, mFrequencyListener);
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.SensorManager;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import com.google.android.apps.forscience.whistlepunk.R;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ActiveBundle;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.OptionsUpdatingWatcher;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ReadableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorPresenter;
+
+/**
+ * OptionsPresenter for the sampling rate of a {@link HardwareSensorRecorder}: one of the
+ * {@link SensorManager} delays, or a custom period in microseconds.
+ */
+class SamplingRateOptionsPresenter implements SensorPresenter.OptionsPresenter {
+    // The other positions in R.array.sampling_rate_list are the SENSOR_DELAY_ constants.
+    private static final int POSITION_CUSTOM = SensorManager.SENSOR_DELAY_NORMAL + 1;
+
+    // 50 Hz
+    private static final int DEFAULT_CUSTOM_PERIOD_US = 20 * 1000;
+
+    private final int mDefaultSamplingPeriodUs;
+
+    SamplingRateOptionsPresenter(int defaultSamplingPeriodUs) {
+        mDefaultSamplingPeriodUs = defaultSamplingPeriodUs;
+    }
+
+    @Override
+    public View buildOptionsView(final ActiveBundle activeBundle, Context context) {
+        @SuppressLint("InflateParams") final View inflated =
+                LayoutInflater.from(context).inflate(R.layout.sampling_rate_options, null);
+        final Spinner rateSpinner =
+                (Spinner) inflated.findViewById(R.id.sampling_rate_spinner);
+        final EditText periodEdit = (EditText) inflated.findViewById(R.id.sampling_period_edit);
+
+        int samplingPeriodUs = HardwareSensorRecorder.getSamplingPeriodUs(
+                activeBundle.getReadOnly(), mDefaultSamplingPeriodUs);
+        boolean isCustom = isCustomPeriod(samplingPeriodUs);
+        periodEdit.setText(String.valueOf(isCustom ? samplingPeriodUs : DEFAULT_CUSTOM_PERIOD_US));
+        periodEdit.setEnabled(isCustom);
+        periodEdit.addTextChangedListener(new OptionsUpdatingWatcher(activeBundle, periodEdit) {
+            @Override
+            protected void applyUpdate(String string, ActiveBundle activeBundle) {
+                if (periodEdit.isEnabled()) {
+                    activeBundle.changeInt(HardwareSensorRecorder.PREFS_KEY_SAMPLING_PERIOD_US,
+                            parseCustomPeriod(string));
+                }
+            }
+        });
+
+        ArrayAdapter<CharSequence> rateAdapter = ArrayAdapter.createFromResource(context,
+                R.array.sampling_rate_list, android.R.layout.simple_spinner_item);
+        rateAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        rateSpinner.setAdapter(rateAdapter);
+        rateSpinner.setSelection(isCustom ? POSITION_CUSTOM : samplingPeriodUs);
+        rateSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                boolean custom = position == POSITION_CUSTOM;
+                periodEdit.setEnabled(custom);
+                if (!custom) {
+                    activeBundle.changeInt(HardwareSensorRecorder.PREFS_KEY_SAMPLING_PERIOD_US,
+                            position);
+                    return;
+                }
+                try {
+                    activeBundle.changeInt(HardwareSensorRecorder.PREFS_KEY_SAMPLING_PERIOD_US,
+                            parseCustomPeriod(periodEdit.getText().toString()));
+                } catch (NumberFormatException e) {
+                    activeBundle.reportError(e.getMessage(), periodEdit);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+
+            }
+        });
+
+        return inflated;
+    }
+
+    private static boolean isCustomPeriod(int samplingPeriodUs) {
+        return samplingPeriodUs > SensorManager.SENSOR_DELAY_NORMAL;
+    }
+
+    private static int parseCustomPeriod(String string) throws NumberFormatException {
+        int samplingPeriodUs = Integer.valueOf(string);
+        // Smaller periods would be taken for one of the SENSOR_DELAY_ constants.
+        if (!isCustomPeriod(samplingPeriodUs)) {
+            throw new NumberFormatException("Sampling period must be more than "
+                    + SensorManager.SENSOR_DELAY_NORMAL + " microseconds");
+        }
+        return samplingPeriodUs;
+    }
+
+    @Override
+    public void applyOptions(ReadableSensorOptions bundle) {
+        // Nothing to preview.
+    }
+}
@@ -20,7 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 import com.google.android.apps.forscience.javalib.DataRefresher;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.AbstractStreamConsumer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -34,7 +34,7 @@ import org.robolectric.annotation.Config;
 @Config(constants = BuildConfig.class)
 public class DataRefresherTest {
     // A stream consumer that can return the most recent data and timestamp it received.
-    private class MockStreamConsumer implements StreamConsumer {
+    private class MockStreamConsumer extends AbstractStreamConsumer {
         private long mTimestamp;
         private double mValue;
         private boolean mDataAdded = false;
@@ -21,6 +21,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorDataRing;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorStatusListener;
 
 import org.junit.Test;
@@ -56,4 +58,28 @@ public class RecorderListenerRegistryTest {
         assertFalse(r.getSourceHasError("sensorId"));
     }
 
+    @Test
+    public void testSplitsObserversThatNeedEveryPoint() {
+        RecorderListenerRegistry r = new RecorderListenerRegistry();
+        RecordingSensorObserver display = new RecordingSensorObserver();
+        RecordingSensorObserver trigger = new RecordingSensorObserver();
+        r.putListeners("sensorId", display, null);
+        r.putListeners("sensorId", trigger, null, true);
+
+        SensorDataRing.SplitObserver observer =
+                (SensorDataRing.SplitObserver) r.makeObserverForRecorder("sensorId");
+        SensorObserver.Data data = new SensorObserver.Data();
+        data.setValue(1.0);
+        observer.getEveryPointObserver().onNewData(1, data);
+        assertEquals(0, display.getReadings().size());
+        assertEquals(1, trigger.getReadings().size());
+
+        observer.getDisplayObserver().onNewData(2, data);
+        assertEquals(1, display.getReadings().size());
+        assertEquals(1, trigger.getReadings().size());
+
+        observer.onNewData(3, data);
+        assertEquals(2, display.getReadings().size());
+        assertEquals(2, trigger.getReadings().size());
+    }
 }
\ No newline at end of file
@@ -17,9 +17,11 @@
 package com.google.android.apps.forscience.whistlepunk;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,4 +44,44 @@ public class StatsAccumulatorTest {
         assertEquals(3.0, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.001);
         assertEquals(2.0, stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, -1), 0.001);
     }
+
+    @Test
+    public void testSpreadStats() {
+        StatsAccumulator acc = new StatsAccumulator("sensorId");
+        for (int i = 0; i < 1000; i++) {
+            acc.updateRecordingStreamStats(i, i % 100);
+        }
+        TrialStats stats = acc.makeSaveableStats();
+        assertEquals(28.88, stats.getStatValue(GoosciTrial.SensorStat.STANDARD_DEVIATION, -1),
+                0.01);
+        assertEquals(49.5, stats.getStatValue(GoosciTrial.SensorStat.MEDIAN, -1), 1);
+        assertEquals(5, stats.getStatValue(GoosciTrial.SensorStat.PERCENTILE_5, -1), 1);
+        assertEquals(95, stats.getStatValue(GoosciTrial.SensorStat.PERCENTILE_95, -1), 1);
+        assertEquals(49.5, stats.getQuantileSketch().getQuantile(0.5), 1);
+    }
+
+    @Test
+    public void testSetStatsFromSummary() {
+        ScalarSummary first = new ScalarSummary();
+        ScalarSummary second = new ScalarSummary();
+        for (int i = 0; i < 100; i++) {
+            (i < 30 ? first : second).add(i, i);
+        }
+        first.add(second);
+
+        StatsAccumulator acc = new StatsAccumulator("sensorId");
+        acc.setStats(first);
+        // The sample standard deviation of 100 consecutive integers
+        assertEquals(Math.sqrt(100 * 101 / 12.0), acc.getStandardDeviation(), 1e-9);
+        assertEquals(49.5, acc.getQuantile(0.5), 1);
+    }
+
+    @Test
+    public void testSpreadStatsNeedTwoValues() {
+        StatsAccumulator acc = new StatsAccumulator("sensorId");
+        acc.updateRecordingStreamStats(0, 3);
+        TrialStats stats = acc.makeSaveableStats();
+        assertFalse(stats.hasStat(GoosciTrial.SensorStat.STANDARD_DEVIATION));
+        assertEquals(3.0, stats.getStatValue(GoosciTrial.SensorStat.MEDIAN, -1), 0.0);
+    }
 }
\ No newline at end of file
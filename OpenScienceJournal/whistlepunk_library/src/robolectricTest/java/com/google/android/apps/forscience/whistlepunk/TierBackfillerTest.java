@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TierBackfillerTest {
+    private static final String TEST_DATABASE_NAME = "test.db";
+    private static final long START_TIME = 5000000;
+    private static final long END_TIME = START_TIME + 9990;
+
+    @Test
+    public void testBackfillMatchesRecordedTiers() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        InMemorySensorDatabase recorded = new InMemorySensorDatabase();
+        DatabaseBatchWriter recordedWriter = new DatabaseBatchWriter(recorded, 100);
+        ZoomRecorder recorder = ZoomRecorder.create("tag", 4, ZoomRecorder.TIER_STRATEGY_LTTB);
+        for (int i = 0; i < 1000; i++) {
+            long timestamp = START_TIME + i * 10;
+            double value = Math.sin(i / 20.0);
+            db.addScalarReading("tag", 0, timestamp, value);
+            recorder.addData(timestamp, value, recordedWriter);
+        }
+        int recordedTierCount = recorder.countTiers();
+        recorder.flushAllTiers(recordedWriter);
+        recordedWriter.flushScalarReadings();
+        // Left by an earlier backfill that was interrupted.
+        db.addScalarReading("tag", 1, START_TIME + 15, 100.0);
+
+        TierBackfiller backfiller = new TierBackfiller("tag", START_TIME, END_TIME, 50, 4,
+                ZoomRecorder.TIER_STRATEGY_LTTB);
+        int turns = 0;
+        while (backfiller.backfillIncrementally(db, 64)) {
+            turns++;
+        }
+        assertFalse(backfiller.backfillIncrementally(db, 64));
+
+        // Only the last, partly-filled page finishes the backfill.
+        assertEquals(1000 / 64, turns);
+        assertEquals(1000, backfiller.getReadingCount());
+        assertTrue(recordedTierCount > 2);
+        for (int tier = 1; tier < recordedTierCount; tier++) {
+            assertEquals(slurp(recorded, tier), ScalarReading.slurp(db.getScalarReadings("tag",
+                    TimeRange.oldest(Range.<Long>all()), tier, 0)));
+        }
+
+        TrialStats stats = new TrialStats("tag");
+        assertTrue(TierBackfiller.needsBackfill(stats));
+        backfiller.addStatsTo(stats);
+        assertFalse(TierBackfiller.needsBackfill(stats));
+        assertEquals(recordedTierCount,
+                stats.getStatValue(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, -1), 0.0);
+        assertEquals(4, stats.getStatValue(
+                GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, -1), 0.0);
+        assertEquals(ZoomRecorder.TIER_STRATEGY_LTTB, stats.getStatValue(
+                GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY, -1), 0.0);
+        assertEquals(1000, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.0);
+        assertEquals(9990, stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, -1), 0.0);
+    }
+
+    @Test
+    public void testKeepsExistingStats() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, START_TIME, 1.0);
+        db.addScalarReading("tag", 0, END_TIME, 2.0);
+        TierBackfiller backfiller = new TierBackfiller("tag", START_TIME, END_TIME, 50, 4,
+                ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+        while (backfiller.backfillIncrementally(db, 64)) {
+            // keep backfilling
+        }
+
+        // Stats of a cropped trial describe only the cropped readings.
+        TrialStats stats = new TrialStats("tag");
+        stats.putStat(GoosciTrial.SensorStat.NUM_DATA_POINTS, 1);
+        stats.putStat(GoosciTrial.SensorStat.TOTAL_DURATION, 0);
+        backfiller.addStatsTo(stats);
+        assertEquals(1, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.0);
+        assertEquals(0, stats.getStatValue(GoosciTrial.SensorStat.TOTAL_DURATION, -1), 0.0);
+        // Too few readings to fill a run, so only tier 0 is complete.
+        assertEquals(1, stats.getStatValue(
+                GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, -1), 0.0);
+    }
+
+    @Test
+    public void testReadsEveryReadingThatSharesATimestamp() {
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        // Pages of 4 end partway through a pair, and one timestamp fills more than a page.
+        for (int i = 0; i < 10; i++) {
+            db.addScalarReading("tag", 0, START_TIME + i, i);
+            db.addScalarReading("tag", 0, START_TIME + i, -i);
+        }
+        for (int i = 0; i < 5; i++) {
+            db.addScalarReading("tag", 0, END_TIME, i);
+        }
+        TierBackfiller backfiller = new TierBackfiller("tag", START_TIME, END_TIME, 50, 4,
+                ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+        while (backfiller.backfillIncrementally(db, 4)) {
+            // keep backfilling
+        }
+        assertEquals(25, backfiller.getReadingCount());
+    }
+
+    @Test
+    public void testSensorsWithoutStatsAreLeftAlone() {
+        assertFalse(TierBackfiller.needsBackfill(null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        getContext().getDatabasePath(TEST_DATABASE_NAME).delete();
+    }
+
+    private static List<ScalarReading> slurp(InMemorySensorDatabase db, int tier) {
+        List<ScalarReading> readings = new ArrayList<>();
+        for (InMemorySensorDatabase.Reading reading : db.getReadings(tier)) {
+            readings.add(new ScalarReading(reading.getTimestampMillis(), reading.getValue()));
+        }
+        return readings;
+    }
+
+    private Context getContext() {
+        return RuntimeEnvironment.application.getApplicationContext();
+    }
+}
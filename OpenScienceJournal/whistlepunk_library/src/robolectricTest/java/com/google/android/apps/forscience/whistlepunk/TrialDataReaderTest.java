@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TrialDataReaderTest {
+    @Test
+    public void testReadsExportedLayout() throws IOException {
+        TrialDataReader reader = makeReader("timestamp,AccX,AccY\n"
+                + "1000,1.5,-2.0\n"
+                + "1010,,3.25E-4\n"
+                + "1020,NaN\n");
+        assertFalse(reader.isRelativeTime());
+        assertArrayEquals(new String[] {"AccX", "AccY"}, reader.getSensorIds());
+
+        assertTrue(reader.readRow());
+        assertEquals(1000, reader.getTimestamp());
+        assertTrue(reader.hasValue(0));
+        assertEquals(1.5, reader.getValue(0), 0.0);
+        assertEquals(-2.0, reader.getValue(1), 0.0);
+
+        assertTrue(reader.readRow());
+        assertEquals(1010, reader.getTimestamp());
+        assertFalse(reader.hasValue(0));
+        assertTrue(Double.isNaN(reader.getValue(0)));
+        assertEquals(3.25E-4, reader.getValue(1), 0.0);
+
+        // NaN is a value; a missing trailing cell is not.
+        assertTrue(reader.readRow());
+        assertTrue(reader.hasValue(0));
+        assertTrue(Double.isNaN(reader.getValue(0)));
+        assertFalse(reader.hasValue(1));
+
+        assertFalse(reader.readRow());
+    }
+
+    @Test
+    public void testRelativeTimeAndLineEndings() throws IOException {
+        TrialDataReader reader = makeReader("relative_time,Decibels\r\n0,40.0\r\n\r\n15,41.0");
+        assertTrue(reader.isRelativeTime());
+        assertTrue(reader.readRow());
+        assertEquals(0, reader.getTimestamp());
+        assertTrue(reader.readRow());
+        assertEquals(15, reader.getTimestamp());
+        assertEquals(41.0, reader.getValue(0), 0.0);
+        assertFalse(reader.readRow());
+    }
+
+    @Test
+    public void testReadLastTimestamp() throws IOException {
+        assertEquals(15, makeReader("relative_time,Decibels\n0,40.0\n15,41.0\n\n")
+                .readLastTimestamp());
+        try {
+            makeReader("timestamp,AccX\n").readLastTimestamp();
+            fail("Expected an IOException for a file with no rows");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testValuesMatchDoubleToString() throws IOException {
+        double[] values = {0.0, -0.0, 1.0 / 3, Math.PI, 9.80665, 1e-300, 123456789.123,
+                Double.MAX_VALUE, Double.MIN_VALUE, -4.9E-5, 100.0, Double.POSITIVE_INFINITY};
+        StringBuilder csv = new StringBuilder("timestamp,value\n");
+        for (int i = 0; i < values.length; i++) {
+            csv.append(i).append(',').append(Double.toString(values[i])).append('\n');
+        }
+        TrialDataReader reader = makeReader(csv.toString());
+        for (double value : values) {
+            assertTrue(reader.readRow());
+            assertEquals(Double.doubleToLongBits(value),
+                    Double.doubleToLongBits(reader.getValue(0)));
+        }
+    }
+
+    @Test
+    public void testRowsSpanningReads() throws IOException {
+        StringBuilder csv = new StringBuilder("timestamp,a,b,c\n");
+        int rows = 20000;
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(",").append(i * 0.5).append(",,").append(-i).append("\n");
+        }
+        byte[] bytes = csv.toString().getBytes(Charset.forName("UTF-8"));
+        // Hand out a few bytes at a time, so that rows are split between reads.
+        TrialDataReader reader = new TrialDataReader(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+        for (int i = 0; i < rows; i++) {
+            assertTrue(reader.readRow());
+            assertEquals(i, reader.getTimestamp());
+            assertEquals(i * 0.5, reader.getValue(0), 0.0);
+            assertFalse(reader.hasValue(1));
+            assertEquals(-i, reader.getValue(2), 0.0);
+        }
+        assertFalse(reader.readRow());
+        assertEquals(bytes.length, reader.getBytesRead());
+    }
+
+    @Test
+    public void testRejectsBadInput() throws IOException {
+        assertFailsToOpen("");
+        assertFailsToOpen("time,AccX\n");
+        assertFailsToOpen("timestamp\n");
+
+        assertFailsToRead("timestamp,AccX\nabc,1.0\n");
+        assertFailsToRead("timestamp,AccX\n10,1.0.0\n");
+        assertFailsToRead("timestamp,AccX\n10,1.0,2.0\n");
+    }
+
+    private void assertFailsToOpen(String csv) {
+        try {
+            makeReader(csv);
+            fail("Expected an IOException for " + csv);
+        } catch (IOException expected) {
+        }
+    }
+
+    private void assertFailsToRead(String csv) throws IOException {
+        TrialDataReader reader = makeReader(csv);
+        try {
+            reader.readRow();
+            fail("Expected an IOException for " + csv);
+        } catch (IOException expected) {
+        }
+    }
+
+    static TrialDataReader makeReader(String csv) throws IOException {
+        InputStream input = new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8")));
+        return new TrialDataReader(input);
+    }
+}
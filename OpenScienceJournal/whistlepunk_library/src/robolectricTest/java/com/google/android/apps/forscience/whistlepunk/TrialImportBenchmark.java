@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ScalarSensor;
+import com.google.android.apps.forscience.whistlepunk.sensordb.SensorDatabaseImpl;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Rough import throughput, in rows per second, for a file of the size exported from a long
+ * recording.  Too slow to run with every build, so run by hand after removing the @Ignore.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+@Ignore("Benchmark; run by hand")
+public class TrialImportBenchmark {
+    private static final String DATABASE_NAME = "import_benchmark.db";
+    private static final int ROWS = 500000;
+
+    @Test
+    public void importThroughput() throws IOException {
+        byte[] csv = makeCsv(ROWS);
+
+        long parseStart = System.nanoTime();
+        TrialDataReader reader = new TrialDataReader(new ByteArrayInputStream(csv));
+        long lastRowTimestamp = reader.readLastTimestamp();
+        double parseRowsPerSecond = ROWS / ((System.nanoTime() - parseStart) / 1e9);
+
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        long importStart = System.nanoTime();
+        TrialImporter importer = new TrialImporter(db,
+                new TrialDataReader(new ByteArrayInputStream(csv)), lastRowTimestamp,
+                System.currentTimeMillis(), 10000,
+                ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                ScalarSensor.DEFAULT_TIER_STRATEGY);
+        while (importer.importIncrementally(20000)) {
+            // keep importing
+        }
+        double importRowsPerSecond = ROWS / ((System.nanoTime() - importStart) / 1e9);
+
+        System.out.println(String.format("rows=%d parse=%.0f rows/s import=%.0f rows/s", ROWS,
+                parseRowsPerSecond, importRowsPerSecond));
+    }
+
+    /**
+     * Three accelerometer-like sensors at 100Hz, formatted the way ExportService writes them.
+     */
+    private static byte[] makeCsv(int rows) {
+        Random random = new Random(0);
+        StringBuilder csv = new StringBuilder("timestamp,AccX,AccY,AccZ\n");
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < rows; i++) {
+            timestamp += 10;
+            csv.append(timestamp);
+            for (int sensor = 0; sensor < 3; sensor++) {
+                csv.append(',').append(Double.toString(random.nextGaussian()));
+            }
+            csv.append('\n');
+        }
+        return csv.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    @After
+    public void deleteDatabase() {
+        getContext().getDatabasePath(DATABASE_NAME).delete();
+    }
+
+    private Context getContext() {
+        return RuntimeEnvironment.application.getApplicationContext();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
+import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
+import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class TrialImporterTest {
+    private static final long NOW = 5000000;
+
+    @Test
+    public void testImportsReadingsTiersSummariesAndStats() throws IOException {
+        // 100 rows, 10ms apart, with a reading for "b" every other row.
+        StringBuilder csv = new StringBuilder("relative_time,a,b\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append(i * 10).append(',').append(i).append(',');
+            if (i % 2 == 0) {
+                csv.append(-i);
+            }
+            csv.append('\n');
+        }
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        TrialImporter importer = makeImporter(db, csv.toString(), 16);
+        while (importer.importIncrementally(7)) {
+            // keep importing
+        }
+
+        assertEquals(100, importer.getRowCount());
+        // Relative times are moved to end now
+        assertEquals(NOW - 990, importer.getFirstTimestamp());
+        assertEquals(NOW, importer.getLastTimestamp());
+        assertEquals(100, countReadings(db, 0, "a"));
+        assertEquals(50, countReadings(db, 0, "b"));
+        // Each tier keeps a min and max for every 4 readings of the tier below.
+        assertEquals(50, countReadings(db, 1, "a"));
+        assertEquals(26, countReadings(db, 1, "b"));
+        assertTrue(countReadings(db, 2, "a") > 0);
+
+        List<ScalarSummary> summaries = db.getStoredSummaries();
+        // All of the readings are in one summary block.
+        assertEquals(2, summaries.size());
+        assertEquals(100, summaries.get(0).getCount());
+        assertEquals(50, summaries.get(1).getCount());
+
+        TrialStats stats = importer.getStats(0);
+        assertEquals(0, stats.getStatValue(GoosciTrial.SensorStat.MINIMUM, -1), 0.0);
+        assertEquals(99, stats.getStatValue(GoosciTrial.SensorStat.MAXIMUM, -1), 0.0);
+        assertEquals(49.5, stats.getStatValue(GoosciTrial.SensorStat.AVERAGE, -1), 0.0);
+        assertEquals(100, stats.getStatValue(GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.0);
+        assertTrue(stats.getStatValue(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, -1) > 1);
+
+        Trial trial = importer.makeTrial(new FakeAppearanceProvider(),
+                RuntimeEnvironment.application);
+        assertEquals(NOW - 990, trial.getFirstTimestamp());
+        assertEquals(NOW, trial.getLastTimestamp());
+        assertEquals(2, trial.getSensorIds().size());
+        assertEquals(-98, trial.getStatsForSensor("b").getStatValue(
+                GoosciTrial.SensorStat.MINIMUM, 0), 0.0);
+    }
+
+    @Test
+    public void testSensorWithNoReadingsHasNoStats() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        TrialImporter importer = makeImporter(db, "timestamp,a,b\n100,1.0,\n200,2.0,\n", 16);
+        assertFalse(importer.importIncrementally(10));
+        assertEquals(2, importer.getStats(0).getStatValue(
+                GoosciTrial.SensorStat.NUM_DATA_POINTS, -1), 0.0);
+        assertNull(importer.getStats(1));
+    }
+
+    @Test
+    public void testAbortRemovesImportedReadings() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        TrialImporter importer = makeImporter(db,
+                "timestamp,a\n100,1.0\n200,2.0\n300,3.0\n250,4.0\n", 2);
+        try {
+            importer.importIncrementally(10);
+            fail("Expected out-of-order rows to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals(2, countReadings(db, 0, "a"));
+        importer.abort();
+        assertEquals(0, countReadings(db, 0, "a"));
+    }
+
+    @Test
+    public void testKeepsFreeTimestamps() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        db.addScalarReading("a", 0, 50, 1.0);
+        TrialImporter importer = makeImporter(db, "timestamp,a\n100,1.0\n200,2.0\n", 16);
+        assertFalse(importer.importIncrementally(10));
+        assertEquals(100, importer.getFirstTimestamp());
+        assertEquals(200, importer.getLastTimestamp());
+    }
+
+    @Test
+    public void testMovesTakenTimestampsToNow() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        db.addScalarReading("a", 0, 150, 1.0);
+        TrialImporter importer = makeImporter(db, "timestamp,a\n100,1.0\n200,2.0\n", 16);
+        assertFalse(importer.importIncrementally(10));
+        assertEquals(NOW - 100, importer.getFirstTimestamp());
+        assertEquals(NOW, importer.getLastTimestamp());
+    }
+
+    @Test
+    public void testMovesBeforeReadingsWhenNowIsTaken() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        db.addScalarReading("a", 0, 1000, 1.0);
+        db.addScalarReading("a", 0, NOW - 50, 1.0);
+        TrialImporter importer = makeImporter(db, "relative_time,a\n0,1.0\n100,2.0\n", 16);
+        assertFalse(importer.importIncrementally(10));
+        assertEquals(899, importer.getFirstTimestamp());
+        assertEquals(999, importer.getLastTimestamp());
+    }
+
+    @Test
+    public void testFutureTimestampsMoveToNow() throws IOException {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        TrialImporter importer = makeImporter(db,
+                "timestamp,a\n" + NOW + ",1.0\n" + (NOW + 10) + ",2.0\n", 16);
+        assertFalse(importer.importIncrementally(10));
+        assertEquals(NOW - 10, importer.getFirstTimestamp());
+        assertEquals(NOW, importer.getLastTimestamp());
+    }
+
+    @Test
+    public void testEmptyFileFails() throws IOException {
+        TrialImporter importer = new TrialImporter(new InMemorySensorDatabase(),
+                TrialDataReaderTest.makeReader("timestamp,a\n"), 0, NOW, 16, 2,
+                ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+        try {
+            importer.importIncrementally(10);
+            fail("Expected a file with no rows to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Makes an importer whose tiers keep the min and max of every 4 readings of the tier below.
+     */
+    private static TrialImporter makeImporter(InMemorySensorDatabase db, String csv,
+            int maxBatchedReadings) throws IOException {
+        long lastRowTimestamp = TrialDataReaderTest.makeReader(csv).readLastTimestamp();
+        return new TrialImporter(db, TrialDataReaderTest.makeReader(csv), lastRowTimestamp, NOW,
+                maxBatchedReadings, 2, ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+    }
+
+    private static int countReadings(InMemorySensorDatabase db, int tier, String tag) {
+        int count = 0;
+        for (InMemorySensorDatabase.Reading reading : db.getReadings(tier)) {
+            if (reading.getDatabaseTag().equals(tag)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
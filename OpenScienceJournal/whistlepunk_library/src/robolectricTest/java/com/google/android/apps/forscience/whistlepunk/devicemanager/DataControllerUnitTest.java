@@ -25,15 +25,21 @@ import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
 import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.ExplodingFactory;
+import com.google.android.apps.forscience.whistlepunk.MockScheduler;
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
 import com.google.android.apps.forscience.whistlepunk.RxDataController;
 import com.google.android.apps.forscience.whistlepunk.TestConsumers;
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ExplicitExecutor;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.StoringConsumer;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -64,6 +70,125 @@ public class DataControllerUnitTest {
         assertEquals(12.34, reading.getValue(), 0.001);
     }
 
+    @Test
+    public void testAddScalarReadingsBatched() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController controller = db.makeBatchingRecordingController(3);
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.addScalarReading("tag", 1, 2, 2.0);
+        assertEquals(0, db.getReadings(0).size());
+
+        // Filling the batch writes it
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        assertEquals(2, db.getReadings(0).size());
+        assertEquals(1, db.getReadings(1).size());
+
+        controller.addScalarReading("tag", 0, 4, 4.0);
+        assertEquals(2, db.getReadings(0).size());
+
+        // Flushing writes a partial batch
+        controller.flushScalarReadings();
+        assertEquals(3, db.getReadings(0).size());
+        assertEquals(4, db.getReadings(0).get(2).getTimestampMillis());
+    }
+
+    @Test
+    public void testAddScalarReadingsWrittenAfterDelay() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        MockScheduler scheduler = new MockScheduler();
+        RecordingDataController controller = db.makeBatchingRecordingController(100, scheduler,
+                1000);
+
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        scheduler.incrementTime(600);
+        controller.addScalarReading("tag", 0, 2, 2.0);
+        scheduler.incrementTime(399);
+        assertEquals(0, db.getReadings(0).size());
+
+        // The oldest reading has waited long enough, though no reading arrived to notice.
+        scheduler.incrementTime(1);
+        assertEquals(2, db.getReadings(0).size());
+
+        // A batch started after the first was written waits from its own oldest reading.
+        scheduler.incrementTime(500);
+        controller.addScalarReading("tag", 0, 3, 3.0);
+        scheduler.incrementTime(999);
+        assertEquals(2, db.getReadings(0).size());
+        scheduler.incrementTime(1);
+        assertEquals(3, db.getReadings(0).size());
+    }
+
+    @Test
+    public void testSummariesWrittenWithReadings() {
+        final InMemorySensorDatabase db = new InMemorySensorDatabase();
+        RecordingDataController controller = db.makeBatchingRecordingController(3);
+
+        ScalarSummary summary = new ScalarSummary();
+        summary.add(1, 1.0);
+        controller.addScalarReading("tag", 0, 1, 1.0);
+        controller.addScalarSummary("tag", summary);
+        // The summary was copied, so reusing it doesn't change what is written
+        summary.clear();
+        assertEquals(0, db.getStoredSummaries().size());
+
+        controller.flushScalarReadings();
+        assertEquals(1, db.getReadings(0).size());
+        assertEquals(1, db.getStoredSummaries().size());
+        assertEquals(1.0, db.getStoredSummaries().get(0).getMax(), 0.001);
+    }
+
+    @Test
+    public void testReadsWaitForBatchedReadings() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ExplicitExecutor writes = new ExplicitExecutor();
+        ExplicitExecutor reads = new ExplicitExecutor();
+        DataController dc = db.makeBatchingController(3, writes, reads);
+        ((RecordingDataController) dc).addScalarReading("tag", 0, 1, 1.0);
+
+        StoringConsumer<ScalarReadingList> first = new StoringConsumer<>();
+        dc.getScalarReadings("tag", 0, TimeRange.oldest(Range.<Long>all()), 0,
+                DataController.ReadPriority.BACKGROUND, first);
+
+        // The read waits for the pending reading to be written
+        assertFalse(reads.drain());
+        assertTrue(writes.drain());
+        assertTrue(reads.drain());
+        assertEquals(1, first.getValue().size());
+
+        // With nothing left to write, reads go straight to the read thread
+        StoringConsumer<ScalarReadingList> second = new StoringConsumer<>();
+        dc.getScalarReadings("tag", 0, TimeRange.oldest(Range.<Long>all()), 0, second);
+        assertFalse(writes.drain());
+        assertTrue(reads.drain());
+        assertEquals(1, second.getValue().size());
+    }
+
+    @Test
+    public void testReadsOnlyWaitForReadingsTheyNeed() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        ExplicitExecutor writes = new ExplicitExecutor();
+        ExplicitExecutor reads = new ExplicitExecutor();
+        DataController dc = db.makeBatchingController(3, writes, reads);
+        ((RecordingDataController) dc).addScalarReading("tag", 0, 10, 1.0);
+
+        // Neither another sensor nor earlier times need the pending reading
+        StoringConsumer<ScalarReadingList> other = new StoringConsumer<>();
+        dc.getScalarReadings("other", 0, TimeRange.oldest(Range.<Long>all()), 0, other);
+        StoringConsumer<ScalarReadingList> earlier = new StoringConsumer<>();
+        dc.getScalarReadings("tag", 0, TimeRange.oldest(Range.lessThan(10L)), 0, earlier);
+        assertTrue(reads.drain());
+        assertEquals(0, other.getValue().size());
+        assertEquals(0, earlier.getValue().size());
+
+        StoringConsumer<ScalarReadingList> latest = new StoringConsumer<>();
+        dc.getScalarReadings("tag", 0, TimeRange.oldest(Range.atLeast(10L)), 0, latest);
+        assertFalse(reads.drain());
+        assertTrue(writes.drain());
+        assertTrue(reads.drain());
+        assertEquals(1, latest.getValue().size());
+    }
+
     @Test
     public void testStopRun() {
         InMemorySensorDatabase db = new InMemorySensorDatabase();
@@ -20,9 +20,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.google.android.apps.forscience.javalib.MaybeConsumer;
 import com.google.android.apps.forscience.javalib.Success;
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.DataController;
 import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.StubDataController;
 import com.google.android.apps.forscience.whistlepunk.TestConsumers;
 import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorLayout;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
@@ -30,8 +33,9 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Trial;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.TrialStats;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.StoringConsumer;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +43,9 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Tests for {@link CropHelper}
  */
@@ -115,7 +122,7 @@ public class CropHelperTest {
         Experiment experiment = Experiment.newExperiment(10, "experimentId", 0);
         experiment.addTrial(trial);
 
-        CropHelper cropHelper = new CropHelper(MoreExecutors.directExecutor(), mDataController);
+        CropHelper cropHelper = new CropHelper(mDataController);
         cropHelper.cropTrial(null, experiment, "runId", -1, 10, mCropTrialListener);
         assertTrue(mCropFailed);
         assertFalse(mCropCompleted);
@@ -143,7 +150,7 @@ public class CropHelperTest {
         mDataController.addScalarReading("sensor", 0, 50, 50);
         setEmptyStats(experiment, trial.getTrialId());
 
-        CropHelper cropHelper = new CropHelper(MoreExecutors.directExecutor(), mDataController);
+        CropHelper cropHelper = new CropHelper(mDataController);
         cropHelper.cropTrial(null, experiment, trial.getTrialId(), 4, 1006, mCropTrialListener);
         assertTrue(mCropCompleted);
         assertEquals(trial.getFirstTimestamp(), 4);
@@ -169,7 +176,7 @@ public class CropHelperTest {
         mDataController.addScalarReading("sensor", 0, 60, 60);
         mDataController.addScalarReading("sensor", 0, 70, 70);
         setEmptyStats(experiment, trial.getTrialId());
-        CropHelper cropHelper = new CropHelper(MoreExecutors.directExecutor(), mDataController);
+        CropHelper cropHelper = new CropHelper(mDataController);
         cropHelper.cropTrial(null, experiment, trial.getTrialId(), 2, 1008, mCropTrialListener);
         assertTrue(mCropCompleted);
         assertEquals(trial.getFirstTimestamp(), 2);
@@ -196,10 +203,72 @@ public class CropHelperTest {
         mDataController.updateExperiment(experiment.getExperimentId(),
                 TestConsumers.<Success>expectingSuccess());
         setEmptyStats(experiment, trial.getTrialId());
-        CropHelper cropHelper = new CropHelper(MoreExecutors.directExecutor(), mDataController);
+        CropHelper cropHelper = new CropHelper(mDataController);
         cropHelper.cropTrial(null, experiment, trial.getTrialId(), 2, 1008, mCropTrialListener);
         assertTrue(mCropCompleted);
         assertFalse(mMetadataManager.getExperimentById(experiment.getExperimentId())
                 .getTrial(trial.getTrialId()).getStatsForSensor("sensor").statsAreValid());
     }
+
+    @Test
+    public void testCropRun_newCropCancelsStaleStats() {
+        GoosciSensorLayout.SensorLayout second = new GoosciSensorLayout.SensorLayout();
+        second.sensorId = "second";
+        mSensorLayouts = new GoosciSensorLayout.SensorLayout[] {mSensorLayouts[0], second};
+        Trial trial = makeCommonTrial();
+        trial.setStats(new TrialStats("sensor"));
+        trial.setStats(new TrialStats("second"));
+        Experiment experiment = Experiment.newExperiment(10, "experimentId", 0);
+        experiment.addTrial(trial);
+
+        DeferredSummaryController dc = new DeferredSummaryController();
+        CropHelper cropHelper = new CropHelper(dc);
+        cropHelper.cropTrial(null, experiment, trial.getTrialId(), 2, 1008, mCropTrialListener);
+        assertEquals(2, dc.mPendingSummaries.size());
+        cropHelper.cropTrial(null, experiment, trial.getTrialId(), 4, 1006, mCropTrialListener);
+        assertEquals(4, dc.mPendingSummaries.size());
+        assertEquals(4, dc.mRequestedRanges.get(2).getTimes().lowerEndpoint().longValue());
+
+        // Results for the first crop arrive late, and are dropped
+        dc.mPendingSummaries.get(0).success(summaryOf(100));
+        dc.mPendingSummaries.get(1).success(summaryOf(100));
+        assertFalse(trial.getStatsForSensor("sensor").statsAreValid());
+        assertFalse(trial.getStatsForSensor("second").statsAreValid());
+
+        dc.mPendingSummaries.get(2).success(summaryOf(5));
+        dc.mPendingSummaries.get(3).success(summaryOf(7));
+        TrialStats stats = trial.getStatsForSensor("sensor");
+        assertTrue(stats.statsAreValid());
+        assertEquals(5.0, stats.getStatValue(GoosciTrial.SensorStat.MAXIMUM, -1), DELTA);
+        stats = trial.getStatsForSensor("second");
+        assertTrue(stats.statsAreValid());
+        assertEquals(7.0, stats.getStatValue(GoosciTrial.SensorStat.MAXIMUM, -1), DELTA);
+    }
+
+    private static ScalarSummary summaryOf(double value) {
+        ScalarSummary summary = new ScalarSummary();
+        summary.add(10, value);
+        return summary;
+    }
+
+    /**
+     * Saves experiments immediately, but holds on to summary requests until the test answers
+     * them.
+     */
+    private static class DeferredSummaryController extends StubDataController {
+        final List<MaybeConsumer<ScalarSummary>> mPendingSummaries = new ArrayList<>();
+        final List<TimeRange> mRequestedRanges = new ArrayList<>();
+
+        @Override
+        public void getScalarSummary(String databaseTag, TimeRange timeRange,
+                DataController.ReadPriority priority, MaybeConsumer<ScalarSummary> onSuccess) {
+            mRequestedRanges.add(timeRange);
+            mPendingSummaries.add(onSuccess);
+        }
+
+        @Override
+        public void updateExperiment(String experimentId, MaybeConsumer<Success> onSuccess) {
+            onSuccess.success(Success.SUCCESS);
+        }
+    }
 }
@@ -27,6 +27,7 @@ import com.google.android.apps.forscience.whistlepunk.metadata.GoosciTrial;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.ManualSensor;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.RecordingSensorObserver;
 import com.google.android.apps.forscience.whistlepunk.sensorapi.SensorRecorder;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
 import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
 import com.google.android.apps.forscience.whistlepunk.sensordb.MemoryMetadataManager;
 
@@ -122,6 +123,21 @@ public class ZoomPresenterTest {
         assertEquals(0.006, ZoomPresenter.computeIdealTier(20, stats, 20), 0.01);
     }
 
+    @Test
+    public void testLttbTiersNeedHalfAsManyPoints() {
+        TrialStats stats = new TrialStats("sensorId");
+        stats.putStat(GoosciTrial.SensorStat.TOTAL_DURATION, 99);
+        stats.putStat(GoosciTrial.SensorStat.NUM_DATA_POINTS, 100);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_COUNT, 5);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_ZOOM_LEVEL_BETWEEN_TIERS, 5);
+        stats.putStat(GoosciTrial.SensorStat.ZOOM_PRESENTER_TIER_STRATEGY,
+                ZoomRecorder.TIER_STRATEGY_LTTB);
+
+        // Same as 10 points from min/max tiers
+        assertEquals(1.437, ZoomPresenter.computeIdealTier(20, stats, 100), 0.01);
+        assertEquals(1.006, ZoomPresenter.computeIdealTier(20, stats, 50), 0.01);
+    }
+
     private SensorRecorder createRecorder(ManualSensor sensor) {
         return sensor.createRecorder(RuntimeEnvironment.application.getApplicationContext(),
                 mDatabase.makeSimpleRecordingController(mMetadataManager),
@@ -24,6 +24,9 @@ import static org.junit.Assert.assertTrue;
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
 import com.google.android.apps.forscience.whistlepunk.filemetadata.Label;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciLabel;
+import com.google.android.apps.forscience.whistlepunk.sensordb.InMemorySensorDatabase;
+import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
+import com.google.common.collect.Range;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -59,6 +62,23 @@ public class ChartDataTest {
         assertTrue(startRange <= result && result <= endRange);
     }
 
+    @Test public void testAddOrderedGroupOfReadings() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase();
+        for (int i = 0; i < 6; i++) {
+            db.addScalarReading("tag", 0, i, i / 10.0);
+        }
+        ChartData chartData = new ChartData();
+        chartData.addOrderedGroupOfPoints(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(3L, 5L)), 0, 0));
+        // Earlier readings than those already added must be sorted in.
+        chartData.addOrderedGroupOfPoints(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 2L)), 0, 0));
+
+        List<ChartData.DataPoint> expected = new ArrayList<>();
+        populatePointsList(6, expected);
+        assertDataEquals(expected, chartData.getPoints());
+    }
+
     @Test public void testExactBinarySearch_sizeOne() {
         ChartData chartData = new ChartData();
         populatePointsList(1, chartData.getPoints());
@@ -222,4 +242,39 @@ public class ChartDataTest {
         chartData.throwAwayBefore(99);
         assertEquals(8, chartData.getNumPoints());
     }
-}
\ No newline at end of file
+
+    @Test public void addOrderedGroupMergesIntoMiddle() {
+        ChartData chartData = new ChartData();
+        List<ChartData.DataPoint> evens = new ArrayList<>();
+        List<ChartData.DataPoint> odds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            (i % 2 == 0 ? evens : odds).add(new ChartData.DataPoint(i, i / 10.0));
+        }
+        chartData.setPoints(evens);
+        chartData.addOrderedGroupOfPoints(odds);
+
+        List<ChartData.DataPoint> expected = new ArrayList<>();
+        populatePointsList(10, expected);
+        assertDataEquals(expected, chartData.getPoints());
+    }
+
+    @Test public void throwAwayBetweenAfterHeadWraps() {
+        ChartData chartData = new ChartData(0, ChartData.DEFAULT_THROWAWAY_TIME_THRESHOLD);
+        for (int i = 0; i < 60; i++) {
+            chartData.addPoint(new ChartData.DataPoint(i, i));
+        }
+        chartData.throwAwayBefore(39);
+        // Enough to wrap past the end of the initial storage.
+        for (int i = 60; i < 100; i++) {
+            chartData.addPoint(new ChartData.DataPoint(i, i));
+        }
+        assertEquals(61, chartData.getNumPoints());
+        chartData.throwAwayBetween(50, 89);
+        assertEquals(22, chartData.getNumPoints());
+        for (int i = 0; i < 11; i++) {
+            assertEquals(39 + i, chartData.getXAt(i));
+            assertEquals(89 + i, chartData.getXAt(11 + i));
+            assertEquals(89 + i, chartData.getYAt(11 + i), .000001);
+        }
+    }
+}
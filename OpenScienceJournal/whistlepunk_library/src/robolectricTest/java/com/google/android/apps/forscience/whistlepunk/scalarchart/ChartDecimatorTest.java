@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ChartDecimatorTest {
+    private ChartData makeData(double... ys) {
+        ChartData chartData = new ChartData();
+        List<ChartData.DataPoint> points = new ArrayList<>();
+        for (int i = 0; i < ys.length; i++) {
+            points.add(new ChartData.DataPoint(i, ys[i]));
+        }
+        chartData.setPoints(points);
+        return chartData;
+    }
+
+    private void assertDecimatedXs(ChartDecimator decimator, long... xs) {
+        assertEquals(xs.length, decimator.getNumPoints());
+        for (int i = 0; i < xs.length; i++) {
+            assertEquals(xs[i], decimator.getXAt(i));
+        }
+    }
+
+    @Test public void keepsFirstMinMaxAndLastOfEachColumn() {
+        ChartData chartData = makeData(5, 6, 9, 4, 1, 3, 7, 2, 8, 5,  3, 3, 3);
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(chartData, 0, chartData.getNumPoints() - 1, 10);
+        // Max before min in the first column, and just one value in the second.
+        assertDecimatedXs(decimator, 0, 2, 4, 9, 10, 12);
+        assertEquals(9, decimator.getYAt(1), .000001);
+        assertEquals(1, decimator.getYAt(2), .000001);
+    }
+
+    @Test public void keepsEveryPointWhenColumnsAreNarrow() {
+        ChartData chartData = makeData(5, 6, 9, 4, 1);
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(chartData, 1, 3, 1);
+        assertDecimatedXs(decimator, 1, 2, 3);
+    }
+
+    @Test public void addingPointsMatchesDecimatingThemAll() {
+        double[] ys = new double[100];
+        for (int i = 0; i < ys.length; i++) {
+            ys[i] = Math.sin(i / 3.0) * i;
+        }
+        ChartData chartData = makeData(ys);
+        ChartDecimator all = new ChartDecimator();
+        all.decimate(chartData, 0, ys.length - 1, 7);
+
+        ChartDecimator extended = new ChartDecimator();
+        extended.decimate(chartData, 0, 40, 7);
+        for (int i = 41; i < ys.length; i++) {
+            extended.add(i, ys[i]);
+        }
+        assertEquals(all.getNumPoints(), extended.getNumPoints());
+        for (int i = 0; i < all.getNumPoints(); i++) {
+            assertEquals(all.getXAt(i), extended.getXAt(i));
+            assertEquals(all.getYAt(i), extended.getYAt(i), .000001);
+        }
+    }
+
+    @Test public void coversUntilDataOrColumnWidthChanges() {
+        ChartData chartData = makeData(5, 6, 9, 4, 1, 3, 7, 2, 8, 5);
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(chartData, 2, 8, 2);
+        assertTrue(decimator.covers(chartData, 2, 3, 8));
+        assertFalse(decimator.covers(chartData, 2, 1, 8));
+        assertFalse(decimator.covers(chartData, 2, 3, 9));
+        assertFalse(decimator.covers(chartData, 3, 3, 8));
+
+        // Points added to the end don't change the decimated points, but others do.
+        chartData.addPoint(new ChartData.DataPoint(10, 0));
+        assertTrue(decimator.covers(chartData, 2, 3, 8));
+        List<ChartData.DataPoint> earlier = new ArrayList<>();
+        earlier.add(new ChartData.DataPoint(-1, 0));
+        chartData.addOrderedGroupOfPoints(earlier);
+        assertFalse(decimator.covers(chartData, 2, 3, 8));
+    }
+
+    @Test public void findsIndicesAroundX() {
+        ChartData chartData = makeData(5, 6, 9, 4, 1, 3, 7, 2, 8, 5);
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(chartData, 0, 9, 1);
+        assertEquals(3, decimator.getIndexAtOrBefore(3));
+        assertEquals(0, decimator.getIndexAtOrBefore(-5));
+        assertEquals(9, decimator.getIndexAtOrBefore(50));
+        assertEquals(3, decimator.getIndexAtOrAfter(3));
+        assertEquals(0, decimator.getIndexAtOrAfter(-5));
+        assertEquals(9, decimator.getIndexAtOrAfter(50));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.scalarchart;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.RectF;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ChartPathTest {
+    private ChartDecimator makeDecimator(long... xs) {
+        double[] ys = new double[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            ys[i] = xs[i] / 10.0;
+        }
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(xs, ys, xs.length, 0, 1);
+        return decimator;
+    }
+
+    @Test public void mapsPointsToChartRect() {
+        ChartPath path = new ChartPath(3, makeDecimator(0, 50, 100), 0, 100, 0, 100, 0, 10,
+                new RectF(20, 10, 220, 110));
+        assertEquals(3, path.getGeneration());
+        assertEquals(3, path.getNumPoints());
+        assertEquals(20, path.getScreenX(0), .0001);
+        assertEquals(110, path.getScreenY(0), .0001);
+        assertEquals(120, path.getScreenX(1), .0001);
+        assertEquals(60, path.getScreenY(1), .0001);
+        assertEquals(220, path.getScreenX(2), .0001);
+        assertEquals(10, path.getScreenY(2), .0001);
+    }
+
+    @Test public void includesOnePointEitherSideOfRange() {
+        ChartPath path = new ChartPath(0, makeDecimator(0, 10, 20, 30, 40, 50), 15, 25, 15, 25,
+                0, 10, new RectF(0, 0, 100, 100));
+        assertEquals(3, path.getNumPoints());
+        assertEquals(10, path.getXMinInPath());
+        assertEquals(30, path.getXMaxInPath());
+        assertEquals(-50, path.getScreenX(0), .0001);
+        assertEquals(150, path.getScreenX(2), .0001);
+    }
+}
@@ -17,6 +17,11 @@
 package com.google.android.apps.forscience.whistlepunk.scalarchart;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.RectF;
 
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
 
@@ -27,6 +32,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(constants = BuildConfig.class)
@@ -65,4 +71,28 @@ public class ChartViewTest {
         List<Double> points = initPoints();
         assertEquals(20, ChartView.calculateSizeShownNext(points, 1, 41));
     }
+
+    @Test
+    public void testOfferPath_staleBuildDoesNotReplaceNewer() {
+        AtomicReference<ChartPath> next = new AtomicReference<>();
+        ChartPath older = makePath(1);
+        ChartPath newer = makePath(2);
+
+        // The newer build finishes first; the older one must not replace it.
+        assertTrue(ChartView.offerPath(next, newer));
+        assertFalse(ChartView.offerPath(next, older));
+        assertSame(newer, next.get());
+
+        assertTrue(ChartView.offerPath(next, makePath(2)));
+        ChartPath newest = makePath(3);
+        assertTrue(ChartView.offerPath(next, newest));
+        assertSame(newest, next.get());
+    }
+
+    private static ChartPath makePath(int generation) {
+        ChartDecimator decimator = new ChartDecimator();
+        decimator.decimate(new long[] {0, 10}, new double[] {0, 1}, 2, 0, 1);
+        return new ChartPath(generation, decimator, 0, 10, 0, 10, 0, 1,
+                new RectF(0, 0, 100, 100));
+    }
 }
@@ -25,6 +25,10 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(constants = BuildConfig.class)
 public class FrequencyBufferTest {
@@ -158,4 +162,116 @@ public class FrequencyBufferTest {
         buffer.changeWindow(200);
         // Just don't crash
     }
+
+    @Test
+    public void testManyReadingsInWindow() {
+        // 1000 readings of a 20Hz square wave, more than the buffer starts with room for.
+        final FrequencyBuffer buffer = new FrequencyBuffer(1000, 1000.0, 0.0);
+        for (int t = 0; t <= 5000; t++) {
+            buffer.filterValue(t, (t / 25) % 2);
+        }
+        assertEquals(20.0, buffer.getLatestFrequency(), 0.1);
+    }
+
+    @Test
+    public void testRecomputeMatchesFullScan() {
+        // After the filter changes, every reading is compared to the new average, as a full scan
+        // of the window would.
+        Random random = new Random(19);
+        for (int trial = 0; trial < 100; trial++) {
+            long window = 50 + random.nextInt(500);
+            double filter = random.nextBoolean() ? 0 : random.nextDouble();
+            FrequencyBuffer buffer = new FrequencyBuffer(window, 1000.0, filter);
+            List<Long> times = new ArrayList<>();
+            List<Double> values = new ArrayList<>();
+            long t = 0;
+            for (int i = 0; i < 300; i++) {
+                t += random.nextInt(6);
+                double value = random.nextGaussian() + (random.nextBoolean() ? 1 : 0);
+                buffer.filterValue(t, value);
+                times.add(t);
+                values.add(value);
+                while (times.get(0) < t - window) {
+                    times.remove(0);
+                    values.remove(0);
+                }
+                if (i % 10 == 0) {
+                    buffer.changeFilter(filter);
+                    assertEquals(scanFrequency(times, values, window, filter),
+                            buffer.getLatestFrequency(), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTracksFullScanOnSineWaves() {
+        // Between recomputes, each reading is compared to the average when it arrived, so single
+        // estimates can be a crossing off from a full scan, but they agree over time.
+        Random random = new Random(19);
+        for (int trial = 0; trial < 100; trial++) {
+            long window = 500 + random.nextInt(1500);
+            double hertz = 2 + random.nextDouble() * 10;
+            double amplitude = 0.1 + random.nextDouble() * 10;
+            double offset = random.nextDouble() * 100 - 50;
+            double phase = random.nextDouble() * 2 * Math.PI;
+            int period = 1 + random.nextInt(5);
+            FrequencyBuffer buffer = new FrequencyBuffer(window, 1000.0, 0.0);
+            List<Long> times = new ArrayList<>();
+            List<Double> values = new ArrayList<>();
+            double total = 0;
+            double scanTotal = 0;
+            for (long t = 0; t < 5000; t += period) {
+                double value =
+                        offset + amplitude * Math.sin(2 * Math.PI * hertz * t / 1000 + phase);
+                double frequency = buffer.filterValue(t, value);
+                times.add(t);
+                values.add(value);
+                while (times.get(0) < t - window) {
+                    times.remove(0);
+                    values.remove(0);
+                }
+                if (t > window) {
+                    total += frequency;
+                    scanTotal += scanFrequency(times, values, window, 0.0);
+                }
+            }
+            assertEquals(1.0, total / scanTotal, 0.1);
+        }
+    }
+
+    /**
+     * Frequency of the readings, as found by comparing each one to the average of them all.
+     */
+    private static double scanFrequency(List<Long> times, List<Double> values, long window,
+            double filter) {
+        if (values.size() < 2) {
+            return 0.0;
+        }
+        double total = 0;
+        for (double value : values) {
+            total += value;
+        }
+        double threshold = total / values.size() + filter;
+        int crossings = 0;
+        long firstCrossingTime = -1;
+        long lastCrossingTime = -1;
+        boolean above = values.get(0) > threshold;
+        for (int i = 1; i < values.size(); i++) {
+            if ((values.get(i) > threshold) != above) {
+                above = !above;
+                crossings++;
+                if (firstCrossingTime == -1) {
+                    firstCrossingTime = times.get(i);
+                } else {
+                    lastCrossingTime = times.get(i);
+                }
+            }
+        }
+        if (firstCrossingTime == -1 || lastCrossingTime == -1
+                || lastCrossingTime - firstCrossingTime < window / 4) {
+            return 0.0;
+        }
+        return ((crossings - 1) / 2.0f) / ((lastCrossingTime - firstCrossingTime) / 1000.0);
+    }
 }
@@ -364,6 +364,19 @@ public class ScalarSensorTest {
                 0.001);
     }
 
+    @Test
+    public void testZoomLevelForDataRate() {
+        // Unknown and ordinary rates use the default
+        assertEquals(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                ScalarSensor.getZoomLevelForDataRate(0));
+        assertEquals(ScalarSensor.DEFAULT_ZOOM_LEVEL_BETWEEN_TIERS,
+                ScalarSensor.getZoomLevelForDataRate(50));
+
+        // Fast sensors zoom out further, up to a limit
+        assertEquals(50, ScalarSensor.getZoomLevelForDataRate(500));
+        assertEquals(100, ScalarSensor.getZoomLevelForDataRate(44100));
+    }
+
     @Test
     public void dontReuseBundle() {
         ExplicitExecutor executor = new ExplicitExecutor();
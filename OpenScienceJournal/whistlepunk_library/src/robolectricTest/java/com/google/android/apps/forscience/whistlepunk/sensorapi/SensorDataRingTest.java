@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.api.scalarinput.ExplicitExecutor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class SensorDataRingTest {
+    @Test
+    public void testDeliversWaitingPointsTogether() {
+        CountingExecutor ui = new CountingExecutor();
+        StatsObserver observer = new StatsObserver();
+        SensorDataRing ring = new SensorDataRing(observer, ui, new AtomicLong());
+        SensorObserver.Data data = new SensorObserver.Data();
+        for (int i = 0; i < 5; i++) {
+            data.setValue(i);
+            data.max = i * 10;
+            assertTrue(ring.add(i, data));
+        }
+        assertEquals(1, ui.getCount());
+
+        ui.drain();
+        assertEquals(5, observer.mTimestamps.size());
+        assertEquals(4, (long) observer.mTimestamps.get(4));
+        assertEquals(4.0, observer.mValues.get(4), 0.0);
+        assertEquals(40.0, observer.mMaxes.get(4), 0.0);
+
+        // Data after a delivery asks for another
+        ring.add(5, data);
+        assertEquals(2, ui.getCount());
+    }
+
+    @Test
+    public void testFullRingShedsNewPoints() {
+        CountingExecutor ui = new CountingExecutor();
+        StatsObserver observer = new StatsObserver();
+        AtomicLong shedCount = new AtomicLong();
+        SensorDataRing ring = new SensorDataRing(observer, ui, 4, 4, shedCount);
+        SensorObserver.Data data = new SensorObserver.Data();
+        for (int i = 0; i < 6; i++) {
+            data.setValue(i);
+            assertEquals(i < 4, ring.add(i, data));
+        }
+        assertEquals(2, shedCount.get());
+
+        ui.drain();
+        assertEquals(4, observer.mTimestamps.size());
+        assertTrue(ring.add(6, data));
+        ui.drain();
+        assertEquals(6, (long) observer.mTimestamps.get(4));
+    }
+
+    @Test
+    public void testOneMessagePerFrame() {
+        // Four 200 Hz sensors for one second, drawn at 60 frames per second.  Posting each data
+        // point would take 800 messages.
+        CountingExecutor ui = new CountingExecutor();
+        List<StatsObserver> observers = new ArrayList<>();
+        List<SensorDataRing> rings = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            observers.add(new StatsObserver());
+            rings.add(new SensorDataRing(observers.get(i), ui, new AtomicLong()));
+        }
+        SensorObserver.Data data = new SensorObserver.Data();
+        int frame = 0;
+        for (int millis = 0; millis < 1000; millis++) {
+            if (millis % 5 == 0) {
+                data.setValue(millis);
+                for (SensorDataRing ring : rings) {
+                    ring.add(millis, data);
+                }
+            }
+            if (millis * 60 / 1000 > frame) {
+                frame++;
+                ui.drain();
+            }
+        }
+        ui.drain();
+
+        assertTrue(ui.getCount() <= 4 * 61);
+        for (StatsObserver observer : observers) {
+            assertEquals(200, observer.mTimestamps.size());
+        }
+        assertFalse(ui.drain());
+    }
+
+    @Test
+    public void testStalledDeliveryShedsToMinAndMax() {
+        CountingExecutor ui = new CountingExecutor();
+        StatsObserver observer = new StatsObserver();
+        AtomicLong shedCount = new AtomicLong();
+        SensorDataRing ring = new SensorDataRing(observer, ui, 64, 5, shedCount);
+        SensorObserver.Data data = new SensorObserver.Data();
+        // Two runs of 10, each with a spike down and a spike up, and then the latest point.
+        double[] values = {5, 5, -1, 5, 5, 5, 5, 9, 5, 5, 5, 8, 5, 5, 5, 5, 5, 5, -3, 5, 7};
+        for (int i = 0; i < values.length; i++) {
+            data.setValue(values[i]);
+            ring.add(i, data);
+        }
+
+        ui.drain();
+        assertEquals(5, observer.mTimestamps.size());
+        assertEquals(-1.0, observer.mValues.get(0), 0.0);
+        assertEquals(9.0, observer.mValues.get(1), 0.0);
+        assertEquals(8.0, observer.mValues.get(2), 0.0);
+        assertEquals(-3.0, observer.mValues.get(3), 0.0);
+        assertEquals(7.0, observer.mValues.get(4), 0.0);
+        assertEquals(Arrays.asList(2L, 7L, 11L, 18L, 20L), observer.mTimestamps);
+        assertEquals(values.length - 5, shedCount.get());
+
+        // Once caught up, every point is delivered again.
+        for (int i = 0; i < 5; i++) {
+            ring.add(values.length + i, data);
+        }
+        ui.drain();
+        assertEquals(10, observer.mTimestamps.size());
+        assertEquals(values.length - 5, shedCount.get());
+    }
+
+    @Test
+    public void testStallBoundsDelivery() {
+        // A 200 Hz sensor while the UI thread stalls for two seconds.
+        CountingExecutor ui = new CountingExecutor();
+        StatsObserver observer = new StatsObserver();
+        AtomicLong shedCount = new AtomicLong();
+        SensorDataRing ring = new SensorDataRing(observer, ui, shedCount);
+        SensorObserver.Data data = new SensorObserver.Data();
+        for (int i = 0; i < 400; i++) {
+            data.setValue(i % 7);
+            ring.add(i * 5, data);
+        }
+
+        ui.drain();
+        assertTrue(observer.mTimestamps.size() <= SensorDataRing.DEFAULT_MAX_DELIVERED_POINTS);
+        assertEquals(400 - observer.mTimestamps.size(), shedCount.get());
+        assertEquals(399 * 5, (long) observer.mTimestamps.get(observer.mTimestamps.size() - 1));
+        for (int i = 1; i < observer.mTimestamps.size(); i++) {
+            assertTrue(observer.mTimestamps.get(i) > observer.mTimestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testStalledDeliveryOnlyShedsDisplay() {
+        CountingExecutor ui = new CountingExecutor();
+        final StatsObserver everyPoint = new StatsObserver();
+        final StatsObserver display = new StatsObserver();
+        AtomicLong shedCount = new AtomicLong();
+        SensorDataRing ring = new SensorDataRing(new SensorDataRing.SplitObserver() {
+            @Override
+            public SensorObserver getEveryPointObserver() {
+                return everyPoint;
+            }
+
+            @Override
+            public SensorObserver getDisplayObserver() {
+                return display;
+            }
+
+            @Override
+            public void onNewData(long timestamp, Data data) {
+                throw new AssertionError("The ring should use the split observers");
+            }
+        }, ui, 64, 5, shedCount);
+        SensorObserver.Data data = new SensorObserver.Data();
+        for (int i = 0; i < 20; i++) {
+            data.setValue(i % 2 == 0 ? i : -i);
+            ring.add(i, data);
+        }
+
+        ui.drain();
+        assertEquals(5, display.mTimestamps.size());
+        assertEquals(15, shedCount.get());
+        assertEquals(20, everyPoint.mTimestamps.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (long) everyPoint.mTimestamps.get(i));
+            assertEquals(i % 2 == 0 ? i : -i, everyPoint.mValues.get(i), 0.0);
+        }
+
+        // Without a stall, both see each point.
+        ring.add(20, data);
+        ui.drain();
+        assertEquals(21, everyPoint.mTimestamps.size());
+        assertEquals(6, display.mTimestamps.size());
+    }
+
+    private static class CountingExecutor extends ExplicitExecutor {
+        private int mCount = 0;
+
+        @Override
+        public void execute(Runnable command) {
+            mCount++;
+            super.execute(command);
+        }
+
+        int getCount() {
+            return mCount;
+        }
+    }
+
+    private static class StatsObserver implements SensorObserver {
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<Double> mValues = new ArrayList<>();
+        final List<Double> mMaxes = new ArrayList<>();
+
+        @Override
+        public void onNewData(long timestamp, Data data) {
+            mTimestamps.add(timestamp);
+            mValues.add(data.getValue());
+            mMaxes.add(data.max);
+        }
+    }
+}
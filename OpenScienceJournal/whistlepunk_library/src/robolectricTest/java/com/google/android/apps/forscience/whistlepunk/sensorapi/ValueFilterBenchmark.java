@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+/**
+ * Rough throughput, in values per second, of a frequency sensor's filter chain (a
+ * FrequencyBuffer followed by two scales), with and without fusing the scales and with and
+ * without batching.  Too slow to run with every build, so run by hand after removing the @Ignore.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+@Ignore("Benchmark; run by hand")
+public class ValueFilterBenchmark {
+    private static final int VALUES = 2000000;
+    private static final int BATCH_SIZE = 64;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void filterThroughput() {
+        long[] timestamps = new long[VALUES];
+        double[] values = new double[VALUES];
+        makeSignal(timestamps, values);
+
+        // Warm up each path once, so the first one timed isn't paying for the JIT.
+        runSingle(unfusedChain(), timestamps, values);
+        runBatched(unfusedChain(), timestamps, values);
+        runSingle(fusedChain(), timestamps, values);
+        runBatched(fusedChain(), timestamps, values);
+
+        double unfusedSingle = 0;
+        double unfusedBatched = 0;
+        double fusedSingle = 0;
+        double fusedBatched = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            unfusedSingle += runSingle(unfusedChain(), timestamps, values);
+            unfusedBatched += runBatched(unfusedChain(), timestamps, values);
+            fusedSingle += runSingle(fusedChain(), timestamps, values);
+            fusedBatched += runBatched(fusedChain(), timestamps, values);
+        }
+
+        System.out.println(String.format("values=%d unfused single=%.0f batched=%.0f values/s; "
+                        + "fused single=%.0f batched=%.0f values/s", VALUES,
+                unfusedSingle / ROUNDS, unfusedBatched / ROUNDS, fusedSingle / ROUNDS,
+                fusedBatched / ROUNDS));
+    }
+
+    private static ValueFilter fusedChain() {
+        return ComposeFilter.applyInOrder(
+                ComposeFilter.applyInOrder(newFrequencyBuffer(), new ScaleFilter(60, 0)),
+                new ScaleFilter(1.8, 32));
+    }
+
+    /**
+     * The same chain, with each filter called in turn, as it was before ComposeFilter fused
+     * neighbouring scales.
+     */
+    private static ValueFilter unfusedChain() {
+        final ValueFilter[] filters = new ValueFilter[] {
+                newFrequencyBuffer(), new ScaleFilter(60, 0), new ScaleFilter(1.8, 32)};
+        return new ValueFilter() {
+            @Override
+            public double filterValue(long timestamp, double value) {
+                for (ValueFilter filter : filters) {
+                    value = filter.filterValue(timestamp, value);
+                }
+                return value;
+            }
+
+            @Override
+            public void filterValues(long[] timestamps, double[] values, int count) {
+                for (ValueFilter filter : filters) {
+                    filter.filterValues(timestamps, values, count);
+                }
+            }
+        };
+    }
+
+    private static FrequencyBuffer newFrequencyBuffer() {
+        return new FrequencyBuffer(1000, 1000.0, 0.0);
+    }
+
+    private static double runSingle(ValueFilter filter, long[] timestamps, double[] values) {
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < VALUES; i++) {
+            sink += filter.filterValue(timestamps[i], values[i]);
+        }
+        return throughput(start, sink);
+    }
+
+    private static double runBatched(ValueFilter filter, long[] timestamps, double[] values) {
+        long[] batchTimestamps = new long[BATCH_SIZE];
+        double[] batchValues = new double[BATCH_SIZE];
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int from = 0; from < VALUES; from += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, VALUES - from);
+            System.arraycopy(timestamps, from, batchTimestamps, 0, count);
+            System.arraycopy(values, from, batchValues, 0, count);
+            filter.filterValues(batchTimestamps, batchValues, count);
+            sink += batchValues[count - 1];
+        }
+        return throughput(start, sink);
+    }
+
+    private static double throughput(long startNanos, double sink) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        if (Double.isNaN(sink)) {
+            // Never true; keeps the results from being optimized away.
+            System.out.println("NaN");
+        }
+        return VALUES / seconds;
+    }
+
+    /**
+     * A noisy 5Hz sine wave sampled at 1kHz, like a microphone-backed frequency sensor.
+     */
+    private static void makeSignal(long[] timestamps, double[] values) {
+        Random random = new Random(0);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < VALUES; i++) {
+            timestamp += 1;
+            timestamps[i] = timestamp;
+            values[i] = Math.sin(2 * Math.PI * 5 * i / 1000.0) + random.nextGaussian() * 0.01;
+        }
+    }
+}
@@ -17,9 +17,13 @@
 package com.google.android.apps.forscience.whistlepunk.sensorapi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import com.google.android.apps.forscience.whistlepunk.Arbitrary;
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.data.GoosciSensorConfig.BleSensorConfig
+        .ScaleTransform;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,4 +39,52 @@ public class ValueFilterTest {
         long now = Arbitrary.longInteger();
         assertEquals(value, ValueFilter.IDENTITY.filterValue(now, value), 0.01);
     }
+
+    @Test
+    public void testIdentityIsDroppedFromChains() {
+        ValueFilter scale = new ScaleFilter(2, 0);
+        assertSame(scale, ComposeFilter.applyInOrder(ValueFilter.IDENTITY, scale));
+        assertSame(scale, ComposeFilter.applyInOrder(scale, ValueFilter.IDENTITY));
+    }
+
+    @Test
+    public void testScaleFiltersFuse() {
+        ValueFilter fused = ComposeFilter.applyInOrder(new ScaleFilter(transform(0, 10, 0, 100)),
+                new ScaleFilter(transform(0, 100, 32, 212)));
+        assertTrue(fused instanceof ScaleFilter);
+        // 5 -> 50 -> 122
+        assertEquals(122.0, fused.filterValue(0, 5), 0.001);
+    }
+
+    @Test
+    public void testBatchMatchesSingleValues() {
+        ValueFilter single = ComposeFilter.applyInOrder(new FrequencyBuffer(100, 1000.0, 0.0),
+                new ScaleFilter(transform(0, 60, 0, 1)));
+        ValueFilter batch = ComposeFilter.applyInOrder(new FrequencyBuffer(100, 1000.0, 0.0),
+                new ScaleFilter(transform(0, 60, 0, 1)));
+
+        int count = 200;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        double[] expected = new double[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = i * 5;
+            values[i] = Math.sin(i * Math.PI / 5);
+            expected[i] = single.filterValue(timestamps[i], values[i]);
+        }
+        batch.filterValues(timestamps, values, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected[i], values[i], 0.0001);
+        }
+    }
+
+    private static ScaleTransform transform(double sourceBottom, double sourceTop,
+            double destBottom, double destTop) {
+        ScaleTransform transform = new ScaleTransform();
+        transform.sourceBottom = sourceBottom;
+        transform.sourceTop = sourceTop;
+        transform.destBottom = destBottom;
+        transform.destTop = destTop;
+        return transform;
+    }
 }
\ No newline at end of file
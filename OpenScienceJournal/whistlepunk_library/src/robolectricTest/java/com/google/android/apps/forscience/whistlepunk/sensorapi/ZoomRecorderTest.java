@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensorapi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.apps.forscience.javalib.FailureListener;
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ZoomRecorderTest {
+    @Test
+    public void testPointsPerWindow() {
+        assertEquals(2, ZoomRecorder.getPointsPerWindow(ZoomRecorder.TIER_STRATEGY_MIN_MAX));
+        assertEquals(1, ZoomRecorder.getPointsPerWindow(ZoomRecorder.TIER_STRATEGY_LTTB));
+    }
+
+    @Test
+    public void testMinMaxKeepsTwoPointsPerRun() {
+        ZoomRecorder recorder =
+                ZoomRecorder.create("id", 2, ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+        TierCollector collector = new TierCollector();
+        recorder.addData(0, 3, collector);
+        recorder.addData(1, 1, collector);
+        recorder.addData(2, 4, collector);
+        recorder.addData(3, 2, collector);
+        assertEquals(Arrays.asList("1:1", "2:4"), collector.getTier(1));
+    }
+
+    @Test
+    public void testLttbKeepsSpike() {
+        ZoomRecorder recorder = ZoomRecorder.create("id", 4, ZoomRecorder.TIER_STRATEGY_LTTB);
+        TierCollector collector = new TierCollector();
+        for (int i = 0; i < 12; i++) {
+            recorder.addData(i, i == 5 ? 10 : 0, collector);
+        }
+
+        // Each run is held back until the next is complete.  The first run keeps its first
+        // point, since there is no earlier point to make a triangle with.
+        assertEquals(Arrays.asList("0:0", "5:10"), collector.getTier(1));
+
+        // The last run is chosen against its own last point, which is also kept.
+        recorder.flush(collector);
+        assertEquals(Arrays.asList("0:0", "5:10", "8:0", "11:0"), collector.getTier(1));
+    }
+
+    @Test
+    public void testLttbKeepsEndsOfShortRecording() {
+        ZoomRecorder recorder = ZoomRecorder.create("id", 4, ZoomRecorder.TIER_STRATEGY_LTTB);
+        TierCollector collector = new TierCollector();
+        recorder.addData(0, 1, collector);
+        recorder.addData(1, 2, collector);
+        recorder.addData(2, 3, collector);
+        assertEquals(0, collector.getTier(1).size());
+
+        recorder.flush(collector);
+        assertEquals(Arrays.asList("0:1", "2:3"), collector.getTier(1));
+    }
+
+    @Test
+    public void testLttbOnePointPerRun() {
+        ZoomRecorder recorder = ZoomRecorder.create("id", 10, ZoomRecorder.TIER_STRATEGY_LTTB);
+        TierCollector collector = new TierCollector();
+        for (int i = 0; i < 1000; i++) {
+            recorder.addData(i, Math.sin(i / 50.0), collector);
+        }
+        recorder.flush(collector);
+
+        // Each of the 100 runs keeps one point, and the last run keeps its last point too.
+        assertEquals(101, collector.getTier(1).size());
+    }
+
+    @Test
+    public void testHandsUpThroughEveryTier() {
+        ZoomRecorder recorder = ZoomRecorder.create("id", 2, ZoomRecorder.TIER_STRATEGY_MIN_MAX);
+        TierCollector collector = new TierCollector();
+        for (int i = 0; i < 64; i++) {
+            recorder.addData(i, i, collector);
+        }
+
+        // Each run of 4 keeps 2 points in the tier above, down to the 2 points of tier 5.
+        assertEquals(32, collector.getTier(1).size());
+        assertEquals(2, collector.getTier(5).size());
+        assertEquals(0, collector.getTier(6).size());
+        assertEquals(6, recorder.countTiers());
+
+        recorder.flushAllTiers(collector);
+        assertEquals(1, recorder.countTiers());
+    }
+
+    @Test
+    public void testMaxTierCount() {
+        ZoomRecorder recorder =
+                ZoomRecorder.create("id", 2, ZoomRecorder.TIER_STRATEGY_MIN_MAX, 3);
+        TierCollector collector = new TierCollector();
+        for (int i = 0; i < 64; i++) {
+            recorder.addData(i, i, collector);
+        }
+
+        assertEquals(32, collector.getTier(1).size());
+        assertEquals(16, collector.getTier(2).size());
+        assertEquals(0, collector.getTier(3).size());
+        assertEquals(3, recorder.countTiers());
+    }
+
+    @Test
+    public void testClearWithNewZoomLevel() {
+        ZoomRecorder recorder = ZoomRecorder.create("id", 2, ZoomRecorder.TIER_STRATEGY_LTTB);
+        TierCollector collector = new TierCollector();
+        recorder.addData(0, 0, collector);
+        recorder.clear(4);
+        assertEquals(4, recorder.getZoomLevelBetweenTiers());
+
+        for (int i = 0; i < 8; i++) {
+            recorder.addData(i, i, collector);
+        }
+        // Runs of 4, so only the first run has been chosen from.
+        assertEquals(Arrays.asList("0:0"), collector.getTier(1));
+    }
+
+    private static class TierCollector implements RecordingDataController {
+        private final List<List<String>> mTiers = new ArrayList<>();
+
+        List<String> getTier(int tier) {
+            while (mTiers.size() <= tier) {
+                mTiers.add(new ArrayList<String>());
+            }
+            return mTiers.get(tier);
+        }
+
+        @Override
+        public void addScalarReading(String sensorId, int resolutionTier, long timestampMillis,
+                double value) {
+            getTier(resolutionTier).add(timestampMillis + ":" + (long) value);
+        }
+
+        @Override
+        public void flushScalarReadings() {
+        }
+
+        @Override
+        public void addScalarSummary(String sensorId, ScalarSummary summary) {
+        }
+
+        @Override
+        public void setDataErrorListenerForSensor(String sensorId, FailureListener listener) {
+        }
+
+        @Override
+        public void clearDataErrorListenerForSensor(String sensorId) {
+        }
+    }
+}
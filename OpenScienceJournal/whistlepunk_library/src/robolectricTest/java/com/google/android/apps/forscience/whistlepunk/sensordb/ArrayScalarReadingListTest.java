@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ArrayScalarReadingListTest {
+    @Test
+    public void testMinMaxAndSubList() {
+        ScalarReadingList list = new ArrayScalarReadingList(new long[] {1, 2, 3, 4, 0},
+                new double[] {5.0, -1.0, Double.NaN, 3.0, 100.0}, 4, null);
+        assertEquals(4, list.size());
+        assertEquals(-1.0, list.getMinValue(), 0.0);
+        assertEquals(5.0, list.getMaxValue(), 0.0);
+
+        ScalarReadingList sub = list.subList(2, 4);
+        assertEquals(2, sub.size());
+        assertEquals(3, sub.getTimestamp(0));
+        assertEquals(3.0, sub.getMinValue(), 0.0);
+        assertEquals(Arrays.asList(new ScalarReading(3, Double.NaN), new ScalarReading(4, 3.0)),
+                ScalarReading.slurp(sub));
+
+        assertTrue(Double.isNaN(list.subList(1, 1).getMinValue()));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexPastSize() {
+        new ArrayScalarReadingList(new long[4], new double[4], 2, null).getTimestamp(2);
+    }
+
+    @Test
+    public void testReleaseRecyclesOnce() {
+        ReadingArrayPool pool = new ReadingArrayPool(8);
+        long[] timestamps = pool.obtainTimestamps(3);
+        double[] values = pool.obtainValues(3);
+        ScalarReadingList list = new ArrayScalarReadingList(timestamps, values, 0, pool);
+
+        list.subList(0, 0).release();
+        assertNotSame(timestamps, pool.obtainTimestamps(3));
+
+        list.release();
+        list.release();
+        assertSame(timestamps, pool.obtainTimestamps(8));
+        assertSame(values, pool.obtainValues(8));
+        assertNotSame(timestamps, pool.obtainTimestamps(8));
+
+        // Arrays too big for the pool are never pooled.
+        long[] big = pool.obtainTimestamps(9);
+        assertEquals(9, big.length);
+        pool.recycle(big, new double[9]);
+        assertNotSame(big, pool.obtainTimestamps(9));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.common.collect.Range;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.subscribers.TestSubscriber;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ChunkedSensorDatabaseTest extends SensorDatabaseContractTest {
+    @Override
+    protected SensorDatabase createDatabase() {
+        return new ChunkedSensorDatabase(getDirectory());
+    }
+
+    @Test
+    public void testCompressedChunkRoundTrip() {
+        long[] timestamps = {1000, 1010, 1020, 1031, 1029, 5000, 5000, Long.MAX_VALUE / 2};
+        double[] values = {1.5, 1.5, 1.75, -3.0, Double.NaN, 0.0, Double.MAX_VALUE, 1e-300};
+        byte[] encoded = CompressedChunk.encode(timestamps, values, 0, timestamps.length);
+
+        long[] decodedTimestamps = new long[timestamps.length];
+        double[] decodedValues = new double[values.length];
+        CompressedChunk.decode(ByteBuffer.wrap(encoded), timestamps.length, decodedTimestamps,
+                decodedValues, 0);
+        assertEquals(Arrays.toString(timestamps), Arrays.toString(decodedTimestamps));
+        assertEquals(Arrays.toString(values), Arrays.toString(decodedValues));
+    }
+
+    @Test
+    public void testLimitsAcrossChunks() {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        for (int i = 1; i <= 5; i++) {
+            db.addScalarReading("tag", 0, i, i);
+        }
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(2L, 5L)), 0, 2));
+        assertEquals(Arrays.asList(new ScalarReading(2, 2.0), new ScalarReading(3, 3.0)),
+                readings);
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.newest(Range.closed(0L, 4L)), 0, 2));
+        assertEquals(Arrays.asList(new ScalarReading(4, 4.0), new ScalarReading(3, 3.0)),
+                readings);
+    }
+
+    @Test
+    public void testReopen() {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        db.addScalarReading("tag with/odd:chars", 2, 10, 1.0);
+        db.addScalarReading("tag with/odd:chars", 2, 20, 2.0);
+
+        ChunkedSensorDatabase reopened = new ChunkedSensorDatabase(getDirectory());
+        List<ScalarReading> readings = ScalarReading.slurp(reopened.getScalarReadings(
+                "tag with/odd:chars", TimeRange.oldest(Range.<Long>all()), 2, 0));
+        assertEquals(Arrays.asList(new ScalarReading(10, 1.0), new ScalarReading(20, 2.0)),
+                readings);
+        assertEquals("tag with/odd:chars", reopened.getFirstDatabaseTagAfter(15));
+    }
+
+    @Test
+    public void testReopenAfterTornChunk() throws IOException {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        db.addScalarReading("tag", 0, 10, 1.0);
+        File[] files = getDirectory().listFiles();
+        assertEquals(1, files.length);
+        // The start of a chunk whose payload never made it to disk.
+        try (FileOutputStream out = new FileOutputStream(files[0], true)) {
+            out.write(ByteBuffer.allocate(30).putInt(1).putLong(20).putLong(20).putInt(100)
+                    .array());
+        }
+
+        ChunkedSensorDatabase reopened = new ChunkedSensorDatabase(getDirectory());
+        reopened.addScalarReading("tag", 0, 30, 3.0);
+
+        // The reading added after the tear must still be readable after opening again.
+        ChunkedSensorDatabase again = new ChunkedSensorDatabase(getDirectory());
+        List<ScalarReading> readings = ScalarReading.slurp(again.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(10, 1.0), new ScalarReading(30, 3.0)),
+                readings);
+    }
+
+    @Test
+    public void testDeleteKeepsChunks() {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        for (int i = 0; i < 5; i++) {
+            ScalarReadingBatch batch = new ScalarReadingBatch(10);
+            for (int j = 0; j < 10; j++) {
+                batch.add("tag", 0, i * 10 + j, i * 10 + j);
+            }
+            db.addScalarReadings(batch);
+        }
+
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(15L, 24L)));
+
+        // Only the rewritten series file is left.
+        assertEquals(1, getDirectory().listFiles().length);
+        ChunkedSensorDatabase reopened = new ChunkedSensorDatabase(getDirectory());
+        for (ChunkedSensorDatabase database : Arrays.asList(db, reopened)) {
+            List<ScalarReading> readings = ScalarReading.slurp(database.getScalarReadings("tag",
+                    TimeRange.oldest(Range.<Long>all()), 0, 0));
+            assertEquals(40, readings.size());
+            assertEquals(new ScalarReading(14, 14.0), readings.get(14));
+            assertEquals(new ScalarReading(25, 25.0), readings.get(15));
+            assertEquals(new ScalarReading(49, 49.0), readings.get(39));
+        }
+    }
+
+    @Test
+    public void testScanReadsFileAsItWas() {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        for (int i = 0; i < 10; i++) {
+            db.addScalarReading("tag", 0, i, i);
+            db.addScalarReading("tag2", 0, i, -i);
+        }
+
+        TestSubscriber<ScalarReading> subscriber = db.createScalarFlowable(
+                new String[] {"tag", "tag2"}, TimeRange.oldest(Range.<Long>all()), 0).test(3);
+        // One series is rewritten and the other deleted while the scan is part way through.
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(2L, 6L)));
+        db.deleteScalarReadings("tag2", TimeRange.oldest(Range.<Long>all()));
+        subscriber.requestMore(100);
+
+        subscriber.assertNoErrors();
+        subscriber.assertComplete();
+        subscriber.assertValueCount(20);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(subscriber.values().contains(new ScalarReading(i, i, "tag")));
+            assertTrue(subscriber.values().contains(new ScalarReading(i, -i, "tag2")));
+        }
+        assertEquals(5, ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0)).size());
+    }
+
+    @Test
+    public void testReadsPastTwoGigabytes() throws IOException {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        db.addScalarReading("tag", 0, 10, 1.0);
+        File[] files = getDirectory().listFiles();
+        assertEquals(1, files.length);
+        // An empty chunk whose payload takes the file past 2 GB, left sparse so that the test
+        // doesn't write it.  Its 24-byte header is count, timestamps and payload length.
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            long offset = file.length();
+            file.seek(offset);
+            file.writeInt(0);
+            file.writeLong(10);
+            file.writeLong(10);
+            file.writeInt(Integer.MAX_VALUE);
+            file.setLength(offset + 24 + Integer.MAX_VALUE);
+        }
+
+        ChunkedSensorDatabase reopened = new ChunkedSensorDatabase(getDirectory());
+        reopened.addScalarReading("tag", 0, 30, 3.0);
+        reopened.addScalarReading("tag", 0, 40, 4.0);
+        assertTrue(files[0].length() > Integer.MAX_VALUE);
+
+        List<ScalarReading> expected = Arrays.asList(new ScalarReading(10, 1.0),
+                new ScalarReading(30, 3.0), new ScalarReading(40, 4.0));
+        for (ChunkedSensorDatabase database : Arrays.asList(reopened,
+                new ChunkedSensorDatabase(getDirectory()))) {
+            assertEquals(expected, ScalarReading.slurp(database.getScalarReadings("tag",
+                    TimeRange.oldest(Range.<Long>all()), 0, 0)));
+            TestSubscriber<ScalarReading> subscriber = database.createScalarFlowable(
+                    new String[] {"tag"}, TimeRange.oldest(Range.atLeast(20L)), 0).test();
+            subscriber.assertValues(new ScalarReading(30, 3.0, "tag"),
+                    new ScalarReading(40, 4.0, "tag"));
+        }
+    }
+
+    @Test
+    public void testAggregatesChooseTier() {
+        ChunkedSensorDatabase db = new ChunkedSensorDatabase(getDirectory());
+        ScalarReadingBatch batch = new ScalarReadingBatch(1100);
+        for (int i = 0; i < 1000; i++) {
+            batch.add("tag", 0, i, i);
+            if (i % 10 == 0) {
+                batch.add("tag", 1, i, i);
+            }
+        }
+        db.addScalarReadings(batch);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 999L));
+
+        ScalarAggregates exact = db.getAggregates("tag", range, 100, 0);
+        assertEquals(10, exact.size());
+        assertEquals(100, exact.getBucketStart(1));
+        assertEquals(100, exact.getCount(1));
+        assertEquals(149.5, exact.getMean(1), 0.0);
+        assertEquals(199.0, exact.getMax(1), 0.0);
+
+        assertEquals(0, db.getAggregates("tag", range, 10).getResolutionTier());
+        assertEquals(1, db.getAggregates("tag", range, 100).getResolutionTier());
+    }
+
+    private File getDirectory() {
+        return new File(getContext().getFilesDir(), "chunks");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = getDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        getDirectory().delete();
+    }
+}
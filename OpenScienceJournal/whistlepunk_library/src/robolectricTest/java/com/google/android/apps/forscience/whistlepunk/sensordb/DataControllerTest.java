@@ -40,7 +40,9 @@ import com.google.android.apps.forscience.whistlepunk.filemetadata.Experiment;
 import com.google.android.apps.forscience.whistlepunk.metadata.BleSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors;
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.ZoomRecorder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 
 import org.junit.Test;
@@ -257,4 +259,27 @@ public class DataControllerTest {
                 RxDataController.getExperimentById(dc, experiment.getExperimentId())
                         .test().values().get(0).getLastUsedTime());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAggregatesOnlyUseMinMaxTiers() {
+        InMemorySensorDatabase db = new InMemorySensorDatabase() {
+            @Override
+            public ScalarAggregates getAggregates(String sensorTag, TimeRange range,
+                    long bucketMillis) {
+                // As a database would if there were enough tier-1 readings
+                return getAggregates(sensorTag, range, bucketMillis, 1);
+            }
+        };
+        DataController dc = db.makeSimpleController(new MemoryMetadataManager());
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 100L));
+
+        StoringConsumer<ScalarAggregates> aggregates = new StoringConsumer<>();
+        dc.getAggregates("tag", range, 10, ZoomRecorder.TIER_STRATEGY_MIN_MAX,
+                DataController.ReadPriority.INTERACTIVE, aggregates);
+        assertEquals(1, aggregates.getValue().getResolutionTier());
+
+        dc.getAggregates("tag", range, 10, ZoomRecorder.TIER_STRATEGY_LTTB,
+                DataController.ReadPriority.INTERACTIVE, aggregates);
+        assertEquals(0, aggregates.getValue().getResolutionTier());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class QuantileSketchTest {
+    private static final double[] QUANTILES = {0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99};
+
+    @Test
+    public void testEmpty() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        sketch.add(Double.NaN);
+        assertTrue(sketch.isEmpty());
+    }
+
+    @Test
+    public void testFewValues() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(5);
+        assertEquals(5.0, sketch.getQuantile(0.5), 0.0);
+        sketch.add(7);
+        assertEquals(6.0, sketch.getQuantile(0.5), 0.0);
+        assertEquals(5.0, sketch.getQuantile(0), 0.0);
+        assertEquals(7.0, sketch.getQuantile(1), 0.0);
+        assertEquals(2, sketch.getCount());
+    }
+
+    @Test
+    public void testUniformAndSkewedDistributions() {
+        Random random = new Random(21);
+        int count = 100000;
+        double[] uniform = new double[count];
+        double[] skewed = new double[count];
+        for (int i = 0; i < count; i++) {
+            uniform[i] = random.nextDouble();
+            skewed[i] = Math.exp(random.nextGaussian() * 2);
+        }
+        assertAccurate(uniform, sketchOf(uniform, 0, count));
+        assertAccurate(skewed, sketchOf(skewed, 0, count));
+    }
+
+    @Test
+    public void testMergedBlocks() {
+        Random random = new Random(21);
+        int count = 100000;
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextGaussian();
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (int start = 0; start < count; start += 1000) {
+            merged.add(sketchOf(values, start, start + 1000));
+        }
+        assertEquals(count, merged.getCount());
+        assertAccurate(values, merged);
+    }
+
+    @Test
+    public void testBoundedSize() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < 1000000; i++) {
+            sketch.add(i);
+        }
+        assertTrue(sketch.getCentroidCount() <= 200);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(21);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+        }
+        QuantileSketch sketch = sketchOf(values, 0, values.length);
+        QuantileSketch read = new QuantileSketch();
+        read.readFrom(sketch.toBytes());
+        assertEquals(sketch.getCount(), read.getCount());
+        assertEquals(sketch.getMin(), read.getMin(), 0.0);
+        assertEquals(sketch.getMax(), read.getMax(), 0.0);
+        for (double quantile : QUANTILES) {
+            assertEquals(sketch.getQuantile(quantile), read.getQuantile(quantile), 0.0);
+        }
+    }
+
+    private static QuantileSketch sketchOf(double[] values, int start, int end) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = start; i < end; i++) {
+            sketch.add(values[i]);
+        }
+        return sketch;
+    }
+
+    /**
+     * Checks that each estimated quantile has about the right fraction of values below it.
+     */
+    private static void assertAccurate(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            int rank = Arrays.binarySearch(sorted, sketch.getQuantile(quantile));
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            assertEquals(quantile, (double) rank / sorted.length, 0.005);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+import com.google.common.collect.Range;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Rough timings for sensor database queries as the database grows.  These are too slow to run
+ * with every build, so run them by hand after removing the @Ignore, and compare the printed
+ * results.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+@Ignore("Benchmark; run by hand")
+public class SensorDatabaseBenchmark {
+    private static final String DATABASE_NAME = "benchmark.db";
+    private static final String[] TAGS = {"AccX", "AccY", "AccZ", "DecibelSource", "sensorKey12"};
+    private static final int[] TOTAL_ROWS = {10000, 100000, 1000000};
+    private static final int PAGE_SIZE = 500;
+    private static final int PAGES_TO_TIME = 50;
+
+    /**
+     * Query latency for one page of one sensor's tier-0 readings, before and after the tag and
+     * tier index is available.  Before migrating, every row is still in the legacy table, which
+     * is only indexed by timestamp.
+     */
+    @Test
+    public void pageLatencyByTotalRows() {
+        for (int totalRows : TOTAL_ROWS) {
+            SQLiteDatabase v3 = SensorDatabaseTest.createV3Database(getContext(), DATABASE_NAME);
+            long lastTimestamp = fillInterleaved(v3, totalRows);
+            v3.close();
+
+            SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+            double beforeMillis = timePages(db, lastTimestamp);
+
+            long migrationStart = System.nanoTime();
+            while (db.migrateIncrementally(10000)) {
+                // keep migrating
+            }
+            double migrationMillis = (System.nanoTime() - migrationStart) / 1e6;
+            double afterMillis = timePages(db, lastTimestamp);
+
+            System.out.println(String.format(
+                    "rows=%d before=%.3fms/page after=%.3fms/page migration=%.1fms", totalRows,
+                    beforeMillis, afterMillis, migrationMillis));
+            deleteDatabase();
+        }
+    }
+
+    /**
+     * Database file size and export read throughput with a TEXT tag in every row, compared to
+     * storing an integer tag id.
+     */
+    @Test
+    public void fileSizeAndExportThroughput() {
+        int totalRows = 200000;
+        SQLiteDatabase textTags = SensorDatabaseTest.createV3Database(getContext(),
+                DATABASE_NAME);
+        textTags.execSQL("CREATE INDEX by_sensor ON scalar_sensors(tag, resolutionTier,"
+                + "timestampMillis, value);");
+        long lastTimestamp = fillInterleaved(textTags, totalRows);
+        textTags.close();
+        long textTagsBytes = getContext().getDatabasePath(DATABASE_NAME).length();
+
+        // Opening without migrating leaves every row with its TEXT tag.
+        double textTagsRowsPerSecond = timeExport(
+                new SensorDatabaseImpl(getContext(), DATABASE_NAME), lastTimestamp);
+        deleteDatabase();
+
+        SensorDatabaseImpl tagIds = new SensorDatabaseImpl(getContext(), DATABASE_NAME);
+        ScalarReadingBatch batch = new ScalarReadingBatch(totalRows);
+        for (int i = 0; i < totalRows; i++) {
+            int tier = (i / TAGS.length) % 10 == 0 ? 1 : 0;
+            batch.add(TAGS[i % TAGS.length], tier, i / TAGS.length + 1, i);
+        }
+        tagIds.addScalarReadings(batch);
+        long tagIdsBytes = getContext().getDatabasePath(DATABASE_NAME).length();
+        double tagIdsRowsPerSecond = timeExport(tagIds, lastTimestamp);
+
+        System.out.println(String.format(
+                "rows=%d text tags: %d bytes, %.0f rows/s; tag ids: %d bytes, %.0f rows/s",
+                totalRows, textTagsBytes, textTagsRowsPerSecond, tagIdsBytes,
+                tagIdsRowsPerSecond));
+    }
+
+    private static double timeExport(SensorDatabaseImpl db, long lastTimestamp) {
+        long start = System.nanoTime();
+        long count = db.createScalarObservable(TAGS, TimeRange.oldest(
+                Range.closed(0L, lastTimestamp)), 0).count().blockingGet();
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes readings for all of TAGS, interleaved in time the way they are when several sensors
+     * record at once, with a tier-1 reading for every 10 tier-0 readings.
+     *
+     * @return the last timestamp written
+     */
+    static long fillInterleaved(SQLiteDatabase db, int totalRows) {
+        db.beginTransaction();
+        try {
+            long timestamp = 0;
+            for (int i = 0; i < totalRows; i++) {
+                String tag = TAGS[i % TAGS.length];
+                if (i % TAGS.length == 0) {
+                    timestamp++;
+                }
+                int tier = (i / TAGS.length) % 10 == 0 ? 1 : 0;
+                SensorDatabaseTest.insertV3Reading(db, tag, tier, timestamp, i);
+            }
+            db.setTransactionSuccessful();
+            return timestamp;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static double timePages(SensorDatabase db, long lastTimestamp) {
+        long start = System.nanoTime();
+        long step = Math.max(1, lastTimestamp / PAGES_TO_TIME);
+        for (int page = 0; page < PAGES_TO_TIME; page++) {
+            long pageStart = page * step;
+            db.getScalarReadings(TAGS[page % TAGS.length],
+                    TimeRange.oldest(Range.closed(pageStart, lastTimestamp)), 0, PAGE_SIZE);
+        }
+        return (System.nanoTime() - start) / 1e6 / PAGES_TO_TIME;
+    }
+
+    @After
+    public void deleteDatabase() {
+        getContext().getDatabasePath(DATABASE_NAME).delete();
+    }
+
+    private Context getContext() {
+        return RuntimeEnvironment.application.getApplicationContext();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.google.android.apps.forscience.whistlepunk.sensordb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import com.google.android.apps.forscience.whistlepunk.Arbitrary;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+
+/**
+ * Tests of the behavior that every {@link SensorDatabase} shares, whatever it stores readings in.
+ * Subclasses supply the implementation, and test anything specific to it.
+ */
+public abstract class SensorDatabaseContractTest {
+    /**
+     * @return a new, empty database of the implementation under test
+     */
+    protected abstract SensorDatabase createDatabase();
+
+    @Test
+    public void testAddScalarReading() {
+        SensorDatabase db = createDatabase();
+        long timestamp = Arbitrary.integer();
+        double value = Arbitrary.doubleFloat();
+        db.addScalarReading("tag", 0, timestamp, value);
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(timestamp - 1, timestamp + 1)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(timestamp, value)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadings() {
+        SensorDatabase db = createDatabase();
+        ScalarReadingBatch batch = new ScalarReadingBatch(1);
+        batch.add("tag", 0, 1, 1.0);
+        batch.add("other", 0, 2, 2.0);
+        batch.add("tag", 1, 3, 3.0);
+        db.addScalarReadings(batch);
+
+        // The batch can be reused once it has been written
+        batch.clear();
+        batch.add("tag", 0, 4, 4.0);
+        db.addScalarReadings(batch);
+
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(4, 4.0)),
+                readings);
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 1, 0));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadingLimits() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        int limit = 2;
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, limit));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadingNoLimits() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0),
+                new ScalarReading(3, 3.0)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadingTags() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("other", 0, 3, 3.0);
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadingLimitsNewestFirst() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        int limit = 2;
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.newest(Range.closed(0L, 4L)), 0, limit));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(2, 2.0)), readings);
+    }
+
+    @Test
+    public void testAddScalarReadingRange() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        db.addScalarReading("tag", 0, 4, 4.0);
+        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closedOpen(2L, 4L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(2, 2.0), new ScalarReading(3, 3.0)), readings);
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.open(2L, 4L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), readings);
+
+        readings = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.openClosed(2L, 4L)), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(4, 4.0)), readings);
+    }
+
+    @Test
+    public void testTiers() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 0, 0.0);
+        db.addScalarReading("tag", 1, 1, 1.0);
+
+        List<ScalarReading> tier0 = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0));
+        assertEquals(Arrays.asList(new ScalarReading(0, 0.0)), tier0);
+
+        List<ScalarReading> tier1 = ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 1, 0));
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), tier1);
+    }
+
+    @Test
+    public void testFirstTagAfter() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tagBefore", 0, 1, 1.0);
+        db.addScalarReading("tagAfter", 0, 3, 2.0);
+        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+    }
+
+    @Test
+    public void testFirstTagAfterWithMultipleAfters() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tagBefore", 0, 1, 1.0);
+        db.addScalarReading("tagAfter", 0, 3, 2.0);
+        db.addScalarReading("tagFurtherAfter", 0, 5, 3.0);
+        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+        assertNull(db.getFirstDatabaseTagAfter(5));
+    }
+
+    @Test
+    public void testDeleteReadings() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 0, 0.0);
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 101, 2.0);
+        db.addScalarReading("tag", 0, 102, 2.0);
+        db.addScalarReading("tag", 0, 103, 2.0);
+        db.addScalarReading("tag2", 0, 0, 1.0);
+
+        assertEquals(2, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
+
+        assertEquals(3, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(101L, 103L)), 0, 0).size());
+
+        assertEquals(1, db.getScalarReadings("tag2",
+                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
+
+        // Delete first set of readings.
+        db.deleteScalarReadings("tag", TimeRange.newest(Range.closed(0L, 1L)));
+
+        assertEquals(0, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
+
+        // Make sure other records for that tag are unaffected.
+        assertEquals(3, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.closed(101L, 103L)), 0, 0).size());
+
+        // Make sure tag 2 is unaffected.
+        assertEquals(1, db.getScalarReadings("tag2",
+                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
+
+    }
+
+    @Test
+    public void testObservable_oneSensor() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 0, 0.0);
+        db.addScalarReading("tag", 0, 1, 1.5);
+        db.addScalarReading("tag", 0, 101, 2.0);
+        db.addScalarReading("tag", 0, 102, 2.0);
+        db.addScalarReading("tag", 0, 103, 2.0);
+        db.addScalarReading("tag2", 0, 0, 1.0);
+
+        TestObserver<ScalarReading> testObserver = new TestObserver<>();
+        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag"},
+                TimeRange.oldest(Range.closed(0L, 1L)), 0);
+        obs.subscribe(testObserver);
+        testObserver.assertNoErrors();
+        testObserver.assertValues(new ScalarReading(0, 0.0, "tag"),
+                new ScalarReading(1, 1.5, "tag"));
+    }
+
+    @Test
+    public void testObservable_multipleSensors() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 0, 0.0);
+        db.addScalarReading("tag", 0, 3, 1.0);
+        db.addScalarReading("tag", 0, 101, 2.0);
+        db.addScalarReading("tag", 0, 102, 2.0);
+        db.addScalarReading("tag", 0, 103, 2.0);
+        db.addScalarReading("tag2", 0, 1, 3.0);
+        db.addScalarReading("tag2", 0, 2, 4.0);
+
+        TestObserver<ScalarReading> testObserver = new TestObserver<>();
+        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag", "tag2"},
+                TimeRange.oldest(Range.closed(0L, 3L)), 0);
+        obs.subscribe(testObserver);
+        testObserver.assertNoErrors();
+        testObserver.assertValues(new ScalarReading(0, 0.0, "tag"),
+                new ScalarReading(1, 3.0, "tag2"),
+                new ScalarReading(2, 4.0, "tag2"),
+                new ScalarReading(3, 1.0, "tag"));
+    }
+
+    @Test
+    public void testAggregates() {
+        SensorDatabase db = createDatabase();
+        ScalarReadingBatch batch = new ScalarReadingBatch(8);
+        batch.add("tag", 0, 100, 1.0);
+        batch.add("tag", 0, 105, 3.0);
+        batch.add("tag", 0, 112, 5.0);
+        batch.add("tag", 0, 135, Double.NaN);
+        batch.add("other", 0, 101, 50.0);
+        db.addScalarReadings(batch);
+
+        ScalarAggregates aggregates = db.getAggregates("tag",
+                TimeRange.oldest(Range.closed(100L, 200L)), 10, 0);
+        assertEquals(3, aggregates.size());
+        assertEquals(0, aggregates.getResolutionTier());
+
+        assertEquals(100, aggregates.getBucketStart(0));
+        assertEquals(1.0, aggregates.getMin(0), 0.0);
+        assertEquals(3.0, aggregates.getMax(0), 0.0);
+        assertEquals(2.0, aggregates.getMean(0), 0.0);
+        assertEquals(2, aggregates.getCount(0));
+
+        assertEquals(110, aggregates.getBucketStart(1));
+        assertEquals(5.0, aggregates.getMean(1), 0.0);
+
+        // Empty buckets are left out, and a bucket of only NaNs has NaN stats
+        assertEquals(130, aggregates.getBucketStart(2));
+        assertEquals(1, aggregates.getCount(2));
+        assertTrue(Double.isNaN(aggregates.getMin(2)));
+    }
+
+    @Test
+    public void testScalarSummary() {
+        SensorDatabase db = createDatabase();
+        addSummarizedReadings(db, 0, 100, 10);
+
+        ScalarSummary summary = db.getScalarSummary("tag",
+                TimeRange.oldest(Range.closed(5L, 94L)));
+        assertEquals(5, summary.getFirstTimestamp());
+        assertEquals(94, summary.getLastTimestamp());
+        assertEquals(5.0, summary.getMin(), 0.0);
+        assertEquals(94.0, summary.getMax(), 0.0);
+        assertEquals(90, summary.getCount());
+        assertEquals(49.5, summary.getMean(), 0.0);
+    }
+
+    @Test
+    public void testDeleteTrimsSummaries() {
+        SensorDatabase db = createDatabase();
+        addSummarizedReadings(db, 0, 40, 20);
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(10L, 29L)));
+
+        ScalarSummary summary = db.getScalarSummary("tag", TimeRange.oldest(Range.<Long>all()));
+        assertEquals(20, summary.getCount());
+        assertEquals(39.0, summary.getMax(), 0.0);
+        assertEquals(9.0 * 10 / 2 + (30 + 39) * 10 / 2, summary.getSum(), 0.0);
+    }
+
+    @Test
+    public void testUnknownTag() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        assertEquals(0, db.getScalarReadings("never", TimeRange.oldest(Range.<Long>all()), 0,
+                0).size());
+        db.deleteScalarReadings("never", TimeRange.oldest(Range.<Long>all()));
+        assertEquals(1, db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0,
+                0).size());
+    }
+
+    @Test
+    public void testDeleteZoomTiers() {
+        SensorDatabase db = createDatabase();
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 1, 1, 1.0);
+        db.addScalarReading("tag", 2, 1, 1.0);
+        db.addScalarReading("tag", 1, 5, 5.0);
+        db.addScalarReading("tag2", 1, 1, 1.0);
+
+        db.deleteZoomTiers("tag", TimeRange.oldest(Range.closed(0L, 2L)));
+
+        assertEquals(1, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0).size());
+        assertEquals(Arrays.asList(new ScalarReading(5, 5.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 1, 0)));
+        assertEquals(0, db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 2, 0).size());
+        assertEquals(1, db.getScalarReadings("tag2",
+                TimeRange.oldest(Range.<Long>all()), 1, 0).size());
+    }
+
+    /**
+     * Adds readings of "tag" with values equal to their timestamps, and a stored summary for
+     * every block of {@code blockMillis}, the way that recording does.
+     */
+    static void addSummarizedReadings(SensorDatabase db, long start, long end,
+            long blockMillis) {
+        ScalarReadingBatch batch = new ScalarReadingBatch((int) (end - start));
+        ScalarSummary block = new ScalarSummary();
+        for (long t = start; t < end; t++) {
+            batch.add("tag", 0, t, t);
+            block.add(t, t);
+            if ((t + 1) % blockMillis == 0) {
+                db.addScalarSummary("tag", block);
+                block = new ScalarSummary();
+            }
+        }
+        db.addScalarSummary("tag", block);
+        db.addScalarReadings(batch);
+    }
+
+    protected Context getContext() {
+        return RuntimeEnvironment.application.getApplicationContext();
+    }
+}
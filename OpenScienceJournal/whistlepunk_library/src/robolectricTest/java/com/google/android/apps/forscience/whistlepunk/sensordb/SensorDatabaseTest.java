@@ -17,11 +17,15 @@
 package com.google.android.apps.forscience.whistlepunk.sensordb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 
-import com.google.android.apps.forscience.whistlepunk.Arbitrary;
 import com.google.android.apps.forscience.whistlepunk.BuildConfig;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
@@ -31,225 +35,324 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
-import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import io.reactivex.Observable;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.subscribers.TestSubscriber;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(constants = BuildConfig.class)
-public class SensorDatabaseTest {
+public class SensorDatabaseTest extends SensorDatabaseContractTest {
     private static final String TEST_DATABASE_NAME = "test.db";
 
-    @Test
-    public void testAddScalarReading() {
-        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        long timestamp = Arbitrary.integer();
-        double value = Arbitrary.doubleFloat();
-        db.addScalarReading("tag", 0, timestamp, value);
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(timestamp - 1, timestamp + 1)), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(timestamp, value)), readings);
+    @Override
+    protected SensorDatabase createDatabase() {
+        return new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
     }
 
     @Test
-    public void testAddScalarReadingLimits() {
+    public void testObservable_paging() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 2, 2.0);
-        db.addScalarReading("tag", 0, 3, 3.0);
-        int limit = 2;
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(0L, 4L)), 0, limit));
-        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0)), readings);
-    }
 
+        int pageSize = 10;
+        int total = pageSize * 10;
+        List<ScalarReading> expected = Lists.newArrayList();
+        for (int index = 0; index < total; ++index) {
+            db.addScalarReading("tag", 0, index, 0.0);
+            expected.add(new ScalarReading(index, 0.0, "tag"));
+        }
+
+        TestObserver<ScalarReading> testObserver = new TestObserver<>();
+        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag"},
+                TimeRange.oldest(Range.closed(0L, (long) total)), 0, pageSize);
+        obs.subscribe(testObserver);
+        testObserver.assertNoErrors();
+        testObserver.assertValueSequence(expected);
+    }
     @Test
-    public void testAddScalarReadingNoLimits() {
+    public void testFlowable_sharedTimestampsAcrossPages() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 2, 2.0);
-        db.addScalarReading("tag", 0, 3, 3.0);
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.<Long>all()), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0),
-                new ScalarReading(3, 3.0)), readings);
-    }
+        // Every timestamp has a reading from each sensor, and a page of 3 always splits them.
+        List<ScalarReading> expected = Lists.newArrayList();
+        for (long timestamp = 0; timestamp < 5; timestamp++) {
+            db.addScalarReading("tag", 0, timestamp, 1.0);
+            db.addScalarReading("tag2", 0, timestamp, 2.0);
+            expected.add(new ScalarReading(timestamp, 1.0, "tag"));
+            expected.add(new ScalarReading(timestamp, 2.0, "tag2"));
+        }
 
+        TestSubscriber<ScalarReading> subscriber = db.createScalarFlowable(
+                new String[] {"tag", "tag2"}, TimeRange.oldest(Range.closed(0L, 4L)), 0, 3)
+                .test();
+        subscriber.assertNoErrors();
+        subscriber.assertComplete();
+        subscriber.assertValueSequence(expected);
+    }
     @Test
-    public void testAddScalarReadingTags() {
+    public void testFlowable_sharedTimestampsAcrossTables() {
+        SQLiteDatabase v3 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        insertV3Reading(v3, "tag", 0, 1, 1.0);
+        insertV3Reading(v3, "tag", 0, 2, 2.0);
+        v3.close();
+
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 2, 2.0);
-        db.addScalarReading("other", 0, 3, 3.0);
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(0L, 4L)), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(1, 1.0), new ScalarReading(2, 2.0)), readings);
-    }
+        db.addScalarReading("tag2", 0, 1, 3.0);
+        db.addScalarReading("tag2", 0, 2, 4.0);
 
+        TestSubscriber<ScalarReading> subscriber = db.createScalarFlowable(
+                new String[] {"tag", "tag2"}, TimeRange.oldest(Range.closed(0L, 2L)), 0, 1)
+                .test();
+        subscriber.assertNoErrors();
+        subscriber.assertValues(new ScalarReading(1, 3.0, "tag2"),
+                new ScalarReading(1, 1.0, "tag"), new ScalarReading(2, 4.0, "tag2"),
+                new ScalarReading(2, 2.0, "tag"));
+    }
     @Test
-    public void testAddScalarReadingLimitsNewestFirst() {
+    public void testFlowable_backpressure() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 2, 2.0);
-        db.addScalarReading("tag", 0, 3, 3.0);
-        int limit = 2;
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.newest(Range.closed(0L, 4L)), 0, limit));
-        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(2, 2.0)), readings);
-    }
+        for (int index = 0; index < 10; index++) {
+            db.addScalarReading("tag", 0, index, index);
+        }
+
+        TestSubscriber<ScalarReading> subscriber = db.createScalarFlowable(
+                new String[] {"tag"}, TimeRange.oldest(Range.closed(0L, 10L)), 0, 4).test(2);
+        subscriber.assertValues(new ScalarReading(0, 0.0, "tag"),
+                new ScalarReading(1, 1.0, "tag"));
+        subscriber.assertNotComplete();
 
+        subscriber.requestMore(7);
+        subscriber.assertValueCount(9);
+        subscriber.assertNotComplete();
+
+        subscriber.requestMore(10);
+        subscriber.assertValueCount(10);
+        subscriber.assertComplete();
+    }
     @Test
-    public void testAddScalarReadingRange() {
+    public void testFlowable_pagingDuringMigration() {
+        // All of "tag" is migrated before any of "tag2", so readings that share a timestamp are
+        // split between tables for most of the migration.
+        SQLiteDatabase v3 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        for (String tag : new String[] {"tag", "tag2"}) {
+            for (long timestamp = 0; timestamp < 10; timestamp++) {
+                insertV3Reading(v3, tag, 0, timestamp, timestamp);
+            }
+        }
+        v3.close();
+
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 2, 2.0);
-        db.addScalarReading("tag", 0, 3, 3.0);
-        db.addScalarReading("tag", 0, 4, 4.0);
-        List<ScalarReading> readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closedOpen(2L, 4L)), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(2, 2.0), new ScalarReading(3, 3.0)), readings);
-
-        readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.open(2L, 4L)), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), readings);
-
-        readings = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.openClosed(2L, 4L)), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(3, 3.0), new ScalarReading(4, 4.0)), readings);
+        TestSubscriber<ScalarReading> subscriber = db.createScalarFlowable(
+                new String[] {"tag", "tag2"}, TimeRange.oldest(Range.closed(0L, 9L)), 0, 3)
+                .test(1);
+        while (db.migrateIncrementally(3)) {
+            subscriber.requestMore(1);
+        }
+        subscriber.requestMore(Long.MAX_VALUE);
+        subscriber.assertNoErrors();
+        subscriber.assertComplete();
+
+        // Which table a reading was read from decides its order among readings at the same
+        // time, so only check that times never go backwards and that each reading is read once.
+        List<ScalarReading> readings = subscriber.values();
+        assertEquals(20, readings.size());
+        for (int i = 1; i < readings.size(); i++) {
+            assertTrue(readings.get(i - 1).getCollectedTimeMillis()
+                    <= readings.get(i).getCollectedTimeMillis());
+        }
+        for (long timestamp = 0; timestamp < 10; timestamp++) {
+            for (String tag : new String[] {"tag", "tag2"}) {
+                assertEquals(1, Collections.frequency(readings,
+                        new ScalarReading(timestamp, timestamp, tag)));
+            }
+        }
     }
-
     @Test
-    public void testTiers() {
+    public void testScanPageSize() {
+        assertEquals(500, SensorDatabaseImpl.getScanPageSize(1));
+        assertEquals(2500, SensorDatabaseImpl.getScanPageSize(5));
+        assertEquals(5000, SensorDatabaseImpl.getScanPageSize(50));
+    }
+    @Test
+    public void testAggregatesIncludeLegacyTables() {
+        SQLiteDatabase v3 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        insertV3Reading(v3, "tag", 0, 1, 1.0);
+        v3.close();
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 0, 0.0);
-        db.addScalarReading("tag", 1, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 3.0);
 
-        List<ScalarReading> tier0 = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.<Long>all()), 0, 0));
-        assertEquals(Arrays.asList(new ScalarReading(0, 0.0)), tier0);
-
-        List<ScalarReading> tier1 = ScalarReading.slurp(db.getScalarReadings("tag",
-                TimeRange.oldest(Range.<Long>all()), 1, 0));
-        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), tier1);
+        ScalarAggregates aggregates = db.getAggregates("tag",
+                TimeRange.oldest(Range.closed(0L, 10L)), 10, 0);
+        assertEquals(1, aggregates.size());
+        assertEquals(2, aggregates.getCount(0));
+        assertEquals(2.0, aggregates.getMean(0), 0.0);
     }
-
     @Test
-    public void testFirstTagAfter() {
+    public void testAggregatesChooseTier() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tagBefore", 0, 1, 1.0);
-        db.addScalarReading("tagAfter", 0, 3, 2.0);
-        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+        ScalarReadingBatch batch = new ScalarReadingBatch(1100);
+        for (int i = 0; i < 1000; i++) {
+            batch.add("tag", 0, i, i);
+            if (i % 10 == 0) {
+                batch.add("tag", 1, i, i);
+            }
+        }
+        db.addScalarReadings(batch);
+        TimeRange range = TimeRange.oldest(Range.closed(0L, 999L));
+
+        // 100 tier 1 readings are not enough for 100 buckets, but are for 10
+        assertEquals(0, db.getAggregates("tag", range, 10).getResolutionTier());
+        ScalarAggregates coarse = db.getAggregates("tag", range, 100);
+        assertEquals(1, coarse.getResolutionTier());
+        assertEquals(10, coarse.size());
+        assertEquals(900.0, coarse.getMin(9), 0.0);
+        assertEquals(990.0, coarse.getMax(9), 0.0);
     }
-
     @Test
-    public void testFirstTagAfterWithMultipleAfters() {
+    public void testScalarSummaryDistribution() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tagBefore", 0, 1, 1.0);
-        db.addScalarReading("tagAfter", 0, 3, 2.0);
-        db.addScalarReading("tagFurtherAfter", 0, 5, 3.0);
-        assertEquals("tagAfter", db.getFirstDatabaseTagAfter(2));
+        addSummarizedReadings(db, 0, 100, 10);
+
+        // Merged from the stored summaries, and from the readings at either end
+        ScalarSummary summary = db.getScalarSummary("tag",
+                TimeRange.oldest(Range.closed(5L, 94L)));
+        // The sample variance of 90 consecutive integers
+        assertEquals(90 * 91 / 12.0, summary.getVariance(), 1e-9);
+        assertEquals(49.5, summary.getQuantile(0.5), 0.5);
+        assertEquals(5.0, summary.getQuantile(0), 0.0);
+        assertEquals(94.0, summary.getQuantile(1), 0.0);
     }
-
     @Test
-    public void testDeleteReadings() {
+    public void testScalarSummaryUsesStoredSummaries() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 0, 0.0);
-        db.addScalarReading("tag", 0, 1, 1.0);
-        db.addScalarReading("tag", 0, 101, 2.0);
-        db.addScalarReading("tag", 0, 102, 2.0);
-        db.addScalarReading("tag", 0, 103, 2.0);
-        db.addScalarReading("tag2", 0, 0, 1.0);
-
-        assertEquals(2, db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
-
-        assertEquals(3, db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(101L, 103L)), 0, 0).size());
-
-        assertEquals(1, db.getScalarReadings("tag2",
-                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
-
-        // Delete first set of readings.
-        db.deleteScalarReadings("tag", TimeRange.newest(Range.closed(0L, 1L)));
-
-        assertEquals(0, db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
-
-        // Make sure other records for that tag are unaffected.
-        assertEquals(3, db.getScalarReadings("tag",
-                TimeRange.oldest(Range.closed(101L, 103L)), 0, 0).size());
+        addSummarizedReadings(db, 0, 30, 10);
+        // A stored summary that disagrees with the readings shows which was used
+        db.addScalarSummary("tag", new ScalarSummary(30, 39, -100, 100, 0, 1));
+        db.addScalarReading("tag", 0, 30, 30);
+
+        ScalarSummary summary = db.getScalarSummary("tag",
+                TimeRange.oldest(Range.closed(0L, 39L)));
+        assertEquals(-100.0, summary.getMin(), 0.0);
+        assertEquals(31, summary.getCount());
+
+        // Without a stored summary inside the range, the readings are read
+        summary = db.getScalarSummary("tag", TimeRange.oldest(Range.closed(31L, 38L)));
+        assertTrue(summary.isEmpty());
+    }
+    @Test
+    public void testMigrateFromV3() {
+        SQLiteDatabase v3 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        insertV3Reading(v3, "tag", 0, 1, 1.0);
+        insertV3Reading(v3, "tag", 0, 3, 3.0);
+        insertV3Reading(v3, "tag", 1, 3, 3.0);
+        insertV3Reading(v3, "other", 0, 5, 5.0);
+        v3.close();
 
-        // Make sure tag 2 is unaffected.
-        assertEquals(1, db.getScalarReadings("tag2",
-                TimeRange.oldest(Range.closed(0L, 1L)), 0, 0).size());
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, 2, 2.0);
 
+        // Unmigrated and new rows are both visible, in order
+        List<ScalarReading> expected = Arrays.asList(new ScalarReading(1, 1.0),
+                new ScalarReading(2, 2.0), new ScalarReading(3, 3.0));
+        assertEquals(expected, ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertEquals("other", db.getFirstDatabaseTagAfter(3));
+
+        int chunks = 0;
+        while (db.migrateIncrementally(2)) {
+            chunks++;
+            assertEquals(expected, ScalarReading.slurp(db.getScalarReadings("tag",
+                    TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        }
+        // Two chunks from the V3 table, then dropping it, then dropping the empty V4 table.
+        assertEquals(3, chunks);
+        assertFalse(db.migrateIncrementally(2));
+
+        assertEquals(expected, ScalarReading.slurp(db.getScalarReadings("tag",
+                TimeRange.oldest(Range.<Long>all()), 0, 0)));
+        assertEquals(Arrays.asList(new ScalarReading(3, 3.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 1, 0)));
+        assertEquals(Arrays.asList(new ScalarReading(5, 5.0)), ScalarReading.slurp(
+                db.getScalarReadings("other", TimeRange.oldest(Range.<Long>all()), 0, 0)));
     }
-
     @Test
-    public void testObservable_oneSensor() {
+    public void testMigrateFromV4() {
+        SQLiteDatabase v4 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        v4.execSQL("ALTER TABLE scalar_sensors RENAME TO scalar_sensors_v3;");
+        v4.execSQL("CREATE TABLE scalar_sensors (tag TEXT, timestampMillis INTEGER, value REAL,"
+                + "resolutionTier INTEGER DEFAULT 0);");
+        v4.setVersion(4);
+        insertV3Reading(v4, "tag", 0, 1, 1.0);
+        insertV3Reading(v4, "other", 0, 2, 2.0);
+        v4.close();
+
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 0, 0.0);
-        db.addScalarReading("tag", 0, 1, 1.5);
-        db.addScalarReading("tag", 0, 101, 2.0);
-        db.addScalarReading("tag", 0, 102, 2.0);
-        db.addScalarReading("tag", 0, 103, 2.0);
-        db.addScalarReading("tag2", 0, 0, 1.0);
+        db.addScalarReading("other", 0, 3, 3.0);
+        while (db.migrateIncrementally(1)) {
+            // keep migrating
+        }
 
         TestObserver<ScalarReading> testObserver = new TestObserver<>();
-        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag"},
-                TimeRange.oldest(Range.closed(0L, 1L)), 0);
-        obs.subscribe(testObserver);
+        db.createScalarObservable(new String[] {"tag", "other"},
+                TimeRange.oldest(Range.closed(0L, 3L)), 0).subscribe(testObserver);
         testObserver.assertNoErrors();
-        testObserver.assertValues(new ScalarReading(0, 0.0, "tag"),
-                new ScalarReading(1, 1.5, "tag"));
+        testObserver.assertValues(new ScalarReading(1, 1.0, "tag"),
+                new ScalarReading(2, 2.0, "other"), new ScalarReading(3, 3.0, "other"));
     }
-
     @Test
-    public void testObservable_multipleSensors() {
+    public void testObservableSharesTagStrings() {
         SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
-        db.addScalarReading("tag", 0, 0, 0.0);
-        db.addScalarReading("tag", 0, 3, 1.0);
-        db.addScalarReading("tag", 0, 101, 2.0);
-        db.addScalarReading("tag", 0, 102, 2.0);
-        db.addScalarReading("tag", 0, 103, 2.0);
-        db.addScalarReading("tag2", 0, 1, 3.0);
-        db.addScalarReading("tag2", 0, 2, 4.0);
+        db.addScalarReading("tag", 0, 1, 1.0);
+        db.addScalarReading("tag", 0, 2, 2.0);
 
-        TestObserver<ScalarReading> testObserver = new TestObserver<>();
-        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag", "tag2"},
-                TimeRange.oldest(Range.closed(0L, 3L)), 0);
-        obs.subscribe(testObserver);
-        testObserver.assertNoErrors();
-        testObserver.assertValues(new ScalarReading(0, 0.0, "tag"),
-                new ScalarReading(1, 3.0, "tag2"),
-                new ScalarReading(2, 4.0, "tag2"),
-                new ScalarReading(3, 1.0, "tag"));
+        List<ScalarReading> readings = db.createScalarObservable(new String[] {"tag"},
+                TimeRange.oldest(Range.closed(0L, 2L)), 0).toList().blockingGet();
+        assertEquals(2, readings.size());
+        assertSame(readings.get(0).getSensorTag(), readings.get(1).getSensorTag());
     }
-
     @Test
-    public void testObservable_paging() {
-        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+    public void testDeleteBeforeMigration() {
+        SQLiteDatabase v3 = createV3Database(getContext(), TEST_DATABASE_NAME);
+        insertV3Reading(v3, "tag", 0, 1, 1.0);
+        insertV3Reading(v3, "tag", 0, 2, 2.0);
+        v3.close();
 
-        int pageSize = 10;
-        int total = pageSize * 10;
-        List<ScalarReading> expected = Lists.newArrayList();
-        for (int index = 0; index < total; ++index) {
-            db.addScalarReading("tag", 0, index, 0.0);
-            expected.add(new ScalarReading(index, 0.0, "tag"));
+        SensorDatabaseImpl db = new SensorDatabaseImpl(getContext(), TEST_DATABASE_NAME);
+        db.addScalarReading("tag", 0, 3, 3.0);
+        db.deleteScalarReadings("tag", TimeRange.oldest(Range.closed(2L, 3L)));
+        while (db.migrateIncrementally(1)) {
+            // keep migrating
         }
+        assertEquals(Arrays.asList(new ScalarReading(1, 1.0)), ScalarReading.slurp(
+                db.getScalarReadings("tag", TimeRange.oldest(Range.<Long>all()), 0, 0)));
+    }
+    /**
+     * Creates a database with the schema used before readings were indexed by tag and tier.
+     */
+    static SQLiteDatabase createV3Database(Context context, String name) {
+        File path = context.getDatabasePath(name);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.execSQL("CREATE TABLE scalar_sensors (tag TEXT, timestampMillis INTEGER, value REAL,"
+                + "resolutionTier INTEGER DEFAULT 0);");
+        db.execSQL("CREATE INDEX timestamp ON scalar_sensors(timestampMillis);");
+        db.setVersion(3);
+        return db;
+    }
 
-        TestObserver<ScalarReading> testObserver = new TestObserver<>();
-        Observable<ScalarReading> obs = db.createScalarObservable(new String[] {"tag"},
-                TimeRange.oldest(Range.closed(0L, (long) total)), 0, pageSize);
-        obs.subscribe(testObserver);
-        testObserver.assertNoErrors();
-        testObserver.assertValueSequence(expected);
+    static void insertV3Reading(SQLiteDatabase db, String tag, int tier, long timestamp,
+            double value) {
+        ContentValues values = new ContentValues();
+        values.put("tag", tag);
+        values.put("resolutionTier", tier);
+        values.put("timestampMillis", timestamp);
+        values.put("value", value);
+        db.insert("scalar_sensors", null, values);
     }
 
     @Before
@@ -265,8 +368,4 @@ public class SensorDatabaseTest {
     public void tearDown() throws Exception {
         getContext().getDatabasePath(TEST_DATABASE_NAME).delete();
     }
-
-    private Context getContext() {
-        return RuntimeEnvironment.application.getApplicationContext();
-    }
 }
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AudioLevelWindowTest {
+    @Test
+    public void windowsSpanBuffers() {
+        // 10ms windows are 441 samples.  Two buffers of 300 fill one, with 159 left over.
+        AudioLevelWindow window = new AudioLevelWindow(10);
+        RecordingListener listener = new RecordingListener();
+        short[] samples = new short[300];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i % 2 == 0 ? 100 : -100);
+        }
+        samples[7] = -2000;
+        window.addSamples(samples, 300, 1000, listener);
+        assertEquals(0, listener.mTimestamps.size());
+
+        samples[7] = 100;
+        window.addSamples(samples, 300, 1007, listener);
+        assertEquals(1, listener.mTimestamps.size());
+        // The window ended at sample 140 of 300, 159 samples (about 4ms) before the last.
+        assertEquals(1003, (long) listener.mTimestamps.get(0));
+        assertEquals(2000, (int) listener.mPeaks.get(0));
+        double sumOfSquares = 440 * 100 * 100 + 2000 * 2000;
+        assertEquals(Math.sqrt(sumOfSquares / 441), listener.mRms.get(0), 0.001);
+    }
+
+    @Test
+    public void windowChangesAtNextWindow() {
+        AudioLevelWindow window = new AudioLevelWindow(10);
+        RecordingListener listener = new RecordingListener();
+        short[] samples = new short[441];
+        window.addSamples(samples, 200, 0, listener);
+        window.setWindowMillis(1);
+        window.addSamples(samples, 441, 0, listener);
+        // The first window still waits for 441 samples, then they are 44 each.
+        assertEquals(1 + (441 - 241) / 44, listener.mTimestamps.size());
+    }
+
+    private static class RecordingListener implements AudioLevelWindow.Listener {
+        final List<Long> mTimestamps = new ArrayList<>();
+        final List<Double> mRms = new ArrayList<>();
+        final List<Integer> mPeaks = new ArrayList<>();
+
+        @Override
+        public void onWindow(long timestampMillis, double rms, int peak) {
+            mTimestamps.add(timestampMillis);
+            mRms.add(rms);
+            mPeaks.add(peak);
+        }
+    }
+}
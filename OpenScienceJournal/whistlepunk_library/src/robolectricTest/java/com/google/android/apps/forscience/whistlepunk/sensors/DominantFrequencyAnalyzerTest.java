@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DominantFrequencyAnalyzerTest {
+    @Test
+    public void findsToneFrequency() {
+        assertEquals(440, analyze(440, 0), 2);
+        assertEquals(1000, analyze(1000, 0), 2);
+        assertEquals(3217, analyze(3217, 0), 2);
+    }
+
+    @Test
+    public void ignoresOffset() {
+        assertEquals(440, analyze(440, 5000), 2);
+    }
+
+    @Test
+    public void oneFrequencyPerHop() {
+        DominantFrequencyAnalyzer analyzer = new DominantFrequencyAnalyzer();
+        List<Double> frequencies = new ArrayList<>();
+        short[] samples = new short[441];
+        for (int i = 0; i < 10; i++) {
+            analyzer.addSamples(samples, samples.length, 0,
+                    (timestamp, frequency) -> frequencies.add(frequency));
+        }
+        // The first frame is full after 2048 samples, then one every 1024 after.
+        assertEquals(1 + (4410 - DominantFrequencyAnalyzer.FRAME_SIZE) / 1024,
+                frequencies.size());
+    }
+
+    private static double analyze(double frequencyHz, int offset) {
+        DominantFrequencyAnalyzer analyzer = new DominantFrequencyAnalyzer();
+        List<Double> frequencies = new ArrayList<>();
+        short[] samples = new short[441];
+        int position = 0;
+        for (int buffer = 0; buffer < 10; buffer++) {
+            for (int i = 0; i < samples.length; i++) {
+                double seconds = (double) position++ / AudioCaptureHub.SAMPLE_RATE_IN_HZ;
+                samples[i] =
+                        (short) (offset + 10000 * Math.sin(2 * Math.PI * frequencyHz * seconds));
+            }
+            analyzer.addSamples(samples, samples.length, 0,
+                    (timestamp, frequency) -> frequencies.add(frequency));
+        }
+        return frequencies.get(frequencies.size() - 1);
+    }
+}
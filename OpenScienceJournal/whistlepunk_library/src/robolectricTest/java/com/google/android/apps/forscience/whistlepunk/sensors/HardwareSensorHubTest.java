@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import com.google.android.apps.forscience.whistlepunk.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class HardwareSensorHubTest {
+    @Test
+    public void axesShareOneRegistration() {
+        RecordingHub hub = new RecordingHub();
+        CountingListener x = new CountingListener();
+        CountingListener y = new CountingListener();
+        CountingListener z = new CountingListener();
+        hub.subscribe(Sensor.TYPE_ACCELEROMETER, x, SensorManager.SENSOR_DELAY_UI);
+        hub.subscribe(Sensor.TYPE_ACCELEROMETER, y, SensorManager.SENSOR_DELAY_UI);
+        hub.subscribe(Sensor.TYPE_ACCELEROMETER, z, SensorManager.SENSOR_DELAY_UI);
+        assertEquals(1, hub.mRegistrationCount);
+        assertEquals(66667, (int) hub.mRegisteredPeriodsUs.get(Sensor.TYPE_ACCELEROMETER));
+
+        SensorEventListener source = hub.mRegistered.get(Sensor.TYPE_ACCELEROMETER);
+        source.onSensorChanged(null);
+        source.onSensorChanged(null);
+        assertEquals(2, x.mCount);
+        assertEquals(2, y.mCount);
+        assertEquals(2, z.mCount);
+
+        // Released only when the last axis stops observing.
+        hub.unsubscribe(x);
+        hub.unsubscribe(y);
+        assertEquals(1, hub.mRegistered.size());
+        source.onSensorChanged(null);
+        assertEquals(2, x.mCount);
+        assertEquals(3, z.mCount);
+        hub.unsubscribe(z);
+        assertTrue(hub.mRegistered.isEmpty());
+        assertEquals(1, hub.mRegistrationCount);
+    }
+
+    @Test
+    public void registersAtFastestSubscribedRate() {
+        RecordingHub hub = new RecordingHub();
+        CountingListener slow = new CountingListener();
+        CountingListener fast = new CountingListener();
+        hub.subscribe(Sensor.TYPE_MAGNETIC_FIELD, slow, SensorManager.SENSOR_DELAY_NORMAL);
+        hub.subscribe(Sensor.TYPE_MAGNETIC_FIELD, fast, 5000);
+        assertEquals(5000, (int) hub.mRegisteredPeriodsUs.get(Sensor.TYPE_MAGNETIC_FIELD));
+        assertEquals(2, hub.mRegistrationCount);
+
+        hub.unsubscribe(fast);
+        assertEquals(200000, (int) hub.mRegisteredPeriodsUs.get(Sensor.TYPE_MAGNETIC_FIELD));
+        assertEquals(3, hub.mRegistrationCount);
+    }
+
+    @Test
+    public void listenerCanSubscribeToSeveralTypes() {
+        RecordingHub hub = new RecordingHub();
+        CountingListener compass = new CountingListener();
+        CountingListener magnetometer = new CountingListener();
+        hub.subscribe(Sensor.TYPE_MAGNETIC_FIELD, compass, SensorManager.SENSOR_DELAY_UI);
+        hub.subscribe(Sensor.TYPE_ACCELEROMETER, compass, SensorManager.SENSOR_DELAY_UI);
+        hub.subscribe(Sensor.TYPE_MAGNETIC_FIELD, magnetometer, SensorManager.SENSOR_DELAY_UI);
+        assertEquals(2, hub.mRegistered.size());
+
+        hub.unsubscribe(compass);
+        assertEquals(1, hub.mRegistered.size());
+        hub.mRegistered.get(Sensor.TYPE_MAGNETIC_FIELD).onSensorChanged(null);
+        assertEquals(0, compass.mCount);
+        assertEquals(1, magnetometer.mCount);
+    }
+
+    private static class RecordingHub extends HardwareSensorHub {
+        final Map<Integer, SensorEventListener> mRegistered = new HashMap<>();
+        final Map<Integer, Integer> mRegisteredPeriodsUs = new HashMap<>();
+        int mRegistrationCount = 0;
+
+        RecordingHub() {
+            super(null);
+        }
+
+        @Override
+        void register(SensorEventListener listener, int sensorType, int periodUs) {
+            mRegistered.put(sensorType, listener);
+            mRegisteredPeriodsUs.put(sensorType, periodUs);
+            mRegistrationCount++;
+        }
+
+        @Override
+        void unregister(SensorEventListener listener) {
+            List<Integer> types = new ArrayList<>();
+            for (Map.Entry<Integer, SensorEventListener> entry : mRegistered.entrySet()) {
+                if (entry.getValue() == listener) {
+                    types.add(entry.getKey());
+                }
+            }
+            for (Integer type : types) {
+                mRegistered.remove(type);
+                mRegisteredPeriodsUs.remove(type);
+            }
+        }
+    }
+
+    private static class CountingListener implements SensorEventListener {
+        int mCount = 0;
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            mCount++;
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+        }
+    }
+}
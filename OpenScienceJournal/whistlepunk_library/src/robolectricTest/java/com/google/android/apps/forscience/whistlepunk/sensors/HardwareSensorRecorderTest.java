@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.android.apps.forscience.whistlepunk.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import android.hardware.SensorManager;
+
+import com.google.android.apps.forscience.whistlepunk.ReadableTransportableSensorOptions;
+import com.google.android.apps.forscience.whistlepunk.sensorapi.BlankReadableSensorOptions;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class HardwareSensorRecorderTest {
+    private static final long NOW_NANOS = 50_000_000_000L;
+    private static final long NOW_MILLIS = 1000;
+
+    @Test
+    public void batchedEventsKeepTheirSpacing() {
+        // Three events 20ms apart, delivered together 5ms after the last.
+        assertEquals(955, HardwareSensorRecorder.getEventTimeMillis(NOW_NANOS - 45_000_000,
+                NOW_NANOS, NOW_MILLIS));
+        assertEquals(975, HardwareSensorRecorder.getEventTimeMillis(NOW_NANOS - 25_000_000,
+                NOW_NANOS, NOW_MILLIS));
+        assertEquals(995, HardwareSensorRecorder.getEventTimeMillis(NOW_NANOS - 5_000_000,
+                NOW_NANOS, NOW_MILLIS));
+    }
+
+    @Test
+    public void eventsOnAnotherClockAreDeliveryTimed() {
+        assertEquals(NOW_MILLIS, HardwareSensorRecorder.getEventTimeMillis(NOW_NANOS + 1,
+                NOW_NANOS, NOW_MILLIS));
+        assertEquals(NOW_MILLIS, HardwareSensorRecorder.getEventTimeMillis(1, NOW_NANOS,
+                NOW_MILLIS));
+    }
+
+    @Test
+    public void samplingPeriodFromOptions() {
+        assertEquals(SensorManager.SENSOR_DELAY_UI, HardwareSensorRecorder.getSamplingPeriodUs(
+                new BlankReadableSensorOptions(), SensorManager.SENSOR_DELAY_UI));
+        assertEquals(SensorManager.SENSOR_DELAY_FASTEST,
+                HardwareSensorRecorder.getSamplingPeriodUs(
+                        options(String.valueOf(SensorManager.SENSOR_DELAY_FASTEST)),
+                        SensorManager.SENSOR_DELAY_UI));
+        assertEquals(2500, HardwareSensorRecorder.getSamplingPeriodUs(options("2500"),
+                SensorManager.SENSOR_DELAY_UI));
+        assertEquals(SensorManager.SENSOR_DELAY_NORMAL, HardwareSensorRecorder.getSamplingPeriodUs(
+                options("-5"), SensorManager.SENSOR_DELAY_NORMAL));
+    }
+
+    private static ReadableTransportableSensorOptions options(String samplingPeriodUs) {
+        Map<String, String> values = new HashMap<>();
+        values.put(HardwareSensorRecorder.PREFS_KEY_SAMPLING_PERIOD_US, samplingPeriodUs);
+        return new ReadableTransportableSensorOptions(values);
+    }
+}
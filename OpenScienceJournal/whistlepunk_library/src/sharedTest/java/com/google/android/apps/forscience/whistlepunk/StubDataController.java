@@ -24,13 +24,16 @@ import com.google.android.apps.forscience.whistlepunk.metadata.ExperimentSensors
 import com.google.android.apps.forscience.whistlepunk.metadata.ExternalSensorSpec;
 import com.google.android.apps.forscience.whistlepunk.metadata.GoosciUserMetadata;
 import com.google.android.apps.forscience.whistlepunk.metadata.MetaDataManager;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarAggregates;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReading;
 import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarReadingList;
+import com.google.android.apps.forscience.whistlepunk.sensordb.ScalarSummary;
 import com.google.android.apps.forscience.whistlepunk.sensordb.TimeRange;
 
 import java.util.List;
 import java.util.Map;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 
 /**
@@ -44,12 +47,49 @@ public class StubDataController implements DataController {
 
     }
 
+    @Override
+    public void getScalarReadings(String databaseTag, int resolutionTier, TimeRange timeRange,
+            int maxRecords, ReadPriority priority, MaybeConsumer<ScalarReadingList> onSuccess) {
+
+    }
+
+    @Override
+    public void getScalarSummary(String databaseTag, TimeRange timeRange, ReadPriority priority,
+            MaybeConsumer<ScalarSummary> onSuccess) {
+
+    }
+
+    @Override
+    public void getAggregates(String databaseTag, TimeRange timeRange, long bucketMillis,
+            int tierStrategy, ReadPriority priority, MaybeConsumer<ScalarAggregates> onSuccess) {
+
+    }
+
     @Override
     public Observable<ScalarReading> createScalarObservable(String[] sensorIds, TimeRange timeRange,
             int resolutionTier) {
         return null;
     }
 
+    @Override
+    public Flowable<ScalarReading> createScalarFlowable(String[] sensorIds, TimeRange timeRange,
+            int resolutionTier) {
+        return null;
+    }
+
+    @Override
+    public void importTrialData(TrialDataReader reader, long lastRowTimestamp,
+            TrialImporter.ProgressListener progressListener,
+            MaybeConsumer<TrialImporter> onSuccess) {
+
+    }
+
+    @Override
+    public void backfillZoomTiers(TierBackfiller backfiller, int maxRows,
+            MaybeConsumer<Boolean> onSuccess) {
+
+    }
+
     @Override
     public void deleteTrialData(Trial trial, MaybeConsumer<Success> onSuccess) {
 
@@ -61,8 +61,9 @@ public class ManualSensor extends ScalarSensor {
             String sensorId, long defaultGraphRange,
             int zoomLevelBetweenResolutionTiers, Executor uiThreadExecutor,
             boolean automaticallyConnectWhenObserving) {
-        super(sensorId, defaultGraphRange, uiThreadExecutor,
-                zoomLevelBetweenResolutionTiers, new UptimeClock());
+        // Tests of tier contents expect the min and max of each run of readings.
+        super(sensorId, defaultGraphRange, uiThreadExecutor, zoomLevelBetweenResolutionTiers,
+                ZoomRecorder.TIER_STRATEGY_MIN_MAX, new UptimeClock());
         mAutomaticallyConnectWhenObserving = automaticallyConnectWhenObserving;
     }
 
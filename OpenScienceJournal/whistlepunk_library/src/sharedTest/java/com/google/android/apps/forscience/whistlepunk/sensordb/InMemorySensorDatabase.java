@@ -20,11 +20,10 @@ import android.support.annotation.NonNull;
 
 import com.google.android.apps.forscience.whistlepunk.Clock;
 import com.google.android.apps.forscience.whistlepunk.DataControllerImpl;
+import com.google.android.apps.forscience.whistlepunk.MockScheduler;
 import com.google.android.apps.forscience.whistlepunk.SensorProvider;
 import com.google.android.apps.forscience.whistlepunk.RecordingDataController;
 import com.google.android.apps.forscience.whistlepunk.devicemanager.ConnectableSensor;
-import com.google.android.apps.forscience.whistlepunk.scalarchart.ChartData;
-import com.google.android.apps.forscience.whistlepunk.sensorapi.StreamConsumer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -33,11 +32,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 
 public class InMemorySensorDatabase implements SensorDatabase {
     private List<List<Reading>> mReadings = new ArrayList<>();
+    private List<ScalarSummary> mSummaries = new ArrayList<>();
 
     public static DataControllerImpl makeSimpleController() {
         return new InMemorySensorDatabase().makeSimpleController(new MemoryMetadataManager());
@@ -62,6 +64,45 @@ public class InMemorySensorDatabase implements SensorDatabase {
         return makeDataControllerImpl(memoryMetadataManager, new HashMap<>(), new MonotonicClock());
     }
 
+    /**
+     * Makes a controller that buffers {@code maxBatchedReadings} scalar readings before writing
+     * them to this database.
+     */
+    public RecordingDataController makeBatchingRecordingController(int maxBatchedReadings) {
+        return makeBatchingRecordingController(maxBatchedReadings, new MockScheduler(),
+                DataControllerImpl.DEFAULT_MAX_BATCH_DELAY_MILLIS);
+    }
+
+    /**
+     * Makes a controller that buffers {@code maxBatchedReadings} scalar readings, and writes them
+     * to this database once they are full or once {@code maxBatchDelayMillis} have passed on
+     * {@code scheduler}.
+     */
+    public RecordingDataController makeBatchingRecordingController(int maxBatchedReadings,
+            MockScheduler scheduler, long maxBatchDelayMillis) {
+        Map<String, SensorProvider> providerMap = new HashMap<>();
+        return new DataControllerImpl(this, MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), MoreExecutors.directExecutor(),
+                new MemoryMetadataManager(), scheduler.getClock(), providerMap,
+                new ConnectableSensor.Connector(providerMap), scheduler, maxBatchedReadings,
+                maxBatchDelayMillis);
+    }
+
+    /**
+     * Makes a controller that buffers {@code maxBatchedReadings} scalar readings, writes them on
+     * {@code sensorDataThread}, and reads at every priority on {@code readThread}.
+     */
+    public DataControllerImpl makeBatchingController(int maxBatchedReadings,
+            Executor sensorDataThread, Executor readThread) {
+        Map<String, SensorProvider> providerMap = new HashMap<>();
+        MockScheduler scheduler = new MockScheduler();
+        return new DataControllerImpl(this, MoreExecutors.directExecutor(),
+                MoreExecutors.directExecutor(), sensorDataThread, readThread, readThread,
+                new MemoryMetadataManager(), scheduler.getClock(), providerMap,
+                new ConnectableSensor.Connector(providerMap), scheduler, maxBatchedReadings,
+                DataControllerImpl.DEFAULT_MAX_BATCH_DELAY_MILLIS);
+    }
+
     @NonNull
     private DataControllerImpl makeDataControllerImpl(MemoryMetadataManager manager,
             Map<String, SensorProvider> providerMap, Clock clock) {
@@ -76,6 +117,20 @@ public class InMemorySensorDatabase implements SensorDatabase {
         getTierReadings(resolutionTier).add(new Reading(databaseTag, timestampMillis, value));
     }
 
+    @Override
+    public void addScalarReadings(ScalarReadingBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            addScalarReading(batch.getSensorTag(i), batch.getResolutionTier(i),
+                    batch.getTimestampMillis(i), batch.getValue(i));
+        }
+        for (int i = 0; i < batch.getSummaryCount(); i++) {
+            // The batch reuses its summaries, so keep a copy.
+            ScalarSummary summary = new ScalarSummary();
+            summary.add(batch.getSummary(i));
+            addScalarSummary(batch.getSummarySensorTag(i), summary);
+        }
+    }
+
     private List<Reading> getTierReadings(int resolutionTier) {
         while (resolutionTier >= mReadings.size()) {
             mReadings.add(new ArrayList<Reading>());
@@ -86,36 +141,65 @@ public class InMemorySensorDatabase implements SensorDatabase {
     @Override
     public ScalarReadingList getScalarReadings(String sensorTag, TimeRange range,
             int resolutionTier, int maxRecords) {
-        final List<ScalarReading> readingsToReturn = new ArrayList<>();
-        for (Reading reading : getReadings(resolutionTier)) {
+        List<Reading> tierReadings = getReadings(resolutionTier);
+        long[] timestamps = new long[tierReadings.size()];
+        double[] values = new double[tierReadings.size()];
+        int size = 0;
+        for (Reading reading : tierReadings) {
             if (range.getTimes().contains(reading.getTimestampMillis())) {
-                readingsToReturn.add(
-                        new ScalarReading(reading.getTimestampMillis(), reading.getValue()));
+                timestamps[size] = reading.getTimestampMillis();
+                values[size] = reading.getValue();
+                size++;
             }
         }
-        return new ScalarReadingList() {
-            @Override
-            public void deliver(StreamConsumer c) {
-                for (ScalarReading scalarReading : readingsToReturn) {
-                    c.addData(scalarReading.getCollectedTimeMillis(), scalarReading.getValue());
-                }
-            }
+        return new ArrayScalarReadingList(timestamps, values, size, null);
+    }
+
+    @Override
+    public ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis) {
+        return getAggregates(sensorTag, range, bucketMillis, 0);
+    }
 
-            @Override
-            public int size() {
-                return readingsToReturn.size();
+    /**
+     * Expects readings to have been added in timestamp order.
+     */
+    @Override
+    public ScalarAggregates getAggregates(String sensorTag, TimeRange range, long bucketMillis,
+            int resolutionTier) {
+        ScalarAggregates.Accumulator accumulator = new ScalarAggregates.Accumulator(
+                new ScalarAggregates(bucketMillis, resolutionTier, 0),
+                ScalarAggregates.getOrigin(range));
+        for (Reading reading : getReadings(resolutionTier)) {
+            if (reading.getDatabaseTag().equals(sensorTag)
+                    && range.getTimes().contains(reading.getTimestampMillis())) {
+                accumulator.add(reading.getTimestampMillis(), reading.getValue());
             }
+        }
+        return accumulator.finish();
+    }
 
-            @Override
-            public List<ChartData.DataPoint> asDataPoints() {
-                List<ChartData.DataPoint> result = new ArrayList<>();
-                for (ScalarReading scalarReading : readingsToReturn) {
-                    result.add(new ChartData.DataPoint(
-                            scalarReading.getCollectedTimeMillis(), scalarReading.getValue()));
-                }
-                return result;
+    @Override
+    public void addScalarSummary(String sensorTag, ScalarSummary summary) {
+        mSummaries.add(summary);
+    }
+
+    /**
+     * Summarizes the readings themselves, ignoring any stored summaries.
+     */
+    @Override
+    public ScalarSummary getScalarSummary(String sensorTag, TimeRange range) {
+        ScalarSummary summary = new ScalarSummary();
+        for (Reading reading : getReadings(0)) {
+            if (reading.getDatabaseTag().equals(sensorTag)
+                    && range.getTimes().contains(reading.getTimestampMillis())) {
+                summary.add(reading.getTimestampMillis(), reading.getValue());
             }
-        };
+        }
+        return summary;
+    }
+
+    public List<ScalarSummary> getStoredSummaries() {
+        return mSummaries;
     }
 
     @Override
@@ -136,12 +220,37 @@ public class InMemorySensorDatabase implements SensorDatabase {
         }
     }
 
+    @Override
+    public void deleteZoomTiers(String sensorTag, TimeRange range) {
+        for (int tier = 1; tier < mReadings.size(); tier++) {
+            List<Reading> readingList = mReadings.get(tier);
+            for (int index = readingList.size() - 1; index >= 0; --index) {
+                Reading reading = readingList.get(index);
+                if (reading.getDatabaseTag().equals(sensorTag)
+                        && range.getTimes().contains(reading.getTimestampMillis())) {
+                    readingList.remove(index);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean migrateIncrementally(int maxRows) {
+        return false;
+    }
+
     @Override
     public Observable<ScalarReading> createScalarObservable(String[] sensorTags, TimeRange range,
             int resolutionTier) {
         return null;
     }
 
+    @Override
+    public Flowable<ScalarReading> createScalarFlowable(String[] sensorTags, TimeRange range,
+            int resolutionTier) {
+        return null;
+    }
+
     public List<Reading> getReadings(int resolutionTier) {
         if (resolutionTier >= mReadings.size()) {
             return Collections.emptyList();